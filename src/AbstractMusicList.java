@@ -0,0 +1,205 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Skeleton for MusicList implementations whose storage is not made of linked Samples.  Subclasses
+ * provide the read side (counts and the multi-channel iterator) plus addSample and replaceContents.
+ * The editing operations are carried out on a MusicLinkedList copy, and the result is handed back
+ * to the subclass through replaceContents.
+ */
+public abstract class AbstractMusicList implements MusicList {
+
+	/**
+	 * Replace the contents of this list with the contents of an edited copy
+	 * @param edited The edited copy.  The subclass may keep a reference to it.
+	 */
+	protected abstract void replaceContents(MusicLinkedList edited);
+
+	/**
+	 * Returns the number of frames in the MusicList
+	 * @return The number of frames in the MusicList.
+	 */
+	public long getFrameCount() {
+		return getNumSamples();
+	}
+
+	/**
+	 * Returns The duration of the sound, in seconds.
+	 * @return  the duration of the sound, in seconds.
+	 */
+	public float getDuration() {
+		return (getNumSamples() - 1) / getSampleRate();
+	}
+
+	/**
+	 * Add an echo effect to the SoundList.
+	 * @param delay The time (in seconds) before the echo starts
+	 * @param percent The percent falloff of the echo
+	 */
+	public void addEcho(float delay, float percent) {
+		MusicLinkedList edit = editable();
+		edit.addEcho(delay, percent);
+		replaceContents(edit);
+	}
+
+	/**
+	 * Reverse the SoundList.
+	 */
+	public void reverse() {
+		MusicLinkedList edit = editable();
+		edit.reverse();
+		replaceContents(edit);
+	}
+
+	/**
+	 * Change the speed of the sound.
+	 * @param percentChange  How much to change the speed.  1.0 is no change
+	 */
+	public void changeSpeed(float percentChange) {
+		MusicLinkedList edit = editable();
+		edit.changeSpeed(percentChange);
+		replaceContents(edit);
+	}
+
+	/**
+	 * Transpose the sound, keeping its duration
+	 * @param semitones How far to transpose, in semitones
+	 */
+	public void changePitch(float semitones) {
+		MusicLinkedList edit = editable();
+		edit.changePitch(semitones);
+		replaceContents(edit);
+	}
+
+	/**
+	 * Change the sample rate of the SoundList, keeping the total time (and pitch) the same
+	 * @param newRate the new sampling rate
+	 */
+	public void changeSampleRate(float newRate) {
+		MusicLinkedList edit = editable();
+		edit.changeSampleRate(newRate);
+		replaceContents(edit);
+	}
+
+	/**
+	 * Return an iterator that traverses a single channel of the list
+	 * @param channel The channel to traverse
+	 * @return the iterator to traverse the list
+	 */
+	public Iterator<Float> iterator(int channel) {
+		if (channel < 0 || channel >= getNumChannels()) {
+			throw new IndexOutOfBoundsException("Cannot create iterator because channel " + channel + " does not exist");
+		}
+		final int selected = channel;
+		final Iterator<float[]> frames = iterator();
+		return new Iterator<Float>() {
+			@Override
+			public boolean hasNext() {
+				return frames.hasNext();
+			}
+
+			@Override
+			public Float next() {
+				if (!frames.hasNext()) {
+					throw new NoSuchElementException("There is no next element");
+				}
+				return frames.next()[selected];
+			}
+		};
+	}
+
+	/**
+	 * Trim the Soundlist, by removing all samples before the startTime, and all samples past the duration.
+	 * @param startTime Time to start (in seconds)
+	 * @param duration Duration (in seconds)
+	 */
+	public void clip(float startTime, float duration) {
+		MusicLinkedList edit = editable();
+		edit.clip(startTime, duration);
+		replaceContents(edit);
+	}
+
+	/**
+	 * Splice a new SoundList into this soundList.
+	 * @param startSpliceTime Time to start the splice
+	 * @param clipToSplice The other SoundClip to splice in.
+	 */
+	public void spliceIn(float startSpliceTime, MusicList clipToSplice) {
+		MusicLinkedList edit = editable();
+		edit.spliceIn(startSpliceTime, clipToSplice);
+		replaceContents(edit);
+	}
+
+	/**
+	 * Trim the SoundList to a range of frames.
+	 * @param startFrame First frame to keep
+	 * @param frameCount Number of frames to keep
+	 */
+	public void clipFrames(long startFrame, long frameCount) {
+		MusicLinkedList edit = editable();
+		edit.clipFrames(startFrame, frameCount);
+		replaceContents(edit);
+	}
+
+	/**
+	 * Splice another MusicList in so that its first frame becomes frame number frame.
+	 * @param frame Frame to insert before
+	 * @param clipToSplice The other MusicList to splice in
+	 */
+	public void spliceInAtFrame(long frame, MusicList clipToSplice) {
+		MusicLinkedList edit = editable();
+		edit.spliceInAtFrame(frame, clipToSplice);
+		replaceContents(edit);
+	}
+
+	/**
+	 * Combine all channels into a single channel, by adding together all channels into a single channel.
+	 * @param allowClipping Clip to -1 .. 1 if true, rescale the entire sample if false
+	 */
+	public void makeMono(boolean allowClipping) {
+		MusicLinkedList edit = editable();
+		edit.makeMono(allowClipping);
+		replaceContents(edit);
+	}
+
+	/**
+	 * Combines this SoundList with a new soundlist, by adding the samples together.
+	 * @param clipToCombine  The clip to combine with this clip
+	 * @param allowClipping Clip to -1 .. 1 if true, rescale the entire sample if false
+	 */
+	public void combine(MusicList clipToCombine, boolean allowClipping) {
+		MusicLinkedList edit = editable();
+		edit.combine(clipToCombine, allowClipping);
+		replaceContents(edit);
+	}
+
+	/**
+	 * Returns a clone of this SoundList.  The clone is always a MusicLinkedList.
+	 * @return The cloned SoundList
+	 */
+	public MusicList clone() {
+		return toLinkedList();
+	}
+
+	/**
+	 * Returns the MusicLinkedList that an editing operation should modify.  By default this is a fresh
+	 * copy; subclasses that already hold an editable list may return it instead.
+	 * @return the list to edit
+	 */
+	protected MusicLinkedList editable() {
+		return toLinkedList();
+	}
+
+	/**
+	 * Copy the contents of this list into a new MusicLinkedList
+	 * @return the copy
+	 */
+	protected MusicLinkedList toLinkedList() {
+		MusicLinkedList copy = new MusicLinkedList(getSampleRate(), getNumChannels());
+		Iterator<float[]> iterator = iterator();
+		while (iterator.hasNext()) {
+			copy.addSample(iterator.next());
+		}
+		return copy;
+	}
+}
@@ -0,0 +1,445 @@
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of scratch sample buffers, so block and planar processing can reuse the same memory instead of
+ * allocating fresh arrays for every call.
+ *
+ * Buffers come in power of two size classes from MIN_FLOATS to MAX_FLOATS floats; a request is rounded
+ * up to its class, so a buffer may be longer than asked for and callers must track their own frame
+ * counts.  Larger requests are allocated as asked and simply not kept on release.  Heap arrays are kept
+ * in two tiers: a small per-thread cache that needs no synchronization, backed by a shared tier that
+ * any thread can take from.  AudioCapture takes its ring of blocks from the heap tiers.  Direct
+ * (off-heap) FloatBuffers, for callers that hand samples to native code, are kept in the shared tier
+ * only; the built-in I/O paths do not use them, as javax.sound lines take byte arrays.
+ * The shared tier holds at most MAX_RETAINED_BYTES (or -Daudio.pool.maxBytes); anything released
+ * beyond that is left to the garbage collector.
+ *
+ *     float[] scratch = AudioBufferPool.acquire(frames);
+ *     try {
+ *         ...
+ *     } finally {
+ *         AudioBufferPool.release(scratch);
+ *     }
+ *
+ * In debug mode (setDebug(true) or -Daudio.pool.debug=true) every buffer handed out is tracked with the
+ * stack trace of its acquire.  Releasing a buffer twice, or one that did not come from the pool, throws,
+ * and a buffer that is garbage collected without being released is reported as a leak.
+ */
+public class AudioBufferPool {
+	public static final int MIN_FLOATS = 64;
+	public static final int MAX_FLOATS = 1 << 22;
+	public static final long MAX_RETAINED_BYTES = Long.getLong("audio.pool.maxBytes", 64L << 20);
+	private static final int MIN_SHIFT = 6;
+	private static final int MAX_SHIFT = 22;
+	// only classes up to this size are cached per thread, at most THREAD_CACHE_SIZE buffers each
+	private static final int THREAD_MAX_SHIFT = 16;
+	private static final int THREAD_CACHE_SIZE = 4;
+	private static final int MAX_LEAK_REPORTS = 16;
+
+	private static final ThreadLocal<float[][][]> threadCache = ThreadLocal.withInitial(() -> new float[THREAD_MAX_SHIFT + 1][THREAD_CACHE_SIZE][]);
+	private static final ConcurrentLinkedDeque<float[]>[] sharedArrays = newDeques();
+	private static final ConcurrentLinkedDeque<FloatBuffer>[] sharedDirect = newDeques();
+	private static final AtomicLong retainedBytes = new AtomicLong();
+
+	private static final LongAdder acquires = new LongAdder();
+	private static final LongAdder threadHits = new LongAdder();
+	private static final LongAdder sharedHits = new LongAdder();
+	private static final LongAdder releases = new LongAdder();
+	private static final LongAdder dropped = new LongAdder();
+	private static final LongAdder leaks = new LongAdder();
+
+	private static volatile boolean debug = Boolean.getBoolean("audio.pool.debug");
+	// debug tracking: outstanding buffers by identity hash, and the queue their references land on if collected
+	private static final Map<Integer, List<Tracked>> outstanding = new HashMap<Integer, List<Tracked>>();
+	private static final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+	private static final List<Throwable> leakReports = new ArrayList<Throwable>();
+
+	private AudioBufferPool() {
+	}
+
+	/**
+	 * Turn leak tracking on or off.  Only change it while no pooled buffers are in use: a buffer acquired
+	 * while tracking was off looks, when released with tracking on, like one that is not from the pool.
+	 * @param on true to track every buffer
+	 */
+	public static void setDebug(boolean on) {
+		debug = on;
+	}
+
+	/**
+	 * Returns whether leak tracking is on
+	 * @return true in debug mode
+	 */
+	public static boolean isDebug() {
+		return debug;
+	}
+
+	/**
+	 * Take a heap array of at least length floats.  Its contents are whatever the last user left.
+	 * @param length Number of floats needed
+	 * @return an array at least length long
+	 */
+	public static float[] acquire(int length) {
+		acquires.increment();
+		int shift = sizeClass(length);
+		float[] array = null;
+		if (shift <= THREAD_MAX_SHIFT) {
+			float[][] cache = threadCache.get()[shift];
+			for (int i = cache.length - 1; i >= 0 && array == null; i--) {
+				array = cache[i];
+				cache[i] = null;
+			}
+			if (array != null) {
+				threadHits.increment();
+			}
+		}
+		if (array == null && shift <= MAX_SHIFT) {
+			array = sharedArrays[shift].pollFirst();
+			if (array != null) {
+				retainedBytes.addAndGet(-4L * array.length);
+				sharedHits.increment();
+			}
+		}
+		if (array == null) {
+			array = new float[shift <= MAX_SHIFT ? 1 << shift : length];
+		}
+		if (debug) {
+			track(array);
+		}
+		return array;
+	}
+
+	/**
+	 * Take a zeroed heap array of at least length floats
+	 * @param length Number of floats needed
+	 * @return an array at least length long, all zero
+	 */
+	public static float[] acquireZeroed(int length) {
+		float[] array = acquire(length);
+		Arrays.fill(array, 0, length, 0);
+		return array;
+	}
+
+	/**
+	 * Take one array per channel, each at least frames long
+	 * @param numChannels Number of channels
+	 * @param frames Frames needed in each channel
+	 * @return planar arrays
+	 */
+	public static float[][] acquirePlanar(int numChannels, int frames) {
+		float[][] planar = new float[numChannels][];
+		for (int c = 0; c < numChannels; c++) {
+			planar[c] = acquire(frames);
+		}
+		return planar;
+	}
+
+	/**
+	 * Take a direct FloatBuffer in native byte order with room for at least length floats.  Its
+	 * position is 0 and its limit is length.
+	 * @param length Number of floats needed
+	 * @return the buffer
+	 */
+	public static FloatBuffer acquireDirect(int length) {
+		acquires.increment();
+		int shift = sizeClass(length);
+		FloatBuffer buffer = null;
+		if (shift <= MAX_SHIFT) {
+			buffer = sharedDirect[shift].pollFirst();
+			if (buffer != null) {
+				retainedBytes.addAndGet(-4L * buffer.capacity());
+				sharedHits.increment();
+			}
+		}
+		if (buffer == null) {
+			int capacity = shift <= MAX_SHIFT ? 1 << shift : length;
+			buffer = ByteBuffer.allocateDirect(4 * capacity).order(ByteOrder.nativeOrder()).asFloatBuffer();
+		}
+		buffer.clear();
+		buffer.limit(length);
+		if (debug) {
+			track(buffer);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Give an array back to the pool.  The caller must not use it afterwards.
+	 * @param array An array from acquire; null is ignored
+	 */
+	public static void release(float[] array) {
+		if (array == null) {
+			return;
+		}
+		if (debug) {
+			untrack(array);
+		}
+		releases.increment();
+		int shift = exactClass(array.length);
+		if (shift < 0) {
+			dropped.increment();
+			return;
+		}
+		if (shift <= THREAD_MAX_SHIFT) {
+			float[][] cache = threadCache.get()[shift];
+			for (int i = 0; i < cache.length; i++) {
+				if (cache[i] == null) {
+					cache[i] = array;
+					return;
+				}
+			}
+		}
+		if (reserve(array.length)) {
+			sharedArrays[shift].offerFirst(array);
+		} else {
+			dropped.increment();
+		}
+	}
+
+	/**
+	 * Give every array of a planar buffer back to the pool
+	 * @param planar Arrays from acquirePlanar (or any arrays from acquire)
+	 */
+	public static void release(float[][] planar) {
+		for (float[] channel : planar) {
+			release(channel);
+		}
+	}
+
+	/**
+	 * Give a direct buffer back to the pool.  The caller must not use it afterwards.
+	 * @param buffer A buffer from acquireDirect; null is ignored
+	 */
+	public static void release(FloatBuffer buffer) {
+		if (buffer == null) {
+			return;
+		}
+		if (debug) {
+			untrack(buffer);
+		}
+		releases.increment();
+		int shift = buffer.isDirect() ? exactClass(buffer.capacity()) : -1;
+		if (shift >= 0 && reserve(buffer.capacity())) {
+			sharedDirect[shift].offerFirst(buffer);
+		} else {
+			dropped.increment();
+		}
+	}
+
+	/**
+	 * Returns the fraction of acquires served from the pool rather than by allocating
+	 * @return hit rate, 0 .. 1 (0 before the first acquire)
+	 */
+	public static double getHitRate() {
+		long total = acquires.sum();
+		return total == 0 ? 0 : (double) (threadHits.sum() + sharedHits.sum()) / total;
+	}
+
+	/**
+	 * Returns the number of tracked buffers that have been acquired but not released.  Only buffers
+	 * acquired in debug mode are counted.
+	 * @return outstanding buffers
+	 */
+	public static int getOutstanding() {
+		pollCollected();
+		synchronized (outstanding) {
+			int count = 0;
+			for (List<Tracked> bucket : outstanding.values()) {
+				count += bucket.size();
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Returns where leaked buffers were acquired: one stack trace for each of the first few tracked
+	 * buffers that were garbage collected without being released
+	 * @return the acquire sites
+	 */
+	public static List<Throwable> getLeakReports() {
+		pollCollected();
+		synchronized (leakReports) {
+			return new ArrayList<Throwable>(leakReports);
+		}
+	}
+
+	/**
+	 * Returns all pool counters: pool.acquires, pool.threadHits, pool.sharedHits, pool.releases,
+	 * pool.dropped, pool.leaks and pool.retainedBytes
+	 * @return counter values by name, sorted by name
+	 */
+	public static Map<String, Long> snapshot() {
+		pollCollected();
+		Map<String, Long> values = new TreeMap<String, Long>();
+		values.put("pool.acquires", acquires.sum());
+		values.put("pool.threadHits", threadHits.sum());
+		values.put("pool.sharedHits", sharedHits.sum());
+		values.put("pool.releases", releases.sum());
+		values.put("pool.dropped", dropped.sum());
+		values.put("pool.leaks", leaks.sum());
+		values.put("pool.retainedBytes", retainedBytes.get());
+		return values;
+	}
+
+	/**
+	 * Empty the shared tier and this thread's cache, and set every counter to zero.  Tracking of
+	 * outstanding buffers is also forgotten.
+	 */
+	public static void reset() {
+		for (int shift = MIN_SHIFT; shift <= MAX_SHIFT; shift++) {
+			sharedArrays[shift].clear();
+			sharedDirect[shift].clear();
+		}
+		threadCache.remove();
+		retainedBytes.set(0);
+		acquires.reset();
+		threadHits.reset();
+		sharedHits.reset();
+		releases.reset();
+		dropped.reset();
+		leaks.reset();
+		synchronized (outstanding) {
+			for (List<Tracked> bucket : outstanding.values()) {
+				for (Tracked tracked : bucket) {
+					tracked.clear();
+				}
+			}
+			outstanding.clear();
+		}
+		synchronized (leakReports) {
+			leakReports.clear();
+		}
+	}
+
+	/**
+	 * Size class of a request: the smallest shift with 1 << shift >= length (MAX_SHIFT + 1 if too large)
+	 */
+	private static int sizeClass(int length) {
+		if (length > MAX_FLOATS) {
+			return MAX_SHIFT + 1;
+		}
+		int shift = 32 - Integer.numberOfLeadingZeros(Math.max(length, MIN_FLOATS) - 1);
+		return Math.max(shift, MIN_SHIFT);
+	}
+
+	/**
+	 * Size class of a buffer being released, or -1 if its length is not exactly one of the classes
+	 */
+	private static int exactClass(int length) {
+		if (length < MIN_FLOATS || length > MAX_FLOATS || Integer.bitCount(length) != 1) {
+			return -1;
+		}
+		return Integer.numberOfTrailingZeros(length);
+	}
+
+	private static boolean reserve(int floats) {
+		long bytes = 4L * floats;
+		long current;
+		do {
+			current = retainedBytes.get();
+			if (current + bytes > MAX_RETAINED_BYTES) {
+				return false;
+			}
+		} while (!retainedBytes.compareAndSet(current, current + bytes));
+		return true;
+	}
+
+	private static void track(Object buffer) {
+		pollCollected();
+		Tracked tracked = new Tracked(buffer, new Throwable("Buffer of " + describe(buffer) + " acquired here"));
+		synchronized (outstanding) {
+			List<Tracked> bucket = outstanding.get(tracked.hash);
+			if (bucket == null) {
+				bucket = new ArrayList<Tracked>(1);
+				outstanding.put(tracked.hash, bucket);
+			}
+			bucket.add(tracked);
+		}
+	}
+
+	private static void untrack(Object buffer) {
+		int hash = System.identityHashCode(buffer);
+		synchronized (outstanding) {
+			List<Tracked> bucket = outstanding.get(hash);
+			if (bucket != null) {
+				for (int i = 0; i < bucket.size(); i++) {
+					Tracked tracked = bucket.get(i);
+					if (tracked.get() == buffer) {
+						tracked.clear();
+						bucket.remove(i);
+						if (bucket.isEmpty()) {
+							outstanding.remove(hash);
+						}
+						return;
+					}
+				}
+			}
+		}
+		throw new IllegalStateException("Buffer of " + describe(buffer) + " was released twice or did not come from the pool");
+	}
+
+	/**
+	 * Record every tracked buffer the garbage collector has found unreachable as a leak
+	 */
+	private static void pollCollected() {
+		Tracked tracked;
+		while ((tracked = (Tracked) collected.poll()) != null) {
+			boolean leaked;
+			synchronized (outstanding) {
+				List<Tracked> bucket = outstanding.get(tracked.hash);
+				leaked = bucket != null && bucket.remove(tracked);
+				if (bucket != null && bucket.isEmpty()) {
+					outstanding.remove(tracked.hash);
+				}
+			}
+			if (leaked) {
+				leaks.increment();
+				synchronized (leakReports) {
+					if (leakReports.size() < MAX_LEAK_REPORTS) {
+						leakReports.add(tracked.origin);
+					}
+				}
+			}
+		}
+	}
+
+	private static String describe(Object buffer) {
+		return (buffer instanceof float[] ? ((float[]) buffer).length : ((FloatBuffer) buffer).capacity()) + " floats";
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static <T> ConcurrentLinkedDeque<T>[] newDeques() {
+		ConcurrentLinkedDeque<T>[] deques = new ConcurrentLinkedDeque[MAX_SHIFT + 1];
+		for (int shift = 0; shift <= MAX_SHIFT; shift++) {
+			deques[shift] = new ConcurrentLinkedDeque<T>();
+		}
+		return deques;
+	}
+
+	/**
+	 * Weak reference to an outstanding buffer, remembering where it was acquired
+	 */
+	private static class Tracked extends WeakReference<Object> {
+		final int hash;
+		final Throwable origin;
+
+		Tracked(Object buffer, Throwable origin) {
+			super(buffer, collected);
+			this.hash = System.identityHashCode(buffer);
+			this.origin = origin;
+		}
+	}
+}
@@ -0,0 +1,346 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.TargetDataLine;
+import javax.sound.sampled.AudioFormat.Encoding;
+
+/**
+ * Records from a TargetDataLine into a ConcurrentMusicList, optionally through an AudioProcessor.
+ *
+ * Two threads do the work.  The capture thread only reads the line, in blocks of blockFrames frames,
+ * and decodes each block into a free slot of a ring of planar blocks.  The delivery thread takes
+ * blocks from the ring in order, runs the processor over them and appends them to the list, where
+ * other threads can read them as they arrive.  The ring is taken from the AudioBufferPool up front,
+ * given back on close, and passed between the two threads through volatile counters, so neither
+ * allocates or takes a lock per block.
+ *
+ * If delivery falls so far behind that the ring is full, the capture thread drops the block it has
+ * just read rather than stop reading the line (which would lose audio inside the line instead, where
+ * it cannot be counted).  snapshot() reports dropped frames, line overruns and the latency from a
+ * block leaving the line to its being appended.
+ *
+ * The line can be any TargetDataLine, e.g. a SyntheticLine to record without sound hardware.  16 bit
+ * signed PCM in either byte order is supported.
+ */
+public class AudioCapture implements AutoCloseable {
+	public static final int DEFAULT_BLOCK_FRAMES = 1024;
+	public static final int DEFAULT_RING_BLOCKS = 32;
+
+	private final TargetDataLine line;
+	private final AudioFormat format;
+	private final int numChannels;
+	private final int blockFrames;
+	private final float[][][] ring;
+	private final int[] ringFrames;
+	private final long[] ringNanos;
+	private Thread captureThread;
+	private Thread deliveryThread;
+	private volatile boolean stopping;
+	private long frameLimit;
+	private volatile boolean captureEnded;
+	private boolean released;
+
+	// ring positions: written only by the capture thread and the delivery thread respectively
+	private volatile long written;
+	private volatile long delivered;
+
+	// written only by the capture thread
+	private volatile long framesCaptured;
+	private volatile long framesDropped;
+	private volatile long overruns;
+	private volatile long backlogMaxFrames;
+
+	// written only by the delivery thread
+	private volatile long framesDelivered;
+	private volatile long latencyNanosTotal;
+	private volatile long latencyNanosMax;
+
+	/**
+	 * Record from the default input line
+	 * @param sampleRate Sample rate, in samples per second
+	 * @param numChannels Number of channels
+	 * @return a capture, not yet started
+	 * @throws LineUnavailableException if no input line supports the format
+	 */
+	public static AudioCapture open(float sampleRate, int numChannels) throws LineUnavailableException {
+		AudioFormat format = new AudioFormat(sampleRate, 16, numChannels, true, true);
+		return new AudioCapture(AudioSystem.getTargetDataLine(format), format, DEFAULT_BLOCK_FRAMES, DEFAULT_RING_BLOCKS);
+	}
+
+	/**
+	 * Record from a given line
+	 * @param line The line, open or not; it is opened with format if it is not open
+	 * @param format The format to record in
+	 * @param blockFrames Frames per read from the line
+	 * @param ringBlocks Number of blocks the ring holds
+	 * @throws LineUnavailableException if the line cannot be opened
+	 */
+	public AudioCapture(TargetDataLine line, AudioFormat format, int blockFrames, int ringBlocks) throws LineUnavailableException {
+		if (format.getEncoding() != Encoding.PCM_SIGNED || format.getSampleSizeInBits() != 16) {
+			throw new IllegalArgumentException("Only 16 bit signed PCM can be captured, not " + format);
+		}
+		if (blockFrames <= 0 || ringBlocks <= 0) {
+			throw new IllegalArgumentException("blockFrames and ringBlocks must be positive");
+		}
+		this.line = line;
+		this.format = format;
+		this.numChannels = format.getChannels();
+		this.blockFrames = blockFrames;
+		this.ring = new float[ringBlocks][][];
+		for (int i = 0; i < ringBlocks; i++) {
+			ring[i] = AudioBufferPool.acquirePlanar(numChannels, blockFrames);
+		}
+		this.ringFrames = new int[ringBlocks];
+		this.ringNanos = new long[ringBlocks];
+		if (!line.isOpen()) {
+			// room for a whole ring's worth of audio in the line too
+			line.open(format, blockFrames * ringBlocks * format.getFrameSize());
+		}
+	}
+
+	/**
+	 * Start recording until close is called or the line ends
+	 * @param target The list to append to.  The delivery thread becomes its writer thread.
+	 * @param processor Processor to run over each block before it is appended, or null
+	 */
+	public void start(ConcurrentMusicList target, AudioProcessor processor) {
+		start(target, processor, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Start recording, and stop reading the line once maxFrames frames have been read.  join then
+	 * returns when they have all been delivered (less any dropped; see getFramesDropped).
+	 * @param target The list to append to.  The delivery thread becomes its writer thread.
+	 * @param processor Processor to run over each block before it is appended, or null
+	 * @param maxFrames Number of frames to record
+	 */
+	public synchronized void start(final ConcurrentMusicList target, final AudioProcessor processor, long maxFrames) {
+		if (captureThread != null) {
+			throw new IllegalStateException("AudioCapture has already been started");
+		}
+		if (target.getNumChannels() != numChannels || target.getSampleRate() != format.getSampleRate()) {
+			throw new IllegalArgumentException("Target list does not match the capture format " + format);
+		}
+		frameLimit = maxFrames;
+		captureThread = new Thread(new Runnable() {
+			public void run() {
+				capture();
+			}
+		}, "audio-capture");
+		deliveryThread = new Thread(new Runnable() {
+			public void run() {
+				deliver(target, processor);
+			}
+		}, "audio-capture-delivery");
+		captureThread.setDaemon(true);
+		deliveryThread.setDaemon(true);
+		// the capture thread must keep up with the hardware
+		captureThread.setPriority(Thread.MAX_PRIORITY);
+		line.start();
+		deliveryThread.start();
+		captureThread.start();
+	}
+
+	/**
+	 * Wait for the recording to end by itself, e.g. when a SyntheticLine runs out of audio
+	 * @param timeoutMillis Longest time to wait, in milliseconds
+	 * @return true if every captured block has been delivered
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean join(long timeoutMillis) throws InterruptedException {
+		Thread delivery;
+		synchronized (this) {
+			delivery = deliveryThread;
+		}
+		if (delivery == null) {
+			return true;
+		}
+		delivery.join(timeoutMillis);
+		return !delivery.isAlive();
+	}
+
+	/**
+	 * Stop recording, deliver the blocks already read, close the line and give the ring back to the
+	 * AudioBufferPool.  An interrupt does not cut the wait for the threads short; the thread's interrupt
+	 * status is set again on return.
+	 */
+	public void close() {
+		boolean interrupted = false;
+		Thread capture;
+		Thread delivery;
+		synchronized (this) {
+			stopping = true;
+			capture = captureThread;
+			delivery = deliveryThread;
+		}
+		// a stopped line returns from a blocked read
+		line.stop();
+		if (capture != null) {
+			interrupted |= joinUninterruptibly(capture);
+			interrupted |= joinUninterruptibly(delivery);
+		}
+		line.close();
+		synchronized (this) {
+			if (!released) {
+				released = true;
+				for (float[][] block : ring) {
+					AudioBufferPool.release(block);
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Wait for a thread to finish, carrying on through interrupts
+	 * @return true if the wait was interrupted
+	 */
+	private static boolean joinUninterruptibly(Thread thread) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				thread.join();
+				return interrupted;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of frames read from the line
+	 * @return frames captured
+	 */
+	public long getFramesCaptured() {
+		return framesCaptured;
+	}
+
+	/**
+	 * Returns the number of frames appended to the target list
+	 * @return frames delivered
+	 */
+	public long getFramesDelivered() {
+		return framesDelivered;
+	}
+
+	/**
+	 * Returns the number of frames read from the line but dropped because the ring was full
+	 * @return frames dropped
+	 */
+	public long getFramesDropped() {
+		return framesDropped;
+	}
+
+	/**
+	 * Returns the capture's counters: frames captured, delivered and dropped; line overruns (reads that
+	 * found the line's buffer full, so the line itself may have lost audio); the most frames waiting in
+	 * the line before a read; and the mean and longest time from a block leaving the line to its being
+	 * appended, in nanoseconds
+	 * @return values by name, sorted by name
+	 */
+	public Map<String, Double> snapshot() {
+		long blocks = delivered;
+		Map<String, Double> values = new TreeMap<String, Double>();
+		values.put("capture.framesCaptured", (double) framesCaptured);
+		values.put("capture.framesDelivered", (double) framesDelivered);
+		values.put("capture.framesDropped", (double) framesDropped);
+		values.put("capture.overruns", (double) overruns);
+		values.put("capture.backlogMaxFrames", (double) backlogMaxFrames);
+		values.put("capture.latencyNanosMean", blocks == 0 ? 0 : (double) latencyNanosTotal / blocks);
+		values.put("capture.latencyNanosMax", (double) latencyNanosMax);
+		return values;
+	}
+
+	/**
+	 * Capture thread: read blocks from the line into the ring until the line stops or close is called
+	 */
+	private void capture() {
+		AudioMetrics.Timer timer = AudioMetrics.startIO("capture");
+		int frameSize = format.getFrameSize();
+		boolean bigEndian = format.isBigEndian();
+		byte[] bytes = new byte[blockFrames * frameSize];
+		long bytesRead = 0;
+		try {
+			while (!stopping && framesCaptured < frameLimit) {
+				int waiting = line.available();
+				if (waiting >= line.getBufferSize()) {
+					overruns++;
+				}
+				backlogMaxFrames = Math.max(backlogMaxFrames, waiting / frameSize);
+				int count = line.read(bytes, 0, bytes.length);
+				int frames = (int) Math.min(count / frameSize, frameLimit - framesCaptured);
+				if (frames == 0) {
+					if (!line.isRunning()) {
+						return;
+					}
+					continue;
+				}
+				bytesRead += frames * frameSize;
+				framesCaptured += frames;
+				if (written - delivered == ring.length) {
+					framesDropped += frames;
+					AudioMetrics.count("capture.dropped", frames);
+					continue;
+				}
+				int slot = (int) (written % ring.length);
+				decode(bytes, frames, bigEndian, ring[slot]);
+				ringFrames[slot] = frames;
+				ringNanos[slot] = System.nanoTime();
+				written++;
+				LockSupport.unpark(deliveryThread);
+			}
+		} finally {
+			captureEnded = true;
+			LockSupport.unpark(deliveryThread);
+			timer.stop(framesCaptured, numChannels, bytesRead, overruns);
+		}
+	}
+
+	/**
+	 * Delivery thread: move blocks from the ring to the target until capture has ended and the ring is empty
+	 */
+	private void deliver(ConcurrentMusicList target, AudioProcessor processor) {
+		while (true) {
+			if (delivered == written) {
+				if (captureEnded && delivered == written) {
+					return;
+				}
+				LockSupport.parkNanos(this, 1000000);
+				continue;
+			}
+			int slot = (int) (delivered % ring.length);
+			int frames = ringFrames[slot];
+			if (processor != null) {
+				processor.process(ring[slot], frames);
+			}
+			target.addSamples(ring[slot], 0, frames);
+			long latency = System.nanoTime() - ringNanos[slot];
+			latencyNanosTotal += latency;
+			latencyNanosMax = Math.max(latencyNanosMax, latency);
+			framesDelivered += frames;
+			delivered++;
+		}
+	}
+
+	/**
+	 * Decode 16 bit signed PCM frames into planar floats, scaled as SoundUtil.readWAVFile scales them
+	 */
+	private void decode(byte[] bytes, int frames, boolean bigEndian, float[][] block) {
+		int high = bigEndian ? 0 : 1;
+		int low = 1 - high;
+		int index = 0;
+		for (int i = 0; i < frames; i++) {
+			for (int c = 0; c < numChannels; c++) {
+				int value = (bytes[index + high] << 8) | (bytes[index + low] & 0xFF);
+				block[c][i] = value / (float) 0x7FFF;
+				index += 2;
+			}
+		}
+	}
+}
@@ -0,0 +1,36 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for one audio I/O call, e.g. SoundUtil.readWAVFile or SoundUtil.play.  Emitted
+ * by AudioMetrics while a recording has it enabled.
+ */
+@Name("audio.IO")
+@Label("Audio I/O")
+@Category("Audio")
+@Description("Reading, writing or playing audio")
+public class AudioIOEvent extends Event {
+	@Label("Call")
+	public String call;
+
+	@Label("Frames")
+	public long frames;
+
+	@Label("Channels")
+	public int channels;
+
+	@Label("Bytes")
+	@DataAmount
+	public long bytes;
+
+	@Label("Underruns")
+	public long underruns;
+
+	@Label("Allocated")
+	@DataAmount
+	public long allocated;
+}
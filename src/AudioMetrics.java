@@ -0,0 +1,259 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+
+/**
+ * In-process counters and Flight Recorder events for MusicList operations and audio I/O.
+ *
+ * Instrumented code brackets its work with a Timer:
+ *
+ *     AudioMetrics.Timer timer = AudioMetrics.startOperation("combine");
+ *     ...
+ *     timer.stop(numSamples, numChannels);
+ *
+ * Counters and events are switched on separately.  Counters are on while setEnabled(true) is in effect
+ * or the JVM was started with -Daudio.metrics=true; every stop then adds to NAME.calls, NAME.frames,
+ * NAME.nanos and NAME.allocatedBytes (plus NAME.bytes and NAME.underruns for I/O).  An
+ * AudioOperationEvent or AudioIOEvent is committed whenever a Flight Recorder recording has that event
+ * enabled, whatever the flag; which events are wanted is looked up again each time a recording starts
+ * or stops.  While neither is on, startOperation and startIO return a shared Timer that does nothing,
+ * so the cost is two volatile reads.
+ */
+public class AudioMetrics {
+	private static final Timer DISABLED = new Timer(null, false, false, false);
+	private static final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<String, LongAdder>();
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private static volatile boolean enabled = Boolean.getBoolean("audio.metrics");
+	// whether a running recording wants each event
+	private static volatile boolean operationEvents;
+	private static volatile boolean ioEvents;
+
+	static {
+		FlightRecorder.addListener(new FlightRecorderListener() {
+			@Override
+			public void recordingStateChanged(Recording recording) {
+				refreshEvents();
+			}
+		});
+		refreshEvents();
+	}
+
+	private AudioMetrics() {
+	}
+
+	/**
+	 * Turn the counters on or off.  Flight Recorder events follow the recordings instead.
+	 * @param on true to record counters
+	 */
+	public static void setEnabled(boolean on) {
+		enabled = on;
+	}
+
+	/**
+	 * Returns whether counters are being recorded
+	 * @return true if enabled
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Start timing a MusicList operation
+	 * @param operation Name of the operation, e.g. "combine"
+	 * @return a timer to stop when the operation finishes
+	 */
+	public static Timer startOperation(String operation) {
+		boolean events = operationEvents;
+		return enabled || events ? new Timer(operation, false, enabled, events) : DISABLED;
+	}
+
+	/**
+	 * Start timing an I/O call
+	 * @param call Name of the call, e.g. "readWAVFile"
+	 * @return a timer to stop when the call finishes
+	 */
+	public static Timer startIO(String call) {
+		boolean events = ioEvents;
+		return enabled || events ? new Timer(call, true, enabled, events) : DISABLED;
+	}
+
+	/**
+	 * Add to a counter, if metrics are enabled
+	 * @param name The counter
+	 * @param amount The amount to add
+	 */
+	public static void count(String name, long amount) {
+		if (enabled) {
+			add(name, amount);
+		}
+	}
+
+	/**
+	 * Returns the current value of a counter
+	 * @param name The counter
+	 * @return its value, 0 if it has never been counted
+	 */
+	public static long get(String name) {
+		LongAdder counter = counters.get(name);
+		return counter == null ? 0 : counter.sum();
+	}
+
+	/**
+	 * Returns every counter, sorted by name
+	 * @return counter values
+	 */
+	public static Map<String, Long> snapshot() {
+		Map<String, Long> values = new TreeMap<String, Long>();
+		for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+			values.put(entry.getKey(), entry.getValue().sum());
+		}
+		return values;
+	}
+
+	/**
+	 * Returns every counter in the Prometheus text exposition format, for scraping
+	 * @return one "audio_NAME VALUE" line per counter
+	 */
+	public static String toPrometheusText() {
+		StringBuilder text = new StringBuilder();
+		for (Map.Entry<String, Long> entry : snapshot().entrySet()) {
+			text.append("audio_").append(entry.getKey().replaceAll("[^A-Za-z0-9_]", "_"));
+			text.append(' ').append(entry.getValue()).append('\n');
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Reset every counter to zero
+	 */
+	public static void reset() {
+		counters.clear();
+	}
+
+	private static void add(String name, long amount) {
+		LongAdder counter = counters.get(name);
+		if (counter == null) {
+			counter = counters.computeIfAbsent(name, key -> new LongAdder());
+		}
+		counter.add(amount);
+	}
+
+	private static void refreshEvents() {
+		operationEvents = new AudioOperationEvent().isEnabled();
+		ioEvents = new AudioIOEvent().isEnabled();
+	}
+
+	private static long allocatedBytes() {
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+
+	/**
+	 * Times one operation or I/O call.  Not thread safe; stop it on the thread that started it.
+	 */
+	public static class Timer {
+		private final String name;
+		private final boolean io;
+		private final boolean counting;
+		private final long startNanos;
+		private final long startAllocated;
+		private final AudioOperationEvent operationEvent;
+		private final AudioIOEvent ioEvent;
+
+		private Timer(String name, boolean io, boolean counting, boolean events) {
+			this.name = name;
+			this.io = io;
+			this.counting = counting;
+			if (name == null) {
+				this.startNanos = 0;
+				this.startAllocated = 0;
+				this.operationEvent = null;
+				this.ioEvent = null;
+				return;
+			}
+			this.startAllocated = allocatedBytes();
+			this.ioEvent = events && io ? new AudioIOEvent() : null;
+			this.operationEvent = events && !io ? new AudioOperationEvent() : null;
+			if (ioEvent != null) {
+				ioEvent.begin();
+			}
+			if (operationEvent != null) {
+				operationEvent.begin();
+			}
+			this.startNanos = System.nanoTime();
+		}
+
+		/**
+		 * Returns whether this timer records anything, so callers can skip measuring what only it would use
+		 * @return false for the shared Timer returned while counters and events are both off
+		 */
+		public boolean isActive() {
+			return name != null;
+		}
+
+		/**
+		 * Finish timing an operation
+		 * @param frames Frames processed
+		 * @param channels Channels processed
+		 */
+		public void stop(long frames, int channels) {
+			stop(frames, channels, 0, 0);
+		}
+
+		/**
+		 * Finish timing an I/O call
+		 * @param frames Frames read, written or played
+		 * @param channels Number of channels
+		 * @param bytes Bytes decoded or encoded
+		 * @param underruns Times the line could not keep up: playback underruns, or capture overruns
+		 */
+		public void stop(long frames, int channels, long bytes, long underruns) {
+			if (name == null) {
+				return;
+			}
+			long nanos = System.nanoTime() - startNanos;
+			long allocated = Math.max(0, allocatedBytes() - startAllocated);
+			if (counting) {
+				add(name + ".calls", 1);
+				add(name + ".frames", frames);
+				add(name + ".nanos", nanos);
+				add(name + ".allocatedBytes", allocated);
+				if (io) {
+					add(name + ".bytes", bytes);
+					add(name + ".underruns", underruns);
+				}
+			}
+			if (ioEvent != null) {
+				ioEvent.end();
+				if (ioEvent.shouldCommit()) {
+					ioEvent.call = name;
+					ioEvent.frames = frames;
+					ioEvent.channels = channels;
+					ioEvent.bytes = bytes;
+					ioEvent.underruns = underruns;
+					ioEvent.allocated = allocated;
+					ioEvent.commit();
+				}
+			}
+			if (operationEvent != null) {
+				operationEvent.end();
+				if (operationEvent.shouldCommit()) {
+					operationEvent.operation = name;
+					operationEvent.frames = frames;
+					operationEvent.channels = channels;
+					operationEvent.allocated = allocated;
+					operationEvent.commit();
+				}
+			}
+		}
+	}
+}
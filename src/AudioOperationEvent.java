@@ -0,0 +1,29 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for one MusicList operation, e.g. a MusicLinkedList.combine call.  Emitted by
+ * AudioMetrics while a recording has it enabled.
+ */
+@Name("audio.Operation")
+@Label("Audio Operation")
+@Category("Audio")
+@Description("A MusicList operation")
+public class AudioOperationEvent extends Event {
+	@Label("Operation")
+	public String operation;
+
+	@Label("Frames")
+	public long frames;
+
+	@Label("Channels")
+	public int channels;
+
+	@Label("Allocated")
+	@DataAmount
+	public long allocated;
+}
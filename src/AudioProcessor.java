@@ -0,0 +1,26 @@
+/**
+ * A streaming stage that processes audio one block at a time.  Blocks are planar: one float array per
+ * channel.  A processor keeps whatever state it needs between blocks, so a long MusicList can be run
+ * through it in pieces (see ProcessorChain.render).
+ */
+public interface AudioProcessor {
+
+	/**
+	 * Process a block in place
+	 * @param block One array per channel; the first frames entries of each are processed
+	 * @param frames Number of frames in the block
+	 */
+	public void process(float[][] block, int frames);
+
+	/**
+	 * Returns how many frames the output lags behind the input.  Zero for most processors; look-ahead
+	 * processors delay their output by their look-ahead.
+	 * @return latency in frames
+	 */
+	public int getLatency();
+
+	/**
+	 * Forget all state, as if no audio had been processed
+	 */
+	public void reset();
+}
@@ -0,0 +1,207 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coefficients of one second order IIR filter section, normalized so a0 is 1:
+ *
+ *     y[n] = b0 x[n] + b1 x[n-1] + b2 x[n-2] - a1 y[n-1] - a2 y[n-2]
+ *
+ * The factory methods design the usual equalizer shapes from the RBJ Audio EQ Cookbook.  A Biquad is
+ * immutable and holds no filter state (BiquadCascade does), so designs are cached and shared: asking
+ * twice for the same filter returns the same object without recomputing it.
+ */
+public class Biquad {
+	private static final ConcurrentHashMap<String, Biquad> designs = new ConcurrentHashMap<String, Biquad>();
+
+	final double b0;
+	final double b1;
+	final double b2;
+	final double a1;
+	final double a2;
+
+	/**
+	 * Create a section from normalized coefficients
+	 * @param b0 Feed forward coefficient for x[n]
+	 * @param b1 Feed forward coefficient for x[n-1]
+	 * @param b2 Feed forward coefficient for x[n-2]
+	 * @param a1 Feedback coefficient for y[n-1]
+	 * @param a2 Feedback coefficient for y[n-2]
+	 */
+	public Biquad(double b0, double b1, double b2, double a1, double a2) {
+		this.b0 = b0;
+		this.b1 = b1;
+		this.b2 = b2;
+		this.a1 = a1;
+		this.a2 = a2;
+	}
+
+	/**
+	 * Second order low pass
+	 * @param sampleRate Sample rate of the audio
+	 * @param frequency Cutoff frequency in Hz
+	 * @param q Quality factor; 0.7071 gives a Butterworth response
+	 * @return the section
+	 */
+	public static Biquad lowPass(float sampleRate, double frequency, double q) {
+		return design("lowPass", sampleRate, frequency, q, 0);
+	}
+
+	/**
+	 * Second order high pass
+	 * @param sampleRate Sample rate of the audio
+	 * @param frequency Cutoff frequency in Hz
+	 * @param q Quality factor; 0.7071 gives a Butterworth response
+	 * @return the section
+	 */
+	public static Biquad highPass(float sampleRate, double frequency, double q) {
+		return design("highPass", sampleRate, frequency, q, 0);
+	}
+
+	/**
+	 * Band pass with 0 dB gain at the centre frequency
+	 * @param sampleRate Sample rate of the audio
+	 * @param frequency Centre frequency in Hz
+	 * @param q Quality factor; higher is narrower
+	 * @return the section
+	 */
+	public static Biquad bandPass(float sampleRate, double frequency, double q) {
+		return design("bandPass", sampleRate, frequency, q, 0);
+	}
+
+	/**
+	 * Notch (band stop)
+	 * @param sampleRate Sample rate of the audio
+	 * @param frequency Frequency to remove, in Hz
+	 * @param q Quality factor; higher is narrower
+	 * @return the section
+	 */
+	public static Biquad notch(float sampleRate, double frequency, double q) {
+		return design("notch", sampleRate, frequency, q, 0);
+	}
+
+	/**
+	 * Peaking equalizer band
+	 * @param sampleRate Sample rate of the audio
+	 * @param frequency Centre frequency in Hz
+	 * @param q Quality factor; higher is narrower
+	 * @param gainDb Boost (positive) or cut (negative) at the centre frequency
+	 * @return the section
+	 */
+	public static Biquad peaking(float sampleRate, double frequency, double q, double gainDb) {
+		return design("peaking", sampleRate, frequency, q, gainDb);
+	}
+
+	/**
+	 * Low shelf
+	 * @param sampleRate Sample rate of the audio
+	 * @param frequency Shelf midpoint frequency in Hz
+	 * @param q Quality factor; 0.7071 gives the steepest shelf without overshoot
+	 * @param gainDb Gain below the shelf
+	 * @return the section
+	 */
+	public static Biquad lowShelf(float sampleRate, double frequency, double q, double gainDb) {
+		return design("lowShelf", sampleRate, frequency, q, gainDb);
+	}
+
+	/**
+	 * High shelf
+	 * @param sampleRate Sample rate of the audio
+	 * @param frequency Shelf midpoint frequency in Hz
+	 * @param q Quality factor; 0.7071 gives the steepest shelf without overshoot
+	 * @param gainDb Gain above the shelf
+	 * @return the section
+	 */
+	public static Biquad highShelf(float sampleRate, double frequency, double q, double gainDb) {
+		return design("highShelf", sampleRate, frequency, q, gainDb);
+	}
+
+	/**
+	 * Returns the gain of this section for a sine wave
+	 * @param frequency Frequency of the sine, in Hz
+	 * @param sampleRate Sample rate of the audio
+	 * @return linear gain (1 is unchanged)
+	 */
+	public double getGain(double frequency, float sampleRate) {
+		double w = 2 * Math.PI * frequency / sampleRate;
+		// evaluate b(z) / a(z) at z = e^(jw)
+		double numeratorRe = b0 + b1 * Math.cos(w) + b2 * Math.cos(2 * w);
+		double numeratorIm = -b1 * Math.sin(w) - b2 * Math.sin(2 * w);
+		double denominatorRe = 1 + a1 * Math.cos(w) + a2 * Math.cos(2 * w);
+		double denominatorIm = -a1 * Math.sin(w) - a2 * Math.sin(2 * w);
+		return Math.sqrt((numeratorRe * numeratorRe + numeratorIm * numeratorIm)
+				/ (denominatorRe * denominatorRe + denominatorIm * denominatorIm));
+	}
+
+	private static Biquad design(final String type, final float sampleRate, final double frequency, final double q, final double gainDb) {
+		String key = type + "/" + sampleRate + "/" + frequency + "/" + q + "/" + gainDb;
+		Biquad biquad = designs.get(key);
+		if (biquad == null) {
+			biquad = designs.computeIfAbsent(key, k -> compute(type, sampleRate, frequency, q, gainDb));
+		}
+		return biquad;
+	}
+
+	private static Biquad compute(String type, float sampleRate, double frequency, double q, double gainDb) {
+		if (frequency <= 0 || frequency >= sampleRate / 2 || q <= 0) {
+			throw new IllegalArgumentException("Filter frequency must be between 0 and " + sampleRate / 2 + " Hz, and q positive");
+		}
+		double w = 2 * Math.PI * frequency / sampleRate;
+		double cos = Math.cos(w);
+		double alpha = Math.sin(w) / (2 * q);
+		double a = Math.pow(10, gainDb / 40);
+		double b0, b1, b2, a0, a1, a2;
+		if (type.equals("lowPass")) {
+			b0 = (1 - cos) / 2;
+			b1 = 1 - cos;
+			b2 = (1 - cos) / 2;
+			a0 = 1 + alpha;
+			a1 = -2 * cos;
+			a2 = 1 - alpha;
+		} else if (type.equals("highPass")) {
+			b0 = (1 + cos) / 2;
+			b1 = -(1 + cos);
+			b2 = (1 + cos) / 2;
+			a0 = 1 + alpha;
+			a1 = -2 * cos;
+			a2 = 1 - alpha;
+		} else if (type.equals("bandPass")) {
+			b0 = alpha;
+			b1 = 0;
+			b2 = -alpha;
+			a0 = 1 + alpha;
+			a1 = -2 * cos;
+			a2 = 1 - alpha;
+		} else if (type.equals("notch")) {
+			b0 = 1;
+			b1 = -2 * cos;
+			b2 = 1;
+			a0 = 1 + alpha;
+			a1 = -2 * cos;
+			a2 = 1 - alpha;
+		} else if (type.equals("peaking")) {
+			b0 = 1 + alpha * a;
+			b1 = -2 * cos;
+			b2 = 1 - alpha * a;
+			a0 = 1 + alpha / a;
+			a1 = -2 * cos;
+			a2 = 1 - alpha / a;
+		} else {
+			double root = 2 * Math.sqrt(a) * alpha;
+			if (type.equals("lowShelf")) {
+				b0 = a * ((a + 1) - (a - 1) * cos + root);
+				b1 = 2 * a * ((a - 1) - (a + 1) * cos);
+				b2 = a * ((a + 1) - (a - 1) * cos - root);
+				a0 = (a + 1) + (a - 1) * cos + root;
+				a1 = -2 * ((a - 1) + (a + 1) * cos);
+				a2 = (a + 1) + (a - 1) * cos - root;
+			} else {
+				b0 = a * ((a + 1) + (a - 1) * cos + root);
+				b1 = -2 * a * ((a - 1) + (a + 1) * cos);
+				b2 = a * ((a + 1) + (a - 1) * cos - root);
+				a0 = (a + 1) - (a - 1) * cos + root;
+				a1 = 2 * ((a - 1) - (a + 1) * cos);
+				a2 = (a + 1) - (a - 1) * cos - root;
+			}
+		}
+		return new Biquad(b0 / a0, b1 / a0, b2 / a0, a1 / a0, a2 / a0);
+	}
+}
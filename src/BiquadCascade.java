@@ -0,0 +1,189 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A chain of Biquad sections applied to every channel, e.g. a parametric equalizer or a steep low pass.
+ *
+ * Blocks are processed one section at a time over the whole block, one channel at a time, with the
+ * section's coefficients and that channel's two state values held in locals (transposed direct form II,
+ * in double precision).  A recursive filter cannot be vectorized along time, and planar channels are
+ * separate arrays, so this keeps each pass a tight scalar loop over one contiguous array; the whole-list
+ * helpers instead spread channels across threads with a ParallelChannelExecutor.
+ *
+ * As an AudioProcessor the cascade keeps its state between blocks, so it can run in a ProcessorChain.
+ */
+public class BiquadCascade implements AudioProcessor {
+	private final int numChannels;
+	private final List<Biquad> sections;
+	// two state values per section and channel: state[section][2 * channel], state[section][2 * channel + 1]
+	private double[][] state;
+
+	/**
+	 * Create a cascade
+	 * @param numChannels Number of channels to filter
+	 * @param sections Sections to apply, in order
+	 */
+	public BiquadCascade(int numChannels, Biquad... sections) {
+		this.numChannels = numChannels;
+		this.sections = new ArrayList<Biquad>(Arrays.asList(sections));
+		this.state = new double[this.sections.size()][2 * numChannels];
+	}
+
+	/**
+	 * Butterworth low pass of any even order, built from order / 2 sections
+	 * @param sampleRate Sample rate of the audio
+	 * @param cutoff Cutoff (-3 dB) frequency in Hz
+	 * @param order Filter order: 2, 4, 6, ...
+	 * @param numChannels Number of channels to filter
+	 * @return the cascade
+	 */
+	public static BiquadCascade butterworthLowPass(float sampleRate, double cutoff, int order, int numChannels) {
+		if (order < 2 || order % 2 != 0) {
+			throw new IllegalArgumentException("Butterworth order must be even: " + order);
+		}
+		Biquad[] sections = new Biquad[order / 2];
+		for (int k = 0; k < sections.length; k++) {
+			double q = 1 / (2 * Math.cos((2 * k + 1) * Math.PI / (2 * order)));
+			sections[k] = Biquad.lowPass(sampleRate, cutoff, q);
+		}
+		return new BiquadCascade(numChannels, sections);
+	}
+
+	/**
+	 * The filter changeSampleRate uses before lowering the sample rate: an 8th order Butterworth low
+	 * pass at 45% of the new rate (run forwards and backwards, so 16th order in effect)
+	 * @param oldRate Current sample rate
+	 * @param newRate Sample rate the audio is being converted to
+	 * @param numChannels Number of channels to filter
+	 * @return the cascade
+	 */
+	public static BiquadCascade antiAlias(float oldRate, float newRate, int numChannels) {
+		return butterworthLowPass(oldRate, 0.45 * newRate, 8, numChannels);
+	}
+
+	/**
+	 * Add a section to the end of the cascade.  The state of the new section starts at zero.
+	 * @param section The section to add
+	 * @return this cascade, so calls can be strung together
+	 */
+	public BiquadCascade add(Biquad section) {
+		sections.add(section);
+		state = Arrays.copyOf(state, sections.size());
+		state[sections.size() - 1] = new double[2 * numChannels];
+		return this;
+	}
+
+	/**
+	 * Returns the gain of the whole cascade for a sine wave
+	 * @param frequency Frequency of the sine, in Hz
+	 * @param sampleRate Sample rate of the audio
+	 * @return linear gain (1 is unchanged)
+	 */
+	public double getGain(double frequency, float sampleRate) {
+		double gain = 1;
+		for (Biquad section : sections) {
+			gain *= section.getGain(frequency, sampleRate);
+		}
+		return gain;
+	}
+
+	@Override
+	public void process(float[][] block, int frames) {
+		for (int c = 0; c < numChannels; c++) {
+			processChannel(block[c], frames, c);
+		}
+	}
+
+	@Override
+	public int getLatency() {
+		return 0;
+	}
+
+	@Override
+	public void reset() {
+		for (double[] sectionState : state) {
+			Arrays.fill(sectionState, 0);
+		}
+	}
+
+	/**
+	 * Filter a whole MusicList
+	 * @param list The list to filter.  It is not modified.
+	 * @return the filtered audio
+	 */
+	public MusicLinkedList filter(MusicList list) {
+		reset();
+		return ProcessorChain.render(list, this, ProcessorChain.DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Filter planar audio forwards and then backwards, in place.  The phase shifts of the two passes
+	 * cancel, so nothing is delayed or smeared in time, and the magnitude response is applied twice.
+	 * Channels are filtered in parallel.
+	 * @param planar One array per channel
+	 * @param frames Number of frames in use
+	 */
+	public void filterZeroPhase(final float[][] planar, final int frames) {
+		new ParallelChannelExecutor().forEachChannel(planar.length, frames, new ParallelChannelExecutor.ChannelTask() {
+			@Override
+			public void run(int channel) {
+				clearChannel(channel);
+				processChannel(planar[channel], frames, channel);
+				PlanarOps.reverse(planar[channel], frames);
+				clearChannel(channel);
+				processChannel(planar[channel], frames, channel);
+				PlanarOps.reverse(planar[channel], frames);
+			}
+		});
+	}
+
+	/**
+	 * Filter a whole MusicList forwards and backwards (see filterZeroPhase)
+	 * @param list The list to filter.  It is not modified.
+	 * @return the filtered audio
+	 */
+	public MusicLinkedList filterZeroPhase(MusicList list) {
+		float[][] planar = ChannelBuffers.toPooledPlanar(list);
+		try {
+			filterZeroPhase(planar, list.getNumSamples());
+			return ChannelBuffers.toList(planar, list.getNumSamples(), list.getSampleRate());
+		} finally {
+			AudioBufferPool.release(planar);
+		}
+	}
+
+	private void clearChannel(int channel) {
+		for (double[] sectionState : state) {
+			sectionState[2 * channel] = 0;
+			sectionState[2 * channel + 1] = 0;
+		}
+	}
+
+	/**
+	 * Run every section over one channel in place.  Only this channel's state is touched, so different
+	 * channels may be processed on different threads.
+	 */
+	private void processChannel(float[] x, int frames, int channel) {
+		for (int k = 0; k < sections.size(); k++) {
+			Biquad section = sections.get(k);
+			double b0 = section.b0;
+			double b1 = section.b1;
+			double b2 = section.b2;
+			double a1 = section.a1;
+			double a2 = section.a2;
+			double[] sectionState = state[k];
+			double s1 = sectionState[2 * channel];
+			double s2 = sectionState[2 * channel + 1];
+			for (int i = 0; i < frames; i++) {
+				double in = x[i];
+				double out = b0 * in + s1;
+				s1 = b1 * in - a1 * out + s2;
+				s2 = b2 * in - a2 * out;
+				x[i] = (float) out;
+			}
+			sectionState[2 * channel] = s1;
+			sectionState[2 * channel + 1] = s2;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how ParallelChannelExecutor scales with the number of channels.  For each channel count
+ * the echo, gain and resample kernels are timed on planar data with the executor forced to run
+ * sequentially and forced to run in parallel, and the speedup is printed.
+ *
+ * Usage: java ChannelBenchmark [framesPerChannel]
+ */
+public class ChannelBenchmark {
+	private static final int[] CHANNEL_COUNTS = { 1, 2, 4, 8, 16, 64 };
+	private static final int RUNS = 5;
+	private static final float SAMPLE_RATE = 48000;
+
+	public static void main(String[] args) {
+		int frames = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+		ParallelChannelExecutor sequential = new ParallelChannelExecutor();
+		sequential.setParallelismThreshold(Integer.MAX_VALUE);
+		ParallelChannelExecutor parallel = new ParallelChannelExecutor();
+		parallel.setParallelismThreshold(0);
+
+		System.out.println("frames/channel=" + frames + " threads=" + ForkJoinPool.commonPool().getParallelism());
+		System.out.println(String.format("%-8s %8s %12s %12s %8s", "op", "channels", "seq ms", "par ms", "speedup"));
+		for (int channels : CHANNEL_COUNTS) {
+			float[][] planar = new float[channels][frames];
+			for (int c = 0; c < channels; c++) {
+				for (int i = 0; i < frames; i++) {
+					planar[c][i] = (float) Math.sin(i * (0.01 + 0.001 * c));
+				}
+			}
+			for (String op : new String[] { "echo", "gain", "resample" }) {
+				double seq = time(sequential, op, planar, frames);
+				double par = time(parallel, op, planar, frames);
+				System.out.println(String.format("%-8s %8d %12.2f %12.2f %8.2f", op, channels, seq, par, seq / par));
+			}
+		}
+	}
+
+	/**
+	 * Median wall time of one operation, in milliseconds, after a warm-up run
+	 */
+	private static double time(ParallelChannelExecutor executor, String op, float[][] planar, int frames) {
+		double[] times = new double[RUNS];
+		for (int run = -1; run < RUNS; run++) {
+			long start = System.nanoTime();
+			if (op.equals("echo")) {
+				executor.addEcho(planar, frames, SAMPLE_RATE, 0.05f, 0.25f);
+			} else if (op.equals("gain")) {
+				executor.gain(planar, frames, 0.5f);
+			} else {
+				executor.changeSampleRate(planar, frames, SAMPLE_RATE, 44100);
+			}
+			if (run >= 0) {
+				times[run] = (System.nanoTime() - start) / 1e6;
+			}
+		}
+		Arrays.sort(times);
+		return times[RUNS / 2];
+	}
+}
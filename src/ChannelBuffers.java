@@ -0,0 +1,70 @@
+import java.util.Iterator;
+
+/**
+ * Conversions between MusicLists and planar sample arrays (one float array per channel), the layout
+ * used by the parallel and block based processors.
+ */
+public class ChannelBuffers {
+
+	private ChannelBuffers() {
+	}
+
+	/**
+	 * Copy a MusicList into one array per channel
+	 * @param list The list to copy
+	 * @return planar samples, each array getNumSamples() long
+	 */
+	public static float[][] toPlanar(MusicList list) {
+		int numChannels = list.getNumChannels();
+		int numSamples = list.getNumSamples();
+		float[][] planar = new float[numChannels][numSamples];
+		Iterator<float[]> iterator = list.iterator();
+		for (int i = 0; i < numSamples && iterator.hasNext(); i++) {
+			float[] frame = iterator.next();
+			for (int c = 0; c < numChannels; c++) {
+				planar[c][i] = frame[c];
+			}
+		}
+		return planar;
+	}
+
+	/**
+	 * Copy a MusicList into planar arrays taken from the AudioBufferPool.  The arrays may be longer than
+	 * the list; give them back with AudioBufferPool.release once done.
+	 * @param list The list to copy
+	 * @return planar samples, each array at least getNumSamples() long
+	 */
+	public static float[][] toPooledPlanar(MusicList list) {
+		int numChannels = list.getNumChannels();
+		int numSamples = list.getNumSamples();
+		float[][] planar = AudioBufferPool.acquirePlanar(numChannels, numSamples);
+		Iterator<float[]> iterator = list.iterator();
+		for (int i = 0; i < numSamples && iterator.hasNext(); i++) {
+			float[] frame = iterator.next();
+			for (int c = 0; c < numChannels; c++) {
+				planar[c][i] = frame[c];
+			}
+		}
+		return planar;
+	}
+
+	/**
+	 * Build a MusicLinkedList from planar samples
+	 * @param planar One array per channel
+	 * @param frames Number of frames to copy from the start of each array
+	 * @param sampleRate Sample rate of the new list
+	 * @return the new list
+	 */
+	public static MusicLinkedList toList(float[][] planar, int frames, float sampleRate) {
+		int numChannels = planar.length;
+		MusicLinkedList list = new MusicLinkedList(sampleRate, numChannels);
+		float[] frame = new float[numChannels];
+		for (int i = 0; i < frames; i++) {
+			for (int c = 0; c < numChannels; c++) {
+				frame[c] = planar[c][i];
+			}
+			list.addSample(frame);
+		}
+		return list;
+	}
+}
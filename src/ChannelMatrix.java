@@ -0,0 +1,145 @@
+import java.util.Iterator;
+
+/**
+ * Channel remapping / downmix matrices for MusicLinkedList.remapChannels.  A matrix has one row per
+ * output channel, and each row has one weight per input channel.
+ */
+public class ChannelMatrix {
+	private static final float MINUS_3DB = (float) Math.sqrt(0.5);
+
+	private ChannelMatrix() {
+	}
+
+	/**
+	 * Single output channel that is the plain sum of all inputs (what makeMono computes)
+	 * @param inputs Number of input channels
+	 * @return the matrix
+	 */
+	public static float[][] sum(int inputs) {
+		float[][] matrix = new float[1][inputs];
+		for (int c = 0; c < inputs; c++) {
+			matrix[0][c] = 1;
+		}
+		return matrix;
+	}
+
+	/**
+	 * Single output channel that is the average of all inputs
+	 * @param inputs Number of input channels
+	 * @return the matrix
+	 */
+	public static float[][] average(int inputs) {
+		float[][] matrix = new float[1][inputs];
+		for (int c = 0; c < inputs; c++) {
+			matrix[0][c] = 1f / inputs;
+		}
+		return matrix;
+	}
+
+	/**
+	 * Stereo to mono with a weight for each side
+	 * @param left Weight of the left channel
+	 * @param right Weight of the right channel
+	 * @return the matrix
+	 */
+	public static float[][] stereoToMono(float left, float right) {
+		return new float[][] { { left, right } };
+	}
+
+	/**
+	 * 5.1 to stereo using the ITU-R BS.775 coefficients.  Inputs are in WAV order (L, R, C, LFE, Ls, Rs);
+	 * the centre and surrounds are mixed in at -3 dB and the LFE channel is dropped.
+	 * @return the matrix
+	 */
+	public static float[][] surroundToStereo() {
+		return new float[][] {
+			{ 1, 0, MINUS_3DB, 0, MINUS_3DB, 0 },
+			{ 0, 1, MINUS_3DB, 0, 0, MINUS_3DB },
+		};
+	}
+
+	/**
+	 * Pass every channel through unchanged
+	 * @param channels Number of channels
+	 * @return the matrix
+	 */
+	public static float[][] identity(int channels) {
+		float[][] matrix = new float[channels][channels];
+		for (int c = 0; c < channels; c++) {
+			matrix[c][c] = 1;
+		}
+		return matrix;
+	}
+
+	/**
+	 * Pick (and possibly reorder or duplicate) input channels
+	 * @param inputs Number of input channels
+	 * @param channels The input channel to use for each output channel
+	 * @return the matrix
+	 */
+	public static float[][] select(int inputs, int... channels) {
+		float[][] matrix = new float[channels.length][inputs];
+		for (int o = 0; o < channels.length; o++) {
+			if (channels[o] < 0 || channels[o] >= inputs) {
+				throw new IndexOutOfBoundsException("Channel " + channels[o] + " does not exist");
+			}
+			matrix[o][channels[o]] = 1;
+		}
+		return matrix;
+	}
+
+	/**
+	 * Remap the channels of any MusicList into a new MusicLinkedList in a single pass over the source.
+	 * The source is not modified.
+	 * @param source The list to read
+	 * @param matrix One row per output channel, each with one weight per source channel
+	 * @param allowClipping If true, values outside -1 .. 1 are clipped.  If false, the entire result is rescaled to fit.
+	 * @return the remapped list
+	 */
+	public static MusicLinkedList apply(MusicList source, float[][] matrix, boolean allowClipping) {
+		int inChannels = source.getNumChannels();
+		int outChannels = checkShape(matrix, inChannels);
+		MusicLinkedList result = new MusicLinkedList(source.getSampleRate(), outChannels);
+		float[] mixed = new float[outChannels];
+		float biggestWave = 0;
+		Iterator<float[]> iterator = source.iterator();
+		while (iterator.hasNext()) {
+			float[] frame = iterator.next();
+			for (int o = 0; o < outChannels; o++) {
+				float sum = 0;
+				for (int c = 0; c < inChannels; c++) {
+					sum += matrix[o][c] * frame[c];
+				}
+				if (allowClipping) {
+					sum = Math.max(-1, Math.min(1, sum));
+				} else if (Math.abs(sum) > biggestWave) {
+					biggestWave = Math.abs(sum);
+				}
+				mixed[o] = sum;
+			}
+			result.addSample(mixed);
+		}
+		if (!allowClipping && biggestWave > 1) {
+			result.divideOnRead(biggestWave);
+		}
+		return result;
+	}
+
+	/**
+	 * Check that every row has one weight per input channel
+	 * @param matrix The matrix to check
+	 * @param inputs Number of input channels
+	 * @return the number of output channels
+	 */
+	static int checkShape(float[][] matrix, int inputs) {
+		if (matrix.length == 0) {
+			throw new IllegalArgumentException("Channel matrix must have at least one output channel");
+		}
+		for (float[] row : matrix) {
+			if (row.length != inputs) {
+				throw new IllegalArgumentException("Channel matrix rows must have " + inputs + " weights");
+			}
+		}
+		return matrix.length;
+	}
+}
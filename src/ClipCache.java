@@ -0,0 +1,307 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Byte-bounded LRU cache of decoded (and optionally resampled and downmixed) WAV files.
+ *
+ * Entries are keyed on the file's canonical path, its modification time, the target sample rate and
+ * the target channel layout, so an edited file or a different project rate is a miss.  A conversion that
+ * would leave the file as it is (its own rate, or mono for a mono file) is keyed as no conversion once
+ * the file has been decoded, so the same data is never cached twice.  Each entry is
+ * stored once as planar floats, and every get hands out a new SnapshotMusicList view of it.  The views
+ * are copy-on-write: editing one copies it into a MusicLinkedList and leaves the cached data alone.
+ *
+ * All methods are thread safe.  Decoding happens outside the cache lock.
+ */
+public class ClipCache {
+	public static final int CHANNELS_AS_FILE = 0;
+	public static final int CHANNELS_MONO = 1;
+
+	private final long maxBytes;
+	private final LinkedHashMap<Key, Entry> entries;
+	// format of each file with at least one cached entry, keyed with no conversion
+	private final HashMap<Key, FileFormat> formats;
+	private long currentBytes;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Create an empty cache
+	 * @param maxBytes Upper bound on the number of bytes of sample data kept in the cache
+	 */
+	public ClipCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+		this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+		this.formats = new HashMap<Key, FileFormat>();
+		this.currentBytes = 0;
+	}
+
+	/**
+	 * Returns a view of a WAV file at its own sample rate and channel count
+	 * @param filename The .wav file
+	 * @return A copy-on-write view, or null if the file could not be read (as with SoundUtil.readWAVFile)
+	 */
+	public MusicList get(String filename) {
+		return get(filename, 0, CHANNELS_AS_FILE);
+	}
+
+	/**
+	 * Returns a view of a WAV file resampled to targetRate
+	 * @param filename The .wav file
+	 * @param targetRate Sample rate to convert to, or 0 to keep the file's rate
+	 * @return A copy-on-write view, or null if the file could not be read
+	 */
+	public MusicList get(String filename, float targetRate) {
+		return get(filename, targetRate, CHANNELS_AS_FILE);
+	}
+
+	/**
+	 * Returns a view of a WAV file resampled to targetRate and converted to a channel layout
+	 * @param filename The .wav file
+	 * @param targetRate Sample rate to convert to, or 0 to keep the file's rate
+	 * @param channels CHANNELS_AS_FILE to keep the file's channels, or CHANNELS_MONO to mix down to one channel
+	 * @return A copy-on-write view, or null if the file could not be read
+	 */
+	public MusicList get(String filename, float targetRate, int channels) {
+		if (channels != CHANNELS_AS_FILE && channels != CHANNELS_MONO) {
+			throw new IllegalArgumentException("Unsupported channel layout " + channels);
+		}
+		File file = new File(filename);
+		String path;
+		try {
+			path = file.getCanonicalPath();
+		} catch (IOException e) {
+			path = file.getAbsolutePath();
+		}
+		Key identity = new Key(path, file.lastModified(), 0, CHANNELS_AS_FILE);
+
+		synchronized (this) {
+			Entry entry = entries.get(normalize(identity, formats.get(identity), targetRate, channels));
+			if (entry != null) {
+				hits++;
+				return entry.view();
+			}
+			misses++;
+		}
+
+		MusicLinkedList decoded = SoundUtil.readWAVFile(filename);
+		if (decoded == null) {
+			return null;
+		}
+		FileFormat format = new FileFormat(decoded.getSampleRate(), decoded.getNumChannels());
+		if (targetRate > 0 && decoded.getSampleRate() != targetRate) {
+			decoded.changeSampleRate(targetRate);
+		}
+		if (channels == CHANNELS_MONO && decoded.getNumChannels() > 1) {
+			decoded.makeMono(false, true);
+		}
+		Entry entry = new Entry(decoded);
+
+		synchronized (this) {
+			FileFormat known = formats.get(identity);
+			Key key = normalize(identity, format, targetRate, channels);
+			Entry existing = entries.get(key);
+			if (existing != null) {
+				return existing.view();
+			}
+			if (entry.bytes <= maxBytes) {
+				if (known == null) {
+					formats.put(identity, format);
+					known = format;
+				}
+				known.entries++;
+				entries.put(key, entry);
+				currentBytes += entry.bytes;
+				evict();
+			}
+		}
+		return entry.view();
+	}
+
+	/**
+	 * Remove every entry.  Views already handed out stay valid.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		formats.clear();
+		currentBytes = 0;
+	}
+
+	/**
+	 * Returns the number of gets answered from the cache
+	 * @return hit count
+	 */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of gets that had to decode the file
+	 * @return miss count
+	 */
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * Returns the number of entries removed to stay within the byte bound
+	 * @return eviction count
+	 */
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the fraction of gets answered from the cache
+	 * @return hit rate between 0 and 1
+	 */
+	public synchronized double getHitRate() {
+		long total = hits + misses;
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * Returns the number of bytes of sample data currently cached
+	 * @return cached bytes
+	 */
+	public synchronized long getCurrentBytes() {
+		return currentBytes;
+	}
+
+	/**
+	 * Returns the number of cached clips
+	 * @return entry count
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the number of files whose format is remembered; never more than size()
+	 */
+	synchronized int formatCount() {
+		return formats.size();
+	}
+
+	/**
+	 * The key for a file and a conversion, with conversions that would leave a file of known format as it
+	 * is keyed as none
+	 * @param format The file's format, or null if it is not known
+	 */
+	private static Key normalize(Key identity, FileFormat format, float targetRate, int channels) {
+		if (format != null) {
+			if (targetRate == format.sampleRate) {
+				targetRate = 0;
+			}
+			if (channels == CHANNELS_MONO && format.numChannels == 1) {
+				channels = CHANNELS_AS_FILE;
+			}
+		}
+		return new Key(identity.path, identity.modified, targetRate, channels);
+	}
+
+	/**
+	 * Remove least recently used entries until the cache is within its bound, forgetting the format of
+	 * a file once none of its entries are left
+	 */
+	private void evict() {
+		Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+		while (currentBytes > maxBytes && eldest.hasNext()) {
+			Map.Entry<Key, Entry> next = eldest.next();
+			currentBytes -= next.getValue().bytes;
+			eldest.remove();
+			evictions++;
+			Key identity = new Key(next.getKey().path, next.getKey().modified, 0, CHANNELS_AS_FILE);
+			FileFormat format = formats.get(identity);
+			if (format != null && --format.entries == 0) {
+				formats.remove(identity);
+			}
+		}
+	}
+
+	/**
+	 * Sample rate and channel count of a decoded file, and how many cached entries were made from it
+	 */
+	private static class FileFormat {
+		private final float sampleRate;
+		private final int numChannels;
+		private int entries;
+
+		public FileFormat(float sampleRate, int numChannels) {
+			this.sampleRate = sampleRate;
+			this.numChannels = numChannels;
+		}
+	}
+
+	/**
+	 * One decoded clip, stored as a single planar block
+	 */
+	private static class Entry {
+		private final float[] samples;
+		private final float sampleRate;
+		private final int numChannels;
+		private final int numSamples;
+		private final long bytes;
+
+		public Entry(MusicList list) {
+			this.sampleRate = list.getSampleRate();
+			this.numChannels = list.getNumChannels();
+			this.numSamples = list.getNumSamples();
+			this.samples = new float[numSamples * numChannels];
+			Iterator<float[]> iterator = list.iterator();
+			for (int i = 0; i < numSamples; i++) {
+				float[] frame = iterator.next();
+				for (int c = 0; c < numChannels; c++) {
+					samples[c * numSamples + i] = frame[c];
+				}
+			}
+			this.bytes = 4L * samples.length;
+		}
+
+		public MusicList view() {
+			return new SnapshotMusicList(FloatBuffer.wrap(samples).asReadOnlyBuffer(), sampleRate, numChannels,
+					numSamples, Math.max(1, numSamples));
+		}
+	}
+
+	/**
+	 * Cache key: file identity plus the conversion applied to it
+	 */
+	private static class Key {
+		private final String path;
+		private final long modified;
+		private final float targetRate;
+		private final int channels;
+
+		public Key(String path, long modified, float targetRate, int channels) {
+			this.path = path;
+			this.modified = modified;
+			this.targetRate = targetRate;
+			this.channels = channels;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return path.equals(key.path) && modified == key.modified
+					&& Float.floatToIntBits(targetRate) == Float.floatToIntBits(key.targetRate) && channels == key.channels;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = path.hashCode();
+			result = 31 * result + (int) (modified ^ (modified >>> 32));
+			result = 31 * result + Float.floatToIntBits(targetRate);
+			return 31 * result + channels;
+		}
+	}
+}
@@ -0,0 +1,414 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * MusicList that keeps its samples losslessly compressed (see SampleCodec) in fixed size blocks.
+ * Each block holds blockSize frames, with every channel coded separately, so any block can be
+ * decoded on its own.  Frames that do not yet fill a block are kept uncompressed until the block is
+ * full.  Iterators decompress one block at a time, so reading never expands the whole list.
+ * Parallel encoding and decoding run on the common ForkJoinPool rather than on pools of their own.
+ */
+public class CompressedMusicList extends AbstractMusicList {
+	public static final int DEFAULT_BLOCK_SIZE = 4096;
+	private static final int FILE_MAGIC = 0x4D4C435A; // "MLCZ"
+	private static final int FILE_VERSION = 1;
+
+	private float sampleRate;
+	private int numChannels;
+	private int blockSize;
+	private int numSamples;
+	private List<byte[][]> blocks;
+	private float[][] pending;
+	private int pendingCount;
+
+	public CompressedMusicList(float sampleRate, int numChannels) {
+		this(sampleRate, numChannels, DEFAULT_BLOCK_SIZE);
+	}
+
+	public CompressedMusicList(float sampleRate, int numChannels, int blockSize) {
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("Block size must be positive");
+		}
+		this.sampleRate = sampleRate;
+		this.numChannels = numChannels;
+		this.blockSize = blockSize;
+		this.numSamples = 0;
+		this.blocks = new ArrayList<byte[][]>();
+		this.pending = new float[numChannels][blockSize];
+		this.pendingCount = 0;
+	}
+
+	/**
+	 * Compress a MusicList, encoding blocks in parallel
+	 * @param source The list to compress.  It is not modified.
+	 * @param blockSize Frames per block
+	 * @param threads 1 to encode on the calling thread; more to encode on the common ForkJoinPool
+	 * @return the compressed list
+	 */
+	public static CompressedMusicList compress(MusicList source, int blockSize, int threads) {
+		CompressedMusicList result = new CompressedMusicList(source.getSampleRate(), source.getNumChannels(), blockSize);
+		try {
+			List<Future<byte[][]>> encoded = new ArrayList<Future<byte[][]>>();
+			Iterator<float[]> iterator = source.iterator();
+			int channels = source.getNumChannels();
+			while (iterator.hasNext()) {
+				final float[][] block = new float[channels][blockSize];
+				int count = 0;
+				while (count < blockSize && iterator.hasNext()) {
+					float[] frame = iterator.next();
+					for (int c = 0; c < channels; c++) {
+						block[c][count] = frame[c];
+					}
+					count++;
+				}
+				if (count < blockSize) {
+					result.pending = block;
+					result.pendingCount = count;
+				} else {
+					encoded.add(submit(threads, () -> encodeBlock(block, blockSize)));
+				}
+			}
+			for (Future<byte[][]> future : encoded) {
+				result.blocks.add(future.get());
+			}
+			result.numSamples = result.blocks.size() * blockSize + result.pendingCount;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while compressing", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Block encoding failed", e.getCause());
+		}
+		return result;
+	}
+
+	/**
+	 * The number of channels in the SoundList
+	 * @return The number f channels in the SoundList
+	 */
+	public int getNumChannels() {
+		return numChannels;
+	}
+
+	/**
+	 * Returns the sample rate, in samples per second
+	 * @return The sample rate, in samples per second
+	 */
+	public float getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * Returns the number of samples in the MusicList
+	 * @return The number of samples in the MusicList.
+	 */
+	public int getNumSamples() {
+		return numSamples;
+	}
+
+	/**
+	 * Returns the number of frames held in each block
+	 * @return frames per block
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Returns the number of blocks, counting a partly filled last block
+	 * @return number of blocks
+	 */
+	public int getNumBlocks() {
+		return blocks.size() + (pendingCount > 0 ? 1 : 0);
+	}
+
+	/**
+	 * Returns the number of bytes used by the compressed blocks, not counting the uncompressed tail
+	 * @return compressed size in bytes
+	 */
+	public long getCompressedBytes() {
+		long total = 0;
+		for (byte[][] block : blocks) {
+			for (byte[] channel : block) {
+				total += channel.length;
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Change the speed of the sound.  Only the sample rate changes, so no block is re-encoded.
+	 * @param percentChange  How much to change the speed.  1.0 is no change
+	 */
+	public void changeSpeed(float percentChange) {
+		this.sampleRate = this.sampleRate * percentChange;
+	}
+
+	/**
+	 * Add a single sample to the end of the SoundList.  Throws an exception if the soundlist has more than 1 channel
+	 * @param sample The sample to add
+	 */
+	public void addSample(float sample) {
+		if (numChannels != 1) {
+			throw new IllegalArgumentException("Audio being added does not have the correct number of channels");
+		}
+		pending[0][pendingCount] = sample;
+		frameAdded();
+	}
+
+	/**
+	 * Adds a single sample for each channel to the end of the SoundList.  Throws an exception if the size of the sample
+	 * array is not the same as the number of channels in the sound list
+	 * @param sample Array of samples (one for each channel) to add to the end of the SoundList
+	 */
+	public void addSample(float[] sample) {
+		if (sample.length != numChannels) {
+			throw new IllegalArgumentException("Audio being added does not have the correct number of channels");
+		}
+		for (int c = 0; c < numChannels; c++) {
+			pending[c][pendingCount] = sample[c];
+		}
+		frameAdded();
+	}
+
+	/**
+	 * Decode one block.  Blocks can be decoded in any order and from any thread.
+	 * @param index The block to decode
+	 * @return one array per channel.  The arrays are blockSize long; only the frames that
+	 *         belong to the block (see getBlockLength) are meaningful.
+	 */
+	public float[][] decodeBlock(int index) {
+		float[][] out = new float[numChannels][blockSize];
+		decodeBlock(index, out);
+		return out;
+	}
+
+	/**
+	 * Returns the number of frames in a block.  Only the last block may be short.
+	 * @param index The block
+	 * @return frames in that block
+	 */
+	public int getBlockLength(int index) {
+		return index < blocks.size() ? blockSize : pendingCount;
+	}
+
+	/**
+	 * Decode the whole list into one array per channel, decoding blocks in parallel
+	 * @param threads 1 to decode on the calling thread; more to decode on the common ForkJoinPool
+	 * @return one array of getNumSamples() samples per channel
+	 */
+	public float[][] decodeAll(int threads) {
+		final float[][] out = new float[numChannels][numSamples];
+		try {
+			List<Future<Object>> tasks = new ArrayList<Future<Object>>();
+			for (int b = 0; b < blocks.size(); b++) {
+				final int index = b;
+				tasks.add(submit(threads, () -> {
+					byte[][] block = blocks.get(index);
+					for (int c = 0; c < numChannels; c++) {
+						SampleCodec.decode(block[c], out[c], index * blockSize, blockSize);
+					}
+					return null;
+				}));
+			}
+			for (Future<Object> task : tasks) {
+				task.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while decompressing", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Block decoding failed", e.getCause());
+		}
+		for (int c = 0; c < numChannels; c++) {
+			System.arraycopy(pending[c], 0, out[c], blocks.size() * blockSize, pendingCount);
+		}
+		return out;
+	}
+
+	/**
+	 * Return an iterator that traverses the entire sample, returning an array floats (one for each channel).
+	 * Blocks are decompressed as the iterator reaches them.
+	 * @return iterator
+	 */
+	public Iterator<float[]> iterator() {
+		return new BlockIterator();
+	}
+
+	/**
+	 * Write the list to a file.  A partly filled last block is written compressed.
+	 * @param filename The file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(String filename) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+		try {
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FILE_VERSION);
+			out.writeFloat(sampleRate);
+			out.writeInt(numChannels);
+			out.writeInt(blockSize);
+			out.writeInt(numSamples);
+			List<byte[][]> allBlocks = new ArrayList<byte[][]>(blocks);
+			if (pendingCount > 0) {
+				allBlocks.add(encodeBlock(pending, pendingCount));
+			}
+			for (byte[][] block : allBlocks) {
+				for (byte[] channel : block) {
+					out.writeInt(channel.length);
+					out.write(channel);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Read a list written by save
+	 * @param filename The file to read
+	 * @return the list, still compressed
+	 * @throws IOException if the file cannot be read or is not in this format
+	 */
+	public static CompressedMusicList load(String filename) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+		try {
+			if (in.readInt() != FILE_MAGIC) {
+				throw new IOException(filename + " is not a compressed MusicList");
+			}
+			int version = in.readInt();
+			if (version != FILE_VERSION) {
+				throw new IOException("Unsupported compressed MusicList version " + version);
+			}
+			float sampleRate = in.readFloat();
+			int numChannels = in.readInt();
+			int blockSize = in.readInt();
+			int numSamples = in.readInt();
+			CompressedMusicList result = new CompressedMusicList(sampleRate, numChannels, blockSize);
+			int fullBlocks = numSamples / blockSize;
+			int tail = numSamples % blockSize;
+			for (int b = 0; b < fullBlocks + (tail > 0 ? 1 : 0); b++) {
+				byte[][] block = new byte[numChannels][];
+				for (int c = 0; c < numChannels; c++) {
+					block[c] = new byte[in.readInt()];
+					in.readFully(block[c]);
+				}
+				if (b < fullBlocks) {
+					result.blocks.add(block);
+				} else {
+					for (int c = 0; c < numChannels; c++) {
+						SampleCodec.decode(block[c], result.pending[c], 0, tail);
+					}
+					result.pendingCount = tail;
+				}
+			}
+			result.numSamples = numSamples;
+			return result;
+		} finally {
+			in.close();
+		}
+	}
+
+	@Override
+	protected void replaceContents(MusicLinkedList edited) {
+		CompressedMusicList recompressed = compress(edited, blockSize, Runtime.getRuntime().availableProcessors());
+		this.sampleRate = recompressed.sampleRate;
+		this.numChannels = recompressed.numChannels;
+		this.numSamples = recompressed.numSamples;
+		this.blocks = recompressed.blocks;
+		this.pending = recompressed.pending;
+		this.pendingCount = recompressed.pendingCount;
+	}
+
+	private void frameAdded() {
+		pendingCount++;
+		numSamples++;
+		if (pendingCount == blockSize) {
+			blocks.add(encodeBlock(pending, blockSize));
+			pendingCount = 0;
+		}
+	}
+
+	private void decodeBlock(int index, float[][] out) {
+		if (index < blocks.size()) {
+			byte[][] block = blocks.get(index);
+			for (int c = 0; c < numChannels; c++) {
+				SampleCodec.decode(block[c], out[c], 0, blockSize);
+			}
+		} else if (index == blocks.size() && pendingCount > 0) {
+			for (int c = 0; c < numChannels; c++) {
+				System.arraycopy(pending[c], 0, out[c], 0, pendingCount);
+			}
+		} else {
+			throw new IndexOutOfBoundsException("Block " + index + " does not exist");
+		}
+	}
+
+	/**
+	 * Run a task on the common pool, or at once on this thread when only one thread is wanted
+	 */
+	private static <T> Future<T> submit(int threads, Callable<T> task) {
+		if (threads > 1) {
+			return ForkJoinPool.commonPool().submit(task);
+		}
+		FutureTask<T> future = new FutureTask<T>(task);
+		future.run();
+		return future;
+	}
+
+	private static byte[][] encodeBlock(float[][] block, int count) {
+		byte[][] encoded = new byte[block.length][];
+		for (int c = 0; c < block.length; c++) {
+			encoded[c] = SampleCodec.encode(block[c], 0, count);
+		}
+		return encoded;
+	}
+
+	/**
+	 * Iterator for all channels that keeps one decoded block
+	 */
+	private class BlockIterator implements Iterator<float[]> {
+		private final float[][] decoded = new float[numChannels][blockSize];
+		private int block = -1;
+		private int position = 0;
+		private int frame = 0;
+		private final int end = numSamples;
+
+		@Override
+		public boolean hasNext() {
+			return frame < end;
+		}
+
+		@Override
+		public float[] next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException("Iterator: There is no next element");
+			}
+			if (block < 0 || position == blockSize) {
+				block++;
+				position = 0;
+				decodeBlock(block, decoded);
+			}
+			float[] returnData = new float[numChannels];
+			for (int c = 0; c < numChannels; c++) {
+				returnData[c] = decoded[c][position];
+			}
+			position++;
+			frame++;
+			return returnData;
+		}
+	}
+}
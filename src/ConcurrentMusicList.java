@@ -0,0 +1,216 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Append-only MusicList for one writer thread and any number of reader threads, e.g. recording on
+ * one thread while others analyze or play what has been recorded so far.
+ *
+ * Samples live in fixed size planar chunks that are never moved once written.  The writer fills in
+ * samples, then publishes them by storing the new frame count in a volatile field; a reader that
+ * reads the frame count is guaranteed to see every sample below it.  The chunk directory is also
+ * volatile and is always published before the frame count that needs it, so no locks are taken on
+ * either side.  Growing the directory only copies references; each chunk is allocated when the writer
+ * first reaches it.
+ *
+ * Each iterator covers the frames that were published when it was created.  Only one thread may call
+ * addSample / addSamples.  Editing operations other than appending are not supported; clone the list
+ * to edit a copy.
+ */
+public class ConcurrentMusicList extends AbstractMusicList {
+	public static final int DEFAULT_CHUNK_FRAMES = 4096;
+
+	private final float sampleRate;
+	private final int numChannels;
+	private final int chunkFrames;
+	private volatile float[][][] chunks;
+	private volatile int numSamples;
+	// writer-only state
+	private int writeCount;
+
+	public ConcurrentMusicList(float sampleRate, int numChannels) {
+		this(sampleRate, numChannels, DEFAULT_CHUNK_FRAMES);
+	}
+
+	public ConcurrentMusicList(float sampleRate, int numChannels, int chunkFrames) {
+		if (chunkFrames <= 0) {
+			throw new IllegalArgumentException("Chunk size must be positive");
+		}
+		this.sampleRate = sampleRate;
+		this.numChannels = numChannels;
+		this.chunkFrames = chunkFrames;
+		this.chunks = new float[0][][];
+		this.numSamples = 0;
+		this.writeCount = 0;
+	}
+
+	/**
+	 * The number of channels in the SoundList
+	 * @return The number f channels in the SoundList
+	 */
+	public int getNumChannels() {
+		return numChannels;
+	}
+
+	/**
+	 * Returns the sample rate, in samples per second
+	 * @return The sample rate, in samples per second
+	 */
+	public float getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * Returns the number of samples published so far
+	 * @return The number of samples in the MusicList.
+	 */
+	public int getNumSamples() {
+		return numSamples;
+	}
+
+	/**
+	 * Add a single sample to the end of the SoundList.  Throws an exception if the soundlist has more than 1 channel.
+	 * Writer thread only.
+	 * @param sample The sample to add
+	 */
+	public void addSample(float sample) {
+		if (numChannels != 1) {
+			throw new IllegalArgumentException("Audio being added does not have the correct number of channels");
+		}
+		chunkFor(writeCount)[0][writeCount % chunkFrames] = sample;
+		numSamples = ++writeCount;
+	}
+
+	/**
+	 * Adds a single sample for each channel to the end of the SoundList.  Throws an exception if the size of the sample
+	 * array is not the same as the number of channels in the sound list.  Writer thread only.
+	 * @param sample Array of samples (one for each channel) to add to the end of the SoundList
+	 */
+	public void addSample(float[] sample) {
+		if (sample.length != numChannels) {
+			throw new IllegalArgumentException("Audio being added does not have the correct number of channels");
+		}
+		float[][] chunk = chunkFor(writeCount);
+		int index = writeCount % chunkFrames;
+		for (int c = 0; c < numChannels; c++) {
+			chunk[c][index] = sample[c];
+		}
+		numSamples = ++writeCount;
+	}
+
+	/**
+	 * Append a block of frames and publish them all at once.  Writer thread only.
+	 * @param block One array per channel
+	 * @param offset Index of the first frame in each array
+	 * @param frames Number of frames to append
+	 */
+	public void addSamples(float[][] block, int offset, int frames) {
+		if (block.length != numChannels) {
+			throw new IllegalArgumentException("Audio being added does not have the correct number of channels");
+		}
+		int written = 0;
+		while (written < frames) {
+			float[][] chunk = chunkFor(writeCount);
+			int index = writeCount % chunkFrames;
+			int run = Math.min(frames - written, chunkFrames - index);
+			for (int c = 0; c < numChannels; c++) {
+				System.arraycopy(block[c], offset + written, chunk[c], index, run);
+			}
+			writeCount += run;
+			written += run;
+		}
+		numSamples = writeCount;
+	}
+
+	/**
+	 * Copy published samples of one channel into an array.  Safe to call from any thread.
+	 * @param channel The channel to read
+	 * @param start First frame to read
+	 * @param out Array to copy into
+	 * @param offset Index in out of the first sample
+	 * @param length Number of frames to copy
+	 */
+	public void read(int channel, int start, float[] out, int offset, int length) {
+		int published = numSamples;
+		if (start < 0 || start + length > published) {
+			throw new IndexOutOfBoundsException("Frames " + start + " .. " + (start + length) + " have not been published");
+		}
+		float[][][] directory = chunks;
+		while (length > 0) {
+			int index = start % chunkFrames;
+			int run = Math.min(length, chunkFrames - index);
+			System.arraycopy(directory[start / chunkFrames][channel], index, out, offset, run);
+			start += run;
+			offset += run;
+			length -= run;
+		}
+	}
+
+	/**
+	 * Return an iterator over the frames published when the iterator is created.  Safe to call from any thread.
+	 * @return iterator
+	 */
+	public Iterator<float[]> iterator() {
+		return new PrefixIterator();
+	}
+
+	@Override
+	protected MusicLinkedList editable() {
+		throw new UnsupportedOperationException("ConcurrentMusicList is append-only; clone it to edit a copy");
+	}
+
+	@Override
+	protected void replaceContents(MusicLinkedList edited) {
+		throw new UnsupportedOperationException("ConcurrentMusicList is append-only; clone it to edit a copy");
+	}
+
+	/**
+	 * Returns the chunk holding the given frame, growing the directory and allocating the chunk the first
+	 * time the writer reaches it.  Writer thread only.
+	 */
+	private float[][] chunkFor(int frame) {
+		int index = frame / chunkFrames;
+		float[][][] directory = chunks;
+		if (index == directory.length) {
+			float[][][] grown = new float[Math.max(4, directory.length * 2)][][];
+			System.arraycopy(directory, 0, grown, 0, directory.length);
+			chunks = grown;
+			directory = grown;
+		}
+		float[][] chunk = directory[index];
+		if (chunk == null) {
+			// published with the frame count, like the samples written into it
+			chunk = new float[numChannels][chunkFrames];
+			directory[index] = chunk;
+		}
+		return chunk;
+	}
+
+	/**
+	 * Iterator for all channels over a published prefix
+	 */
+	private class PrefixIterator implements Iterator<float[]> {
+		private final int end = numSamples;
+		private final float[][][] directory = chunks;
+		private int frame = 0;
+
+		@Override
+		public boolean hasNext() {
+			return frame < end;
+		}
+
+		@Override
+		public float[] next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException("Iterator: There is no next element");
+			}
+			float[][] chunk = directory[frame / chunkFrames];
+			int index = frame % chunkFrames;
+			float[] returnData = new float[numChannels];
+			for (int c = 0; c < numChannels; c++) {
+				returnData[c] = chunk[c][index];
+			}
+			frame++;
+			return returnData;
+		}
+	}
+}
@@ -0,0 +1,320 @@
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Streaming compressor, expander or gate.
+ *
+ * A detector measures the level of each frame, as the peak or a short RMS over all channels of the
+ * input (or of a sidechain, e.g. a voice track ducking music).  A static curve turns the level into a
+ * target gain: a compressor turns down levels above the threshold by the ratio, an expander turns
+ * down levels below the threshold by the ratio, and a gate turns levels below the threshold down by
+ * the whole range.  The gain moves towards its target at the attack rate when the level rises and at
+ * the release rate when it falls, and is shared by all channels so the image does not shift.  With
+ * look-ahead the audio is delayed behind the detector, so the gain is already down when a peak
+ * arrives; the output is then delayed by getLatency() frames.
+ *
+ * Each block is processed in passes over whole arrays (detect, compute gains, delay and apply), so
+ * only the gain smoothing runs frame by frame.  The static curve is evaluated on the loudest of every
+ * eight frames, and its logarithms are only taken while that level is past the threshold.  Nothing is
+ * allocated after the first block of the largest size.
+ */
+public class DynamicsProcessor implements AudioProcessor {
+	/**
+	 * What the static curve does with the level
+	 */
+	public enum Mode {
+		/** Turn down levels above the threshold */
+		COMPRESSOR,
+		/** Turn down levels below the threshold, more the further below */
+		EXPANDER,
+		/** Turn down levels below the threshold by the whole range */
+		GATE
+	}
+
+	/**
+	 * How the level of a frame is measured
+	 */
+	public enum Detector {
+		/** Largest absolute sample of the frame */
+		PEAK,
+		/** Root mean square over the last few milliseconds */
+		RMS
+	}
+
+	private static final double RMS_TIME = 0.01;
+	// frames per evaluation of the static curve; short next to any useful attack time
+	private static final int CONTROL_FRAMES = 8;
+	private static final double DB_PER_NEPER = 20 / Math.log(10);
+
+	private final int numChannels;
+	private final float sampleRate;
+	private final Mode mode;
+	private final Detector detector;
+	private final double threshold;
+	private final double thresholdDb;
+	private final double ratio;
+	private final double attackCoefficient;
+	private final double releaseCoefficient;
+	private final double rmsCoefficient;
+	private double rangeGain;
+	private double makeupGain;
+
+	private MusicList sidechain;
+	private Iterator<float[]> sidechainIterator;
+	private float[][] sidechainBlock;
+
+	// per block scratch: the level of each frame, then its gain
+	private double[] gains;
+	private double gain;
+	private double meanSquare;
+	// audio delay line for the look-ahead, per channel
+	private final float[][] delay;
+	private int delayPosition;
+
+	/**
+	 * Create a processor with peak detection, 10 ms attack, 100 ms release and no look-ahead
+	 * @param sampleRate Sample rate of the audio
+	 * @param numChannels Number of channels
+	 * @param mode Compressor, expander or gate
+	 * @param thresholdDb Threshold in dB relative to full scale
+	 * @param ratio Compression or expansion ratio, e.g. 4 for 4:1 (ignored by a gate)
+	 */
+	public DynamicsProcessor(float sampleRate, int numChannels, Mode mode, double thresholdDb, double ratio) {
+		this(sampleRate, numChannels, mode, Detector.PEAK, thresholdDb, ratio, 0.01, 0.1, 0);
+	}
+
+	/**
+	 * Create a processor
+	 * @param sampleRate Sample rate of the audio
+	 * @param numChannels Number of channels
+	 * @param mode Compressor, expander or gate
+	 * @param detector Peak or RMS level detection
+	 * @param thresholdDb Threshold in dB relative to full scale
+	 * @param ratio Compression or expansion ratio, at least 1 (ignored by a gate)
+	 * @param attack Time in seconds for the gain to move most of the way when the level rises
+	 * @param release Time in seconds for the gain to move most of the way when the level falls
+	 * @param lookAhead Time in seconds the audio is delayed behind the detector
+	 */
+	public DynamicsProcessor(float sampleRate, int numChannels, Mode mode, Detector detector, double thresholdDb,
+			double ratio, double attack, double release, double lookAhead) {
+		if (ratio < 1) {
+			throw new IllegalArgumentException("Ratio must be at least 1");
+		}
+		this.numChannels = numChannels;
+		this.sampleRate = sampleRate;
+		this.mode = mode;
+		this.detector = detector;
+		this.thresholdDb = thresholdDb;
+		this.threshold = Math.pow(10, thresholdDb / 20);
+		this.ratio = ratio;
+		this.attackCoefficient = coefficient(attack, sampleRate);
+		this.releaseCoefficient = coefficient(release, sampleRate);
+		this.rmsCoefficient = coefficient(RMS_TIME, sampleRate);
+		this.rangeGain = Math.pow(10, -80 / 20.0);
+		this.makeupGain = 1;
+		this.gains = new double[0];
+		this.delay = new float[numChannels][Math.max(0, (int) Math.round(lookAhead * sampleRate))];
+		reset();
+	}
+
+	/**
+	 * Set the most an expander or gate turns the audio down
+	 * @param rangeDb Largest reduction in dB, e.g. 80
+	 */
+	public void setRange(double rangeDb) {
+		this.rangeGain = Math.pow(10, -Math.abs(rangeDb) / 20);
+	}
+
+	/**
+	 * Set a gain applied after the dynamics, to make up for the level a compressor takes away
+	 * @param gainDb Gain in dB
+	 */
+	public void setMakeupGain(double gainDb) {
+		this.makeupGain = Math.pow(10, gainDb / 20);
+	}
+
+	/**
+	 * Detect the level of another list instead of the input.  The sidechain is read in step with the
+	 * processed audio from its first frame (again after reset), and counts as silence once it runs out.
+	 * @param key The sidechain, at the same sample rate, with any number of channels; null to detect
+	 *        the input again
+	 */
+	public void setSidechain(MusicList key) {
+		if (key != null && key.getSampleRate() != sampleRate) {
+			throw new IllegalArgumentException("Sidechain sample rate " + key.getSampleRate() + " does not match " + sampleRate);
+		}
+		this.sidechain = key;
+		this.sidechainIterator = key == null ? null : key.iterator();
+		this.sidechainBlock = key == null ? null : new float[key.getNumChannels()][0];
+	}
+
+	/**
+	 * Returns the gain the dynamics apply now, before makeup gain
+	 * @return gain in dB, 0 or less
+	 */
+	public double getGainReduction() {
+		return Math.log(gain) * DB_PER_NEPER;
+	}
+
+	@Override
+	public void process(float[][] block, int frames) {
+		if (sidechain == null) {
+			process(block, block, frames);
+			return;
+		}
+		if (sidechainBlock[0].length < frames) {
+			sidechainBlock = new float[sidechainBlock.length][frames];
+		}
+		for (int i = 0; i < frames; i++) {
+			float[] next = sidechainIterator.hasNext() ? sidechainIterator.next() : null;
+			for (int c = 0; c < sidechainBlock.length; c++) {
+				sidechainBlock[c][i] = next == null ? 0 : next[c];
+			}
+		}
+		process(block, sidechainBlock, frames);
+	}
+
+	/**
+	 * Process a block in place, detecting the level of a separate key signal
+	 * @param block One array per channel; the first frames entries of each are processed
+	 * @param key One array per key channel, frame aligned with block (may be block itself)
+	 * @param frames Number of frames in the block
+	 */
+	public void process(float[][] block, float[][] key, int frames) {
+		if (gains.length < frames) {
+			gains = new double[frames];
+		}
+		detect(key, frames);
+		computeGains(frames);
+		applyGains(block, frames);
+	}
+
+	@Override
+	public int getLatency() {
+		return delay[0].length;
+	}
+
+	@Override
+	public void reset() {
+		for (int c = 0; c < numChannels; c++) {
+			Arrays.fill(delay[c], 0);
+		}
+		delayPosition = 0;
+		gain = 1;
+		meanSquare = 0;
+		if (sidechain != null) {
+			sidechainIterator = sidechain.iterator();
+		}
+	}
+
+	/**
+	 * Fill gains with the level of each frame of the key: its peak, or its mean square for RMS detection
+	 */
+	private void detect(float[][] key, int frames) {
+		double[] level = gains;
+		Arrays.fill(level, 0, frames, 0);
+		if (detector == Detector.PEAK) {
+			for (float[] channel : key) {
+				for (int i = 0; i < frames; i++) {
+					level[i] = Math.max(level[i], Math.abs(channel[i]));
+				}
+			}
+			return;
+		}
+		for (float[] channel : key) {
+			for (int i = 0; i < frames; i++) {
+				level[i] += channel[i] * channel[i];
+			}
+		}
+		double scale = 1.0 / key.length;
+		double state = meanSquare;
+		for (int i = 0; i < frames; i++) {
+			state = level[i] * scale + (state - level[i] * scale) * rmsCoefficient;
+			level[i] = state;
+		}
+		meanSquare = state;
+	}
+
+	/**
+	 * Turn the level of each frame in gains into the smoothed gain for that frame.  The static curve is
+	 * evaluated once per CONTROL_FRAMES frames, on the loudest level among them, and the smoothing
+	 * runs every frame.
+	 */
+	private void computeGains(int frames) {
+		double[] level = gains;
+		double current = gain;
+		for (int start = 0; start < frames; start += CONTROL_FRAMES) {
+			int end = Math.min(frames, start + CONTROL_FRAMES);
+			double loudest = 0;
+			for (int i = start; i < end; i++) {
+				loudest = Math.max(loudest, level[i]);
+			}
+			double target = target(detector == Detector.RMS ? Math.sqrt(loudest) : loudest);
+			for (int i = start; i < end; i++) {
+				// a compressor attacks by turning down, an expander or gate by opening up
+				boolean attacking = mode == Mode.COMPRESSOR ? target < current : target > current;
+				current = target + (current - target) * (attacking ? attackCoefficient : releaseCoefficient);
+				level[i] = current * makeupGain;
+			}
+		}
+		gain = current;
+	}
+
+	/**
+	 * The static curve: the gain for a level, before smoothing
+	 */
+	private double target(double level) {
+		switch (mode) {
+		case COMPRESSOR:
+			if (level <= threshold) {
+				return 1;
+			}
+			return Math.exp((Math.log(level) * DB_PER_NEPER - thresholdDb) * (1 / ratio - 1) / DB_PER_NEPER);
+		case EXPANDER:
+			if (level >= threshold) {
+				return 1;
+			}
+			if (level == 0) {
+				return rangeGain;
+			}
+			return Math.max(rangeGain, Math.exp((thresholdDb - Math.log(level) * DB_PER_NEPER) * (1 - ratio) / DB_PER_NEPER));
+		default:
+			return level >= threshold ? 1 : rangeGain;
+		}
+	}
+
+	/**
+	 * Delay each channel by the look-ahead and multiply it by the gains
+	 */
+	private void applyGains(float[][] block, int frames) {
+		int length = delay[0].length;
+		for (int c = 0; c < numChannels; c++) {
+			float[] channel = block[c];
+			if (length > 0) {
+				float[] line = delay[c];
+				int position = delayPosition;
+				for (int i = 0; i < frames; i++) {
+					float delayed = line[position];
+					line[position] = channel[i];
+					channel[i] = delayed;
+					if (++position == length) {
+						position = 0;
+					}
+				}
+			}
+			for (int i = 0; i < frames; i++) {
+				channel[i] = (float) (channel[i] * gains[i]);
+			}
+		}
+		if (length > 0) {
+			delayPosition = (int) ((delayPosition + (long) frames) % length);
+		}
+	}
+
+	/**
+	 * One pole smoothing coefficient that covers most of the way in the given time
+	 */
+	private static double coefficient(double seconds, float sampleRate) {
+		return seconds <= 0 ? 0 : Math.exp(-1.0 / (seconds * sampleRate));
+	}
+}
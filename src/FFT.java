@@ -0,0 +1,112 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-place radix-2 fast Fourier transform.  A plan holds the bit reversal table and twiddle factors for
+ * one size; plans are immutable, so one plan can be shared by any number of threads, and getPlan caches
+ * them so repeated transforms of the same size never recompute the tables.
+ */
+public class FFT {
+	private static final ConcurrentHashMap<Integer, FFT> plans = new ConcurrentHashMap<Integer, FFT>();
+
+	private final int size;
+	private final int[] reversed;
+	private final double[] cos;
+	private final double[] sin;
+
+	/**
+	 * Returns the (shared) plan for a transform size
+	 * @param size Number of points, a power of two
+	 * @return the plan
+	 */
+	public static FFT getPlan(int size) {
+		FFT plan = plans.get(size);
+		if (plan == null) {
+			plan = plans.computeIfAbsent(size, key -> new FFT(key));
+		}
+		return plan;
+	}
+
+	/**
+	 * Create a plan.  Prefer getPlan, which caches plans.
+	 * @param size Number of points, a power of two
+	 */
+	public FFT(int size) {
+		if (size < 1 || (size & (size - 1)) != 0) {
+			throw new IllegalArgumentException("FFT size must be a power of two: " + size);
+		}
+		this.size = size;
+		this.reversed = new int[size];
+		int bits = Integer.numberOfTrailingZeros(size);
+		for (int i = 0; i < size; i++) {
+			reversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+		}
+		this.cos = new double[size / 2];
+		this.sin = new double[size / 2];
+		for (int i = 0; i < size / 2; i++) {
+			cos[i] = Math.cos(2 * Math.PI * i / size);
+			sin[i] = Math.sin(2 * Math.PI * i / size);
+		}
+	}
+
+	/**
+	 * Returns the transform size
+	 * @return number of points
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Forward transform, in place
+	 * @param re Real parts, size long
+	 * @param im Imaginary parts, size long
+	 */
+	public void transform(double[] re, double[] im) {
+		transform(re, im, -1);
+	}
+
+	/**
+	 * Inverse transform, in place, scaled by 1/size so that inverse(transform(x)) is x
+	 * @param re Real parts, size long
+	 * @param im Imaginary parts, size long
+	 */
+	public void inverse(double[] re, double[] im) {
+		transform(re, im, 1);
+		double scale = 1.0 / size;
+		for (int i = 0; i < size; i++) {
+			re[i] *= scale;
+			im[i] *= scale;
+		}
+	}
+
+	private void transform(double[] re, double[] im, int sign) {
+		for (int i = 0; i < size; i++) {
+			int j = reversed[i];
+			if (j > i) {
+				double t = re[i];
+				re[i] = re[j];
+				re[j] = t;
+				t = im[i];
+				im[i] = im[j];
+				im[j] = t;
+			}
+		}
+		for (int half = 1; half < size; half *= 2) {
+			int step = size / (2 * half);
+			for (int start = 0; start < size; start += 2 * half) {
+				for (int k = 0; k < half; k++) {
+					double wr = cos[k * step];
+					double wi = sign * sin[k * step];
+					int a = start + k;
+					int b = a + half;
+					double xr = re[b] * wr - im[b] * wi;
+					double xi = re[b] * wi + im[b] * wr;
+					re[b] = re[a] - xr;
+					im[b] = im[a] - xi;
+					re[a] += xr;
+					im[a] += xi;
+				}
+			}
+		}
+	}
+}
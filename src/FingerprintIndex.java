@@ -0,0 +1,491 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds where a short clip occurs in a library of MusicLists, using landmark fingerprints.
+ *
+ * Audio is mixed to mono and resampled to 8 kHz, and an STFT finds the strongest peak in each of a few
+ * frequency bands of every frame.  Each peak (the anchor) is paired with the next few peaks up to two
+ * seconds later, and each pair becomes a 24 bit hash of both frequencies and the time between them.
+ * Hashes do not depend on where the clip starts, so a query looks up every hash of the clip in an
+ * inverted index of (track, anchor frame) postings and counts, per track, how often each time offset
+ * between track and clip turns up.  The true position shows up as a large count at one offset.
+ *
+ * The index is held in primitive arrays (an open addressing table from hash to a chain of postings),
+ * so a posting costs 12 bytes.  add may be called from several threads; the STFT runs outside the lock.
+ */
+public class FingerprintIndex {
+	public static final float ANALYSIS_RATE = 8000;
+	public static final int FRAME_SIZE = 1024;
+	public static final int HOP_SIZE = 256;
+	public static final int MIN_SCORE = 20;
+
+	private static final int FILE_MAGIC = 0x46504958;
+	private static final int FILE_VERSION = 1;
+	private static final int[] BAND_EDGES = { 1, 10, 20, 40, 80, 160, 512 };
+	private static final int FAN_OUT = 5;
+	private static final int MAX_PAIR_FRAMES = 63;
+	private static final float PEAK_FLOOR = 1e-6f;
+
+	private final List<String> names = new ArrayList<String>();
+	private final IntLongMultiMap postings = new IntLongMultiMap();
+
+	/**
+	 * Fingerprint a list and add it to the index
+	 * @param name Name reported when the list matches a query
+	 * @param list The list to index.  It is not modified.
+	 * @return the track number of the list
+	 */
+	public int add(String name, MusicList list) {
+		Landmarks landmarks = fingerprint(list);
+		synchronized (this) {
+			int track = names.size();
+			names.add(name);
+			for (int i = 0; i < landmarks.count; i++) {
+				postings.put(landmarks.hashes[i], ((long) track << 32) | landmarks.times[i]);
+			}
+			return track;
+		}
+	}
+
+	/**
+	 * Returns the number of lists in the index
+	 * @return number of tracks
+	 */
+	public synchronized int getNumTracks() {
+		return names.size();
+	}
+
+	/**
+	 * Returns the number of landmarks in the index
+	 * @return number of postings
+	 */
+	public synchronized int getNumLandmarks() {
+		return postings.size();
+	}
+
+	/**
+	 * Find the best match for a clip
+	 * @param clip The clip to look for.  It is not modified.
+	 * @return the best match, or null if no track has at least MIN_SCORE aligned landmarks
+	 */
+	public Match query(MusicList clip) {
+		List<Match> matches = query(clip, 1);
+		return matches.isEmpty() ? null : matches.get(0);
+	}
+
+	/**
+	 * Find the tracks a clip most likely comes from
+	 * @param clip The clip to look for.  It is not modified.
+	 * @param maxResults Largest number of matches to return
+	 * @return matches with at least MIN_SCORE aligned landmarks, best first, at most one per track
+	 */
+	public List<Match> query(MusicList clip, int maxResults) {
+		Landmarks landmarks = fingerprint(clip);
+		LongIntCounter offsets = new LongIntCounter();
+		int[] bestScore;
+		int[] bestOffset;
+		synchronized (this) {
+			for (int i = 0; i < landmarks.count; i++) {
+				for (int p = postings.first(landmarks.hashes[i]); p >= 0; p = postings.next(p)) {
+					long posting = postings.value(p);
+					int offset = (int) posting - landmarks.times[i];
+					offsets.increment((posting & 0xFFFFFFFF00000000L) | (offset & 0xFFFFFFFFL));
+				}
+			}
+			bestScore = new int[names.size()];
+			bestOffset = new int[names.size()];
+		}
+		for (int slot = 0; slot < offsets.capacity(); slot++) {
+			int count = offsets.countAt(slot);
+			if (count > 0) {
+				long key = offsets.keyAt(slot);
+				int track = (int) (key >>> 32);
+				if (count > bestScore[track]) {
+					bestScore[track] = count;
+					bestOffset[track] = (int) key;
+				}
+			}
+		}
+
+		List<Match> matches = new ArrayList<Match>();
+		for (int track = 0; track < bestScore.length; track++) {
+			if (bestScore[track] >= MIN_SCORE) {
+				matches.add(new Match(track, getName(track), bestOffset[track] * HOP_SIZE / ANALYSIS_RATE, bestScore[track]));
+			}
+		}
+		matches.sort((a, b) -> b.getScore() - a.getScore());
+		return matches.size() > maxResults ? new ArrayList<Match>(matches.subList(0, maxResults)) : matches;
+	}
+
+	/**
+	 * Write the index to a file
+	 * @param filename The file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public synchronized void save(String filename) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+		try {
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FILE_VERSION);
+			out.writeInt(names.size());
+			for (String name : names) {
+				out.writeUTF(name);
+			}
+			out.writeInt(postings.size());
+			for (int slot = 0; slot < postings.capacity(); slot++) {
+				for (int p = postings.firstAt(slot); p >= 0; p = postings.next(p)) {
+					out.writeInt(postings.keyAt(slot));
+					out.writeLong(postings.value(p));
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Read an index written by save
+	 * @param filename The file to read
+	 * @return the index
+	 * @throws IOException if the file cannot be read or is not in this format
+	 */
+	public static FingerprintIndex load(String filename) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+		try {
+			if (in.readInt() != FILE_MAGIC) {
+				throw new IOException(filename + " is not a fingerprint index");
+			}
+			int version = in.readInt();
+			if (version != FILE_VERSION) {
+				throw new IOException("Unsupported fingerprint index version " + version);
+			}
+			FingerprintIndex index = new FingerprintIndex();
+			int numTracks = in.readInt();
+			for (int t = 0; t < numTracks; t++) {
+				index.names.add(in.readUTF());
+			}
+			int numPostings = in.readInt();
+			for (int p = 0; p < numPostings; p++) {
+				int hash = in.readInt();
+				index.postings.put(hash, in.readLong());
+			}
+			return index;
+		} finally {
+			in.close();
+		}
+	}
+
+	private synchronized String getName(int track) {
+		return names.get(track);
+	}
+
+	/**
+	 * Mix a list down to mono at ANALYSIS_RATE and find its landmarks
+	 */
+	private static Landmarks fingerprint(MusicList list) {
+		MusicList mono = list;
+		if (list.getSampleRate() != ANALYSIS_RATE && list.getNumSamples() >= 2) {
+			float[][] planar = ChannelBuffers.toPooledPlanar(list);
+			int frames = list.getNumSamples();
+			float[] mixed = planar[0];
+			for (int c = 1; c < planar.length; c++) {
+				for (int i = 0; i < frames; i++) {
+					mixed[i] += planar[c][i];
+				}
+			}
+			PlanarOps.gain(mixed, 0, frames, 1f / planar.length);
+			float[] resampled = new float[PlanarOps.resampledLength(frames, list.getSampleRate(), ANALYSIS_RATE)];
+			PlanarOps.resample(mixed, frames, list.getSampleRate(), ANALYSIS_RATE, resampled);
+			AudioBufferPool.release(planar);
+			mono = ChannelBuffers.toList(new float[][] { resampled }, resampled.length, ANALYSIS_RATE);
+		}
+
+		final Landmarks landmarks = new Landmarks();
+		// peaks of the last MAX_PAIR_FRAMES frames that may still anchor a pair, oldest first
+		final int ringSize = (MAX_PAIR_FRAMES + 1) * (BAND_EDGES.length - 1);
+		final int[] peakFrame = new int[ringSize];
+		final int[] peakBin = new int[ringSize];
+		final int[] peakPairs = new int[ringSize];
+		final int[] ring = new int[2];
+		final int[] bandPeak = new int[BAND_EDGES.length - 1];
+
+		new STFT(FRAME_SIZE, HOP_SIZE).process(mono, new STFT.FrameConsumer() {
+			@Override
+			public void frame(int index, float[] power) {
+				// strongest bin per band, kept if louder than the average of the band maxima
+				float mean = 0;
+				for (int b = 0; b < bandPeak.length; b++) {
+					int best = BAND_EDGES[b];
+					for (int bin = BAND_EDGES[b] + 1; bin < BAND_EDGES[b + 1]; bin++) {
+						if (power[bin] > power[best]) {
+							best = bin;
+						}
+					}
+					bandPeak[b] = best;
+					mean += power[best] / bandPeak.length;
+				}
+
+				while (ring[1] > 0 && peakFrame[ring[0]] < index - MAX_PAIR_FRAMES) {
+					ring[0] = (ring[0] + 1) % ringSize;
+					ring[1]--;
+				}
+				for (int b = 0; b < bandPeak.length; b++) {
+					int bin = bandPeak[b];
+					if (power[bin] < mean || power[bin] < PEAK_FLOOR) {
+						continue;
+					}
+					for (int r = 0; r < ring[1]; r++) {
+						int anchor = (ring[0] + r) % ringSize;
+						if (peakFrame[anchor] < index && peakPairs[anchor] < FAN_OUT) {
+							peakPairs[anchor]++;
+							landmarks.add(hash(peakBin[anchor], bin, index - peakFrame[anchor]), peakFrame[anchor]);
+						}
+					}
+					int slot = (ring[0] + ring[1]) % ringSize;
+					peakFrame[slot] = index;
+					peakBin[slot] = bin;
+					peakPairs[slot] = 0;
+					ring[1]++;
+				}
+			}
+		});
+		return landmarks;
+	}
+
+	private static int hash(int anchorBin, int bin, int frames) {
+		return (Math.min(anchorBin, 511) << 15) | (Math.min(bin, 511) << 6) | frames;
+	}
+
+	/**
+	 * Where a clip was found
+	 */
+	public static class Match {
+		private final int track;
+		private final String name;
+		private final float startTime;
+		private final int score;
+
+		/**
+		 * Create a match
+		 * @param track Track number
+		 * @param name Track name
+		 * @param startTime Time in the track where the clip starts, in seconds
+		 * @param score Number of landmarks that agree on startTime
+		 */
+		public Match(int track, String name, float startTime, int score) {
+			this.track = track;
+			this.name = name;
+			this.startTime = startTime;
+			this.score = score;
+		}
+
+		/**
+		 * Returns the track number, as returned by add
+		 * @return track number
+		 */
+		public int getTrack() {
+			return track;
+		}
+
+		/**
+		 * Returns the track name
+		 * @return name given to add
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns where the clip starts in the track, to the nearest STFT hop (32 ms)
+		 * @return start time in seconds; negative if the clip starts before the track
+		 */
+		public float getStartTime() {
+			return startTime;
+		}
+
+		/**
+		 * Returns the number of landmarks that agree on the start time
+		 * @return score
+		 */
+		public int getScore() {
+			return score;
+		}
+
+		@Override
+		public String toString() {
+			return name + " at " + startTime + "s (score " + score + ")";
+		}
+	}
+
+	/**
+	 * Growable list of (hash, anchor frame) pairs
+	 */
+	private static class Landmarks {
+		int[] hashes = new int[1024];
+		int[] times = new int[1024];
+		int count;
+
+		void add(int hash, int time) {
+			if (count == hashes.length) {
+				hashes = Arrays.copyOf(hashes, count * 2);
+				times = Arrays.copyOf(times, count * 2);
+			}
+			hashes[count] = hash;
+			times[count] = time;
+			count++;
+		}
+	}
+
+	/**
+	 * Map from int keys to chains of long values, in primitive arrays.  Each key has a slot in an open
+	 * addressing table holding the index of its newest value; each value holds the index of the one
+	 * added before it.
+	 */
+	private static class IntLongMultiMap {
+		private int[] keys = new int[1024];
+		private int[] heads = new int[1024];
+		private int usedSlots;
+		private long[] values = new long[1024];
+		private int[] nextValue = new int[1024];
+		private int size;
+
+		IntLongMultiMap() {
+			Arrays.fill(heads, -1);
+		}
+
+		int size() {
+			return size;
+		}
+
+		int capacity() {
+			return keys.length;
+		}
+
+		void put(int key, long value) {
+			if (usedSlots * 2 >= keys.length) {
+				grow();
+			}
+			int slot = find(key);
+			if (heads[slot] < 0) {
+				keys[slot] = key;
+				usedSlots++;
+			}
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+				nextValue = Arrays.copyOf(nextValue, size * 2);
+			}
+			values[size] = value;
+			nextValue[size] = heads[slot];
+			heads[slot] = size;
+			size++;
+		}
+
+		/** Returns the index of the newest value for key, or -1 */
+		int first(int key) {
+			return heads[find(key)];
+		}
+
+		/** Returns the index of the newest value in a slot, or -1 if the slot is empty */
+		int firstAt(int slot) {
+			return heads[slot];
+		}
+
+		int keyAt(int slot) {
+			return keys[slot];
+		}
+
+		/** Returns the index of the value added before value index, for the same key, or -1 */
+		int next(int index) {
+			return nextValue[index];
+		}
+
+		long value(int index) {
+			return values[index];
+		}
+
+		private int find(int key) {
+			int mask = keys.length - 1;
+			int slot = (key * 0x9E3779B9) >>> 7 & mask;
+			while (heads[slot] >= 0 && keys[slot] != key) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private void grow() {
+			int[] oldKeys = keys;
+			int[] oldHeads = heads;
+			keys = new int[oldKeys.length * 2];
+			heads = new int[oldKeys.length * 2];
+			Arrays.fill(heads, -1);
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldHeads[i] >= 0) {
+					int slot = find(oldKeys[i]);
+					keys[slot] = oldKeys[i];
+					heads[slot] = oldHeads[i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts occurrences of long keys, in an open addressing table
+	 */
+	private static class LongIntCounter {
+		private long[] keys = new long[256];
+		private int[] counts = new int[256];
+		private int used;
+
+		int capacity() {
+			return keys.length;
+		}
+
+		long keyAt(int slot) {
+			return keys[slot];
+		}
+
+		int countAt(int slot) {
+			return counts[slot];
+		}
+
+		void increment(long key) {
+			if (used * 2 >= keys.length) {
+				long[] oldKeys = keys;
+				int[] oldCounts = counts;
+				keys = new long[oldKeys.length * 2];
+				counts = new int[oldKeys.length * 2];
+				for (int i = 0; i < oldKeys.length; i++) {
+					if (oldCounts[i] > 0) {
+						int slot = find(oldKeys[i]);
+						keys[slot] = oldKeys[i];
+						counts[slot] = oldCounts[i];
+					}
+				}
+			}
+			int slot = find(key);
+			if (counts[slot] == 0) {
+				keys[slot] = key;
+				used++;
+			}
+			counts[slot]++;
+		}
+
+		private int find(long key) {
+			int mask = keys.length - 1;
+			int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+			while (counts[slot] > 0 && keys[slot] != key) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+	}
+}
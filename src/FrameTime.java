@@ -0,0 +1,63 @@
+/**
+ * Conversions between frame positions and time for long (multi-day) recordings.  Frame positions are
+ * longs and times are doubles: a float holds only 24 bits, so float seconds at 96 kHz stop being
+ * accurate to the frame after about three minutes, while a double stays exact to the frame for
+ * thousands of years of audio.  Prefer keeping positions in frames and converting only for display.
+ */
+public class FrameTime {
+
+	private FrameTime() {
+	}
+
+	/**
+	 * Returns the frame nearest to a time
+	 * @param seconds Time from the start of the list
+	 * @param sampleRate Sample rate, in frames per second
+	 * @return frame position
+	 */
+	public static long toFrames(double seconds, double sampleRate) {
+		return Math.round(seconds * sampleRate);
+	}
+
+	/**
+	 * Returns the time of a frame
+	 * @param frame Frame position
+	 * @param sampleRate Sample rate, in frames per second
+	 * @return seconds from the start of the list
+	 */
+	public static double toSeconds(long frame, double sampleRate) {
+		return frame / sampleRate;
+	}
+
+	/**
+	 * Returns a frame count as an int, for the int based parts of the MusicList API
+	 * @param frames Frame count
+	 * @return the same count
+	 * @throws IllegalStateException if the count does not fit in an int
+	 */
+	public static int toIntFrames(long frames) {
+		if (frames > Integer.MAX_VALUE) {
+			throw new IllegalStateException(frames + " frames do not fit in an int; use getFrameCount()");
+		}
+		return (int) frames;
+	}
+
+	/**
+	 * Format a frame position as hours:minutes:seconds plus frames, e.g. "50:00:01+2205" for 50 hours,
+	 * 1 second and 2205 frames.  For whole number sample rates this is exact; other rates show
+	 * fractional seconds instead of frames.
+	 * @param frame Frame position
+	 * @param sampleRate Sample rate, in frames per second
+	 * @return the formatted position
+	 */
+	public static String format(long frame, float sampleRate) {
+		long rate = (long) sampleRate;
+		if (rate == sampleRate && rate > 0) {
+			long seconds = frame / rate;
+			return String.format("%d:%02d:%02d+%d", seconds / 3600, seconds / 60 % 60, seconds % 60, frame % rate);
+		}
+		double seconds = toSeconds(frame, sampleRate);
+		long whole = (long) seconds;
+		return String.format("%d:%02d:%09.6f", whole / 3600, whole / 60 % 60, seconds - whole / 60 * 60);
+	}
+}
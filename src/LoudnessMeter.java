@@ -0,0 +1,252 @@
+import java.util.Arrays;
+
+/**
+ * Loudness meter following ITU-R BS.1770-4 / EBU R128.  Audio is K-weighted (a high shelf followed
+ * by a high pass, per channel), mean squares are gathered in 100 ms steps, and from those the meter
+ * reports momentary (400 ms), short-term (3 s) and gated integrated loudness, in LUFS.
+ *
+ * The meter is an AudioProcessor that leaves its input untouched, so it can sit anywhere in a
+ * ProcessorChain.  Memory is one double per 100 ms of audio for the integrated measurement.
+ */
+public class LoudnessMeter implements AudioProcessor {
+	private static final double ABSOLUTE_GATE = -70;
+	private static final double RELATIVE_GATE = -10;
+	private static final int MOMENTARY_STEPS = 4;
+	private static final int SHORT_TERM_STEPS = 30;
+
+	private final int numChannels;
+	private final double[] channelWeights;
+	private final int stepFrames;
+	// K-weighting filter coefficients (b0, b1, b2, a1, a2) for the shelf and the high pass
+	private final double[] shelf;
+	private final double[] highPass;
+	// per channel filter state, two values per stage
+	private final double[][] state;
+
+	private final double[] stepSums;
+	private int stepFill;
+	// weighted mean square of the last SHORT_TERM_STEPS completed 100 ms steps, as a ring
+	private final double[] stepPowers;
+	private int stepCount;
+	// power of each 400 ms gating block, used for the integrated loudness
+	private double[] blockPowers;
+	private int blockCount;
+
+	/**
+	 * Create a meter
+	 * @param sampleRate Sample rate of the audio, in samples per second
+	 * @param numChannels Number of channels.  With 6 channels the layout is taken to be 5.1 (WAV order),
+	 *        so the LFE channel is ignored and the surrounds are weighted by +1.5 dB.
+	 */
+	public LoudnessMeter(float sampleRate, int numChannels) {
+		this.numChannels = numChannels;
+		this.channelWeights = new double[numChannels];
+		for (int c = 0; c < numChannels; c++) {
+			channelWeights[c] = 1.0;
+		}
+		if (numChannels == 6) {
+			channelWeights[3] = 0;
+			channelWeights[4] = 1.41;
+			channelWeights[5] = 1.41;
+		}
+		this.stepFrames = Math.max(1, Math.round(sampleRate * 0.1f));
+		this.shelf = highShelf(sampleRate);
+		this.highPass = highPass(sampleRate);
+		this.state = new double[numChannels][4];
+		this.stepSums = new double[numChannels];
+		this.stepPowers = new double[SHORT_TERM_STEPS];
+		this.blockPowers = new double[64];
+		reset();
+	}
+
+	/**
+	 * Measure the integrated loudness of a whole MusicList
+	 * @param list The list to measure
+	 * @return integrated loudness in LUFS (negative infinity for silence)
+	 */
+	public static double measureIntegrated(MusicList list) {
+		LoudnessMeter meter = new LoudnessMeter(list.getSampleRate(), list.getNumChannels());
+		ProcessorChain.analyze(list, meter);
+		return meter.getIntegratedLoudness();
+	}
+
+	/**
+	 * Normalize a MusicList to a target integrated loudness, limiting true peaks to a ceiling.  The list
+	 * is read twice: once to measure, once to apply the gain and limiter.
+	 * @param list The list to normalize.  It is not modified.
+	 * @param targetLufs Target integrated loudness, e.g. -23 for EBU R128 broadcast
+	 * @param ceilingDbtp True peak ceiling in dBTP, e.g. -1
+	 * @return the normalized audio
+	 */
+	public static MusicLinkedList normalize(MusicList list, double targetLufs, double ceilingDbtp) {
+		double measured = measureIntegrated(list);
+		double gainDb = Double.isInfinite(measured) ? 0 : targetLufs - measured;
+		TruePeakLimiter limiter = new TruePeakLimiter(list.getSampleRate(), list.getNumChannels(), ceilingDbtp);
+		limiter.setInputGain(Math.pow(10, gainDb / 20));
+		return ProcessorChain.render(list, limiter, ProcessorChain.DEFAULT_BLOCK_SIZE);
+	}
+
+	@Override
+	public void process(float[][] block, int frames) {
+		for (int i = 0; i < frames; i++) {
+			for (int c = 0; c < numChannels; c++) {
+				double[] s = state[c];
+				double x = block[c][i];
+				// direct form II transposed, shelf then high pass
+				double y = shelf[0] * x + s[0];
+				s[0] = shelf[1] * x - shelf[3] * y + s[1];
+				s[1] = shelf[2] * x - shelf[4] * y;
+				double z = highPass[0] * y + s[2];
+				s[2] = highPass[1] * y - highPass[3] * z + s[3];
+				s[3] = highPass[2] * y - highPass[4] * z;
+				stepSums[c] += z * z;
+			}
+			if (++stepFill == stepFrames) {
+				finishStep();
+			}
+		}
+	}
+
+	@Override
+	public int getLatency() {
+		return 0;
+	}
+
+	@Override
+	public void reset() {
+		for (int c = 0; c < numChannels; c++) {
+			for (int k = 0; k < 4; k++) {
+				state[c][k] = 0;
+			}
+			stepSums[c] = 0;
+		}
+		stepFill = 0;
+		stepCount = 0;
+		blockCount = 0;
+	}
+
+	/**
+	 * Returns the loudness of the last 400 ms
+	 * @return momentary loudness in LUFS (negative infinity until 400 ms have been processed)
+	 */
+	public double getMomentaryLoudness() {
+		return windowLoudness(MOMENTARY_STEPS);
+	}
+
+	/**
+	 * Returns the loudness of the last 3 seconds
+	 * @return short-term loudness in LUFS (negative infinity until 3 s have been processed)
+	 */
+	public double getShortTermLoudness() {
+		return windowLoudness(SHORT_TERM_STEPS);
+	}
+
+	/**
+	 * Returns the gated loudness of everything processed so far
+	 * @return integrated loudness in LUFS (negative infinity if every block is below the absolute gate)
+	 */
+	public double getIntegratedLoudness() {
+		double absoluteGate = toPower(ABSOLUTE_GATE);
+		double sum = 0;
+		int count = 0;
+		for (int b = 0; b < blockCount; b++) {
+			if (blockPowers[b] > absoluteGate) {
+				sum += blockPowers[b];
+				count++;
+			}
+		}
+		if (count == 0) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		double relativeGate = toPower(toLoudness(sum / count) + RELATIVE_GATE);
+		sum = 0;
+		count = 0;
+		for (int b = 0; b < blockCount; b++) {
+			if (blockPowers[b] > absoluteGate && blockPowers[b] > relativeGate) {
+				sum += blockPowers[b];
+				count++;
+			}
+		}
+		return count == 0 ? Double.NEGATIVE_INFINITY : toLoudness(sum / count);
+	}
+
+	private void finishStep() {
+		double power = 0;
+		for (int c = 0; c < numChannels; c++) {
+			power += channelWeights[c] * stepSums[c] / stepFrames;
+			stepSums[c] = 0;
+		}
+		stepFill = 0;
+		stepPowers[stepCount % SHORT_TERM_STEPS] = power;
+		stepCount++;
+
+		// gating blocks are 400 ms long and start every 100 ms
+		if (stepCount >= MOMENTARY_STEPS) {
+			if (blockCount == blockPowers.length) {
+				blockPowers = Arrays.copyOf(blockPowers, blockPowers.length * 2);
+			}
+			blockPowers[blockCount++] = windowPower(MOMENTARY_STEPS);
+		}
+	}
+
+	private double windowPower(int steps) {
+		double sum = 0;
+		for (int i = stepCount - steps; i < stepCount; i++) {
+			sum += stepPowers[i % SHORT_TERM_STEPS];
+		}
+		return sum / steps;
+	}
+
+	private double windowLoudness(int steps) {
+		if (stepCount < steps) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		return toLoudness(windowPower(steps));
+	}
+
+	private static double toLoudness(double power) {
+		return -0.691 + 10 * Math.log10(power);
+	}
+
+	private static double toPower(double loudness) {
+		return Math.pow(10, (loudness + 0.691) / 10);
+	}
+
+	/**
+	 * Stage 1 of the K-weighting filter: a +4 dB high shelf around 1.7 kHz, designed for any sample rate
+	 * from the BS.1770 analog prototype.
+	 */
+	private static double[] highShelf(float sampleRate) {
+		double gain = 3.999843853973347;
+		double f0 = 1681.974450955533;
+		double q = 0.7071752369554196;
+		double k = Math.tan(Math.PI * f0 / sampleRate);
+		double vh = Math.pow(10, gain / 20);
+		double vb = Math.pow(vh, 0.4996667741545416);
+		double a0 = 1 + k / q + k * k;
+		return new double[] {
+			(vh + vb * k / q + k * k) / a0,
+			2 * (k * k - vh) / a0,
+			(vh - vb * k / q + k * k) / a0,
+			2 * (k * k - 1) / a0,
+			(1 - k / q + k * k) / a0,
+		};
+	}
+
+	/**
+	 * Stage 2 of the K-weighting filter: the RLB high pass around 38 Hz
+	 */
+	private static double[] highPass(float sampleRate) {
+		double f0 = 38.13547087602444;
+		double q = 0.5003270373238773;
+		double k = Math.tan(Math.PI * f0 / sampleRate);
+		double a0 = 1 + k / q + k * k;
+		return new double[] {
+			1,
+			-2,
+			1,
+			2 * (k * k - 1) / a0,
+			(1 - k / q + k * k) / a0,
+		};
+	}
+}
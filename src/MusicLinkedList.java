@@ -9,9 +9,13 @@ import java.util.NoSuchElementException;
 public class MusicLinkedList implements MusicList{
 	private int numChannels;
 	private float sampleRate;
-	private int numSamples;
+	private long numSamples;
 	private Sample head;
 	private Sample tail;
+	// Normalizing operations (combine and makeMono without clipping) leave the mixed values in the
+	// Samples and record the peak here instead of rebuilding the list; readers divide by it.  Dividing
+	// (rather than multiplying by the reciprocal) keeps the results identical to an eager rescale.
+	private float peakDivisor;
 	
 	public MusicLinkedList(float sampleRate, int numChannels) {
 		this.sampleRate = sampleRate;
@@ -19,6 +23,7 @@ public class MusicLinkedList implements MusicList{
 		this.numSamples = 0;
 		this.head = null;
 		this.tail = null;
+		this.peakDivisor = 1;
 	}
 
 	/**
@@ -44,6 +49,15 @@ public class MusicLinkedList implements MusicList{
 	 * @return The number of samples in the MusicList.
 	 */
 	public int getNumSamples() {
+		return FrameTime.toIntFrames(numSamples);
+	}
+
+
+	/**
+	 * Returns the number of frames in the MusicList
+	 * @return The number of frames in the MusicList.
+	 */
+	public long getFrameCount() {
 		return numSamples;
 	}
 
@@ -64,9 +78,11 @@ public class MusicLinkedList implements MusicList{
 	 *        25 percent volume, and so on.  All samples should be clipped to the range -1 .. 1
 	 */
 	public void addEcho(float delay, float percent) {
+		AudioMetrics.Timer timer = AudioMetrics.startOperation("addEcho");
+		applyPeakDivisor();
 		Sample fromPointer = head;
 		Sample toPointer = head;
-		for (int i = 0 ; i < delay*this.sampleRate; i++) {
+		for (long i = 0 ; i < delay*this.sampleRate; i++) {
 			toPointer = toPointer.next;
 		}
 		while (toPointer != null) {
@@ -80,6 +96,7 @@ public class MusicLinkedList implements MusicList{
 			toPointer = toPointer.next;
 			fromPointer = fromPointer.next;
 		}
+		timer.stop(numSamples, numChannels);
 	}
 
 	
@@ -87,6 +104,7 @@ public class MusicLinkedList implements MusicList{
 	 * Reverse the SoundList.  
 	 */
 	public void reverse() {
+		AudioMetrics.Timer timer = AudioMetrics.startOperation("reverse");
 		Sample sample1 = head;
 		Sample sample2 = sample1.next;
 		Sample sample3 = sample2.next;
@@ -103,7 +121,7 @@ public class MusicLinkedList implements MusicList{
 		Sample channelCrawler2 = sample2;
 		
 		//set all samples to switch direction they point in
-		for (int j = 0; j < numSamples - 3; j++) {
+		for (long j = 0; j < numSamples - 3; j++) {
 			channelCrawler1 = sample1;
 			channelCrawler2 = sample2;
 			
@@ -134,6 +152,7 @@ public class MusicLinkedList implements MusicList{
 		Sample temp = tail;
 		tail = head;
 		head = temp;
+		timer.stop(numSamples, numChannels);
 	}
 
 	
@@ -146,6 +165,26 @@ public class MusicLinkedList implements MusicList{
 		this.sampleRate = this.sampleRate*percentChange;
 	}
 
+
+	/**
+	 * Transpose the sound, keeping its duration.  The list is run through a PitchShifter (a phase
+	 * vocoder) as planar arrays, and the result is written back over the existing Samples.
+	 * @param semitones How far to transpose, in semitones.  12 is an octave up, -12 an octave down
+	 */
+	public void changePitch(float semitones) {
+		AudioMetrics.Timer timer = AudioMetrics.startOperation("changePitch");
+		if (semitones != 0 && numSamples > 0) {
+			float[][] planar = ChannelBuffers.toPooledPlanar(this);
+			try {
+				PitchShifter.shift(planar, getNumSamples(), sampleRate, semitones);
+				copyFromPlanar(planar);
+			} finally {
+				AudioBufferPool.release(planar);
+			}
+		}
+		timer.stop(numSamples, numChannels);
+	}
+
 	
 	/**
 	 * Change the sample rate of the SoundList.  This will increase (or decrease) the number of samples in the list, based on
@@ -154,55 +193,49 @@ public class MusicLinkedList implements MusicList{
 	 * @param newRate the new sampling rate
 	 */
 	public void changeSampleRate(float sampleRate) {
-		Double oldSampleRateDouble = (double) this.sampleRate;
-		Double newSampleRateDouble = (double) sampleRate;
+		AudioMetrics.Timer timer = AudioMetrics.startOperation("changeSampleRate");
 		MusicLinkedList newList = new MusicLinkedList(sampleRate, this.numChannels);
-		Iterator<float[]> itLeading = iterator();
-		Iterator<float[]> itFollowing = iterator();
-		float[] audioLeading = itLeading.next();
-		float[] audioFollowing = itFollowing.next();
-		double oldTimeLeading = 0;
-		double oldTimeFollowing = 0;
-		double newTime = 0;
-		
-		//first data point
-		audioLeading = itLeading.next();
-		oldTimeLeading += 1/oldSampleRateDouble;
-		newList.addSample(audioFollowing);
-		newTime += 1/sampleRate;
-		
-		//rest of data points
-		while (newTime <= this.getDuration()) {
-			while (oldTimeLeading < newTime) {
-				audioLeading = itLeading.next();
-				oldTimeLeading += 1/oldSampleRateDouble;
-			}
-			while (oldTimeFollowing < newTime - 1/oldSampleRateDouble) {
-				audioFollowing = itFollowing.next();
-				oldTimeFollowing += 1/oldSampleRateDouble;
-			}
-			
-			double ratio = (newTime - oldTimeFollowing)/(oldTimeLeading - oldTimeFollowing);
-			float[] newSample = new float[numChannels];
-			for (int c = 0; c < numChannels; c++) {
-				newSample[c] = (float) (audioFollowing[c] + (audioLeading[c] - audioFollowing[c])*ratio);
-			}
-			
-			newList.addSample(newSample);
-			newTime += 1/sampleRate;
+		StreamingResampler resampler = new StreamingResampler(this, sampleRate);
+		while (resampler.hasNext()) {
+			newList.addSample(resampler.next());
 		}
 		this.head = newList.head;
 		this.tail = newList.tail;
 		this.numSamples = newList.numSamples;
 		this.sampleRate = newList.sampleRate;
+		this.peakDivisor = 1;
+		timer.stop(numSamples, numChannels);
 	}
 
-	
+
+	/**
+	 * Change the sample rate of the SoundList, optionally removing the frequencies the new rate cannot hold
+	 * first.  Without that filter, lowering the rate folds everything above half the new rate back down as
+	 * aliasing; with it, the list is low-pass filtered in place (see BiquadCascade.antiAlias, run forwards
+	 * and backwards so nothing shifts in time) before the usual changeSampleRate.
+	 * @param sampleRate the new sampling rate
+	 * @param antiAlias If true and the rate is being lowered, filter before resampling
+	 */
+	public void changeSampleRate(float sampleRate, boolean antiAlias) {
+		if (antiAlias && sampleRate < this.sampleRate && numSamples > 0) {
+			float[][] planar = ChannelBuffers.toPooledPlanar(this);
+			try {
+				BiquadCascade.antiAlias(this.sampleRate, sampleRate, numChannels).filterZeroPhase(planar, getNumSamples());
+				copyFromPlanar(planar);
+			} finally {
+				AudioBufferPool.release(planar);
+			}
+		}
+		changeSampleRate(sampleRate);
+	}
+
+
 	/**
 	 * Add a single sample to the end of the SoundList.  Throws an exception if the soundlist has more than 1 channel 
 	 * @param sample The sample to add
 	 */
 	public void addSample(float audio) {
+		applyPeakDivisor();
 		if (tail == null) {
 			tail = new Sample(audio, null, null);
 			head = tail;
@@ -224,6 +257,7 @@ public class MusicLinkedList implements MusicList{
 		if (audio.length != numChannels) {
 			throw new IllegalArgumentException("Audio being added does not have the correct number of channels");
 		}
+		applyPeakDivisor();
 		if (tail == null) {
 			for (int i = audio.length - 1; i >= 0; i--) {
 				tail = new Sample(audio[i], null, tail);
@@ -283,21 +317,38 @@ public class MusicLinkedList implements MusicList{
 	 * @param duration Duration (in seconds)
 	 */
 	public void clip(float startTime, float duration) {
-		Sample pointer = head;
-		for (int i = 0; i < startTime*this.sampleRate; i++) {
-			pointer = pointer.next;
-		}
-		head = pointer;
-		for (int i = 0; i < duration*this.sampleRate; i++) {
-			pointer = pointer.next;
+		long startFrame = Math.min(PlanarOps.framesBefore(startTime, sampleRate), numSamples);
+		clipFrames(startFrame, Math.min(PlanarOps.framesBefore(duration, sampleRate) + 1, numSamples - startFrame));
+	}
+
+
+	/**
+	 * Trim the SoundList to a range of frames.  Only the frames up to the end of the range are visited.
+	 * @param startFrame First frame to keep
+	 * @param frameCount Number of frames to keep
+	 * @throws IndexOutOfBoundsException if the range is not inside the list
+	 */
+	public void clipFrames(long startFrame, long frameCount) {
+		if (startFrame < 0 || frameCount < 0 || startFrame + frameCount > numSamples) {
+			throw new IndexOutOfBoundsException("Frames " + startFrame + " .. " + (startFrame + frameCount) + " out of range (" + numSamples + " frames)");
 		}
-		tail = pointer;
-		
-		Sample tailChannelIterator = tail;
-		for (int i = 0; i < numChannels; i++) {
-			tailChannelIterator.next = null;
-			tailChannelIterator = tailChannelIterator.nextChannel;
+		AudioMetrics.Timer timer = AudioMetrics.startOperation("clip");
+		if (frameCount == 0) {
+			head = null;
+			tail = null;
+			peakDivisor = 1;
+		} else {
+			Sample first = frameAt(startFrame);
+			Sample last = first;
+			for (long i = 1; i < frameCount; i++) {
+				last = last.next;
+			}
+			linkFrames(last, null);
+			head = first;
+			tail = last;
 		}
+		numSamples = frameCount;
+		timer.stop(numSamples, numChannels);
 	}
 
 	
@@ -308,13 +359,15 @@ public class MusicLinkedList implements MusicList{
 	 * @param clipToSplice The other SoundClip to splice in.  
 	 */
 	public void spliceIn(float startSpliceTime, MusicList clipToSplice) {
+		AudioMetrics.Timer timer = AudioMetrics.startOperation("spliceIn");
+		applyPeakDivisor();
 		if (clipToSplice.getSampleRate() != this.sampleRate) {
 			clipToSplice.changeSampleRate(this.sampleRate);
 		}
 		
 		//find point where clip will be spliced in
 		Sample pointer = head;
-		for (int i = 0; i < startSpliceTime*this.sampleRate; i++) {
+		for (long i = 0; i < startSpliceTime*this.sampleRate; i++) {
 			pointer = pointer.next;
 		}
 		
@@ -340,6 +393,183 @@ public class MusicLinkedList implements MusicList{
 		
 		//set tail to end of second part of original clip
 		this.tail = tempTail;
+		timer.stop(numSamples, numChannels);
+	}
+
+
+	/**
+	 * Splice a new SoundList into this soundList at the same point as spliceIn, blending each join with an
+	 * equal-power crossfade: the last crossfade seconds before the splice point fade out while the start of
+	 * the clip fades in over them, and the end of the clip fades out over the start of the rest of this list.
+	 * Each crossfade overlaps the audio on both sides, so the list grows by the clip's length less both
+	 * crossfades.  The crossfades are shortened if either side is too short for them.
+	 *
+	 * If clipToSplice is a MusicLinkedList with the same sample rate, its Samples are linked in without
+	 * copying and it is left empty.  Otherwise it is copied (through a StreamingResampler if its sample rate
+	 * differs) and not modified.
+	 * Apart from finding the splice point (and, for a crossfade, the end of the clip), the work is
+	 * proportional to the crossfade length.
+	 * @param startSpliceTime Time to start the splice
+	 * @param clipToSplice The other SoundClip to splice in
+	 * @param crossfade Length of each crossfade, in seconds; 0 for a hard cut
+	 */
+	public void spliceIn(float startSpliceTime, MusicList clipToSplice, float crossfade) {
+		long frame = Math.min(numSamples, PlanarOps.framesBefore(startSpliceTime, sampleRate) + 1);
+		spliceInAtFrame(frame, clipToSplice, PlanarOps.framesBefore(crossfade, sampleRate));
+	}
+
+
+	/**
+	 * Splice another MusicList in so that its first frame becomes frame number frame, with a hard cut at
+	 * both joins.  See spliceInAtFrame(long, MusicList, long).
+	 * @param frame Frame to insert before; 0 inserts at the start, getFrameCount() appends
+	 * @param clipToSplice The other MusicList to splice in
+	 */
+	public void spliceInAtFrame(long frame, MusicList clipToSplice) {
+		spliceInAtFrame(frame, clipToSplice, 0);
+	}
+
+
+	/**
+	 * Splice another MusicList in so that its first frame becomes frame number frame, blending each join
+	 * with an equal-power crossfade of crossfadeFrames frames (see spliceIn(float, MusicList, float)).
+	 * If clipToSplice is a MusicLinkedList with the same sample rate, its Samples are linked in without
+	 * copying and it is left empty.  Otherwise it is copied, through a StreamingResampler if its sample
+	 * rate differs, and not modified.
+	 * @param frame Frame to insert before; 0 inserts at the start, getFrameCount() appends
+	 * @param clipToSplice The other MusicList to splice in
+	 * @param crossfadeFrames Length of each crossfade, in frames; 0 for a hard cut
+	 * @throws IndexOutOfBoundsException if frame is not inside the list
+	 */
+	public void spliceInAtFrame(long frame, MusicList clipToSplice, long crossfadeFrames) {
+		if (frame < 0 || frame > numSamples) {
+			throw new IndexOutOfBoundsException("Frame " + frame + " out of range (" + numSamples + " frames)");
+		}
+		if (clipToSplice.getNumChannels() != numChannels) {
+			throw new IllegalArgumentException("Audio being spliced does not have the correct number of channels");
+		}
+		AudioMetrics.Timer timer = AudioMetrics.startOperation("spliceIn");
+		applyPeakDivisor();
+		MusicLinkedList clip;
+		if (clipToSplice instanceof MusicLinkedList && clipToSplice != this && clipToSplice.getSampleRate() == sampleRate) {
+			clip = (MusicLinkedList) clipToSplice;
+			clip.applyPeakDivisor();
+		} else {
+			clip = new MusicLinkedList(sampleRate, numChannels);
+			Iterator<float[]> frames = clipToSplice.getSampleRate() == sampleRate ? clipToSplice.iterator() : new StreamingResampler(clipToSplice, sampleRate);
+			while (frames.hasNext()) {
+				clip.addSample(frames.next());
+			}
+		}
+		if (clip.head == null) {
+			timer.stop(numSamples, numChannels);
+			return;
+		}
+
+		long fadeIn = Math.min(crossfadeFrames, Math.min(frame, clip.numSamples / 2));
+		long fadeOut = Math.min(crossfadeFrames, Math.min(numSamples - frame, clip.numSamples / 2));
+
+		//find the last frame before the fade in, then fade the start of the clip in over the frames up to the splice point
+		Sample before = (frame == fadeIn) ? null : frameAt(frame - fadeIn - 1);
+		Sample rest = (before == null) ? head : before.next;
+		Sample clipFrame = clip.head;
+		for (long i = 0; i < fadeIn; i++) {
+			crossfadeFrame(rest, clipFrame, rest, i, fadeIn);
+			before = rest;
+			rest = rest.next;
+			clipFrame = clipFrame.next;
+		}
+
+		//find the last frame of the clip before the fade out, then fade the end of the clip out over the rest of this list
+		Sample clipLast = clip.tail;
+		Sample clipMiddle = clipFrame;
+		if (fadeOut > 0) {
+			clipLast = null;
+			for (long i = fadeIn; i < clip.numSamples - fadeOut; i++) {
+				clipLast = (clipLast == null) ? clipFrame : clipLast.next;
+			}
+			Sample clipFade = (clipLast == null) ? clipFrame : clipLast.next;
+			Sample target = rest;
+			for (long i = 0; i < fadeOut; i++) {
+				crossfadeFrame(clipFade, target, target, i, fadeOut);
+				clipFade = clipFade.next;
+				target = target.next;
+			}
+			if (clipLast == null) {
+				//the fades used the whole clip
+				clipMiddle = rest;
+			}
+		}
+
+		//link before -> middle of the clip -> rest
+		if (clipLast != null) {
+			linkFrames(clipLast, rest);
+		}
+		if (before == null) {
+			head = clipMiddle;
+		} else {
+			linkFrames(before, clipMiddle);
+		}
+		if (rest == null) {
+			tail = clipLast;
+		}
+		numSamples += clip.numSamples - fadeIn - fadeOut;
+
+		if (clip == clipToSplice) {
+			clip.head = null;
+			clip.tail = null;
+			clip.numSamples = 0;
+		}
+		timer.stop(numSamples, numChannels);
+	}
+
+
+	/**
+	 * Write one frame of an equal-power crossfade into target, for every channel
+	 * @param fadingOut Frame that is fading out
+	 * @param fadingIn Frame that is fading in
+	 * @param target Frame to write the result to (may be either of the others)
+	 * @param position Position of this frame in the crossfade
+	 * @param length Length of the crossfade, in frames
+	 */
+	private void crossfadeFrame(Sample fadingOut, Sample fadingIn, Sample target, long position, long length) {
+		double angle = Math.PI / 2 * (position + 0.5) / length;
+		float outGain = (float) Math.cos(angle);
+		float inGain = (float) Math.sin(angle);
+		for (int c = 0; c < numChannels; c++) {
+			target.audio = fadingOut.audio*outGain + fadingIn.audio*inGain;
+			fadingOut = fadingOut.nextChannel;
+			fadingIn = fadingIn.nextChannel;
+			target = target.nextChannel;
+		}
+	}
+
+
+	/**
+	 * Returns the first channel of a frame, walking from the head
+	 * @param index Frame number, less than numSamples
+	 * @return the frame
+	 */
+	private Sample frameAt(long index) {
+		Sample frame = head;
+		for (long i = 0; i < index; i++) {
+			frame = frame.next;
+		}
+		return frame;
+	}
+
+
+	/**
+	 * Point every channel of one frame at the matching channel of another
+	 * @param from The frame to change
+	 * @param to The frame that follows it, or null to end the list
+	 */
+	private void linkFrames(Sample from, Sample to) {
+		for (int c = 0; c < numChannels; c++) {
+			from.next = to;
+			from = from.nextChannel;
+			to = (to == null) ? null : to.nextChannel;
+		}
 	}
 
 	
@@ -350,16 +580,14 @@ public class MusicLinkedList implements MusicList{
 	 * or less than -1.0, the entire sample is rescaled  to fit in the range.
 	 */
 	public void makeMono(boolean allowClipping) {
-		MusicLinkedList newList = new MusicLinkedList(this.numSamples, this.numChannels);
-		Iterator<float[]> iterator = iterator();
+		AudioMetrics.Timer timer = AudioMetrics.startOperation("makeMono");
 		float biggestWave = 0;
 		
-		for (int t = 0; t < numSamples; t++) {
-			float[] seperateAudio = iterator.next();
+		//write the combined audio over every channel of each frame, tracking the peak as we go
+		for (Sample frame = head; frame != null; frame = frame.next) {
 			float combinedAudio = 0;
-			
-			for (float audio: seperateAudio) {
-				combinedAudio += audio;
+			for (Sample channel = frame; channel != null; channel = channel.nextChannel) {
+				combinedAudio += channel.audio / peakDivisor;
 			}
 			
 			if (allowClipping) {
@@ -376,42 +604,148 @@ public class MusicLinkedList implements MusicList{
 				}
 			}
 			
-			float[] newAudio = new float[numChannels];
-			for (int i = 0; i < newAudio.length; i++) {
-				newAudio[i] = combinedAudio;
+			for (Sample channel = frame; channel != null; channel = channel.nextChannel) {
+				channel.audio = combinedAudio;
 			}
-			
-			newList.addSample(newAudio);
 		}
 		
-		this.head = newList.head;
-		this.tail = newList.tail;
-		this.numSamples = newList.numSamples;
+		this.peakDivisor = (!allowClipping && biggestWave > 1) ? biggestWave : 1;
+		timer.stop(numSamples, numChannels);
+	}
+
+	
+	/**
+	 * Combine all channels into a single channel.  If reduceChannels is true, the list really becomes a 
+	 * 1-channel list (see remapChannels); otherwise this is the same as makeMono(allowClipping), and every 
+	 * channel holds a copy of the combined audio.
+	 * @param allowClipping If allowClipping is true, then values greater than 1.0 or less than -1.0 after the 
+	 * addition are clipped to fit in the range.  If allowClipping is false, the entire sample is rescaled.
+	 * @param reduceChannels If true, the result has a single channel
+	 */
+	public void makeMono(boolean allowClipping, boolean reduceChannels) {
+		if (reduceChannels) {
+			remapChannels(ChannelMatrix.sum(numChannels), allowClipping);
+		} else {
+			makeMono(allowClipping);
+		}
+	}
+
+	
+	/**
+	 * Replace the channels of this list with weighted sums of the current channels, in a single pass 
+	 * over the list.  Output channel o of every frame is the sum over c of matrix[o][c] times input 
+	 * channel c.  The existing Samples are reused, so reducing the channel count allocates nothing, and 
+	 * the number of channels becomes matrix.length.  See ChannelMatrix for common matrices.
+	 * @param matrix One row per output channel, each with one weight per current channel
+	 * @param allowClipping If allowClipping is true, then values greater than 1.0 or less than -1.0 are 
+	 * clipped to fit in the range.  If allowClipping is false, the entire sample is rescaled to fit.
+	 */
+	public void remapChannels(float[][] matrix, boolean allowClipping) {
+		AudioMetrics.Timer timer = AudioMetrics.startOperation("remapChannels");
+		int outChannels = ChannelMatrix.checkShape(matrix, numChannels);
+		float[] inAudio = new float[numChannels];
+		Sample[] previous = new Sample[outChannels];
+		float biggestWave = 0;
 		
-		if (!allowClipping) {
-			if (biggestWave > 1) {
-				MusicLinkedList rescaledList = new MusicLinkedList(this.sampleRate, this.numChannels);
-				Iterator<float[]> preScalingIterator = iterator();
-				
-				for (int t = 0; t < numSamples; t++) {
-					float[] preScalingSamples = preScalingIterator.next();
-					float[] postScalingSamples = new float[numChannels];
-					
-					for (int i = 0; i < numChannels; i++) {
-						postScalingSamples[i] = preScalingSamples[i] / biggestWave;
+		Sample frame = head;
+		while (frame != null) {
+			Sample nextFrame = frame.next;
+			Sample channelCrawler = frame;
+			for (int c = 0; c < numChannels; c++) {
+				inAudio[c] = channelCrawler.audio / peakDivisor;
+				channelCrawler = channelCrawler.nextChannel;
+			}
+			
+			//write the outputs over this frame's Samples, adding Samples if there are more outputs than inputs
+			channelCrawler = frame;
+			Sample lastChannel = null;
+			for (int o = 0; o < outChannels; o++) {
+				float mixed = 0;
+				for (int c = 0; c < numChannels; c++) {
+					mixed += matrix[o][c]*inAudio[c];
+				}
+				if (allowClipping) {
+					if (mixed > 1) {
+						mixed = 1;
+					} else if (mixed < -1) {
+						mixed = -1;
 					}
-					rescaledList.addSample(postScalingSamples);
+				} else if (Math.abs(mixed) > biggestWave) {
+					biggestWave = Math.abs(mixed);
 				}
 				
-				
-				this.head = rescaledList.head;
-				this.tail = rescaledList.tail;
-				this.numSamples = rescaledList.numSamples;
+				if (channelCrawler == null) {
+					channelCrawler = new Sample(mixed, null, null);
+					lastChannel.nextChannel = channelCrawler;
+				} else {
+					channelCrawler.audio = mixed;
+				}
+				if (previous[o] != null) {
+					previous[o].next = channelCrawler;
+				}
+				previous[o] = channelCrawler;
+				lastChannel = channelCrawler;
+				channelCrawler = channelCrawler.nextChannel;
 			}
+			lastChannel.nextChannel = null;
+			frame = nextFrame;
 		}
+		
+		for (int o = 0; o < outChannels; o++) {
+			if (previous[o] != null) {
+				previous[o].next = null;
+			}
+		}
+		this.tail = previous[0];
+		this.numChannels = outChannels;
+		this.peakDivisor = (!allowClipping && biggestWave > 1) ? biggestWave : 1;
+		timer.stop(numSamples, numChannels);
 	}
 
 	
+	/**
+	 * Divide every sample by a constant.  The division happens when samples are read, so this does not
+	 * touch the list; see peakDivisor.
+	 * @param divisor the value to divide by
+	 */
+	void divideOnRead(float divisor) {
+		applyPeakDivisor();
+		this.peakDivisor = divisor;
+	}
+
+	
+	/**
+	 * Overwrite every Sample with planar values, e.g. after processing the list as arrays
+	 */
+	private void copyFromPlanar(float[][] planar) {
+		int i = 0;
+		for (Sample frame = head; frame != null; frame = frame.next) {
+			int c = 0;
+			for (Sample channel = frame; channel != null; channel = channel.nextChannel) {
+				channel.audio = planar[c++][i];
+			}
+			i++;
+		}
+		this.peakDivisor = 1;
+	}
+
+
+	/**
+	 * Divide the stored samples by peakDivisor, so that operations which work on Samples directly see the
+	 * values a reader would.  Does nothing if there is no pending division.
+	 */
+	private void applyPeakDivisor() {
+		if (peakDivisor == 1) {
+			return;
+		}
+		for (Sample frame = head; frame != null; frame = frame.next) {
+			for (Sample channel = frame; channel != null; channel = channel.nextChannel) {
+				channel.audio = channel.audio / peakDivisor;
+			}
+		}
+		peakDivisor = 1;
+	}
+	
 	/**
 	 * Combines this SoundList with a new soundlist, by adding the samples together.  This SoundList
 	 * is modified. 
@@ -420,59 +754,40 @@ public class MusicLinkedList implements MusicList{
 	 * addition are clipped to fit in the range.  If allowClipping is false, then the entire sample is rescaled  
 	 */
 	public void combine(MusicList clipToCombine, boolean allowClipping) {
-		Iterator<float[]> ogClipIterator = iterator();
+		AudioMetrics.Timer timer = AudioMetrics.startOperation("combine");
 		Iterator<float[]> newClipIterator = clipToCombine.iterator();
 		float biggestWave = 0;
-		MusicLinkedList newList = new MusicLinkedList(this.numSamples, this.numChannels);
-		for (int t = 0; t < numSamples; t++) {
-			float[] ogSamples = ogClipIterator.next();
+		
+		//add the other clip into this clip's Samples, tracking the peak as we go
+		Sample frame = head;
+		for (long t = 0; t < numSamples; t++) {
 			float[] newSamples = newClipIterator.next();
-			float[] combinedSamples = new float[numChannels];
+			Sample channel = frame;
 			for (int i = 0; i < numChannels; i++) {
-				combinedSamples[i] = ogSamples[i] + newSamples[i];
+				float combinedSample = channel.audio / peakDivisor + newSamples[i];
 				
 				if (allowClipping) {
-					if (combinedSamples[i] > 1.0) {
-						combinedSamples[i] = 1;
-					} else if (combinedSamples[i] < -1.0) {
-						combinedSamples[i] = -1;
+					if (combinedSample > 1.0) {
+						combinedSample = 1;
+					} else if (combinedSample < -1.0) {
+						combinedSample = -1;
 					}
 				} else {
-					if (combinedSamples[i] > biggestWave) {
-						biggestWave = combinedSamples[i];
-					} else if (combinedSamples[i]*-1 > biggestWave) {
-						biggestWave = combinedSamples[i]*-1;
-					}
-				}
-			}
-			
-			newList.addSample(combinedSamples);
-		}
-		this.head = newList.head;
-		this.tail = newList.tail;
-		this.numSamples = newList.numSamples;
-		
-		if (!allowClipping) {
-			if (biggestWave > 1) {
-				MusicLinkedList rescaledList = new MusicLinkedList(this.sampleRate, this.numChannels);
-				Iterator<float[]> preScalingIterator = iterator();
-				
-				for (int t = 0; t < numSamples; t++) {
-					float[] preScalingSamples = preScalingIterator.next();
-					float[] postScalingSamples = new float[numChannels];
-					
-					for (int i = 0; i < numChannels; i++) {
-						postScalingSamples[i] = preScalingSamples[i] / biggestWave;
+					if (combinedSample > biggestWave) {
+						biggestWave = combinedSample;
+					} else if (combinedSample*-1 > biggestWave) {
+						biggestWave = combinedSample*-1;
 					}
-					rescaledList.addSample(postScalingSamples);
 				}
 				
-				
-				this.head = rescaledList.head;
-				this.tail = rescaledList.tail;
-				this.numSamples = rescaledList.numSamples;
+				channel.audio = combinedSample;
+				channel = channel.nextChannel;
 			}
+			frame = frame.next;
 		}
+		
+		this.peakDivisor = (!allowClipping && biggestWave > 1) ? biggestWave : 1;
+		timer.stop(numSamples, numChannels);
 	}
 
 	
@@ -481,12 +796,14 @@ public class MusicLinkedList implements MusicList{
 	 * @return The cloned SoundList
 	 */
 	public MusicList clone() {
+		AudioMetrics.Timer timer = AudioMetrics.startOperation("clone");
 		MusicLinkedList newList = new MusicLinkedList(this.sampleRate, this.numChannels);
 		Iterator<float[]> iterator = iterator();
 		int samplesAdded = 0;
 		while (iterator.hasNext()) {
 			newList.addSample(iterator.next());
 		}
+		timer.stop(numSamples, numChannels);
 		return newList;
 	}
 	
@@ -540,7 +857,7 @@ public class MusicLinkedList implements MusicList{
 		@Override
 		public Float next() {
 			if (hasNext()) {
-				Float returnData = currentSample.audio;
+				Float returnData = currentSample.audio / peakDivisor;
 				currentSample = currentSample.next;
 				return returnData;
 			}
@@ -577,7 +894,7 @@ public class MusicLinkedList implements MusicList{
 			if (hasNext()) {
 				float[] returnData = new float[currentSamples.length];
 				for (int i = 0; i < currentSamples.length; i++) {
-					returnData[i] = currentSamples[i].audio;
+					returnData[i] = currentSamples[i].audio / peakDivisor;
 					currentSamples[i] = currentSamples[i].next;
 				}
 				return returnData;
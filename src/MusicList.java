@@ -21,6 +21,13 @@ public interface MusicList {
 	 */
 	public int getNumSamples();
 	
+	/**
+	 * Returns the number of frames (one sample for each channel) in the MusicList.  Unlike getNumSamples,
+	 * this is not limited to 2^31 frames.
+	 * @return The number of frames in the MusicList.
+	 */
+	public long getFrameCount();
+	
 	/**
 	 * Returns The duration of the sound, in seconds.
 	 * @return  the duration of the sound, in seconds.
@@ -47,6 +54,12 @@ public interface MusicList {
 	 */
 	public void changeSpeed(float percentChange);
 	
+	/**
+	 * Transpose the sound, keeping its duration
+	 * @param semitones How far to transpose, in semitones.  12 is an octave up, -12 an octave down
+	 */
+	public void changePitch(float semitones);
+	
 	/**
 	 * Change the sample rate of the SoundList.  This will increase (or decrease) the number of samples in the list, based on
 	 * the new rate.  The total time (and pitch) of the sound should remain the same. (Though of course you will lose information
@@ -98,6 +111,25 @@ public interface MusicList {
 	 */
 	public void spliceIn(float startSpliceTime, MusicList clipToSplice);
 	
+	/**
+	 * Trim the MusicList to a range of frames.  Unlike clip, the range is exact to the frame however long
+	 * the list is.
+	 * @param startFrame First frame to keep
+	 * @param frameCount Number of frames to keep
+	 * @throws IndexOutOfBoundsException if the range is not inside the list
+	 */
+	public void clipFrames(long startFrame, long frameCount);
+	
+	/**
+	 * Splice another MusicList into this one so that its first frame becomes frame number frame.  The clip
+	 * is converted to this list's sample rate if needed.  Implementations that can take over the clip's
+	 * storage instead of copying it may leave the clip empty.
+	 * @param frame Frame to insert before; 0 inserts at the start, getFrameCount() appends
+	 * @param clipToSplice The other MusicList to splice in
+	 * @throws IndexOutOfBoundsException if frame is not inside the list
+	 */
+	public void spliceInAtFrame(long frame, MusicList clipToSplice);
+	
 	/**
 	 * Combine all channels into a single channel, by adding together all channels into a single channel.
 	 * @param allowClipping If allowClipping is true, then values greater than 1.0 or less than -1.0 after the 
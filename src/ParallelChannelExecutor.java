@@ -0,0 +1,278 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs MusicList operations with each channel (or group of channels) processed as its own task on a
+ * ForkJoinPool.  The audio is converted to planar arrays once, the per channel kernels in PlanarOps
+ * run in parallel, and the result is converted back, so the results match the MusicLinkedList
+ * operations exactly.
+ *
+ * Work smaller than the parallelism threshold (frames times channels) runs on the calling thread.
+ */
+public class ParallelChannelExecutor {
+	public static final int DEFAULT_THRESHOLD = 1 << 16;
+
+	private final ForkJoinPool pool;
+	private int threshold;
+
+	/**
+	 * Create an executor on the common ForkJoinPool
+	 */
+	public ParallelChannelExecutor() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Create an executor on a given pool
+	 * @param pool The pool to run channel tasks on
+	 */
+	public ParallelChannelExecutor(ForkJoinPool pool) {
+		this.pool = pool;
+		this.threshold = DEFAULT_THRESHOLD;
+	}
+
+	/**
+	 * Set the smallest amount of work (frames times channels) that is split across threads
+	 * @param threshold The threshold; 0 always runs in parallel, Integer.MAX_VALUE never does
+	 */
+	public void setParallelismThreshold(int threshold) {
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Returns the parallelism threshold
+	 * @return smallest amount of work (frames times channels) that is split across threads
+	 */
+	public int getParallelismThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Run a task for every channel.  Channels are grouped so there are about as many tasks as threads.
+	 * @param numChannels Number of channels
+	 * @param frames Number of frames per channel, used against the threshold
+	 * @param task The work for one channel
+	 */
+	public void forEachChannel(int numChannels, int frames, final ChannelTask task) {
+		if ((long) numChannels * frames < threshold || numChannels == 1 || pool.getParallelism() == 1) {
+			for (int c = 0; c < numChannels; c++) {
+				task.run(c);
+			}
+			return;
+		}
+		int groups = Math.min(numChannels, pool.getParallelism());
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(groups);
+		for (int g = 0; g < groups; g++) {
+			final int first = g * numChannels / groups;
+			final int last = (g + 1) * numChannels / groups;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (int c = first; c < last; c++) {
+						task.run(c);
+					}
+					return null;
+				}
+			});
+		}
+		try {
+			for (Future<Void> result : pool.invokeAll(tasks)) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while processing channels", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Channel task failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Echo with feedback on planar samples, in place (see MusicList.addEcho)
+	 * @param planar One array per channel
+	 * @param frames Number of frames in use
+	 * @param sampleRate Sample rate
+	 * @param delay The time (in seconds) before the echo starts
+	 * @param percent The echo volume
+	 */
+	public void addEcho(final float[][] planar, final int frames, float sampleRate, float delay, final float percent) {
+		final int delayFrames = (int) Math.min(PlanarOps.framesBefore(delay, sampleRate), frames);
+		forEachChannel(planar.length, frames, new ChannelTask() {
+			@Override
+			public void run(int channel) {
+				PlanarOps.echo(planar[channel], frames, delayFrames, percent);
+			}
+		});
+	}
+
+	/**
+	 * Reverse planar samples in place
+	 * @param planar One array per channel
+	 * @param frames Number of frames in use
+	 */
+	public void reverse(final float[][] planar, final int frames) {
+		forEachChannel(planar.length, frames, new ChannelTask() {
+			@Override
+			public void run(int channel) {
+				PlanarOps.reverse(planar[channel], frames);
+			}
+		});
+	}
+
+	/**
+	 * Multiply planar samples by a gain, in place
+	 * @param planar One array per channel
+	 * @param frames Number of frames in use
+	 * @param gain The gain
+	 */
+	public void gain(final float[][] planar, final int frames, final float gain) {
+		forEachChannel(planar.length, frames, new ChannelTask() {
+			@Override
+			public void run(int channel) {
+				PlanarOps.gain(planar[channel], 0, frames, gain);
+			}
+		});
+	}
+
+	/**
+	 * Resample planar samples (see MusicList.changeSampleRate)
+	 * @param planar One array per channel
+	 * @param frames Number of frames in use (at least 2)
+	 * @param oldRate Current sample rate
+	 * @param newRate New sample rate
+	 * @return new planar arrays, each PlanarOps.resampledLength(frames, oldRate, newRate) long
+	 */
+	public float[][] changeSampleRate(final float[][] planar, final int frames, final float oldRate, final float newRate) {
+		int length = PlanarOps.resampledLength(frames, oldRate, newRate);
+		final float[][] out = new float[planar.length][length];
+		forEachChannel(planar.length, frames, new ChannelTask() {
+			@Override
+			public void run(int channel) {
+				PlanarOps.resample(planar[channel], frames, oldRate, newRate, out[channel]);
+			}
+		});
+		return out;
+	}
+
+	/**
+	 * Copy a range of planar samples (see MusicList.clip)
+	 * @param planar One array per channel
+	 * @param frames Number of frames in use
+	 * @param sampleRate Sample rate
+	 * @param startTime Time to start (in seconds)
+	 * @param duration Duration (in seconds)
+	 * @return new planar arrays holding the clipped range
+	 */
+	public float[][] clip(final float[][] planar, int frames, float sampleRate, float startTime, float duration) {
+		final int start = (int) Math.min(PlanarOps.framesBefore(startTime, sampleRate), frames);
+		int end = (int) Math.min(frames, start + PlanarOps.framesBefore(duration, sampleRate) + 1);
+		final int length = Math.max(0, end - start);
+		final float[][] out = new float[planar.length][length];
+		forEachChannel(planar.length, length, new ChannelTask() {
+			@Override
+			public void run(int channel) {
+				System.arraycopy(planar[channel], start, out[channel], 0, length);
+			}
+		});
+		return out;
+	}
+
+	/**
+	 * Echo a MusicList, processing channels in parallel
+	 * @param list The list to process.  It is not modified.
+	 * @param delay The time (in seconds) before the echo starts
+	 * @param percent The echo volume
+	 * @return the processed list
+	 */
+	public MusicLinkedList addEcho(MusicList list, float delay, float percent) {
+		float[][] planar = ChannelBuffers.toPooledPlanar(list);
+		try {
+			int frames = list.getNumSamples();
+			addEcho(planar, frames, list.getSampleRate(), delay, percent);
+			return ChannelBuffers.toList(planar, frames, list.getSampleRate());
+		} finally {
+			AudioBufferPool.release(planar);
+		}
+	}
+
+	/**
+	 * Reverse a MusicList, processing channels in parallel
+	 * @param list The list to process.  It is not modified.
+	 * @return the reversed list
+	 */
+	public MusicLinkedList reverse(MusicList list) {
+		float[][] planar = ChannelBuffers.toPooledPlanar(list);
+		try {
+			int frames = list.getNumSamples();
+			reverse(planar, frames);
+			return ChannelBuffers.toList(planar, frames, list.getSampleRate());
+		} finally {
+			AudioBufferPool.release(planar);
+		}
+	}
+
+	/**
+	 * Apply a gain to a MusicList, processing channels in parallel
+	 * @param list The list to process.  It is not modified.
+	 * @param gain The gain
+	 * @return the processed list
+	 */
+	public MusicLinkedList gain(MusicList list, float gain) {
+		float[][] planar = ChannelBuffers.toPooledPlanar(list);
+		try {
+			int frames = list.getNumSamples();
+			gain(planar, frames, gain);
+			return ChannelBuffers.toList(planar, frames, list.getSampleRate());
+		} finally {
+			AudioBufferPool.release(planar);
+		}
+	}
+
+	/**
+	 * Resample a MusicList, processing channels in parallel
+	 * @param list The list to process.  It is not modified.
+	 * @param newRate The new sample rate
+	 * @return the resampled list
+	 */
+	public MusicLinkedList changeSampleRate(MusicList list, float newRate) {
+		float[][] planar = ChannelBuffers.toPooledPlanar(list);
+		try {
+			float[][] out = changeSampleRate(planar, list.getNumSamples(), list.getSampleRate(), newRate);
+			return ChannelBuffers.toList(out, out[0].length, newRate);
+		} finally {
+			AudioBufferPool.release(planar);
+		}
+	}
+
+	/**
+	 * Clip a MusicList, processing channels in parallel
+	 * @param list The list to process.  It is not modified.
+	 * @param startTime Time to start (in seconds)
+	 * @param duration Duration (in seconds)
+	 * @return the clipped list
+	 */
+	public MusicLinkedList clip(MusicList list, float startTime, float duration) {
+		float[][] planar = ChannelBuffers.toPooledPlanar(list);
+		try {
+			float[][] out = clip(planar, list.getNumSamples(), list.getSampleRate(), startTime, duration);
+			return ChannelBuffers.toList(out, out[0].length, list.getSampleRate());
+		} finally {
+			AudioBufferPool.release(planar);
+		}
+	}
+
+	/**
+	 * Work for a single channel
+	 */
+	public interface ChannelTask {
+		/**
+		 * Process one channel
+		 * @param channel The channel to process
+		 */
+		public void run(int channel);
+	}
+}
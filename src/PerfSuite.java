@@ -0,0 +1,662 @@
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Performance regression suite built on the TestMain scenarios (make mono, multi-channel sine wave,
+ * rescale, reverse and resample).  Each scenario runs at every combination of a list of durations and
+ * channel counts; its setup is untimed, its operations are timed, and its result is checked against
+ * the same expected samples TestMain uses.  For each run the suite records the wall time, the part of
+ * it spent collecting garbage and the peak heap growth, and then:
+ *
+ *   - checks the scaling: between neighbouring durations, and between neighbouring channel counts,
+ *     time outside garbage collection should grow no faster than the work does (frames times channels,
+ *     or times channels squared for the scenarios that combine one list per channel).  A growth
+ *     exponent over SCALING_LIMIT points at something like a seek from the head of the list per frame.
+ *     Collection time is left out because with a Sample object per sample it grows with the live heap
+ *     on every collection, which the peak memory already tracks;
+ *   - compares each run with a stored baseline and fails it if its time or memory exceeds the baseline
+ *     by more than the tolerance.
+ *
+ * Runs whose lists would not fit in the heap are skipped and reported; give the JVM more memory (-Xmx)
+ * to reach the longest durations at many channels.
+ *
+ * Usage: java PerfSuite [-durations 1,10,60,600,3600] [-channels 1,2,8,16,64] [-scenarios reverse,...]
+ *                       [-rate 10000] [-baseline perf-baseline.properties] [-tolerance 1.5] [-update]
+ *
+ * With -update the baseline file is rewritten with this run's results instead of being checked.  The
+ * exit status is 1 if any run is wrong, scales super-linearly or exceeds its baseline.
+ */
+public class PerfSuite {
+	public static final int[] DEFAULT_DURATIONS = { 1, 10, 60, 600, 3600 };
+	public static final int[] DEFAULT_CHANNELS = { 1, 2, 8, 16, 64 };
+	public static final double SCALING_LIMIT = 1.5;
+	public static final double DEFAULT_TOLERANCE = 1.5;
+	// runs shorter than this are too noisy to judge scaling or regressions by
+	private static final double MIN_SCALING_MILLIS = 20;
+	private static final double SLACK_MILLIS = 20;
+	private static final long SLACK_BYTES = 16L << 20;
+	// a run is repeated until it has taken this long in total, or MAX_RUNS times; the fastest counts
+	private static final double REPEAT_MILLIS = 200;
+	private static final int MAX_RUNS = 5;
+
+	/**
+	 * One scenario run at one size
+	 */
+	public static class Result {
+		public final String scenario;
+		public final int channels;
+		public final int seconds;
+		public long frames;
+		public double millis;
+		public double gcMillis;
+		public long peakBytes;
+		public boolean correct;
+		public boolean skipped;
+
+		public Result(String scenario, int channels, int seconds) {
+			this.scenario = scenario;
+			this.channels = channels;
+			this.seconds = seconds;
+		}
+
+		/**
+		 * Returns the key of this run in a baseline file
+		 * @return scenario.channels.seconds
+		 */
+		public String key() {
+			return scenario + "." + channels + "ch." + seconds + "s";
+		}
+
+		public String toString() {
+			if (skipped) {
+				return String.format("%-20s %4d ch %6d s   skipped (not enough heap)", scenario, channels, seconds);
+			}
+			return String.format("%-20s %4d ch %6d s %12.1f ms (gc %8.1f ms) %10.1f MB %s", scenario, channels, seconds,
+					millis, gcMillis, peakBytes / 1048576.0, correct ? "ok" : "WRONG");
+		}
+	}
+
+	/**
+	 * A TestMain scenario: untimed setup, timed operations, untimed check of the result
+	 */
+	private static abstract class Scenario {
+		final String name;
+
+		Scenario(String name) {
+			this.name = name;
+		}
+
+		/** Build the input */
+		abstract void prepare(int channels, float seconds, float rate);
+
+		/** The operations being measured */
+		abstract void run();
+
+		/** Compare the result with the expected samples, then drop it */
+		abstract boolean check();
+
+		/** MusicLinkedList samples held at once at the peak, for deciding whether a run fits in the heap */
+		long samplesHeld(long frames, int channels) {
+			return 3 * frames * channels;
+		}
+
+		/** Samples held in planar lists as well, at the peak */
+		long planarSamplesHeld(long frames, int channels) {
+			return 0;
+		}
+
+		/** Work done by run(), in samples touched; time should grow with it linearly */
+		double work(long frames, int channels) {
+			return (double) frames * channels;
+		}
+	}
+
+	private final float sampleRate;
+	private final List<Scenario> scenarios = new ArrayList<Scenario>();
+
+	/**
+	 * Create a suite
+	 * @param sampleRate Sample rate of the scenarios' lists (resampling starts from twice this rate)
+	 */
+	public PerfSuite(float sampleRate) {
+		this.sampleRate = sampleRate;
+		scenarios.add(new Scenario("makeMono") {
+			private MusicLinkedList list;
+			private List<MusicList> inputs;
+			private int channels;
+
+			void prepare(int channels, float seconds, float rate) {
+				this.channels = channels;
+				list = SoundUtil.createSineWave(seconds, frequency(0), rate, channels, only(channels, 0));
+				inputs = sineInputs(channels, seconds, rate);
+			}
+
+			void run() {
+				for (MusicList input : inputs) {
+					list.combine(input, true);
+				}
+				list.makeMono(true);
+			}
+
+			boolean check() {
+				boolean correct = list.getNumChannels() == channels && checkSines(list, channels, true);
+				list = null;
+				inputs = null;
+				return correct;
+			}
+
+			long planarSamplesHeld(long frames, int channels) {
+				return (channels - 1) * frames * channels;
+			}
+
+			double work(long frames, int channels) {
+				return (double) frames * channels * channels;
+			}
+		});
+		scenarios.add(new Scenario("multiChannelSineWave") {
+			private MusicLinkedList list;
+			private List<MusicList> inputs;
+			private int channels;
+
+			void prepare(int channels, float seconds, float rate) {
+				this.channels = channels;
+				list = SoundUtil.createSineWave(seconds, frequency(0), rate, channels, only(channels, 0));
+				inputs = sineInputs(channels, seconds, rate);
+			}
+
+			void run() {
+				for (MusicList input : inputs) {
+					list.combine(input, true);
+				}
+			}
+
+			boolean check() {
+				boolean correct = checkSines(list, channels, false);
+				list = null;
+				inputs = null;
+				return correct;
+			}
+
+			long planarSamplesHeld(long frames, int channels) {
+				return (channels - 1) * frames * channels;
+			}
+
+			double work(long frames, int channels) {
+				return (double) frames * channels * channels;
+			}
+		});
+		scenarios.add(new Scenario("rescale") {
+			private MusicLinkedList list;
+			private MusicLinkedList other;
+
+			void prepare(int channels, float seconds, float rate) {
+				list = SoundUtil.createSineWave(seconds, 100, rate, channels, all(channels));
+				other = (MusicLinkedList) list.clone();
+			}
+
+			void run() {
+				list.combine(other, false);
+			}
+
+			boolean check() {
+				// the sum is twice the wave, rescaled back to it
+				boolean correct = checkSine(list, 100, list.getSampleRate());
+				list = null;
+				other = null;
+				return correct;
+			}
+		});
+		scenarios.add(new Scenario("reverse") {
+			private MusicLinkedList list;
+
+			void prepare(int channels, float seconds, float rate) {
+				list = new MusicLinkedList(rate, channels);
+				long frames = (long) (seconds * rate);
+				float[] samples = new float[channels];
+				for (long i = 0; i < frames; i++) {
+					for (int c = 0; c < channels; c++) {
+						samples[c] = 1 / (float) (i + c + 1);
+					}
+					list.addSample(samples);
+				}
+			}
+
+			void run() {
+				// reversing 3 times should be the same as reversing once
+				list.reverse();
+				list.reverse();
+				list.reverse();
+			}
+
+			boolean check() {
+				boolean correct = true;
+				long i = list.getFrameCount() - 1;
+				Iterator<float[]> it = list.iterator();
+				while (it.hasNext() && correct) {
+					float[] samples = it.next();
+					for (int c = 0; c < samples.length; c++) {
+						correct &= TestMain.approxEqual(samples[c], 1 / (float) (i + c + 1));
+					}
+					i--;
+				}
+				list = null;
+				return correct && i == -1;
+			}
+
+			long samplesHeld(long frames, int channels) {
+				return 2 * frames * channels;
+			}
+
+			double work(long frames, int channels) {
+				return 3.0 * frames * channels;
+			}
+		});
+		scenarios.add(new Scenario("resample") {
+			private MusicLinkedList list;
+			private float newRate;
+
+			void prepare(int channels, float seconds, float rate) {
+				// as TestMain, a quarter of the original rate; the source has twice as many frames
+				list = SoundUtil.createSineWave(seconds, 100, 2 * rate, channels, all(channels));
+				newRate = rate / 2;
+			}
+
+			void run() {
+				list.changeSampleRate(newRate);
+			}
+
+			boolean check() {
+				boolean correct = list.getSampleRate() == newRate && checkSine(list, 100, newRate);
+				list = null;
+				return correct;
+			}
+
+			long samplesHeld(long frames, int channels) {
+				return 4 * frames * channels;
+			}
+
+			double work(long frames, int channels) {
+				return 2.0 * frames * channels;
+			}
+		});
+	}
+
+	/**
+	 * Returns the names of the scenarios, in the order they run
+	 * @return scenario names
+	 */
+	public List<String> getScenarioNames() {
+		List<String> names = new ArrayList<String>();
+		for (Scenario scenario : scenarios) {
+			names.add(scenario.name);
+		}
+		return names;
+	}
+
+	/**
+	 * Run scenarios at every duration and channel count
+	 * @param names Scenarios to run, or null for all
+	 * @param durations Durations in seconds
+	 * @param channelCounts Channel counts
+	 * @return one result per scenario, channel count and duration, in that order
+	 */
+	public List<Result> run(List<String> names, int[] durations, int[] channelCounts) {
+		List<Result> results = new ArrayList<Result>();
+		long maxHeap = Runtime.getRuntime().maxMemory();
+		for (Scenario scenario : scenarios) {
+			if (names != null && !names.contains(scenario.name)) {
+				continue;
+			}
+			// warm up the code paths before the first measurement
+			measure(scenario, 1, 1, new Result(scenario.name, 1, 1));
+			for (int channels : channelCounts) {
+				for (int seconds : durations) {
+					Result result = new Result(scenario.name, channels, seconds);
+					result.frames = (long) (seconds * (double) sampleRate);
+					long bytes = scenario.samplesHeld(result.frames, channels) * RenderScheduler.Storage.LINKED.getHeapBytesPerSample()
+							+ scenario.planarSamplesHeld(result.frames, channels) * RenderScheduler.Storage.PLANAR.getHeapBytesPerSample();
+					if (bytes > maxHeap * 0.8) {
+						result.skipped = true;
+					} else {
+						measure(scenario, channels, seconds, result);
+					}
+					results.add(result);
+				}
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Time one scenario at one size, repeating short runs and keeping the fastest
+	 */
+	private void measure(Scenario scenario, int channels, int seconds, Result result) {
+		List<MemoryPoolMXBean> heap = new ArrayList<MemoryPoolMXBean>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+				heap.add(pool);
+			}
+		}
+		double best = Double.MAX_VALUE;
+		double bestGc = 0;
+		double total = 0;
+		long peak = 0;
+		boolean correct = true;
+		for (int run = 0; run < MAX_RUNS && total < REPEAT_MILLIS; run++) {
+			scenario.prepare(channels, seconds, sampleRate);
+			System.gc();
+			long before = 0;
+			for (MemoryPoolMXBean pool : heap) {
+				pool.resetPeakUsage();
+				before += pool.getUsage().getUsed();
+			}
+			long collecting = collectionMillis();
+			long start = System.nanoTime();
+			scenario.run();
+			double millis = (System.nanoTime() - start) / 1e6;
+			collecting = collectionMillis() - collecting;
+			long after = 0;
+			for (MemoryPoolMXBean pool : heap) {
+				after += pool.getPeakUsage().getUsed();
+			}
+			correct &= scenario.check();
+			if (millis < best) {
+				best = millis;
+				bestGc = Math.min(millis, collecting);
+			}
+			total += millis;
+			peak = Math.max(peak, after - before);
+		}
+		result.millis = best;
+		result.gcMillis = bestGc;
+		result.peakBytes = Math.max(0, peak);
+		result.correct = correct;
+	}
+
+	/**
+	 * Total time the collectors have spent so far, in milliseconds
+	 */
+	private static long collectionMillis() {
+		long total = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			total += Math.max(0, collector.getCollectionTime());
+		}
+		return total;
+	}
+
+	/**
+	 * Find runs whose time outside garbage collection grows faster than their work, between neighbouring durations and between
+	 * neighbouring channel counts
+	 * @param results Results from run
+	 * @return one message per super-linear step; empty if every step scales
+	 */
+	public List<String> checkScaling(List<Result> results) {
+		List<String> problems = new ArrayList<String>();
+		for (int i = 0; i < results.size(); i++) {
+			Result small = results.get(i);
+			for (int j = 0; j < results.size(); j++) {
+				Result large = results.get(j);
+				if (!large.scenario.equals(small.scenario) || !neighbours(results, small, large)) {
+					continue;
+				}
+				double smallMillis = small.millis - small.gcMillis;
+				double largeMillis = large.millis - large.gcMillis;
+				if (small.skipped || large.skipped || smallMillis < MIN_SCALING_MILLIS) {
+					continue;
+				}
+				Scenario scenario = find(small.scenario);
+				double workRatio = scenario.work(large.frames, large.channels) / scenario.work(small.frames, small.channels);
+				double exponent = Math.log(largeMillis / smallMillis) / Math.log(workRatio);
+				if (exponent > SCALING_LIMIT) {
+					problems.add(String.format("%s: %.1f ms at %d ch %d s but %.1f ms at %d ch %d s outside gc (time grows as work^%.2f)",
+							small.scenario, smallMillis, small.channels, small.seconds, largeMillis, large.channels,
+							large.seconds, exponent));
+				}
+			}
+		}
+		return problems;
+	}
+
+	/**
+	 * Whether large is the next size up from small along one axis: the next duration at the same channel
+	 * count, or the next channel count at the same duration
+	 */
+	private static boolean neighbours(List<Result> results, Result small, Result large) {
+		boolean sameChannels = small.channels == large.channels && small.seconds < large.seconds;
+		boolean sameSeconds = small.seconds == large.seconds && small.channels < large.channels;
+		if (!sameChannels && !sameSeconds) {
+			return false;
+		}
+		for (Result between : results) {
+			if (!between.scenario.equals(small.scenario)) {
+				continue;
+			}
+			if (sameChannels && between.channels == small.channels && between.seconds > small.seconds && between.seconds < large.seconds) {
+				return false;
+			}
+			if (sameSeconds && between.seconds == small.seconds && between.channels > small.channels && between.channels < large.channels) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Find runs that are wrong, or slower or larger than their baseline by more than the tolerance
+	 * @param results Results from run
+	 * @param baseline Baseline as written by saveBaseline; runs without an entry are not compared
+	 * @param tolerance Allowed ratio to the baseline, e.g. 1.5
+	 * @return one message per failure; empty if every run passes
+	 */
+	public List<String> checkBaseline(List<Result> results, Properties baseline, double tolerance) {
+		List<String> problems = new ArrayList<String>();
+		String rate = baseline.getProperty("sampleRate");
+		if (rate != null && Float.parseFloat(rate) != sampleRate) {
+			problems.add("Baseline was recorded at " + rate + " samples per second, not " + sampleRate);
+			return problems;
+		}
+		for (Result result : results) {
+			if (result.skipped) {
+				continue;
+			}
+			if (!result.correct) {
+				problems.add(result.key() + ": samples don't match");
+			}
+			String millis = baseline.getProperty(result.key() + ".ms");
+			if (millis != null && result.millis > Double.parseDouble(millis) * tolerance + SLACK_MILLIS) {
+				problems.add(String.format("%s: %.1f ms against a baseline of %s ms", result.key(), result.millis, millis));
+			}
+			String bytes = baseline.getProperty(result.key() + ".bytes");
+			if (bytes != null && result.peakBytes > Long.parseLong(bytes) * tolerance + SLACK_BYTES) {
+				problems.add(String.format("%s: %d bytes of heap against a baseline of %s", result.key(), result.peakBytes, bytes));
+			}
+		}
+		return problems;
+	}
+
+	/**
+	 * Record results in a baseline, keeping the entries of runs not in results
+	 * @param results Results from run
+	 * @param baseline Baseline to update
+	 */
+	public void updateBaseline(List<Result> results, Properties baseline) {
+		baseline.setProperty("sampleRate", Float.toString(sampleRate));
+		for (Result result : results) {
+			if (!result.skipped && result.correct) {
+				baseline.setProperty(result.key() + ".ms", String.format("%.1f", result.millis));
+				baseline.setProperty(result.key() + ".bytes", Long.toString(result.peakBytes));
+			}
+		}
+	}
+
+	private Scenario find(String name) {
+		for (Scenario scenario : scenarios) {
+			if (scenario.name.equals(name)) {
+				return scenario;
+			}
+		}
+		throw new IllegalArgumentException("No scenario " + name);
+	}
+
+	private static float frequency(int channel) {
+		return 100 + 50 * channel;
+	}
+
+	/**
+	 * Lists holding the sine wave of each channel but the first, alone in its channel, ready to combine
+	 * into a list holding the first.  They are UnrolledMusicLists, so they cost 4 bytes a sample.
+	 */
+	private static List<MusicList> sineInputs(int channels, float seconds, float rate) {
+		List<MusicList> inputs = new ArrayList<MusicList>();
+		for (int c = 1; c < channels; c++) {
+			MusicLinkedList sine = SoundUtil.createSineWave(seconds, frequency(c), rate, channels, only(channels, c));
+			inputs.add(UnrolledMusicList.copyOf(sine, UnrolledMusicList.DEFAULT_BLOCK_FRAMES));
+		}
+		return inputs;
+	}
+
+	private static boolean[] only(int channels, int channel) {
+		boolean[] use = new boolean[channels];
+		use[channel] = true;
+		return use;
+	}
+
+	private static boolean[] all(int channels) {
+		boolean[] use = new boolean[channels];
+		Arrays.fill(use, true);
+		return use;
+	}
+
+	/**
+	 * Check every channel of a list against the sine wave of its own frequency, as
+	 * TestMain.testMultiChannelSineWave does, or the first channel against their clipped sum, as
+	 * TestMain.testMakeMono does
+	 */
+	private static boolean checkSines(MusicLinkedList list, int channels, boolean mono) {
+		double step = 1.0 / list.getSampleRate();
+		double time = 0;
+		Iterator<float[]> it = list.iterator();
+		while (it.hasNext()) {
+			float[] samples = it.next();
+			float sum = 0;
+			for (int c = 0; c < channels; c++) {
+				float expected = (float) Math.sin(time * (frequency(c) * Math.PI * 2));
+				if (!mono && !TestMain.approxEqual(samples[c], expected)) {
+					return false;
+				}
+				sum += expected;
+			}
+			if (mono && !TestMain.approxEqual(samples[0], Math.max(-1, Math.min(1, sum)))) {
+				return false;
+			}
+			time += step;
+		}
+		return true;
+	}
+
+	/**
+	 * Check every channel of a list against one sine wave, as TestMain.testResample does
+	 */
+	private static boolean checkSine(MusicLinkedList list, float frequency, float rate) {
+		double angleFrequency = frequency * Math.PI * 2;
+		double time = 0;
+		Iterator<float[]> it = list.iterator();
+		while (it.hasNext()) {
+			float expected = (float) Math.sin(time * angleFrequency);
+			for (float sample : it.next()) {
+				if (!TestMain.approxEqual(sample, expected)) {
+					return false;
+				}
+			}
+			time += 1.0 / (double) rate;
+		}
+		return true;
+	}
+
+	private static int[] parseInts(String list) {
+		String[] words = list.split(",");
+		int[] values = new int[words.length];
+		for (int i = 0; i < words.length; i++) {
+			values[i] = Integer.parseInt(words[i].trim());
+		}
+		return values;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int[] durations = DEFAULT_DURATIONS;
+		int[] channels = DEFAULT_CHANNELS;
+		List<String> names = null;
+		float rate = 10000;
+		String baselineFile = "perf-baseline.properties";
+		double tolerance = DEFAULT_TOLERANCE;
+		boolean update = false;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-durations")) {
+				durations = parseInts(args[++i]);
+			} else if (args[i].equals("-channels")) {
+				channels = parseInts(args[++i]);
+			} else if (args[i].equals("-scenarios")) {
+				names = Arrays.asList(args[++i].split(","));
+			} else if (args[i].equals("-rate")) {
+				rate = Float.parseFloat(args[++i]);
+			} else if (args[i].equals("-baseline")) {
+				baselineFile = args[++i];
+			} else if (args[i].equals("-tolerance")) {
+				tolerance = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("-update")) {
+				update = true;
+			} else {
+				System.out.println("Usage: java PerfSuite [-durations 1,10,60] [-channels 1,2,8] [-scenarios reverse,resample]"
+						+ " [-rate 10000] [-baseline file] [-tolerance 1.5] [-update]");
+				System.exit(2);
+			}
+		}
+
+		PerfSuite suite = new PerfSuite(rate);
+		Properties baseline = new Properties();
+		try (InputStream in = new FileInputStream(baselineFile)) {
+			baseline.load(in);
+		} catch (IOException e) {
+			// no baseline yet: only correctness and scaling are checked
+		}
+
+		System.out.println("rate=" + rate + " maxHeap=" + Runtime.getRuntime().maxMemory() / 1048576 + " MB");
+		List<Result> results = suite.run(names, durations, channels);
+		for (Result result : results) {
+			System.out.println(result);
+		}
+
+		List<String> problems = suite.checkScaling(results);
+		if (update) {
+			suite.updateBaseline(results, baseline);
+			try (OutputStream out = new FileOutputStream(baselineFile)) {
+				baseline.store(out, "PerfSuite baseline: milliseconds and peak heap bytes per run");
+			}
+			System.out.println("Baseline written to " + baselineFile);
+		} else {
+			problems.addAll(suite.checkBaseline(results, baseline, tolerance));
+		}
+		for (Result result : results) {
+			if (update && !result.skipped && !result.correct) {
+				problems.add(result.key() + ": samples don't match");
+			}
+		}
+		for (String problem : problems) {
+			System.out.println("FAIL " + problem);
+		}
+		System.out.println(problems.isEmpty() ? "Success!" : problems.size() + " failures");
+		System.exit(problems.isEmpty() ? 0 : 1);
+	}
+}
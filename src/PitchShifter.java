@@ -0,0 +1,290 @@
+import java.util.Arrays;
+
+/**
+ * Phase vocoder pitch shifter: transposes audio by a number of semitones without changing its length.
+ *
+ * Each channel is cut into Hann windowed frames overlapping by the oversampling factor and
+ * transformed.  The phase change of each bin since the previous frame gives the true frequency of the
+ * partial in it.  Every spectral peak, with the bins around it, is moved by whole bins to the place of
+ * its frequency times the pitch ratio, keeping the shape of the peak; the peak's phase advances at its
+ * new frequency from frame to frame and the bins around it keep their phase relative to it (phase
+ * locking), which keeps partials clean and their level steady.  The frames are transformed back,
+ * windowed again and overlapped.  The output is delayed by getLatency() frames, one frame less one hop.
+ *
+ * Works one block at a time, so it can run live; the pitch can be changed between blocks.  Shifts of
+ * up to an octave either way sound clean; larger ones get increasingly smeared.
+ */
+public class PitchShifter implements AudioProcessor {
+	public static final int DEFAULT_OVERSAMPLING = 4;
+	private static final int BLOCK_SIZE = 4096;
+	private static final double TWO_PI = 2 * Math.PI;
+
+	private final int numChannels;
+	private final int frameSize;
+	private final int oversampling;
+	private final int hop;
+	private final FFT fft;
+	private final double[] window;
+	private final double outputScale;
+	private double ratio;
+
+	// per channel: input and output FIFOs, overlap-add accumulator, last analysis phases, synthesis phases
+	private final float[][] inFifo;
+	private final float[][] outFifo;
+	private final double[][] accumulator;
+	private final double[][] lastPhase;
+	private final double[][] sumPhase;
+	private final boolean[] started;
+	private int rover;
+
+	// scratch for one frame
+	private final double[] re;
+	private final double[] im;
+	private final double[] analysisMagnitude;
+	private final double[] analysisPhase;
+	private final double[] analysisBin;
+	private final int[] peaks;
+	private final double[] synthesisMagnitude;
+	private final double[] synthesisPhase;
+	private final double[] strongest;
+
+	/**
+	 * Create a shifter with frames of about 46 ms and 4x overlap
+	 * @param sampleRate Sample rate of the audio
+	 * @param numChannels Number of channels
+	 * @param semitones Shift in semitones; positive is up
+	 */
+	public PitchShifter(float sampleRate, int numChannels, float semitones) {
+		this(numChannels, semitones, defaultFrameSize(sampleRate), DEFAULT_OVERSAMPLING);
+	}
+
+	/**
+	 * Create a shifter
+	 * @param numChannels Number of channels
+	 * @param semitones Shift in semitones; positive is up
+	 * @param frameSize Analysis frame size, a power of two; longer frames resolve low notes better but
+	 *        smear attacks more
+	 * @param oversampling Frames per frame length, a power of two of at least 4
+	 */
+	public PitchShifter(int numChannels, float semitones, int frameSize, int oversampling) {
+		if (oversampling < 4 || (oversampling & (oversampling - 1)) != 0 || oversampling > frameSize) {
+			throw new IllegalArgumentException("Oversampling must be a power of two from 4 to the frame size");
+		}
+		this.numChannels = numChannels;
+		this.frameSize = frameSize;
+		this.oversampling = oversampling;
+		this.hop = frameSize / oversampling;
+		this.fft = FFT.getPlan(frameSize);
+		this.window = STFT.hann(frameSize);
+		double windowPower = 0;
+		for (double w : window) {
+			windowPower += w * w;
+		}
+		// analysis and synthesis windows overlap-add to windowPower / hop everywhere
+		this.outputScale = hop / windowPower;
+		setSemitones(semitones);
+
+		this.inFifo = new float[numChannels][frameSize];
+		this.outFifo = new float[numChannels][frameSize];
+		this.accumulator = new double[numChannels][2 * frameSize];
+		this.lastPhase = new double[numChannels][frameSize / 2 + 1];
+		this.sumPhase = new double[numChannels][frameSize / 2 + 1];
+		this.started = new boolean[numChannels];
+		this.re = new double[frameSize];
+		this.im = new double[frameSize];
+		this.analysisMagnitude = new double[frameSize / 2 + 1];
+		this.analysisPhase = new double[frameSize / 2 + 1];
+		this.analysisBin = new double[frameSize / 2 + 1];
+		this.peaks = new int[frameSize / 2 + 1];
+		this.synthesisMagnitude = new double[frameSize / 2 + 1];
+		this.synthesisPhase = new double[frameSize / 2 + 1];
+		this.strongest = new double[frameSize / 2 + 1];
+		reset();
+	}
+
+	/**
+	 * Change the shift, e.g. between blocks of a live stream
+	 * @param semitones Shift in semitones; positive is up
+	 */
+	public void setSemitones(float semitones) {
+		this.ratio = Math.pow(2, semitones / 12.0);
+	}
+
+	/**
+	 * Transpose planar audio in place.  The shifter's latency is compensated, so the result lines up
+	 * with the input.
+	 * @param planar One array per channel
+	 * @param frames Number of frames to transpose from the start of each array
+	 * @param sampleRate Sample rate of the audio
+	 * @param semitones Shift in semitones; positive is up
+	 */
+	public static void shift(float[][] planar, int frames, float sampleRate, float semitones) {
+		int numChannels = planar.length;
+		PitchShifter shifter = new PitchShifter(sampleRate, numChannels, semitones);
+		int latency = shifter.getLatency();
+		float[][] block = AudioBufferPool.acquirePlanar(numChannels, BLOCK_SIZE);
+		try {
+			// output frame j of each block belongs to input frame in + j - latency, which has already
+			// been read, so the output can overwrite the input
+			for (int in = 0; in < frames + latency; in += BLOCK_SIZE) {
+				int length = Math.min(BLOCK_SIZE, frames + latency - in);
+				int available = Math.max(0, Math.min(length, frames - in));
+				for (int c = 0; c < numChannels; c++) {
+					if (available > 0) {
+						System.arraycopy(planar[c], in, block[c], 0, available);
+					}
+					Arrays.fill(block[c], available, length, 0);
+				}
+				shifter.process(block, length);
+				int skip = Math.max(0, latency - in);
+				if (skip < length) {
+					for (int c = 0; c < numChannels; c++) {
+						System.arraycopy(block[c], skip, planar[c], in + skip - latency, length - skip);
+					}
+				}
+			}
+		} finally {
+			AudioBufferPool.release(block);
+		}
+	}
+
+	@Override
+	public void process(float[][] block, int frames) {
+		int latency = frameSize - hop;
+		for (int i = 0; i < frames; i++) {
+			for (int c = 0; c < numChannels; c++) {
+				inFifo[c][rover] = block[c][i];
+				block[c][i] = outFifo[c][rover - latency];
+			}
+			rover++;
+			if (rover == frameSize) {
+				rover = latency;
+				for (int c = 0; c < numChannels; c++) {
+					processFrame(c);
+				}
+			}
+		}
+	}
+
+	@Override
+	public int getLatency() {
+		return frameSize - hop;
+	}
+
+	@Override
+	public void reset() {
+		for (int c = 0; c < numChannels; c++) {
+			Arrays.fill(inFifo[c], 0);
+			Arrays.fill(outFifo[c], 0);
+			Arrays.fill(accumulator[c], 0);
+		}
+		Arrays.fill(started, false);
+		rover = frameSize - hop;
+	}
+
+	/**
+	 * Shift the frame in one channel's input FIFO and overlap-add it into the output
+	 */
+	private void processFrame(int c) {
+		int bins = frameSize / 2;
+		float[] input = inFifo[c];
+		for (int k = 0; k < frameSize; k++) {
+			re[k] = input[k] * window[k];
+			im[k] = 0;
+		}
+		fft.transform(re, im);
+
+		// analysis: magnitude, phase and true frequency (in bins) of each bin
+		double expected = TWO_PI * hop / frameSize;
+		double[] last = lastPhase[c];
+		double[] sum = sumPhase[c];
+		for (int k = 0; k <= bins; k++) {
+			double phase = Math.atan2(im[k], re[k]);
+			if (!started[c]) {
+				// no previous frame: take every bin to be exactly on its centre frequency, and start the
+				// synthesis from the analysis phases
+				last[k] = phase - k * expected;
+				sum[k] = last[k];
+			}
+			double delta = phase - last[k] - k * expected;
+			last[k] = phase;
+			delta -= TWO_PI * Math.rint(delta / TWO_PI);
+			analysisMagnitude[k] = Math.sqrt(re[k] * re[k] + im[k] * im[k]);
+			analysisPhase[k] = phase;
+			analysisBin[k] = k + delta * oversampling / TWO_PI;
+		}
+
+		started[c] = true;
+
+		// find the peaks; each owns the bins up to halfway to its neighbours
+		int numPeaks = 0;
+		for (int k = 1; k < bins; k++) {
+			if (analysisMagnitude[k] > analysisMagnitude[k - 1] && analysisMagnitude[k] >= analysisMagnitude[k + 1]) {
+				peaks[numPeaks++] = k;
+			}
+		}
+
+		// move each peak's region by whole bins to the peak's new frequency, keeping the shape of the
+		// region, and lock the phases of the region to the peak's
+		Arrays.fill(synthesisMagnitude, 0);
+		Arrays.fill(strongest, 0);
+		for (int i = 0; i < numPeaks; i++) {
+			int peak = peaks[i];
+			int low = i == 0 ? 0 : (peaks[i - 1] + peak) / 2 + 1;
+			int high = i == numPeaks - 1 ? bins : (peak + peaks[i + 1]) / 2;
+			double frequency = analysisBin[peak] * ratio;
+			int offset = (int) Math.round(frequency - analysisBin[peak]);
+			int target = peak + offset;
+			if (target < 0 || target > bins) {
+				continue;
+			}
+			double peakPhase = sum[target] + frequency * expected;
+			for (int k = low; k <= high; k++) {
+				int to = k + offset;
+				if (to >= 0 && to <= bins) {
+					// where regions land on each other, the bin keeps the phase of the stronger one
+					if (analysisMagnitude[k] > strongest[to]) {
+						strongest[to] = analysisMagnitude[k];
+						synthesisPhase[to] = peakPhase + analysisPhase[k] - analysisPhase[peak];
+					}
+					synthesisMagnitude[to] += analysisMagnitude[k];
+				}
+			}
+		}
+
+		// mirror to a real spectrum
+		for (int k = 0; k <= bins; k++) {
+			double phase = synthesisPhase[k] - TWO_PI * Math.rint(synthesisPhase[k] / TWO_PI);
+			sum[k] = phase;
+			re[k] = synthesisMagnitude[k] * Math.cos(phase);
+			im[k] = synthesisMagnitude[k] * Math.sin(phase);
+		}
+		for (int k = bins + 1; k < frameSize; k++) {
+			re[k] = re[frameSize - k];
+			im[k] = -im[frameSize - k];
+		}
+		fft.inverse(re, im);
+
+		double[] accumulated = accumulator[c];
+		for (int k = 0; k < frameSize; k++) {
+			accumulated[k] += window[k] * re[k] * outputScale;
+		}
+		float[] output = outFifo[c];
+		for (int k = 0; k < hop; k++) {
+			output[k] = (float) accumulated[k];
+		}
+		System.arraycopy(accumulated, hop, accumulated, 0, frameSize);
+		System.arraycopy(input, hop, input, 0, frameSize - hop);
+	}
+
+	/**
+	 * The power of two nearest 46 ms at a sample rate, and at least 256
+	 */
+	private static int defaultFrameSize(float sampleRate) {
+		int size = 256;
+		while (size * 1.5 < sampleRate * 0.046) {
+			size *= 2;
+		}
+		return size;
+	}
+}
@@ -0,0 +1,115 @@
+/**
+ * Single channel versions of the MusicLinkedList operations, working on a plain float array.  Each
+ * one does the same arithmetic in the same order as the linked list version, so results match it
+ * exactly.  Channels are independent, which is what lets ParallelChannelExecutor run them side by side.
+ */
+public class PlanarOps {
+
+	private PlanarOps() {
+	}
+
+	/**
+	 * Number of whole frames MusicLinkedList steps over for a time, i.e. the number of i with i < seconds*sampleRate.
+	 * The product is taken in float, as the linked list loops take it, so the two agree on every frame.
+	 * @param seconds The time
+	 * @param sampleRate The sample rate
+	 * @return the frame count
+	 */
+	public static long framesBefore(float seconds, float sampleRate) {
+		float frames = seconds*sampleRate;
+		return frames > 0 ? (long) Math.ceil(frames) : 0;
+	}
+
+	/**
+	 * Echo with feedback, in place: samples[i] += samples[i - delayFrames]*percent, in increasing i
+	 * @param samples The channel
+	 * @param length Number of frames in use
+	 * @param delayFrames Echo delay, in frames
+	 * @param percent Echo volume
+	 */
+	public static void echo(float[] samples, int length, int delayFrames, float percent) {
+		for (int i = delayFrames; i < length; i++) {
+			samples[i] += samples[i - delayFrames]*percent;
+		}
+	}
+
+	/**
+	 * Reverse a channel in place
+	 * @param samples The channel
+	 * @param length Number of frames in use
+	 */
+	public static void reverse(float[] samples, int length) {
+		for (int i = 0, j = length - 1; i < j; i++, j--) {
+			float temp = samples[i];
+			samples[i] = samples[j];
+			samples[j] = temp;
+		}
+	}
+
+	/**
+	 * Multiply a range of a channel by a gain, in place
+	 * @param samples The channel
+	 * @param from First frame
+	 * @param to One past the last frame
+	 * @param gain The gain
+	 */
+	public static void gain(float[] samples, int from, int to, float gain) {
+		for (int i = from; i < to; i++) {
+			samples[i] = samples[i]*gain;
+		}
+	}
+
+	/**
+	 * Number of frames changeSampleRate produces
+	 * @param length Number of frames before resampling
+	 * @param oldRate Current sample rate
+	 * @param newRate New sample rate
+	 * @return number of frames after resampling
+	 */
+	public static int resampledLength(int length, float oldRate, float newRate) {
+		float duration = (length - 1) / oldRate;
+		int count = 1;
+		double newTime = 1/newRate;
+		while (newTime <= duration) {
+			count++;
+			newTime += 1/newRate;
+		}
+		return count;
+	}
+
+	/**
+	 * Linear interpolation resampling, as MusicLinkedList.changeSampleRate
+	 * @param samples The channel
+	 * @param length Number of frames in use (at least 2)
+	 * @param oldRate Current sample rate
+	 * @param newRate New sample rate
+	 * @param out Array for the result, at least resampledLength(length, oldRate, newRate) long
+	 */
+	public static void resample(float[] samples, int length, float oldRate, float newRate, float[] out) {
+		double oldStep = 1/(double) oldRate;
+		float duration = (length - 1) / oldRate;
+		int leading = 1;
+		int following = 0;
+		double oldTimeLeading = oldStep;
+		double oldTimeFollowing = 0;
+		double newTime = 0;
+
+		out[0] = samples[0];
+		int written = 1;
+		newTime += 1/newRate;
+
+		while (newTime <= duration) {
+			while (oldTimeLeading < newTime) {
+				leading++;
+				oldTimeLeading += oldStep;
+			}
+			while (oldTimeFollowing < newTime - oldStep) {
+				following++;
+				oldTimeFollowing += oldStep;
+			}
+			double ratio = (newTime - oldTimeFollowing)/(oldTimeLeading - oldTimeFollowing);
+			out[written++] = (float) (samples[following] + (samples[leading] - samples[following])*ratio);
+			newTime += 1/newRate;
+		}
+	}
+}
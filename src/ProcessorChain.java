@@ -0,0 +1,135 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A sequence of AudioProcessors run one after another on each block, plus helpers to run a
+ * processor over a whole MusicList.
+ */
+public class ProcessorChain implements AudioProcessor {
+	public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+	private final List<AudioProcessor> stages;
+
+	public ProcessorChain() {
+		this.stages = new ArrayList<AudioProcessor>();
+	}
+
+	/**
+	 * Add a stage to the end of the chain
+	 * @param stage The processor to add
+	 * @return this chain, so calls can be strung together
+	 */
+	public ProcessorChain add(AudioProcessor stage) {
+		stages.add(stage);
+		return this;
+	}
+
+	@Override
+	public void process(float[][] block, int frames) {
+		for (AudioProcessor stage : stages) {
+			stage.process(block, frames);
+		}
+	}
+
+	@Override
+	public int getLatency() {
+		int latency = 0;
+		for (AudioProcessor stage : stages) {
+			latency += stage.getLatency();
+		}
+		return latency;
+	}
+
+	@Override
+	public void reset() {
+		for (AudioProcessor stage : stages) {
+			stage.reset();
+		}
+	}
+
+	/**
+	 * Run a MusicList through this chain
+	 * @param source The list to process.  It is not modified.
+	 * @return the processed audio, the same length as source
+	 */
+	public MusicLinkedList render(MusicList source) {
+		return render(source, this, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Run a MusicList through a processor in blocks.  The processor's latency is compensated: its first
+	 * getLatency() output frames are dropped and the input is padded with silence at the end, so the
+	 * result lines up with the source and has the same length.
+	 * @param source The list to process.  It is not modified.
+	 * @param processor The processor to run
+	 * @param blockSize Frames per block
+	 * @return the processed audio
+	 */
+	public static MusicLinkedList render(MusicList source, AudioProcessor processor, int blockSize) {
+		int numChannels = source.getNumChannels();
+		MusicLinkedList result = new MusicLinkedList(source.getSampleRate(), numChannels);
+		float[][] block = AudioBufferPool.acquirePlanar(numChannels, blockSize);
+		float[] frame = new float[numChannels];
+		Iterator<float[]> iterator = source.iterator();
+		int toSkip = processor.getLatency();
+		int padding = toSkip;
+
+		try {
+			while (iterator.hasNext() || padding > 0) {
+				int frames = 0;
+				while (frames < blockSize && iterator.hasNext()) {
+					float[] next = iterator.next();
+					for (int c = 0; c < numChannels; c++) {
+						block[c][frames] = next[c];
+					}
+					frames++;
+				}
+				while (frames < blockSize && !iterator.hasNext() && padding > 0) {
+					for (int c = 0; c < numChannels; c++) {
+						block[c][frames] = 0;
+					}
+					frames++;
+					padding--;
+				}
+				processor.process(block, frames);
+				for (int i = Math.min(toSkip, frames); i < frames; i++) {
+					for (int c = 0; c < numChannels; c++) {
+						frame[c] = block[c][i];
+					}
+					result.addSample(frame);
+				}
+				toSkip -= Math.min(toSkip, frames);
+			}
+		} finally {
+			AudioBufferPool.release(block);
+		}
+		return result;
+	}
+
+	/**
+	 * Run a MusicList through a processor without keeping the output, e.g. to drive a meter
+	 * @param source The list to read
+	 * @param processor The processor to run
+	 */
+	public static void analyze(MusicList source, AudioProcessor processor) {
+		int numChannels = source.getNumChannels();
+		float[][] block = AudioBufferPool.acquirePlanar(numChannels, DEFAULT_BLOCK_SIZE);
+		Iterator<float[]> iterator = source.iterator();
+		try {
+			while (iterator.hasNext()) {
+				int frames = 0;
+				while (frames < DEFAULT_BLOCK_SIZE && iterator.hasNext()) {
+					float[] next = iterator.next();
+					for (int c = 0; c < numChannels; c++) {
+						block[c][frames] = next[c];
+					}
+					frames++;
+				}
+				processor.process(block, frames);
+			}
+		} finally {
+			AudioBufferPool.release(block);
+		}
+	}
+}
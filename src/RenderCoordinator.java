@@ -0,0 +1,474 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits render work across RenderWorker processes.  The work is either a batch of clips, each
+ * rendered whole by one worker, or one long clip cut into time segments that are rendered separately
+ * and joined back together.
+ *
+ * Workers connect to the coordinator's server socket, which carries only small control messages: a
+ * piece's id, its input and output file names and its operations.  The audio itself goes through the
+ * spool directory as snapshot files (see SnapshotMusicList): the coordinator writes each piece there,
+ * the worker maps it, renders it and writes the result next to it, and the coordinator maps the result.
+ * On one machine the spool directory can be a RAM-backed file system; across machines it must be a
+ * shared file system mounted at the same path everywhere, and the workers are started by hand with
+ * the coordinator's host and port (see RenderWorker).
+ *
+ * If a worker dies or its connection breaks while it holds a piece, the piece is queued again for
+ * another worker, up to MAX_ATTEMPTS times.  Local workers started with startLocalWorkers are
+ * restarted when they exit, up to MAX_RESPAWNS times in all.
+ */
+public class RenderCoordinator implements AutoCloseable {
+	public static final int MAX_ATTEMPTS = 3;
+	public static final int MAX_RESPAWNS = 8;
+	private static final long POLL_MILLIS = 50;
+
+	private final File spoolDir;
+	private final String spoolPrefix;
+	private final ServerSocket server;
+	private final Thread acceptThread;
+	private final BlockingQueue<Task> tasks;
+	private final AtomicInteger nextId;
+	private final AtomicInteger retries;
+	private final AtomicInteger workers;
+
+	// all guarded by this
+	private final List<Thread> connections;
+	private final List<Process> processes;
+	private final List<File> spoolFiles;
+	private int localWorkers;
+	private int respawns;
+	private volatile boolean closed;
+
+	/**
+	 * Create a coordinator that listens on a free port of the loopback address, for workers on the
+	 * same machine
+	 * @param spoolDir Directory for the pieces and their results
+	 * @throws IOException if the server socket cannot be opened
+	 */
+	public RenderCoordinator(File spoolDir) throws IOException {
+		this(spoolDir, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+	}
+
+	/**
+	 * Create a coordinator that listens on a chosen address, for workers on other machines
+	 * @param spoolDir Directory for the pieces and their results, shared with every worker
+	 * @param address Address to listen on
+	 * @throws IOException if the server socket cannot be opened
+	 */
+	public RenderCoordinator(File spoolDir, InetSocketAddress address) throws IOException {
+		if (!spoolDir.isDirectory()) {
+			throw new IOException(spoolDir + " is not a directory");
+		}
+		this.spoolDir = spoolDir;
+		this.server = new ServerSocket();
+		this.server.bind(address);
+		this.spoolPrefix = "render-" + ProcessHandle.current().pid() + "-" + server.getLocalPort() + "-";
+		this.tasks = new LinkedBlockingQueue<Task>();
+		this.nextId = new AtomicInteger();
+		this.retries = new AtomicInteger();
+		this.workers = new AtomicInteger();
+		this.connections = new ArrayList<Thread>();
+		this.processes = new ArrayList<Process>();
+		this.spoolFiles = new ArrayList<File>();
+		this.acceptThread = new Thread(new Runnable() {
+			public void run() {
+				acceptWorkers();
+			}
+		}, "render-coordinator-accept");
+		this.acceptThread.setDaemon(true);
+		this.acceptThread.start();
+	}
+
+	/**
+	 * Returns the port workers connect to
+	 * @return the port
+	 */
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Returns the number of workers connected now
+	 * @return connected workers
+	 */
+	public int getWorkers() {
+		return workers.get();
+	}
+
+	/**
+	 * Returns the number of pieces waiting for a worker
+	 * @return queued pieces
+	 */
+	public int getQueued() {
+		return tasks.size();
+	}
+
+	/**
+	 * Returns how many times a piece has been queued again because its worker was lost
+	 * @return retries so far
+	 */
+	public int getRetries() {
+		return retries.get();
+	}
+
+	/**
+	 * Start worker processes on this machine, running RenderWorker from this JVM's class path
+	 * @param count Number of workers to start
+	 * @throws IOException if a process cannot be started
+	 */
+	public void startLocalWorkers(int count) throws IOException {
+		synchronized (this) {
+			if (closed) {
+				throw new IllegalStateException("RenderCoordinator has been closed");
+			}
+			localWorkers += count;
+		}
+		for (int i = 0; i < count; i++) {
+			startLocalWorker();
+		}
+	}
+
+	/**
+	 * Render one clip on a worker
+	 * @param clip The clip.  It is copied to the spool directory before this returns.
+	 * @param operations Operations to apply, as RenderWorker.apply takes them
+	 * @return a future that completes with the rendered clip, mapped from the spool directory, or
+	 *         exceptionally if the operations fail or every attempt loses its worker
+	 * @throws IOException if the clip cannot be written to the spool directory
+	 */
+	public CompletableFuture<MusicList> submit(MusicList clip, String operations) throws IOException {
+		RenderWorker.check(operations);
+		return queue(clip, operations);
+	}
+
+	/**
+	 * Render a batch of clips, each on whichever worker is free first
+	 * @param clips The clips
+	 * @param operations Operations to apply to every clip
+	 * @return one future per clip, in the same order
+	 * @throws IOException if a clip cannot be written to the spool directory
+	 */
+	public List<CompletableFuture<MusicList>> submitBatch(List<? extends MusicList> clips, String operations) throws IOException {
+		RenderWorker.check(operations);
+		List<CompletableFuture<MusicList>> results = new ArrayList<CompletableFuture<MusicList>>();
+		for (MusicList clip : clips) {
+			results.add(queue(clip, operations));
+		}
+		return results;
+	}
+
+	/**
+	 * Render one long clip in time segments spread over the workers, and join the results.  The
+	 * operations must keep frames in place (see RenderWorker.isSegmentable).  Each segment is sent with
+	 * up to preRollFrames frames before it, which are rendered and then dropped, so that an echo
+	 * crossing a segment boundary is still heard.  The result only approximates rendering the whole clip:
+	 * addEcho feeds back, so its history never ends, and each segment misses the echo of everything
+	 * before its pre-roll.  That part has decayed by percent for every delay in the pre-roll, so choose
+	 * preRollFrames to bring percent^(preRollFrames / delay frames) below the precision needed.
+	 * @param clip The clip.  It is read once, in order, and copied to the spool directory before this returns.
+	 * @param operations Operations to apply
+	 * @param segmentFrames Frames per segment, not counting the pre-roll
+	 * @param preRollFrames Frames of pre-roll before each segment but the first
+	 * @return a future that completes with a Timeline of the rendered segments
+	 * @throws IOException if a segment cannot be written to the spool directory
+	 */
+	public CompletableFuture<MusicList> submitSegmented(MusicList clip, String operations, int segmentFrames, int preRollFrames) throws IOException {
+		if (!RenderWorker.isSegmentable(operations)) {
+			throw new IllegalArgumentException("Operations cannot be split into time segments: " + operations);
+		}
+		if (segmentFrames <= 0 || preRollFrames < 0) {
+			throw new IllegalArgumentException("segmentFrames must be positive and preRollFrames not negative");
+		}
+		final float sampleRate = clip.getSampleRate();
+		final int numChannels = clip.getNumChannels();
+		final List<CompletableFuture<MusicList>> pieces = new ArrayList<CompletableFuture<MusicList>>();
+		final List<Long> preRolls = new ArrayList<Long>();
+
+		UnrolledMusicList segment = new UnrolledMusicList(sampleRate, numChannels);
+		long preRoll = 0;
+		Iterator<float[]> iterator = clip.iterator();
+		while (iterator.hasNext()) {
+			segment.addSample(iterator.next());
+			if (segment.getFrameCount() == preRoll + segmentFrames || !iterator.hasNext()) {
+				pieces.add(queue(segment, operations));
+				preRolls.add(preRoll);
+				// the end of this segment is the pre-roll of the next
+				preRoll = Math.min(preRollFrames, segment.getFrameCount());
+				segment.clipFrames(segment.getFrameCount() - preRoll, preRoll);
+			}
+		}
+
+		return CompletableFuture.allOf(pieces.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+			Timeline joined = new Timeline(sampleRate, numChannels);
+			for (int i = 0; i < pieces.size(); i++) {
+				MusicList piece = pieces.get(i).join();
+				piece.clipFrames(preRolls.get(i), piece.getFrameCount() - preRolls.get(i));
+				joined.append(piece);
+			}
+			return joined;
+		});
+	}
+
+	/**
+	 * Stop accepting work, wait for the queued pieces to be rendered, stop the workers and delete the
+	 * spool files.  Pieces left with no worker to render them fail.  Results already returned stay
+	 * mapped, but should be copied if they are needed on a system that cannot delete mapped files.  An
+	 * interrupt does not cut the wait for the pieces short, but local workers are then stopped at once
+	 * rather than given time to exit; the thread's interrupt status is set again on return.
+	 */
+	public void close() {
+		boolean interrupted = false;
+		List<Thread> waitFor;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		try {
+			server.close();
+		} catch (IOException e) {
+			// the accept thread stops either way
+		}
+		interrupted |= joinUninterruptibly(acceptThread);
+		synchronized (this) {
+			waitFor = new ArrayList<Thread>(connections);
+		}
+		for (Thread connection : waitFor) {
+			interrupted |= joinUninterruptibly(connection);
+		}
+		Task left;
+		while ((left = tasks.poll()) != null) {
+			left.result.completeExceptionally(new IllegalStateException("RenderCoordinator closed before piece " + left.id + " was rendered"));
+		}
+		List<Process> started;
+		synchronized (this) {
+			started = new ArrayList<Process>(processes);
+		}
+		for (Process process : started) {
+			boolean exited = false;
+			if (!interrupted) {
+				try {
+					exited = process.waitFor(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (!exited) {
+				process.destroyForcibly();
+			}
+		}
+		synchronized (this) {
+			for (File file : spoolFiles) {
+				file.delete();
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Wait for a thread to finish, carrying on through interrupts
+	 * @return true if the wait was interrupted
+	 */
+	private static boolean joinUninterruptibly(Thread thread) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				thread.join();
+				return interrupted;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+	}
+
+	/**
+	 * Write a clip to the spool directory and queue it for a worker
+	 */
+	private CompletableFuture<MusicList> queue(MusicList clip, String operations) throws IOException {
+		if (closed) {
+			throw new IllegalStateException("RenderCoordinator has been closed");
+		}
+		int id = nextId.getAndIncrement();
+		File input = new File(spoolDir, spoolPrefix + id + ".in");
+		File output = new File(spoolDir, spoolPrefix + id + ".out");
+		synchronized (this) {
+			spoolFiles.add(input);
+			spoolFiles.add(output);
+		}
+		SnapshotMusicList.write(clip, input.getPath());
+		Task task = new Task(id, input, output, operations);
+		tasks.add(task);
+		return task.result;
+	}
+
+	private void acceptWorkers() {
+		while (!closed) {
+			final Socket socket;
+			try {
+				socket = server.accept();
+			} catch (IOException e) {
+				return;
+			}
+			Thread connection = new Thread(new Runnable() {
+				public void run() {
+					serve(socket);
+				}
+			}, "render-coordinator-worker");
+			connection.setDaemon(true);
+			synchronized (this) {
+				connections.add(connection);
+			}
+			connection.start();
+		}
+	}
+
+	/**
+	 * Hand pieces to one worker, one at a time, until the coordinator closes or the worker is lost
+	 */
+	private void serve(Socket socket) {
+		workers.incrementAndGet();
+		try {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			while (true) {
+				Task task = tasks.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (task == null) {
+					if (closed) {
+						out.writeInt(RenderWorker.STOP);
+						out.flush();
+						return;
+					}
+					continue;
+				}
+				String error;
+				try {
+					out.writeInt(task.id);
+					out.writeUTF(task.input.getPath());
+					out.writeUTF(task.output.getPath());
+					out.writeUTF(task.operations);
+					out.flush();
+					int id = in.readInt();
+					error = in.readUTF();
+					if (id != task.id) {
+						throw new IOException("Worker answered piece " + id + " instead of " + task.id);
+					}
+				} catch (IOException e) {
+					retry(task, e);
+					return;
+				}
+				finish(task, error);
+			}
+		} catch (IOException e) {
+			// the worker went away between pieces
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			workers.decrementAndGet();
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// already broken
+			}
+		}
+	}
+
+	private void finish(Task task, String error) {
+		task.input.delete();
+		if (!error.isEmpty()) {
+			task.result.completeExceptionally(new IllegalStateException("Piece " + task.id + " failed on its worker: " + error));
+			return;
+		}
+		try {
+			task.result.complete(SnapshotMusicList.load(task.output.getPath()));
+		} catch (IOException e) {
+			task.result.completeExceptionally(e);
+		}
+	}
+
+	private void retry(Task task, IOException cause) {
+		task.attempts++;
+		if (task.attempts >= MAX_ATTEMPTS) {
+			task.input.delete();
+			task.result.completeExceptionally(new IllegalStateException("Piece " + task.id + " lost its worker " + task.attempts + " times", cause));
+			return;
+		}
+		retries.incrementAndGet();
+		tasks.add(task);
+	}
+
+	private void startLocalWorker() throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				"RenderWorker", server.getInetAddress().getHostAddress(), Integer.toString(getPort()));
+		builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		Process process = builder.start();
+		synchronized (this) {
+			processes.add(process);
+		}
+		process.onExit().thenRun(new Runnable() {
+			public void run() {
+				workerExited(process);
+			}
+		});
+	}
+
+	/**
+	 * Start another local worker in place of one that exited, unless the coordinator is closing or has
+	 * restarted too many already
+	 */
+	private void workerExited(Process process) {
+		synchronized (this) {
+			processes.remove(process);
+			if (closed || processes.size() >= localWorkers || respawns >= MAX_RESPAWNS) {
+				return;
+			}
+			respawns++;
+		}
+		try {
+			startLocalWorker();
+		} catch (IOException e) {
+			// the remaining workers carry on
+		}
+	}
+
+	/**
+	 * A piece of work, queued or held by a worker
+	 */
+	private static class Task {
+		final int id;
+		final File input;
+		final File output;
+		final String operations;
+		final CompletableFuture<MusicList> result = new CompletableFuture<MusicList>();
+		int attempts;
+
+		Task(int id, File input, File output, String operations) {
+			this.id = id;
+			this.input = input;
+			this.output = output;
+			this.operations = operations;
+		}
+	}
+}
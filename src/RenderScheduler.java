@@ -0,0 +1,400 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * Runs independent render jobs (read, process, write) concurrently without running out of memory.
+ *
+ * Each job is submitted with an Estimate of the heap and off-heap memory it will hold at its peak,
+ * usually computed from its channel count, frame count and storage type (see estimate and estimateWav).
+ * Jobs are admitted in submission order while their estimates fit in the scheduler's budgets; the
+ * rest wait in the queue until running jobs finish and give their memory back.  A job whose estimate
+ * is larger than a whole budget is run on its own once nothing else is running.
+ *
+ * Admitted jobs run on virtual threads when the JVM has them (Java 21 and later) and on a cached pool
+ * of daemon threads otherwise; either way the number of running jobs is bounded by the budgets (and
+ * optionally maxRunning), not by the thread count.  snapshot() reports queueing latency and throughput.
+ */
+public class RenderScheduler implements AutoCloseable {
+	/**
+	 * How a job keeps its audio, which sets the bytes per sample of an estimate
+	 */
+	public enum Storage {
+		/** MusicLinkedList: one Sample object (header, value, two links, outer reference) per sample */
+		LINKED(32, 0),
+		/** UnrolledMusicList, ConcurrentMusicList or planar float arrays */
+		PLANAR(4, 0),
+		/** CompressedMusicList; a conservative figure for typical music */
+		COMPRESSED(3, 0),
+		/** SnapshotMusicList mapped from a file: the samples are outside the heap */
+		MAPPED(0, 4);
+
+		private final long heapBytesPerSample;
+		private final long offHeapBytesPerSample;
+
+		Storage(long heapBytesPerSample, long offHeapBytesPerSample) {
+			this.heapBytesPerSample = heapBytesPerSample;
+			this.offHeapBytesPerSample = offHeapBytesPerSample;
+		}
+
+		/**
+		 * Returns the heap bytes one sample takes in this storage
+		 * @return bytes per sample on the heap
+		 */
+		public long getHeapBytesPerSample() {
+			return heapBytesPerSample;
+		}
+
+		/**
+		 * Returns the bytes outside the heap one sample takes in this storage
+		 * @return bytes per sample off the heap
+		 */
+		public long getOffHeapBytesPerSample() {
+			return offHeapBytesPerSample;
+		}
+	}
+
+	private final long heapBudget;
+	private final long offHeapBudget;
+	private final int maxRunning;
+	private final ExecutorService executor;
+	private final boolean virtualThreads;
+	private final ArrayDeque<Job<?>> queue;
+	private final long createdNanos;
+
+	// all guarded by this
+	private long heapInUse;
+	private long offHeapInUse;
+	private int running;
+	private long submitted;
+	private long completed;
+	private long failed;
+	private long framesCompleted;
+	private long queueNanosTotal;
+	private long queueNanosMax;
+	private boolean closed;
+
+	/**
+	 * Create a scheduler
+	 * @param heapBudget Heap bytes that admitted jobs may hold together
+	 * @param offHeapBudget Off-heap bytes that admitted jobs may hold together
+	 */
+	public RenderScheduler(long heapBudget, long offHeapBudget) {
+		this(heapBudget, offHeapBudget, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Create a scheduler that also limits the number of jobs running at once
+	 * @param heapBudget Heap bytes that admitted jobs may hold together
+	 * @param offHeapBudget Off-heap bytes that admitted jobs may hold together
+	 * @param maxRunning Most jobs to run at once
+	 */
+	public RenderScheduler(long heapBudget, long offHeapBudget, int maxRunning) {
+		if (heapBudget <= 0 || offHeapBudget < 0 || maxRunning <= 0) {
+			throw new IllegalArgumentException("Budgets and maxRunning must be positive");
+		}
+		this.heapBudget = heapBudget;
+		this.offHeapBudget = offHeapBudget;
+		this.maxRunning = maxRunning;
+		ExecutorService virtual = newVirtualThreadExecutor();
+		this.virtualThreads = virtual != null;
+		this.executor = virtual != null ? virtual : Executors.newCachedThreadPool(new DaemonThreads());
+		this.queue = new ArrayDeque<Job<?>>();
+		this.createdNanos = System.nanoTime();
+	}
+
+	/**
+	 * Estimate the memory a job holds at its peak
+	 * @param storage How the job keeps its audio
+	 * @param numChannels Number of channels
+	 * @param frames Number of frames
+	 * @param copies How many copies of the audio the job holds at once, e.g. 2 for a job that renders
+	 *        a list through a ProcessorChain while still holding the input
+	 * @return the estimate
+	 */
+	public static Estimate estimate(Storage storage, int numChannels, long frames, int copies) {
+		long samples = frames * numChannels * copies;
+		return new Estimate(samples * storage.heapBytesPerSample, samples * storage.offHeapBytesPerSample, frames);
+	}
+
+	/**
+	 * Estimate the memory of a job that reads a WAV file, from the file's header
+	 * @param filename The file the job will read
+	 * @param storage How the job keeps its audio
+	 * @param copies How many copies of the audio the job holds at once
+	 * @return the estimate
+	 * @throws IOException if the file cannot be read
+	 * @throws UnsupportedAudioFileException if the file is not audio
+	 */
+	public static Estimate estimateWav(String filename, Storage storage, int copies) throws IOException, UnsupportedAudioFileException {
+		AudioFileFormat format = AudioSystem.getAudioFileFormat(new File(filename));
+		long frames = format.getFrameLength();
+		if (frames == AudioSystem.NOT_SPECIFIED) {
+			frames = new File(filename).length() / Math.max(1, format.getFormat().getFrameSize());
+		}
+		return estimate(storage, format.getFormat().getChannels(), frames, copies);
+	}
+
+	/**
+	 * Queue a job.  It starts once its estimate fits in the budgets and every job submitted before it
+	 * has started.
+	 * @param name Name of the job, for error messages
+	 * @param estimate Memory the job will hold at its peak
+	 * @param work The job
+	 * @return a future that completes with the job's result, or exceptionally if it throws
+	 */
+	public <T> CompletableFuture<T> submit(String name, Estimate estimate, Callable<T> work) {
+		Job<T> job = new Job<T>(name, estimate, work);
+		synchronized (this) {
+			if (closed) {
+				throw new IllegalStateException("RenderScheduler has been closed");
+			}
+			queue.add(job);
+			submitted++;
+		}
+		dispatch();
+		return job.result;
+	}
+
+	/**
+	 * Returns true if jobs run on virtual threads
+	 * @return false if the JVM has no virtual threads and a thread pool is used
+	 */
+	public boolean isUsingVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * Returns the number of jobs waiting to be admitted
+	 * @return queued jobs
+	 */
+	public synchronized int getQueued() {
+		return queue.size();
+	}
+
+	/**
+	 * Returns the number of jobs running now
+	 * @return running jobs
+	 */
+	public synchronized int getRunning() {
+		return running;
+	}
+
+	/**
+	 * Returns the scheduler's counters: jobs submitted, running, queued, completed and failed; heap and
+	 * off-heap bytes in use; mean and longest time spent queued (in nanoseconds); and throughput since
+	 * the scheduler was created, in jobs and frames per second
+	 * @return values by name, sorted by name
+	 */
+	public synchronized Map<String, Double> snapshot() {
+		double seconds = (System.nanoTime() - createdNanos) / 1e9;
+		long started = completed + failed + running;
+		Map<String, Double> values = new TreeMap<String, Double>();
+		values.put("render.submitted", (double) submitted);
+		values.put("render.running", (double) running);
+		values.put("render.queued", (double) queue.size());
+		values.put("render.completed", (double) completed);
+		values.put("render.failed", (double) failed);
+		values.put("render.heapInUse", (double) heapInUse);
+		values.put("render.offHeapInUse", (double) offHeapInUse);
+		values.put("render.queueNanosMean", started == 0 ? 0 : (double) queueNanosTotal / started);
+		values.put("render.queueNanosMax", (double) queueNanosMax);
+		values.put("render.jobsPerSecond", completed / seconds);
+		values.put("render.framesPerSecond", framesCompleted / seconds);
+		return values;
+	}
+
+	/**
+	 * Stop accepting jobs, wait for queued and running jobs to finish, and release the threads.  An
+	 * interrupt does not cut the wait short; the thread's interrupt status is set again on return.
+	 */
+	public void close() {
+		boolean interrupted = false;
+		synchronized (this) {
+			closed = true;
+			while (running > 0 || !queue.isEmpty()) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		executor.shutdown();
+		while (!executor.isTerminated()) {
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Start every job at the head of the queue that fits
+	 */
+	private void dispatch() {
+		while (true) {
+			Job<?> job;
+			synchronized (this) {
+				job = queue.peek();
+				if (job == null || !fits(job.estimate)) {
+					return;
+				}
+				queue.remove();
+				heapInUse += job.estimate.heapBytes;
+				offHeapInUse += job.estimate.offHeapBytes;
+				running++;
+				long waited = System.nanoTime() - job.submittedNanos;
+				queueNanosTotal += waited;
+				queueNanosMax = Math.max(queueNanosMax, waited);
+			}
+			executor.execute(job);
+		}
+	}
+
+	private boolean fits(Estimate estimate) {
+		if (running >= maxRunning) {
+			return false;
+		}
+		if (running == 0) {
+			// even a job larger than the budgets may run once it has the node to itself
+			return true;
+		}
+		return heapInUse + estimate.heapBytes <= heapBudget && offHeapInUse + estimate.offHeapBytes <= offHeapBudget;
+	}
+
+	private void finished(Job<?> job, boolean succeeded) {
+		synchronized (this) {
+			heapInUse -= job.estimate.heapBytes;
+			offHeapInUse -= job.estimate.offHeapBytes;
+			running--;
+			if (succeeded) {
+				completed++;
+				framesCompleted += job.estimate.frames;
+			} else {
+				failed++;
+			}
+			notifyAll();
+		}
+		dispatch();
+	}
+
+	/**
+	 * Executors.newVirtualThreadPerTaskExecutor(), looked up at run time so this compiles and runs on
+	 * JVMs without virtual threads
+	 * @return the executor, or null if virtual threads are not available
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		} catch (UnsupportedOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Peak memory of a job
+	 */
+	public static final class Estimate {
+		private final long heapBytes;
+		private final long offHeapBytes;
+		private final long frames;
+
+		/**
+		 * Create an estimate
+		 * @param heapBytes Heap bytes the job holds at its peak
+		 * @param offHeapBytes Off-heap (direct or mapped) bytes the job holds at its peak
+		 * @param frames Frames the job processes, for the throughput figures
+		 */
+		public Estimate(long heapBytes, long offHeapBytes, long frames) {
+			this.heapBytes = heapBytes;
+			this.offHeapBytes = offHeapBytes;
+			this.frames = frames;
+		}
+
+		/**
+		 * Returns the heap bytes the job holds at its peak
+		 * @return bytes
+		 */
+		public long getHeapBytes() {
+			return heapBytes;
+		}
+
+		/**
+		 * Returns the off-heap bytes the job holds at its peak
+		 * @return bytes
+		 */
+		public long getOffHeapBytes() {
+			return offHeapBytes;
+		}
+
+		/**
+		 * Returns the number of frames the job processes
+		 * @return frames
+		 */
+		public long getFrames() {
+			return frames;
+		}
+	}
+
+	/**
+	 * A queued or running job
+	 */
+	private class Job<T> implements Runnable {
+		final String name;
+		final Estimate estimate;
+		final Callable<T> work;
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		final long submittedNanos = System.nanoTime();
+
+		Job(String name, Estimate estimate, Callable<T> work) {
+			this.name = name;
+			this.estimate = estimate;
+			this.work = work;
+		}
+
+		@Override
+		public void run() {
+			T value;
+			try {
+				value = work.call();
+			} catch (Throwable e) {
+				finished(this, false);
+				result.completeExceptionally(new IllegalStateException("Render job " + name + " failed", e));
+				return;
+			}
+			finished(this, true);
+			result.complete(value);
+		}
+	}
+
+	private static class DaemonThreads implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, "render-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
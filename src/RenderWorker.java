@@ -0,0 +1,178 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Worker process for a RenderCoordinator.  It connects to the coordinator, then repeatedly receives a
+ * piece of work (a snapshot file in the spool directory plus a list of operations), applies the
+ * operations to it with the ordinary MusicList methods, writes the result as another snapshot file
+ * and reports back, until the coordinator tells it to stop or goes away.
+ *
+ *     java -cp CLASSPATH RenderWorker HOST PORT
+ *
+ * Operations are written one per ';', each a MusicList method name followed by its arguments, e.g.
+ * "addEcho 0.25 0.5; reverse; changeSampleRate 22050".  The methods available are addEcho, reverse,
+ * changeSpeed, changePitch, changeSampleRate, clip and makeMono.
+ */
+public class RenderWorker {
+	static final int STOP = -1;
+
+	private final String host;
+	private final int port;
+
+	/**
+	 * Create a worker
+	 * @param host Host the coordinator listens on
+	 * @param port Port the coordinator listens on
+	 */
+	public RenderWorker(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("usage: java RenderWorker HOST PORT");
+			System.exit(2);
+		}
+		new RenderWorker(args[0], Integer.parseInt(args[1])).run();
+	}
+
+	/**
+	 * Serve the coordinator until it sends a stop or closes the connection
+	 * @throws IOException if the connection fails
+	 */
+	public void run() throws IOException {
+		Socket socket = new Socket(host, port);
+		try {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			while (true) {
+				int id;
+				try {
+					id = in.readInt();
+				} catch (EOFException e) {
+					return;
+				}
+				if (id == STOP) {
+					return;
+				}
+				String input = in.readUTF();
+				String output = in.readUTF();
+				String operations = in.readUTF();
+				String error = "";
+				try {
+					SnapshotMusicList list = SnapshotMusicList.load(input);
+					apply(list, operations);
+					SnapshotMusicList.write(list, output);
+				} catch (Exception e) {
+					error = e.toString();
+				}
+				out.writeInt(id);
+				out.writeUTF(error);
+				out.flush();
+			}
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Apply a list of operations to a MusicList, in order
+	 * @param list The list to edit
+	 * @param operations Operations, separated by ';' (see the class comment)
+	 * @throws IllegalArgumentException if an operation is not recognized or has the wrong arguments
+	 */
+	public static void apply(MusicList list, String operations) {
+		for (String[] words : parse(operations)) {
+			String name = words[0];
+			if (name.equals("addEcho")) {
+				list.addEcho(Float.parseFloat(words[1]), Float.parseFloat(words[2]));
+			} else if (name.equals("reverse")) {
+				list.reverse();
+			} else if (name.equals("changeSpeed")) {
+				list.changeSpeed(Float.parseFloat(words[1]));
+			} else if (name.equals("changePitch")) {
+				list.changePitch(Float.parseFloat(words[1]));
+			} else if (name.equals("changeSampleRate")) {
+				list.changeSampleRate(Float.parseFloat(words[1]));
+			} else if (name.equals("clip")) {
+				list.clip(Float.parseFloat(words[1]), Float.parseFloat(words[2]));
+			} else {
+				list.makeMono(Boolean.parseBoolean(words[1]));
+			}
+		}
+	}
+
+	/**
+	 * Check that a list of operations can be applied, without applying it
+	 * @param operations Operations, separated by ';'
+	 * @throws IllegalArgumentException if an operation is not recognized or has the wrong arguments
+	 */
+	public static void check(String operations) {
+		parse(operations);
+	}
+
+	/**
+	 * Returns true if every operation is causal and keeps frames in place: frame i of the output
+	 * depends only on frames up to i of the input.  A long clip can then be processed in separate time
+	 * segments, each with frames before it (pre-roll) to warm up the history the operations use.  The
+	 * joined result is an approximation, not an exact match: addEcho feeds back, so its history is
+	 * unbounded and a pre-roll only shrinks the error (see RenderCoordinator.submitSegmented).
+	 * @param operations Operations, separated by ';'
+	 * @return whether the operations can be split by time
+	 */
+	public static boolean isSegmentable(String operations) {
+		for (String[] words : parse(operations)) {
+			String name = words[0];
+			if (name.equals("reverse") || name.equals("changeSpeed") || name.equals("changePitch") || name.equals("changeSampleRate")
+					|| name.equals("clip")
+					|| (name.equals("makeMono") && !Boolean.parseBoolean(words[1]))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Split a list of operations into words, checking names, argument counts and numbers
+	 */
+	private static List<String[]> parse(String operations) {
+		List<String[]> parsed = new ArrayList<String[]>();
+		for (String operation : operations.split(";")) {
+			String[] words = operation.trim().split("\\s+");
+			if (words[0].isEmpty()) {
+				continue;
+			}
+			String name = words[0];
+			int arguments;
+			if (name.equals("reverse")) {
+				arguments = 0;
+			} else if (name.equals("changeSpeed") || name.equals("changePitch") || name.equals("changeSampleRate")
+					|| name.equals("makeMono")) {
+				arguments = 1;
+			} else if (name.equals("addEcho") || name.equals("clip")) {
+				arguments = 2;
+			} else {
+				throw new IllegalArgumentException("Unknown operation: " + operation.trim());
+			}
+			if (words.length != arguments + 1) {
+				throw new IllegalArgumentException(name + " takes " + arguments + " arguments: " + operation.trim());
+			}
+			if (!name.equals("makeMono")) {
+				for (int i = 1; i < words.length; i++) {
+					Float.parseFloat(words[i]);
+				}
+			}
+			parsed.add(words);
+		}
+		return parsed;
+	}
+}
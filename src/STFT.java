@@ -0,0 +1,301 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Short-time Fourier transform of a MusicList.  The channels are averaged to one signal, cut into
+ * frames of frameSize samples every hopSize samples (the last frames are padded with silence), each
+ * frame is multiplied by a Hann window and transformed, and the power of bins 0 .. frameSize/2 is
+ * handed to a FrameConsumer in frame order.
+ *
+ * The list is read once, a batch of frames at a time, and the frames of a batch are transformed in
+ * parallel on a ForkJoinPool.  Memory stays at one batch of samples and spectra however long the
+ * list is; only spectrogram and bandEnergies, which return every frame, grow with the input.  FFT
+ * plans and windows are cached, so creating many STFTs of the same size costs nothing extra.
+ */
+public class STFT {
+	public static final int DEFAULT_BATCH_FRAMES = 256;
+
+	private static final ConcurrentHashMap<Integer, double[]> windows = new ConcurrentHashMap<Integer, double[]>();
+
+	private final int frameSize;
+	private final int hopSize;
+	private final ForkJoinPool pool;
+	private final int batchFrames;
+	private final FFT fft;
+	private final double[] window;
+
+	/**
+	 * Create an STFT on the common ForkJoinPool
+	 * @param frameSize Samples per frame, a power of two
+	 * @param hopSize Samples between the starts of consecutive frames
+	 */
+	public STFT(int frameSize, int hopSize) {
+		this(frameSize, hopSize, ForkJoinPool.commonPool(), DEFAULT_BATCH_FRAMES);
+	}
+
+	/**
+	 * Create an STFT
+	 * @param frameSize Samples per frame, a power of two
+	 * @param hopSize Samples between the starts of consecutive frames
+	 * @param pool The pool to transform frames on
+	 * @param batchFrames Frames read and transformed together
+	 */
+	public STFT(int frameSize, int hopSize, ForkJoinPool pool, int batchFrames) {
+		if (hopSize <= 0 || batchFrames <= 0) {
+			throw new IllegalArgumentException("Hop size and batch size must be positive");
+		}
+		this.fft = FFT.getPlan(frameSize);
+		this.frameSize = frameSize;
+		this.hopSize = hopSize;
+		this.pool = pool;
+		this.batchFrames = batchFrames;
+		this.window = hann(frameSize);
+	}
+
+	/**
+	 * Returns a periodic Hann window.  Windows are cached and shared, so the array must not be modified.
+	 * @param size Window length
+	 * @return the window
+	 */
+	public static double[] hann(int size) {
+		double[] hann = windows.get(size);
+		if (hann == null) {
+			hann = windows.computeIfAbsent(size, key -> {
+				double[] w = new double[key];
+				for (int i = 0; i < key; i++) {
+					w[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / key);
+				}
+				return w;
+			});
+		}
+		return hann;
+	}
+
+	/**
+	 * Returns band edges spaced evenly on a log frequency scale
+	 * @param lowHz Lower edge of the first band
+	 * @param highHz Upper edge of the last band
+	 * @param bands Number of bands
+	 * @return bands + 1 edges, in Hz
+	 */
+	public static float[] logBandEdges(float lowHz, float highHz, int bands) {
+		float[] edges = new float[bands + 1];
+		for (int b = 0; b <= bands; b++) {
+			edges[b] = (float) (lowHz * Math.pow(highHz / lowHz, (double) b / bands));
+		}
+		return edges;
+	}
+
+	/**
+	 * Returns the number of frequency bins per frame
+	 * @return frameSize / 2 + 1
+	 */
+	public int getNumBins() {
+		return frameSize / 2 + 1;
+	}
+
+	/**
+	 * Returns the frame size
+	 * @return samples per frame
+	 */
+	public int getFrameSize() {
+		return frameSize;
+	}
+
+	/**
+	 * Returns the hop size
+	 * @return samples between frames
+	 */
+	public int getHopSize() {
+		return hopSize;
+	}
+
+	/**
+	 * Returns the number of frames for a list of a given length
+	 * @param numSamples Samples per channel
+	 * @return number of frames; one starts at every multiple of hopSize below numSamples
+	 */
+	public int getFrameCount(int numSamples) {
+		return (numSamples + hopSize - 1) / hopSize;
+	}
+
+	/**
+	 * Returns the centre frequency of a bin
+	 * @param bin The bin
+	 * @param sampleRate Sample rate of the audio
+	 * @return frequency in Hz
+	 */
+	public float getBinFrequency(int bin, float sampleRate) {
+		return bin * sampleRate / frameSize;
+	}
+
+	/**
+	 * Transform a whole list, handing each frame's power spectrum to a consumer in order
+	 * @param list The list to analyze.  It is not modified.
+	 * @param consumer Receives every frame
+	 */
+	public void process(MusicList list, FrameConsumer consumer) {
+		AudioMetrics.Timer timer = AudioMetrics.startOperation("stft");
+		int numChannels = list.getNumChannels();
+		int totalFrames = getFrameCount(list.getNumSamples());
+		int groups = Math.max(1, Math.min(batchFrames, pool.getParallelism()));
+		final float[][] power = new float[batchFrames][getNumBins()];
+		final double[][] re = new double[groups][frameSize];
+		final double[][] im = new double[groups][frameSize];
+		// mono samples from signalStart on; a batch needs (count - 1) * hopSize + frameSize of them
+		final float[] signal = new float[(batchFrames - 1) * hopSize + frameSize];
+		long signalStart = 0;
+		int filled = 0;
+		Iterator<float[]> it = list.iterator();
+
+		for (int batchStart = 0; batchStart < totalFrames; batchStart += batchFrames) {
+			int count = Math.min(batchFrames, totalFrames - batchStart);
+			long first = (long) batchStart * hopSize;
+			int keep = (int) Math.max(0, signalStart + filled - first);
+			if (keep > 0) {
+				System.arraycopy(signal, filled - keep, signal, 0, keep);
+			}
+			// with hopSize > frameSize, some samples fall between frames
+			for (long skip = first - (signalStart + filled); skip > 0 && it.hasNext(); skip--) {
+				it.next();
+			}
+			signalStart = first;
+			filled = keep;
+			int needed = (count - 1) * hopSize + frameSize;
+			while (filled < needed && it.hasNext()) {
+				float[] frame = it.next();
+				float sum = 0;
+				for (int c = 0; c < numChannels; c++) {
+					sum += frame[c];
+				}
+				signal[filled++] = sum / numChannels;
+			}
+			for (int i = filled; i < needed; i++) {
+				signal[i] = 0;
+			}
+
+			transformBatch(signal, count, groups, re, im, power);
+			for (int i = 0; i < count; i++) {
+				consumer.frame(batchStart + i, power[i]);
+			}
+		}
+		timer.stop(list.getNumSamples(), numChannels);
+	}
+
+	/**
+	 * Returns the power spectrum of every frame
+	 * @param list The list to analyze.  It is not modified.
+	 * @return one array of getNumBins() powers per frame
+	 */
+	public float[][] spectrogram(MusicList list) {
+		final float[][] result = new float[getFrameCount(list.getNumSamples())][];
+		process(list, new FrameConsumer() {
+			@Override
+			public void frame(int index, float[] power) {
+				result[index] = power.clone();
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Returns the energy in each of a set of frequency bands, for every frame
+	 * @param list The list to analyze.  It is not modified.
+	 * @param edgesHz Band edges in increasing order; band b covers edgesHz[b] up to (not including)
+	 *        edgesHz[b + 1].  See logBandEdges.
+	 * @return one array of edgesHz.length - 1 energies per frame
+	 */
+	public float[][] bandEnergies(MusicList list, float[] edgesHz) {
+		final int bands = edgesHz.length - 1;
+		final int[] bandOfBin = new int[getNumBins()];
+		for (int bin = 0; bin < bandOfBin.length; bin++) {
+			float frequency = getBinFrequency(bin, list.getSampleRate());
+			bandOfBin[bin] = -1;
+			for (int b = 0; b < bands; b++) {
+				if (frequency >= edgesHz[b] && frequency < edgesHz[b + 1]) {
+					bandOfBin[bin] = b;
+				}
+			}
+		}
+		final float[][] result = new float[getFrameCount(list.getNumSamples())][bands];
+		process(list, new FrameConsumer() {
+			@Override
+			public void frame(int index, float[] power) {
+				float[] energies = result[index];
+				for (int bin = 0; bin < power.length; bin++) {
+					if (bandOfBin[bin] >= 0) {
+						energies[bandOfBin[bin]] += power[bin];
+					}
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Transform count frames of signal into power, splitting the frames into groups run in parallel
+	 */
+	private void transformBatch(final float[] signal, int count, int groups, final double[][] re, final double[][] im, final float[][] power) {
+		int used = Math.min(groups, count);
+		if (used == 1) {
+			transformFrames(signal, 0, count, re[0], im[0], power);
+			return;
+		}
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(used);
+		for (int g = 0; g < used; g++) {
+			final int from = g * count / used;
+			final int to = (g + 1) * count / used;
+			final int group = g;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					transformFrames(signal, from, to, re[group], im[group], power);
+					return null;
+				}
+			});
+		}
+		try {
+			for (Future<Void> result : pool.invokeAll(tasks)) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while transforming frames", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Frame transform failed", e.getCause());
+		}
+	}
+
+	private void transformFrames(float[] signal, int from, int to, double[] re, double[] im, float[][] power) {
+		for (int f = from; f < to; f++) {
+			int offset = f * hopSize;
+			for (int i = 0; i < frameSize; i++) {
+				re[i] = signal[offset + i] * window[i];
+				im[i] = 0;
+			}
+			fft.transform(re, im);
+			float[] out = power[f];
+			for (int bin = 0; bin < out.length; bin++) {
+				out[bin] = (float) (re[bin] * re[bin] + im[bin] * im[bin]);
+			}
+		}
+	}
+
+	/**
+	 * Receives the spectrum of each frame
+	 */
+	public interface FrameConsumer {
+		/**
+		 * Handle one frame.  The array is reused for a later frame once this returns, so copy it to keep it.
+		 * @param index Frame number; frame i starts at sample i * hopSize
+		 * @param power Power of bins 0 .. frameSize / 2
+		 */
+		public void frame(int index, float[] power);
+	}
+}
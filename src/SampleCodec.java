@@ -0,0 +1,253 @@
+import java.util.Arrays;
+
+/**
+ * Lossless codec for one channel of one block of samples, in the style of FLAC: a fixed linear
+ * predictor (order 0 to 3) followed by partitioned Rice coding of the residuals.
+ *
+ * Samples read from 16 bit WAV files are exactly n / 0x7FFF, so when every sample in the block can be
+ * rebuilt bit for bit from a 16 bit integer the block is coded as integers.  Otherwise the raw float
+ * bits are mapped to order-preserving integers and coded the same way, so arbitrary floats still
+ * round trip exactly.
+ */
+public class SampleCodec {
+	private static final int MODE_PCM16 = 0;
+	private static final int MODE_FLOAT = 1;
+	private static final int MAX_ORDER = 3;
+	private static final int PARTITION_SIZE = 256;
+	private static final int RICE_PARAM_BITS = 5;
+	private static final int ESCAPE_QUOTIENT = 24;
+	private static final int ESCAPE_BITS = 40;
+	private static final float PCM16_SCALE = (float) 0x7FFF;
+
+	private SampleCodec() {
+	}
+
+	/**
+	 * Encode a run of samples
+	 * @param samples array holding the samples
+	 * @param offset index of the first sample to encode
+	 * @param count number of samples to encode
+	 * @return the encoded bytes
+	 */
+	public static byte[] encode(float[] samples, int offset, int count) {
+		long[] values = new long[count];
+		int mode = MODE_PCM16;
+		for (int i = 0; i < count; i++) {
+			float sample = samples[offset + i];
+			int quantized = Math.round(sample * PCM16_SCALE);
+			if (Float.floatToRawIntBits(quantized / PCM16_SCALE) != Float.floatToRawIntBits(sample)) {
+				mode = MODE_FLOAT;
+				break;
+			}
+			values[i] = quantized;
+		}
+		if (mode == MODE_FLOAT) {
+			for (int i = 0; i < count; i++) {
+				values[i] = toOrderedInt(samples[offset + i]);
+			}
+		}
+
+		int order = bestOrder(values);
+		long[] residuals = new long[count];
+		for (int i = 0; i < count; i++) {
+			residuals[i] = zigzag(values[i] - predict(values, i, order));
+		}
+
+		BitWriter writer = new BitWriter(count + 16);
+		writer.writeBits(mode, 1);
+		writer.writeBits(order, 2);
+		for (int start = 0; start < count; start += PARTITION_SIZE) {
+			int end = Math.min(count, start + PARTITION_SIZE);
+			int k = riceParameter(residuals, start, end);
+			writer.writeBits(k, RICE_PARAM_BITS);
+			for (int i = start; i < end; i++) {
+				writer.writeRice(residuals[i], k);
+			}
+		}
+		return writer.toByteArray();
+	}
+
+	/**
+	 * Decode a run of samples produced by encode
+	 * @param data the encoded bytes
+	 * @param out array to decode into
+	 * @param offset index in out of the first decoded sample
+	 * @param count number of samples that were encoded
+	 */
+	public static void decode(byte[] data, float[] out, int offset, int count) {
+		BitReader reader = new BitReader(data);
+		int mode = reader.readBits(1);
+		int order = reader.readBits(2);
+		long[] values = new long[count];
+		for (int start = 0; start < count; start += PARTITION_SIZE) {
+			int end = Math.min(count, start + PARTITION_SIZE);
+			int k = reader.readBits(RICE_PARAM_BITS);
+			for (int i = start; i < end; i++) {
+				values[i] = unzigzag(reader.readRice(k)) + predict(values, i, order);
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			if (mode == MODE_PCM16) {
+				out[offset + i] = ((int) values[i]) / PCM16_SCALE;
+			} else {
+				out[offset + i] = fromOrderedInt((int) values[i]);
+			}
+		}
+	}
+
+	/**
+	 * Prediction for values[i] using the fixed predictor of the given order.  The first few values,
+	 * which do not have enough history, fall back to the highest order they can use.
+	 */
+	private static long predict(long[] values, int i, int order) {
+		switch (Math.min(i, order)) {
+		case 0:
+			return 0;
+		case 1:
+			return values[i - 1];
+		case 2:
+			return 2 * values[i - 1] - values[i - 2];
+		default:
+			return 3 * values[i - 1] - 3 * values[i - 2] + values[i - 3];
+		}
+	}
+
+	private static int bestOrder(long[] values) {
+		long[] cost = new long[MAX_ORDER + 1];
+		for (int i = MAX_ORDER; i < values.length; i++) {
+			for (int order = 0; order <= MAX_ORDER; order++) {
+				cost[order] += Math.abs(values[i] - predict(values, i, order));
+			}
+		}
+		int best = 0;
+		for (int order = 1; order <= MAX_ORDER; order++) {
+			if (cost[order] < cost[best]) {
+				best = order;
+			}
+		}
+		return best;
+	}
+
+	private static int riceParameter(long[] residuals, int start, int end) {
+		long sum = 0;
+		for (int i = start; i < end; i++) {
+			sum += residuals[i];
+		}
+		long mean = sum / (end - start);
+		if (mean == 0) {
+			return 0;
+		}
+		return Math.min((1 << RICE_PARAM_BITS) - 1, 63 - Long.numberOfLeadingZeros(mean));
+	}
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Map float bits onto ints so that nearby floats map onto nearby ints
+	 */
+	private static int toOrderedInt(float sample) {
+		int bits = Float.floatToRawIntBits(sample);
+		return bits >= 0 ? bits : bits ^ 0x7FFFFFFF;
+	}
+
+	private static float fromOrderedInt(int value) {
+		return Float.intBitsToFloat(value >= 0 ? value : value ^ 0x7FFFFFFF);
+	}
+
+	/**
+	 * MSB-first bit packer
+	 */
+	private static class BitWriter {
+		private byte[] buffer;
+		private int length;
+		private long accumulator;
+		private int bitCount;
+
+		public BitWriter(int initialCapacity) {
+			buffer = new byte[initialCapacity];
+		}
+
+		public void writeBits(long value, int n) {
+			if (n > 32) {
+				writeBits(value >>> 32, n - 32);
+				n = 32;
+			}
+			accumulator = (accumulator << n) | (value & ((1L << n) - 1));
+			bitCount += n;
+			while (bitCount >= 8) {
+				bitCount -= 8;
+				put((byte) (accumulator >>> bitCount));
+			}
+		}
+
+		public void writeRice(long value, int k) {
+			long quotient = value >>> k;
+			if (quotient < ESCAPE_QUOTIENT) {
+				writeBits(((1L << quotient) - 1) << 1, (int) quotient + 1);
+				writeBits(value, k);
+			} else {
+				writeBits((1L << ESCAPE_QUOTIENT) - 1, ESCAPE_QUOTIENT);
+				writeBits(value, ESCAPE_BITS);
+			}
+		}
+
+		public byte[] toByteArray() {
+			if (bitCount > 0) {
+				put((byte) (accumulator << (8 - bitCount)));
+				bitCount = 0;
+			}
+			return Arrays.copyOf(buffer, length);
+		}
+
+		private void put(byte b) {
+			if (length == buffer.length) {
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			}
+			buffer[length++] = b;
+		}
+	}
+
+	/**
+	 * Reads back what BitWriter wrote
+	 */
+	private static class BitReader {
+		private final byte[] data;
+		private int position;
+		private long accumulator;
+		private int bitCount;
+
+		public BitReader(byte[] data) {
+			this.data = data;
+		}
+
+		public int readBits(int n) {
+			while (bitCount < n) {
+				int next = position < data.length ? data[position++] & 0xFF : 0;
+				accumulator = (accumulator << 8) | next;
+				bitCount += 8;
+			}
+			bitCount -= n;
+			return (int) ((accumulator >>> bitCount) & ((1L << n) - 1));
+		}
+
+		public long readRice(int k) {
+			int quotient = 0;
+			while (quotient < ESCAPE_QUOTIENT && readBits(1) == 1) {
+				quotient++;
+			}
+			if (quotient == ESCAPE_QUOTIENT) {
+				long high = readBits(ESCAPE_BITS - 32);
+				long low = readBits(32) & 0xFFFFFFFFL;
+				return (high << 32) | low;
+			}
+			long remainder = k == 0 ? 0 : readBits(k) & 0xFFFFFFFFL;
+			return ((long) quotient << k) | remainder;
+		}
+	}
+}
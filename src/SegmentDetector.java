@@ -0,0 +1,426 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Finds the silent stretches and the note onsets of audio in a single streaming pass.
+ *
+ * Silence: the audio is cut into 10 ms windows, and a window is active if its RMS (over all channels)
+ * is above the threshold.  Runs of inactive windows at least minSilence long separate segments.  The
+ * edges of a segment are then moved to the first and last frame whose level is above the threshold,
+ * so segment boundaries are accurate to the frame even though activity is decided per window.
+ *
+ * Onsets: every hop a Hann windowed FFT of the latest ~46 ms of the channel average is taken, and the
+ * spectral flux (the summed increase of every bin's magnitude since the previous hop) is compared with
+ * its recent average.  A flux peak well above the average, in a frame with more energy than the one
+ * before, is an onset.  It is reported at the centre of the FFT frame it peaked in, so onsets are
+ * accurate to about a hop (~12 ms).
+ *
+ * The detector is an AudioProcessor that leaves its input untouched, so it can share a ProcessorChain
+ * with other stages; detect runs it over a whole MusicList.  Memory is a few FFT frames plus the lists
+ * of results.
+ */
+public class SegmentDetector implements AudioProcessor {
+	public static final double DEFAULT_THRESHOLD_DB = -50;
+	public static final float DEFAULT_MIN_SILENCE = 0.25f;
+
+	private static final int FLUX_HISTORY = 10;
+	private static final double FLUX_RATIO = 1.5;
+	private static final float MIN_ONSET_GAP = 0.05f;
+
+	private final int numChannels;
+	private final float sampleRate;
+	private final float thresholdAmplitude;
+	private final double thresholdPower;
+	private final int windowFrames;
+	private final int minSilenceFrames;
+
+	// current energy window
+	private double windowPower;
+	private int windowFill;
+	private long windowFirstLoud;
+	private long windowLastLoud;
+	// segments so far; the open one runs from openStart to lastActive
+	private final List<Segment> segments;
+	private long openStart;
+	private long lastActive;
+	private long framesSeen;
+
+	// onset detection
+	private final FFT fft;
+	private final double[] hann;
+	private final int hopFrames;
+	private final float[] history;
+	private int historyPosition;
+	private final double[] re;
+	private final double[] im;
+	private final double[] previousMagnitude;
+	private final double[] fluxHistory;
+	private int fluxCount;
+	private double candidateFlux;
+	private double previousFlux;
+	private double previousTotal;
+	private long candidateFrame;
+	private final double fluxFloor;
+	private final int minOnsetGap;
+	private final List<Long> onsets;
+
+	/**
+	 * Create a detector with a -50 dBFS threshold and 0.25 s minimum silence
+	 * @param sampleRate Sample rate of the audio
+	 * @param numChannels Number of channels
+	 */
+	public SegmentDetector(float sampleRate, int numChannels) {
+		this(sampleRate, numChannels, DEFAULT_THRESHOLD_DB, DEFAULT_MIN_SILENCE);
+	}
+
+	/**
+	 * Create a detector
+	 * @param sampleRate Sample rate of the audio
+	 * @param numChannels Number of channels
+	 * @param thresholdDb Level (dBFS) below which audio counts as silence
+	 * @param minSilence Shortest gap (in seconds) that splits two segments
+	 */
+	public SegmentDetector(float sampleRate, int numChannels, double thresholdDb, float minSilence) {
+		this.numChannels = numChannels;
+		this.sampleRate = sampleRate;
+		this.thresholdAmplitude = (float) Math.pow(10, thresholdDb / 20);
+		this.thresholdPower = (double) thresholdAmplitude * thresholdAmplitude;
+		this.windowFrames = Math.max(1, Math.round(sampleRate * 0.01f));
+		this.minSilenceFrames = Math.max(1, Math.round(sampleRate * minSilence));
+		this.segments = new ArrayList<Segment>();
+
+		int frameSize = Math.max(64, Integer.highestOneBit((int) (sampleRate * 0.046f)));
+		this.fft = FFT.getPlan(frameSize);
+		this.hann = STFT.hann(frameSize);
+		this.hopFrames = frameSize / 4;
+		this.history = new float[frameSize];
+		this.re = new double[frameSize];
+		this.im = new double[frameSize];
+		this.previousMagnitude = new double[frameSize / 2 + 1];
+		this.fluxHistory = new double[FLUX_HISTORY];
+		// the magnitude a sine at the threshold level has in a Hann windowed FFT
+		this.fluxFloor = thresholdAmplitude * frameSize / 4;
+		this.minOnsetGap = Math.round(sampleRate * MIN_ONSET_GAP);
+		this.onsets = new ArrayList<Long>();
+		reset();
+	}
+
+	/**
+	 * Run a detector over a whole MusicList
+	 * @param list The list to analyze.  It is not modified.
+	 * @param thresholdDb Level (dBFS) below which audio counts as silence
+	 * @param minSilence Shortest gap (in seconds) that splits two segments
+	 * @return the detector, holding the segments and onsets of list
+	 */
+	public static SegmentDetector detect(MusicList list, double thresholdDb, float minSilence) {
+		SegmentDetector detector = new SegmentDetector(list.getSampleRate(), list.getNumChannels(), thresholdDb, minSilence);
+		ProcessorChain.analyze(list, detector);
+		return detector;
+	}
+
+	/**
+	 * Copy a list without its leading and trailing silence
+	 * @param list The list to trim.  It is not modified.
+	 * @param thresholdDb Level (dBFS) below which audio counts as silence
+	 * @return the trimmed copy, empty if the list is silent
+	 */
+	public static MusicLinkedList autoTrim(MusicList list, double thresholdDb) {
+		List<Segment> segments = detect(list, thresholdDb, Float.MAX_VALUE).getSegments();
+		List<Segment> whole = new ArrayList<Segment>();
+		if (!segments.isEmpty()) {
+			whole.add(new Segment(segments.get(0).getStartFrame(), segments.get(segments.size() - 1).getEndFrame()));
+		}
+		List<MusicLinkedList> copies = copySegments(list, whole);
+		return copies.isEmpty() ? new MusicLinkedList(list.getSampleRate(), list.getNumChannels()) : copies.get(0);
+	}
+
+	/**
+	 * Split a list at every silence of at least minSilence seconds
+	 * @param list The list to split.  It is not modified.
+	 * @param thresholdDb Level (dBFS) below which audio counts as silence
+	 * @param minSilence Shortest gap (in seconds) to split at
+	 * @return one list per non-silent segment, in order, with the silence left out
+	 */
+	public static List<MusicLinkedList> autoSplit(MusicList list, double thresholdDb, float minSilence) {
+		return copySegments(list, detect(list, thresholdDb, minSilence).getSegments());
+	}
+
+	/**
+	 * Copy ranges of frames out of a list in one pass
+	 * @param list The source list
+	 * @param segments Non-overlapping ranges, in order
+	 * @return one list per segment
+	 */
+	public static List<MusicLinkedList> copySegments(MusicList list, List<Segment> segments) {
+		List<MusicLinkedList> copies = new ArrayList<MusicLinkedList>();
+		Iterator<float[]> it = list.iterator();
+		long frame = 0;
+		for (Segment segment : segments) {
+			MusicLinkedList copy = new MusicLinkedList(list.getSampleRate(), list.getNumChannels());
+			for (; frame < segment.getEndFrame() && it.hasNext(); frame++) {
+				float[] next = it.next();
+				if (frame >= segment.getStartFrame()) {
+					copy.addSample(next);
+				}
+			}
+			copies.add(copy);
+		}
+		return copies;
+	}
+
+	@Override
+	public void process(float[][] block, int frames) {
+		for (int i = 0; i < frames; i++) {
+			long index = framesSeen + i;
+			float mono = 0;
+			float loudest = 0;
+			double power = 0;
+			for (int c = 0; c < numChannels; c++) {
+				float x = block[c][i];
+				mono += x;
+				power += x * x;
+				loudest = Math.max(loudest, Math.abs(x));
+			}
+			if (loudest > thresholdAmplitude) {
+				if (windowFirstLoud < 0) {
+					windowFirstLoud = index;
+				}
+				windowLastLoud = index;
+			}
+			windowPower += power / numChannels;
+			if (++windowFill == windowFrames) {
+				finishWindow();
+			}
+
+			history[historyPosition] = mono / numChannels;
+			historyPosition = (historyPosition + 1) % history.length;
+			if ((index + 1) % hopFrames == 0) {
+				onsetFrame(index + 1);
+			}
+		}
+		framesSeen += frames;
+	}
+
+	@Override
+	public int getLatency() {
+		return 0;
+	}
+
+	@Override
+	public void reset() {
+		segments.clear();
+		onsets.clear();
+		windowPower = 0;
+		windowFill = 0;
+		windowFirstLoud = -1;
+		windowLastLoud = -1;
+		openStart = -1;
+		lastActive = -1;
+		framesSeen = 0;
+		Arrays.fill(history, 0);
+		Arrays.fill(previousMagnitude, 0);
+		historyPosition = 0;
+		fluxCount = 0;
+		previousFlux = 0;
+		previousTotal = 0;
+		candidateFlux = 0;
+		candidateFrame = -1;
+	}
+
+	/**
+	 * Returns the non-silent segments found so far, including one still in progress
+	 * @return segments in order
+	 */
+	public List<Segment> getSegments() {
+		List<Segment> result = new ArrayList<Segment>(segments);
+		long start = openStart;
+		long end = lastActive;
+		// the partly filled window counts if it is already loud enough
+		if (windowFill > 0 && windowPower / windowFill > thresholdPower) {
+			if (start >= 0 && windowFirstLoud - end - 1 >= minSilenceFrames) {
+				result.add(new Segment(start, end + 1));
+				start = -1;
+			}
+			if (start < 0) {
+				start = windowFirstLoud;
+			}
+			end = windowLastLoud;
+		}
+		if (start >= 0) {
+			result.add(new Segment(start, end + 1));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the silent stretches between and around the segments
+	 * @return silences in order, including leading and trailing silence
+	 */
+	public List<Segment> getSilences() {
+		List<Segment> silences = new ArrayList<Segment>();
+		long previousEnd = 0;
+		for (Segment segment : getSegments()) {
+			if (segment.getStartFrame() > previousEnd) {
+				silences.add(new Segment(previousEnd, segment.getStartFrame()));
+			}
+			previousEnd = segment.getEndFrame();
+		}
+		if (framesSeen > previousEnd) {
+			silences.add(new Segment(previousEnd, framesSeen));
+		}
+		return silences;
+	}
+
+	/**
+	 * Returns the onsets found so far
+	 * @return frame number of each onset, in order
+	 */
+	public long[] getOnsets() {
+		long[] result = new long[onsets.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = onsets.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the onsets found so far, in seconds
+	 * @return time of each onset, in order
+	 */
+	public float[] getOnsetTimes() {
+		long[] frames = getOnsets();
+		float[] times = new float[frames.length];
+		for (int i = 0; i < frames.length; i++) {
+			times[i] = frames[i] / sampleRate;
+		}
+		return times;
+	}
+
+	private void finishWindow() {
+		if (windowPower / windowFill > thresholdPower) {
+			if (openStart >= 0 && windowFirstLoud - lastActive - 1 >= minSilenceFrames) {
+				segments.add(new Segment(openStart, lastActive + 1));
+				openStart = -1;
+			}
+			if (openStart < 0) {
+				openStart = windowFirstLoud;
+			}
+			lastActive = windowLastLoud;
+		}
+		windowPower = 0;
+		windowFill = 0;
+		windowFirstLoud = -1;
+		windowLastLoud = -1;
+	}
+
+	/**
+	 * Spectral flux of the FFT frame ending at frame end, and onset picking: a flux value is an onset
+	 * if it is a local maximum (so it is confirmed one hop later) and well above the recent average.
+	 */
+	private void onsetFrame(long end) {
+		int size = history.length;
+		for (int i = 0; i < size; i++) {
+			re[i] = history[(historyPosition + i) % size] * hann[i];
+			im[i] = 0;
+		}
+		fft.transform(re, im);
+		double flux = 0;
+		double total = 0;
+		for (int bin = 0; bin < previousMagnitude.length; bin++) {
+			double magnitude = Math.sqrt(re[bin] * re[bin] + im[bin] * im[bin]);
+			flux += Math.max(0, magnitude - previousMagnitude[bin]);
+			total += magnitude * magnitude;
+			previousMagnitude[bin] = magnitude;
+		}
+
+		if (candidateFrame >= 0 && flux <= candidateFlux) {
+			if (onsets.isEmpty() || candidateFrame - onsets.get(onsets.size() - 1) >= minOnsetGap) {
+				onsets.add(candidateFrame);
+			}
+		}
+		candidateFrame = -1;
+
+		double average = 0;
+		int count = Math.min(fluxCount, FLUX_HISTORY);
+		for (int i = 0; i < count; i++) {
+			average += fluxHistory[i] / count;
+		}
+		// the splatter of a sound stopping abruptly raises some bins too, but the frame's energy falls
+		boolean rising = total > previousTotal;
+		if (rising && flux > previousFlux && flux > fluxFloor && flux > average * FLUX_RATIO) {
+			candidateFlux = flux;
+			candidateFrame = Math.max(0, end - size / 2);
+		}
+		fluxHistory[fluxCount % FLUX_HISTORY] = flux;
+		fluxCount++;
+		previousFlux = flux;
+		previousTotal = total;
+	}
+
+	/**
+	 * A range of frames
+	 */
+	public static class Segment {
+		private final long startFrame;
+		private final long endFrame;
+
+		/**
+		 * Create a segment
+		 * @param startFrame First frame
+		 * @param endFrame One past the last frame
+		 */
+		public Segment(long startFrame, long endFrame) {
+			this.startFrame = startFrame;
+			this.endFrame = endFrame;
+		}
+
+		/**
+		 * Returns the first frame
+		 * @return first frame
+		 */
+		public long getStartFrame() {
+			return startFrame;
+		}
+
+		/**
+		 * Returns one past the last frame
+		 * @return end frame
+		 */
+		public long getEndFrame() {
+			return endFrame;
+		}
+
+		/**
+		 * Returns the number of frames
+		 * @return length in frames
+		 */
+		public long getLength() {
+			return endFrame - startFrame;
+		}
+
+		/**
+		 * Returns the start time, for use with MusicList.clip
+		 * @param sampleRate Sample rate of the audio
+		 * @return start time in seconds
+		 */
+		public float getStartTime(float sampleRate) {
+			return startFrame / sampleRate;
+		}
+
+		/**
+		 * Returns the duration
+		 * @param sampleRate Sample rate of the audio
+		 * @return duration in seconds
+		 */
+		public float getDuration(float sampleRate) {
+			return (endFrame - startFrame) / sampleRate;
+		}
+
+		@Override
+		public String toString() {
+			return "[" + startFrame + ", " + endFrame + ")";
+		}
+	}
+}
@@ -0,0 +1,342 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Splits the timeline of planar audio into cache sized segments and runs operations on the segments
+ * in parallel, so even a single long channel uses every core.  Point-wise operations (gain, clipping,
+ * combine, makeMono, rescale) treat every segment independently.  Results are bit-identical to the
+ * sequential MusicLinkedList operations: every sample goes through the same arithmetic, and the peak
+ * used for rescaling is a maximum, which does not depend on the order segments finish in.
+ *
+ * Echo is not point-wise: MusicLinkedList.addEcho feeds back (each output sample adds an already
+ * echoed sample), so the history is unbounded and a fixed halo of delay frames is not enough for an
+ * exact result.  Instead the timeline is processed in waves delay frames long; every sample in a wave
+ * only depends on the previous wave, so each wave is split into segments and run in parallel.
+ */
+public class SegmentScheduler {
+	public static final int DEFAULT_SEGMENT_FRAMES = 16384;
+
+	private final ForkJoinPool pool;
+	private final int segmentFrames;
+
+	/**
+	 * Create a scheduler on the common ForkJoinPool with the default segment size
+	 */
+	public SegmentScheduler() {
+		this(ForkJoinPool.commonPool(), DEFAULT_SEGMENT_FRAMES);
+	}
+
+	/**
+	 * Create a scheduler
+	 * @param pool The pool to run segment tasks on
+	 * @param segmentFrames Frames per segment
+	 */
+	public SegmentScheduler(ForkJoinPool pool, int segmentFrames) {
+		if (segmentFrames <= 0) {
+			throw new IllegalArgumentException("Segment size must be positive");
+		}
+		this.pool = pool;
+		this.segmentFrames = segmentFrames;
+	}
+
+	/**
+	 * Run a task over every segment of [from, to)
+	 * @param from First frame
+	 * @param to One past the last frame
+	 * @param task The work for one segment
+	 */
+	public void forEachSegment(int from, int to, final SegmentTask task) {
+		if (to - from <= segmentFrames || pool.getParallelism() == 1) {
+			for (int start = from; start < to; start += segmentFrames) {
+				task.run(start, Math.min(to, start + segmentFrames));
+			}
+			return;
+		}
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int start = from; start < to; start += segmentFrames) {
+			final int segmentStart = start;
+			final int segmentEnd = Math.min(to, start + segmentFrames);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					task.run(segmentStart, segmentEnd);
+					return null;
+				}
+			});
+		}
+		try {
+			for (Future<Void> result : pool.invokeAll(tasks)) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while processing segments", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Segment task failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Multiply every sample by a gain, in place
+	 * @param planar One array per channel
+	 * @param frames Number of frames in use
+	 * @param gain The gain
+	 */
+	public void gain(final float[][] planar, int frames, final float gain) {
+		forEachSegment(0, frames, new SegmentTask() {
+			@Override
+			public void run(int from, int to) {
+				for (float[] channel : planar) {
+					PlanarOps.gain(channel, from, to, gain);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Clip every sample to the range -1 .. 1, in place
+	 * @param planar One array per channel
+	 * @param frames Number of frames in use
+	 */
+	public void clipToRange(final float[][] planar, int frames) {
+		forEachSegment(0, frames, new SegmentTask() {
+			@Override
+			public void run(int from, int to) {
+				for (float[] channel : planar) {
+					for (int i = from; i < to; i++) {
+						channel[i] = clamp(channel[i]);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the largest absolute sample value
+	 * @param planar One array per channel
+	 * @param frames Number of frames in use
+	 * @return the peak
+	 */
+	public float peak(final float[][] planar, int frames) {
+		final List<float[]> peaks = new ArrayList<float[]>();
+		forEachSegment(0, frames, new SegmentTask() {
+			@Override
+			public void run(int from, int to) {
+				float biggestWave = 0;
+				for (float[] channel : planar) {
+					for (int i = from; i < to; i++) {
+						biggestWave = Math.max(biggestWave, Math.abs(channel[i]));
+					}
+				}
+				synchronized (peaks) {
+					peaks.add(new float[] { biggestWave });
+				}
+			}
+		});
+		float biggestWave = 0;
+		for (float[] peak : peaks) {
+			biggestWave = Math.max(biggestWave, peak[0]);
+		}
+		return biggestWave;
+	}
+
+	/**
+	 * If any sample is outside -1 .. 1, divide every sample by the peak, in place
+	 * @param planar One array per channel
+	 * @param frames Number of frames in use
+	 */
+	public void rescale(final float[][] planar, int frames) {
+		final float biggestWave = peak(planar, frames);
+		if (biggestWave <= 1) {
+			return;
+		}
+		forEachSegment(0, frames, new SegmentTask() {
+			@Override
+			public void run(int from, int to) {
+				for (float[] channel : planar) {
+					for (int i = from; i < to; i++) {
+						channel[i] = channel[i] / biggestWave;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Add other into target, as MusicList.combine
+	 * @param target One array per channel; receives the result
+	 * @param other Audio to add, with the same number of channels and at least frames frames
+	 * @param frames Number of frames to combine
+	 * @param allowClipping Clip to -1 .. 1 if true, rescale the whole result if false
+	 */
+	public void combine(final float[][] target, final float[][] other, int frames, final boolean allowClipping) {
+		if (target.length != other.length) {
+			throw new IllegalArgumentException("Audio being combined does not have the correct number of channels");
+		}
+		forEachSegment(0, frames, new SegmentTask() {
+			@Override
+			public void run(int from, int to) {
+				for (int c = 0; c < target.length; c++) {
+					float[] a = target[c];
+					float[] b = other[c];
+					for (int i = from; i < to; i++) {
+						float combined = a[i] + b[i];
+						a[i] = allowClipping ? clamp(combined) : combined;
+					}
+				}
+			}
+		});
+		if (!allowClipping) {
+			rescale(target, frames);
+		}
+	}
+
+	/**
+	 * Sum all channels, as MusicList.makeMono
+	 * @param planar One array per channel
+	 * @param frames Number of frames in use
+	 * @param allowClipping Clip to -1 .. 1 if true, rescale the whole result if false
+	 * @param reduceChannels If true, return a single channel; otherwise every channel holds the sum
+	 * @return the result; the arrays of planar are reused
+	 */
+	public float[][] makeMono(final float[][] planar, int frames, final boolean allowClipping, boolean reduceChannels) {
+		forEachSegment(0, frames, new SegmentTask() {
+			@Override
+			public void run(int from, int to) {
+				for (int i = from; i < to; i++) {
+					float combinedAudio = 0;
+					for (float[] channel : planar) {
+						combinedAudio += channel[i];
+					}
+					if (allowClipping) {
+						combinedAudio = clamp(combinedAudio);
+					}
+					for (float[] channel : planar) {
+						channel[i] = combinedAudio;
+					}
+				}
+			}
+		});
+		float[][] result = reduceChannels ? new float[][] { planar[0] } : planar;
+		if (!allowClipping) {
+			rescale(result, frames);
+		}
+		return result;
+	}
+
+	/**
+	 * Echo with feedback, in place, as MusicList.addEcho.  Runs in waves of delayFrames frames; see the
+	 * class comment.
+	 * @param planar One array per channel
+	 * @param frames Number of frames in use
+	 * @param sampleRate Sample rate
+	 * @param delay The time (in seconds) before the echo starts
+	 * @param percent The echo volume
+	 */
+	public void addEcho(final float[][] planar, int frames, float sampleRate, float delay, final float percent) {
+		final int delayFrames = (int) Math.min(PlanarOps.framesBefore(delay, sampleRate), frames);
+		SegmentTask echo = new SegmentTask() {
+			@Override
+			public void run(int from, int to) {
+				for (float[] channel : planar) {
+					for (int i = from; i < to; i++) {
+						channel[i] += channel[i - delayFrames]*percent;
+					}
+				}
+			}
+		};
+		if (delayFrames == 0) {
+			// every sample only feeds back into itself, so this is point-wise
+			forEachSegment(0, frames, echo);
+			return;
+		}
+		for (int wave = delayFrames; wave < frames; wave += delayFrames) {
+			forEachSegment(wave, Math.min(frames, wave + delayFrames), echo);
+		}
+	}
+
+	/**
+	 * Combine two MusicLists in parallel segments
+	 * @param list The list to combine into.  It is not modified.
+	 * @param other The list to add, at least as long as list
+	 * @param allowClipping Clip to -1 .. 1 if true, rescale the whole result if false
+	 * @return the combined list
+	 * @throws NoSuchElementException if other is shorter than list, as MusicList.combine
+	 */
+	public MusicLinkedList combine(MusicList list, MusicList other, boolean allowClipping) {
+		// pooled arrays hold stale samples past the end of other, so it must cover all of list
+		if (other.getNumSamples() < list.getNumSamples()) {
+			throw new NoSuchElementException("Audio being combined has " + other.getNumSamples() + " frames, fewer than "
+					+ list.getNumSamples());
+		}
+		float[][] target = ChannelBuffers.toPooledPlanar(list);
+		float[][] added = ChannelBuffers.toPooledPlanar(other);
+		try {
+			combine(target, added, list.getNumSamples(), allowClipping);
+			return ChannelBuffers.toList(target, list.getNumSamples(), list.getSampleRate());
+		} finally {
+			AudioBufferPool.release(target);
+			AudioBufferPool.release(added);
+		}
+	}
+
+	/**
+	 * Make a MusicList mono in parallel segments
+	 * @param list The list to mix down.  It is not modified.
+	 * @param allowClipping Clip to -1 .. 1 if true, rescale the whole result if false
+	 * @param reduceChannels If true, the result has a single channel
+	 * @return the mixed list
+	 */
+	public MusicLinkedList makeMono(MusicList list, boolean allowClipping, boolean reduceChannels) {
+		float[][] planar = ChannelBuffers.toPooledPlanar(list);
+		try {
+			float[][] result = makeMono(planar, list.getNumSamples(), allowClipping, reduceChannels);
+			return ChannelBuffers.toList(result, list.getNumSamples(), list.getSampleRate());
+		} finally {
+			AudioBufferPool.release(planar);
+		}
+	}
+
+	/**
+	 * Echo a MusicList in parallel segments
+	 * @param list The list to process.  It is not modified.
+	 * @param delay The time (in seconds) before the echo starts
+	 * @param percent The echo volume
+	 * @return the processed list
+	 */
+	public MusicLinkedList addEcho(MusicList list, float delay, float percent) {
+		float[][] planar = ChannelBuffers.toPooledPlanar(list);
+		try {
+			addEcho(planar, list.getNumSamples(), list.getSampleRate(), delay, percent);
+			return ChannelBuffers.toList(planar, list.getNumSamples(), list.getSampleRate());
+		} finally {
+			AudioBufferPool.release(planar);
+		}
+	}
+
+	private static float clamp(float sample) {
+		if (sample > 1) {
+			return 1;
+		} else if (sample < -1) {
+			return -1;
+		}
+		return sample;
+	}
+
+	/**
+	 * Work for one segment of the timeline
+	 */
+	public interface SegmentTask {
+		/**
+		 * Process frames [from, to)
+		 * @param from First frame
+		 * @param to One past the last frame
+		 */
+		public void run(int from, int to);
+	}
+}
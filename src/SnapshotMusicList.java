@@ -0,0 +1,352 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * MusicList backed by planar float blocks in a FloatBuffer, usually a memory mapped snapshot file.
+ *
+ * Snapshot file layout (little endian):
+ *   int magic, int version, float sampleRate, int numChannels, long frameCount, int blockFrames,
+ *   int reserved (header is 32 bytes), then for each block of blockFrames frames (the last block may
+ *   be shorter), the block's samples for channel 0, then channel 1, and so on.
+ *
+ * A snapshot is written from one buffer and mapped as one buffer, so a file is limited to
+ * MAX_FILE_BYTES (2 GB): frames times channels times 4, plus the header.  write and load throw an
+ * IOException for anything larger.
+ *
+ * The backing buffer is never written to.  clipFrames just narrows the window of frames the list shows;
+ * any other editing operation copies the samples into a MusicLinkedList, and from then on the list reads
+ * from and edits that copy.
+ */
+public class SnapshotMusicList extends AbstractMusicList {
+	public static final int DEFAULT_BLOCK_FRAMES = 65536;
+	public static final long MAX_FILE_BYTES = Integer.MAX_VALUE;
+	// the largest heap buffer copyOf can allocate, in samples
+	public static final long MAX_COPY_SAMPLES = Integer.MAX_VALUE - 8;
+	private static final int FILE_MAGIC = 0x4D4C534E; // "MLSN"
+	private static final int FILE_VERSION = 1;
+	private static final int HEADER_BYTES = 32;
+
+	private final FloatBuffer data;
+	private final float sampleRate;
+	private final int numChannels;
+	private final int storedFrames;
+	private final int blockFrames;
+	// the window of stored frames this list shows (see clipFrames)
+	private int firstFrame;
+	private int numSamples;
+	private MusicLinkedList edited;
+
+	/**
+	 * Wrap planar float blocks.  The buffer must not change while the list is in use.
+	 * @param data The samples, laid out as in a snapshot file, starting at index 0
+	 * @param sampleRate Sample rate, in samples per second
+	 * @param numChannels Number of channels
+	 * @param numSamples Number of frames
+	 * @param blockFrames Frames per block
+	 */
+	public SnapshotMusicList(FloatBuffer data, float sampleRate, int numChannels, int numSamples, int blockFrames) {
+		if ((long) numSamples * numChannels > data.capacity()) {
+			throw new IllegalArgumentException("Buffer is too small for " + numSamples + " frames of " + numChannels + " channels");
+		}
+		this.data = data;
+		this.sampleRate = sampleRate;
+		this.numChannels = numChannels;
+		this.storedFrames = numSamples;
+		this.blockFrames = blockFrames;
+		this.firstFrame = 0;
+		this.numSamples = numSamples;
+		this.edited = null;
+	}
+
+	/**
+	 * Write a MusicList as a snapshot file.  The file is assembled in one buffer and handed to a single
+	 * FileChannel.write.
+	 * @param list The list to write
+	 * @param filename The file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(MusicList list, String filename) throws IOException {
+		write(list, filename, DEFAULT_BLOCK_FRAMES);
+	}
+
+	/**
+	 * Write a MusicList as a snapshot file with a chosen block size
+	 * @param list The list to write
+	 * @param filename The file to write
+	 * @param blockFrames Frames per block
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(MusicList list, String filename, int blockFrames) throws IOException {
+		int numChannels = list.getNumChannels();
+		int numSamples = list.getNumSamples();
+		long dataBytes = (long) numSamples * numChannels * 4;
+		if (HEADER_BYTES + dataBytes > MAX_FILE_BYTES) {
+			throw new IOException("MusicList is too large for a snapshot (" + dataBytes + " bytes of samples)");
+		}
+		ByteBuffer buffer = ByteBuffer.allocateDirect((int) (HEADER_BYTES + dataBytes)).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(FILE_MAGIC);
+		buffer.putInt(FILE_VERSION);
+		buffer.putFloat(list.getSampleRate());
+		buffer.putInt(numChannels);
+		buffer.putLong(numSamples);
+		buffer.putInt(blockFrames);
+		buffer.putInt(0);
+
+		buffer.position(HEADER_BYTES);
+		fill(buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer(), list.iterator(), numChannels, numSamples, blockFrames);
+		buffer.position(0);
+
+		RandomAccessFile file = new RandomAccessFile(filename, "rw");
+		try {
+			FileChannel channel = file.getChannel();
+			channel.truncate(0);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Copy frames into a new list backed by a heap buffer laid out as a snapshot file, so any run of
+	 * frames can be read without walking the list
+	 * @param frames The frames to copy; numSamples of them are read
+	 * @param sampleRate Sample rate, in samples per second
+	 * @param numChannels Number of channels
+	 * @param numSamples Number of frames
+	 * @param blockFrames Frames per block
+	 * @return the copy
+	 * @throws IllegalArgumentException if there are more than MAX_COPY_SAMPLES samples
+	 */
+	public static SnapshotMusicList copyOf(Iterator<float[]> frames, float sampleRate, int numChannels, long numSamples, int blockFrames) {
+		if (numSamples * numChannels > MAX_COPY_SAMPLES) {
+			throw new IllegalArgumentException(numSamples + " frames of " + numChannels + " channels do not fit in one snapshot buffer");
+		}
+		FloatBuffer samples = FloatBuffer.allocate((int) (numSamples * numChannels));
+		fill(samples, frames, numChannels, (int) numSamples, blockFrames);
+		return new SnapshotMusicList(samples, sampleRate, numChannels, (int) numSamples, blockFrames);
+	}
+
+	/**
+	 * Write frames into a buffer in blocks of blockFrames, each block channel by channel
+	 */
+	private static void fill(FloatBuffer samples, Iterator<float[]> frames, int numChannels, int numSamples, int blockFrames) {
+		for (int blockStart = 0; blockStart < numSamples; blockStart += blockFrames) {
+			int length = Math.min(blockFrames, numSamples - blockStart);
+			int base = blockStart * numChannels;
+			for (int i = 0; i < length; i++) {
+				float[] frame = frames.next();
+				for (int c = 0; c < numChannels; c++) {
+					samples.put(base + c * length + i, frame[c]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Load a snapshot file by memory mapping it.  No samples are read until they are used.
+	 * @param filename The file to load
+	 * @return the mapped list
+	 * @throws IOException if the file cannot be read or is not a snapshot
+	 */
+	public static SnapshotMusicList load(String filename) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if (channel.size() < HEADER_BYTES) {
+				throw new IOException(filename + " is not a MusicList snapshot");
+			}
+			if (channel.size() > MAX_FILE_BYTES) {
+				throw new IOException(filename + " is larger than a snapshot can be (" + channel.size() + " bytes)");
+			}
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			mapped.order(ByteOrder.LITTLE_ENDIAN);
+			if (mapped.getInt(0) != FILE_MAGIC) {
+				throw new IOException(filename + " is not a MusicList snapshot");
+			}
+			int version = mapped.getInt(4);
+			if (version != FILE_VERSION) {
+				throw new IOException("Unsupported MusicList snapshot version " + version);
+			}
+			float sampleRate = mapped.getFloat(8);
+			int numChannels = mapped.getInt(12);
+			long frameCount = mapped.getLong(16);
+			int blockFrames = mapped.getInt(24);
+			if (numChannels <= 0 || frameCount < 0 || frameCount > Integer.MAX_VALUE || blockFrames <= 0) {
+				throw new IOException(filename + " has a corrupt header (" + numChannels + " channels, " + frameCount
+						+ " frames, blocks of " + blockFrames + ")");
+			}
+			if (frameCount * numChannels > (channel.size() - HEADER_BYTES) / 4) {
+				throw new IOException(filename + " is truncated");
+			}
+			mapped.position(HEADER_BYTES);
+			FloatBuffer samples = mapped.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+			return new SnapshotMusicList(samples, sampleRate, numChannels, (int) frameCount, blockFrames);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * The number of channels in the SoundList
+	 * @return The number f channels in the SoundList
+	 */
+	public int getNumChannels() {
+		return edited != null ? edited.getNumChannels() : numChannels;
+	}
+
+	/**
+	 * Returns the sample rate, in samples per second
+	 * @return The sample rate, in samples per second
+	 */
+	public float getSampleRate() {
+		return edited != null ? edited.getSampleRate() : sampleRate;
+	}
+
+	/**
+	 * Returns the number of samples in the MusicList
+	 * @return The number of samples in the MusicList.
+	 */
+	public int getNumSamples() {
+		return edited != null ? edited.getNumSamples() : numSamples;
+	}
+
+	/**
+	 * Returns true if this list has been edited and no longer reads from its snapshot buffer
+	 * @return whether the list has been copied
+	 */
+	public boolean isCopied() {
+		return edited != null;
+	}
+
+	/**
+	 * Copy a run of samples from one channel into an array.  Only valid before the list is edited.
+	 * @param channel The channel to read
+	 * @param start First frame to read
+	 * @param out Array to copy into
+	 * @param offset Index in out of the first sample
+	 * @param length Number of frames to copy
+	 */
+	public void read(int channel, int start, float[] out, int offset, int length) {
+		if (edited != null) {
+			throw new IllegalStateException("List has been edited and is no longer backed by its snapshot");
+		}
+		if (start < 0 || start + length > numSamples) {
+			throw new IndexOutOfBoundsException("Frames " + start + " .. " + (start + length) + " out of range");
+		}
+		start += firstFrame;
+		while (length > 0) {
+			int blockStart = start - start % blockFrames;
+			int blockLength = Math.min(blockFrames, storedFrames - blockStart);
+			int run = Math.min(length, blockStart + blockLength - start);
+			FloatBuffer view = data.duplicate();
+			view.position(blockStart * numChannels + channel * blockLength + (start - blockStart));
+			view.get(out, offset, run);
+			start += run;
+			offset += run;
+			length -= run;
+		}
+	}
+
+	/**
+	 * Add a single sample to the end of the SoundList.  Throws an exception if the soundlist has more than 1 channel
+	 * @param sample The sample to add
+	 */
+	public void addSample(float sample) {
+		editable().addSample(sample);
+	}
+
+	/**
+	 * Adds a single sample for each channel to the end of the SoundList.  Throws an exception if the size of the sample
+	 * array is not the same as the number of channels in the sound list
+	 * @param sample Array of samples (one for each channel) to add to the end of the SoundList
+	 */
+	public void addSample(float[] sample) {
+		editable().addSample(sample);
+	}
+
+	/**
+	 * Return an iterator that traverses the entire sample, returning an array floats (one for each channel)
+	 * @return iterator
+	 */
+	public Iterator<float[]> iterator() {
+		if (edited != null) {
+			return edited.iterator();
+		}
+		return new SnapshotIterator();
+	}
+
+	/**
+	 * Trim the list to a range of frames.  Until the list is otherwise edited this only moves the window
+	 * over the snapshot buffer, so it takes constant time and copies nothing.
+	 * @param startFrame First frame to keep
+	 * @param frameCount Number of frames to keep
+	 * @throws IndexOutOfBoundsException if the range is not inside the list
+	 */
+	@Override
+	public void clipFrames(long startFrame, long frameCount) {
+		if (edited != null) {
+			super.clipFrames(startFrame, frameCount);
+			return;
+		}
+		if (startFrame < 0 || frameCount < 0 || startFrame + frameCount > numSamples) {
+			throw new IndexOutOfBoundsException("Frames " + startFrame + " .. " + (startFrame + frameCount) + " out of range (" + numSamples + " frames)");
+		}
+		firstFrame += (int) startFrame;
+		numSamples = (int) frameCount;
+	}
+
+	@Override
+	protected MusicLinkedList editable() {
+		if (edited == null) {
+			edited = toLinkedList();
+		}
+		return edited;
+	}
+
+	@Override
+	protected void replaceContents(MusicLinkedList edited) {
+		this.edited = edited;
+	}
+
+	/**
+	 * Iterator for all channels, reading straight from the snapshot buffer
+	 */
+	private class SnapshotIterator implements Iterator<float[]> {
+		private int frame = firstFrame;
+		private final int end = firstFrame + numSamples;
+		private int blockStart = firstFrame - firstFrame % blockFrames;
+		private int blockLength = Math.min(blockFrames, storedFrames - blockStart);
+
+		@Override
+		public boolean hasNext() {
+			return frame < end;
+		}
+
+		@Override
+		public float[] next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException("Iterator: There is no next element");
+			}
+			if (frame == blockStart + blockLength) {
+				blockStart = frame;
+				blockLength = Math.min(blockFrames, storedFrames - blockStart);
+			}
+			int base = blockStart * numChannels + (frame - blockStart);
+			float[] returnData = new float[numChannels];
+			for (int c = 0; c < numChannels; c++) {
+				returnData[c] = data.get(base + c * blockLength);
+			}
+			frame++;
+			return returnData;
+		}
+	}
+}
@@ -20,11 +20,15 @@ public class SoundUtil
 	 */
 	public static void play(MusicList L) throws LineUnavailableException
 	{
+		AudioMetrics.Timer timer = AudioMetrics.startIO("play");
 		Iterator<float[]> it = L.iterator();
 		byte buff[] = new byte[150];
+		long bytesWritten = 0;
+		long underruns = 0;
+		boolean countUnderruns = timer.isActive();
 		final AudioFormat af = new AudioFormat(L.getSampleRate(), 16, L.getNumChannels(), true, true);
 		SourceDataLine line = AudioSystem.getSourceDataLine(af);
-		line.open(af, L.getNumSamples() * L.getNumChannels() * 2);
+		line.open(af, (int) Math.min(Integer.MAX_VALUE, L.getFrameCount() * L.getNumChannels() * 2));
 		line.start();
 
 		while (it.hasNext())
@@ -44,12 +48,47 @@ public class SoundUtil
 					buffSize += 2;	
 				}
 			}
+			//the mixer may grant a smaller buffer than asked for; if it has emptied since the last write, playback ran dry
+			if (countUnderruns && bytesWritten > 0 && line.available() == line.getBufferSize())
+			{
+				underruns++;
+			}
 			line.write(buff, 0, buffSize);
+			bytesWritten += buffSize;
 
 		}
 
 		line.drain();
 		line.close();
+		timer.stop(L.getNumSamples(), L.getNumChannels(), bytesWritten, underruns);
+	}
+	
+	/**
+	 * Record from the default audio in, returning once time * sampleRate frames have been recorded.  To
+	 * read a recording while it grows, or record through a processor or from another line, use
+	 * AudioCapture.
+	 * @param time Duration to record, in seconds
+	 * @param sampleRate Sample rate, in samples / second
+	 * @param numChannels Number of channels
+	 * @return The recording
+	 * @throws LineUnavailableException
+	 * @throws InterruptedException
+	 */
+	public static ConcurrentMusicList record(float time, float sampleRate, int numChannels) throws LineUnavailableException, InterruptedException
+	{
+		ConcurrentMusicList recording = new ConcurrentMusicList(sampleRate, numChannels);
+		AudioCapture capture = AudioCapture.open(sampleRate, numChannels);
+		try
+		{
+			capture.start(recording, null, PlanarOps.framesBefore(time, sampleRate));
+			//the line delivers in real time; allow a second for it to start and drain
+			capture.join((long) (time * 1000) + 1000);
+		}
+		finally
+		{
+			capture.close();
+		}
+		return recording;
 	}
 	
 	/**
@@ -114,6 +153,8 @@ public class SoundUtil
 	 */
 	public static MusicLinkedList readWAVFile(String filename)
 	{
+		AudioMetrics.Timer timer = AudioMetrics.startIO("readWAVFile");
+		long bytesDecoded = 0;
 		MusicLinkedList outputMusicList = null;
 		File soundFile = new File(filename);
 		AudioInputStream audioInputStream;
@@ -136,6 +177,7 @@ public class SoundUtil
 					int nextInput = audioInputStream.read();
 					nextInput -= 128;
 					outputMusicList.addSample(((float) nextInput) / 128f);
+					bytesDecoded++;
 				}
 
 
@@ -166,6 +208,7 @@ public class SoundUtil
 						values[currentChannel] = ((float) result) / (float) 0x7FFF;
 					}
 					outputMusicList.addSample(values);
+					bytesDecoded += bytesRead;
 				}
 			}
 		} catch (UnsupportedAudioFileException e) {
@@ -174,6 +217,10 @@ public class SoundUtil
 			e.printStackTrace();
 		}
 
+		if (outputMusicList != null)
+		{
+			timer.stop(outputMusicList.getNumSamples(), outputMusicList.getNumChannels(), bytesDecoded, 0);
+		}
 		return outputMusicList;
 
 	}
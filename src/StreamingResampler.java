@@ -0,0 +1,96 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over a MusicList at a different sample rate, interpolating as it goes, without changing or
+ * copying the source.  The arithmetic is that of MusicLinkedList.changeSampleRate (linear interpolation
+ * between the two source frames around each new frame), so the frames are exactly the ones
+ * changeSampleRate would produce; changeSampleRate is in fact built on this class.  Memory is two
+ * source frames, however long the list.
+ */
+public class StreamingResampler implements Iterator<float[]> {
+	private final int numChannels;
+	private final double oldStep;
+	private final float newRate;
+	private final float duration;
+	private final Iterator<float[]> itLeading;
+	private final Iterator<float[]> itFollowing;
+	private float[] audioLeading;
+	private float[] audioFollowing;
+	private double oldTimeLeading;
+	private double oldTimeFollowing;
+	private double newTime;
+	private boolean started;
+
+	/**
+	 * Create a resampler
+	 * @param source The list to read.  It is not modified, and must not be changed while iterating.
+	 * @param newRate The sample rate to produce
+	 */
+	public StreamingResampler(MusicList source, float newRate) {
+		this.numChannels = source.getNumChannels();
+		this.oldStep = 1/(double) source.getSampleRate();
+		this.newRate = newRate;
+		this.duration = source.getDuration();
+		this.itLeading = source.iterator();
+		this.itFollowing = source.iterator();
+		this.started = false;
+	}
+
+	/**
+	 * Returns the number of frames a resampler produces
+	 * @param source The list to read
+	 * @param newRate The sample rate to produce
+	 * @return number of frames, as changeSampleRate would leave
+	 */
+	public static int resampledLength(MusicList source, float newRate) {
+		if (source.getNumSamples() < 2) {
+			return source.getNumSamples();
+		}
+		return PlanarOps.resampledLength(source.getNumSamples(), source.getSampleRate(), newRate);
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (!started) {
+			return itFollowing.hasNext();
+		}
+		return audioLeading != null && newTime <= duration;
+	}
+
+	@Override
+	public float[] next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		if (!started) {
+			// the first frame is copied as is
+			started = true;
+			audioFollowing = itFollowing.next();
+			itLeading.next();
+			if (itLeading.hasNext()) {
+				audioLeading = itLeading.next();
+				oldTimeLeading += oldStep;
+			}
+			newTime += 1/newRate;
+			return audioFollowing.clone();
+		}
+
+		while (oldTimeLeading < newTime) {
+			audioLeading = itLeading.next();
+			oldTimeLeading += oldStep;
+		}
+		while (oldTimeFollowing < newTime - oldStep) {
+			audioFollowing = itFollowing.next();
+			oldTimeFollowing += oldStep;
+		}
+
+		double ratio = (newTime - oldTimeFollowing)/(oldTimeLeading - oldTimeFollowing);
+		float[] newSample = new float[numChannels];
+		for (int c = 0; c < numChannels; c++) {
+			newSample[c] = (float) (audioFollowing[c] + (audioLeading[c] - audioFollowing[c])*ratio);
+		}
+		newTime += 1/newRate;
+		return newSample;
+	}
+}
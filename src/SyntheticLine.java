@@ -0,0 +1,229 @@
+import java.util.Iterator;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.TargetDataLine;
+
+/**
+ * A TargetDataLine that records a MusicList instead of a microphone, for running AudioCapture without
+ * sound hardware.  The list is delivered as 16 bit signed big endian PCM, the format SoundUtil.play
+ * uses.
+ *
+ * In real time mode frames become available at the list's sample rate, and frames that are not read
+ * within one buffer's length are lost, as they are on a real line whose reader falls behind
+ * (see getOverflowFrames).  Otherwise every read is answered at once.  When the whole list has been
+ * read the line stops itself, so a reader sees the recording end.
+ */
+public class SyntheticLine implements TargetDataLine {
+	private final Iterator<float[]> source;
+	private final AudioFormat format;
+	private final boolean realTime;
+	private int bufferFrames;
+	private boolean open;
+	private volatile boolean running;
+	private long framePosition;
+	private long overflowFrames;
+	private long startNanos;
+	private long startFrame;
+
+	/**
+	 * Create a line that records a list
+	 * @param source The list to record
+	 * @param realTime If true, frames arrive at the list's sample rate; if false, as fast as they are read
+	 */
+	public SyntheticLine(MusicList source, boolean realTime) {
+		this.source = source.iterator();
+		this.format = new AudioFormat(source.getSampleRate(), 16, source.getNumChannels(), true, true);
+		this.realTime = realTime;
+		this.bufferFrames = (int) Math.max(1, source.getSampleRate() / 2);
+	}
+
+	/**
+	 * Returns the number of frames lost because they were not read in time (real time mode only)
+	 * @return lost frames
+	 */
+	public synchronized long getOverflowFrames() {
+		return overflowFrames;
+	}
+
+	public void open(AudioFormat requested, int bufferSize) {
+		if (!requested.matches(format)) {
+			throw new IllegalArgumentException("SyntheticLine only records " + format);
+		}
+		synchronized (this) {
+			bufferFrames = Math.max(1, bufferSize / format.getFrameSize());
+			open = true;
+		}
+	}
+
+	public void open(AudioFormat requested) {
+		open(requested, bufferFrames * format.getFrameSize());
+	}
+
+	public void open() {
+		open(format);
+	}
+
+	public int read(byte[] b, int off, int len) {
+		int frameSize = format.getFrameSize();
+		int wanted = len / frameSize;
+		int frames = 0;
+		while (frames < wanted && running) {
+			int ready = waitForFrames(wanted - frames);
+			synchronized (this) {
+				for (int i = 0; i < ready && running; i++) {
+					if (!source.hasNext()) {
+						running = false;
+						break;
+					}
+					encode(source.next(), b, off + frames * frameSize);
+					frames++;
+					framePosition++;
+				}
+			}
+		}
+		return frames * frameSize;
+	}
+
+	/**
+	 * Wait until at least one frame is available (at once unless in real time mode), dropping frames
+	 * that have overflowed the buffer
+	 * @param limit Most frames wanted
+	 * @return frames that may be read now, at most limit
+	 */
+	private int waitForFrames(int limit) {
+		if (!realTime) {
+			return limit;
+		}
+		while (running) {
+			synchronized (this) {
+				long due = dueFrames();
+				if (due - framePosition > bufferFrames) {
+					long lost = due - framePosition - bufferFrames;
+					for (long i = 0; i < lost && source.hasNext(); i++) {
+						source.next();
+					}
+					framePosition += lost;
+					overflowFrames += lost;
+				}
+				if (due > framePosition) {
+					return (int) Math.min(limit, due - framePosition);
+				}
+			}
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return 0;
+			}
+		}
+		return 0;
+	}
+
+	private long dueFrames() {
+		return startFrame + (long) ((System.nanoTime() - startNanos) / 1e9 * format.getSampleRate());
+	}
+
+	private void encode(float[] frame, byte[] b, int offset) {
+		for (int c = 0; c < frame.length; c++) {
+			float value = Math.max(-1, Math.min(1, frame[c]));
+			short sample = (short) (value * 0x7FFF);
+			b[offset + c * 2] = (byte) (sample >> 8);
+			b[offset + c * 2 + 1] = (byte) sample;
+		}
+	}
+
+	public void drain() {
+	}
+
+	public synchronized void flush() {
+		if (realTime && running) {
+			startFrame = framePosition;
+			startNanos = System.nanoTime();
+		}
+	}
+
+	public synchronized void start() {
+		startFrame = framePosition;
+		startNanos = System.nanoTime();
+		running = true;
+	}
+
+	public void stop() {
+		running = false;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	public boolean isActive() {
+		return running;
+	}
+
+	public AudioFormat getFormat() {
+		return format;
+	}
+
+	public synchronized int getBufferSize() {
+		return bufferFrames * format.getFrameSize();
+	}
+
+	public synchronized int available() {
+		if (!realTime) {
+			return bufferFrames * format.getFrameSize();
+		}
+		long waiting = running ? dueFrames() - framePosition : 0;
+		return (int) Math.min(bufferFrames, Math.max(0, waiting)) * format.getFrameSize();
+	}
+
+	public int getFramePosition() {
+		return (int) getLongFramePosition();
+	}
+
+	public synchronized long getLongFramePosition() {
+		return framePosition;
+	}
+
+	public long getMicrosecondPosition() {
+		return (long) (getLongFramePosition() * 1e6 / format.getSampleRate());
+	}
+
+	public float getLevel() {
+		return AudioSystem.NOT_SPECIFIED;
+	}
+
+	public DataLine.Info getLineInfo() {
+		return new DataLine.Info(TargetDataLine.class, format);
+	}
+
+	public synchronized void close() {
+		running = false;
+		open = false;
+	}
+
+	public synchronized boolean isOpen() {
+		return open;
+	}
+
+	public Control[] getControls() {
+		return new Control[0];
+	}
+
+	public boolean isControlSupported(Control.Type control) {
+		return false;
+	}
+
+	public Control getControl(Control.Type control) {
+		throw new IllegalArgumentException("SyntheticLine has no controls");
+	}
+
+	public void addLineListener(LineListener listener) {
+	}
+
+	public void removeLineListener(LineListener listener) {
+	}
+}
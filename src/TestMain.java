@@ -1,5 +1,19 @@
 import java.io.*;
+import java.net.Socket;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.sound.sampled.*;
 import javax.sound.sampled.AudioFormat.Encoding;
@@ -248,6 +262,279 @@ public class TestMain {
 		return success;
 	}
 
+	public static boolean testPendingRescale()
+	{
+		boolean success = true;
+		try
+		{
+			String[] operations = {"addEcho", "reverse", "spliceIn", "spliceIn with crossfade", "spliceIn lazy clip",
+					"clipFrames", "changeSampleRate with filter", "changePitch"};
+			for (int mono = 0; mono < 2; mono++)
+			{
+				for (String operation : operations)
+				{
+					// the lazy list still has its peak to divide by; the eager copy has it divided out already
+					MusicLinkedList lazy = pendingRescale(mono == 1);
+					MusicLinkedList eager = copyFrames(lazy);
+					MusicLinkedList lazyClip = pendingRescale(mono == 0);
+					MusicLinkedList eagerClip = copyFrames(lazyClip);
+					applyOperation(operation, lazy, lazyClip);
+					applyOperation(operation, eager, eagerClip);
+					success &= sameFrames(eager, lazy, "after " + operation + (mono == 1 ? " following makeMono" : " following combine"));
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Failed: " + e.toString());
+			return false;
+		}
+		return success;
+	}
+
+	/**
+	 * A stereo list louder than full scale, rescaled without clipping by combine or by makeMono, so the
+	 * division by its peak is still pending
+	 */
+	public static MusicLinkedList pendingRescale(boolean mono)
+	{
+		boolean[] both = {true, true};
+		MusicLinkedList list = SoundUtil.createSineWave(0.5f, 300, 8000, 2, both);
+		if (mono)
+		{
+			list.makeMono(false);
+		}
+		else
+		{
+			list.combine(SoundUtil.createSineWave(0.5f, 470, 8000, 2, both), false);
+		}
+		return list;
+	}
+
+	/**
+	 * Copy a list frame by frame through its iterator
+	 */
+	public static MusicLinkedList copyFrames(MusicList list)
+	{
+		MusicLinkedList copy = new MusicLinkedList(list.getSampleRate(), list.getNumChannels());
+		Iterator<float[]> it = list.iterator();
+		while (it.hasNext())
+		{
+			copy.addSample(it.next());
+		}
+		return copy;
+	}
+
+	/**
+	 * Run one of the operations that work on Samples directly
+	 */
+	public static void applyOperation(String operation, MusicLinkedList list, MusicLinkedList clip)
+	{
+		if (operation.equals("addEcho"))
+		{
+			list.addEcho(0.05f, 0.5f);
+		}
+		else if (operation.equals("reverse"))
+		{
+			list.reverse();
+		}
+		else if (operation.equals("spliceIn"))
+		{
+			list.spliceIn(0.1f, clip);
+		}
+		else if (operation.equals("spliceIn with crossfade"))
+		{
+			list.spliceIn(0.1f, clip, 0.01f);
+		}
+		else if (operation.equals("spliceIn lazy clip"))
+		{
+			list.spliceInAtFrame(1000, clip, 40);
+		}
+		else if (operation.equals("clipFrames"))
+		{
+			list.clipFrames(500, 2000);
+		}
+		else if (operation.equals("changeSampleRate with filter"))
+		{
+			list.changeSampleRate(5000, true);
+		}
+		else
+		{
+			list.changePitch(3);
+		}
+	}
+
+	public static boolean testReduceToMono(int numChannels)
+	{
+		boolean success = true;
+		try
+		{
+			boolean[] useChannel = new boolean[numChannels];
+			for (int i = 0; i < numChannels; i++)
+			{
+				useChannel[i] = true;
+			}
+			MusicLinkedList copies = SoundUtil.createSineWave(1, 100, 10000, numChannels, useChannel);
+			MusicLinkedList reduced = (MusicLinkedList) copies.clone();
+			copies.makeMono(false);
+			reduced.makeMono(false, true);
+
+			if (reduced.getNumChannels() != 1 || reduced.getNumSamples() != copies.getNumSamples())
+			{
+				System.out.println("Error:  Reduced list has the wrong shape");
+				success = false;
+			}
+			Iterator<float[]> it1 = copies.iterator();
+			Iterator<float[]> it2 = reduced.iterator();
+			while (it1.hasNext() && it2.hasNext())
+			{
+				float[] next = it2.next();
+				if (next.length != 1 || !approxEqual(it1.next()[0], next[0]))
+				{
+					if (success)
+					{
+						System.out.println("Error:  Samples don't match");
+					}
+					success = false;
+				}
+			}
+			if (it1.hasNext() || it2.hasNext())
+			{
+				System.out.println("Error:  iterator problem in makeMono");
+				success = false;
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Failed: " + e.toString());
+			return false;
+		}
+		return success;
+	}
+
+	public static boolean testChannelMatrix()
+	{
+		boolean success = true;
+		try
+		{
+			// 5.1 input where every channel has its own level and phase
+			MusicLinkedList surround = new MusicLinkedList(12000, 6);
+			float[][] input = new float[3000][6];
+			for (int i = 0; i < input.length; i++)
+			{
+				for (int c = 0; c < 6; c++)
+				{
+					input[i][c] = (float) (0.05 * (c + 1) * Math.sin(i * 0.013 + c));
+				}
+				surround.addSample(input[i]);
+			}
+			float[][] down = ChannelMatrix.surroundToStereo();
+			float[][] expected = new float[input.length][2];
+			float centre = (float) Math.sqrt(0.5);
+			for (int i = 0; i < input.length; i++)
+			{
+				expected[i][0] = input[i][0] + centre * input[i][2] + centre * input[i][4];
+				expected[i][1] = input[i][1] + centre * input[i][2] + centre * input[i][5];
+			}
+			MusicLinkedList applied = ChannelMatrix.apply(surround, down, true);
+			success &= matrixResult(applied, expected, 12000, "applying the 5.1 downmix");
+			if (surround.getNumChannels() != 6)
+			{
+				System.out.println("Error:  apply changed its source");
+				success = false;
+			}
+			MusicLinkedList remapped = (MusicLinkedList) surround.clone();
+			remapped.remapChannels(down, true);
+			success &= matrixResult(remapped, expected, 12000, "remapping with the 5.1 downmix");
+
+			// more outputs than inputs, reordered and duplicated
+			expected = new float[input.length][7];
+			int[] picks = {5, 0, 0, 3, 1, 2, 4};
+			for (int i = 0; i < input.length; i++)
+			{
+				for (int o = 0; o < picks.length; o++)
+				{
+					expected[i][o] = input[i][picks[o]];
+				}
+			}
+			remapped = (MusicLinkedList) surround.clone();
+			remapped.remapChannels(ChannelMatrix.select(6, picks), true);
+			success &= matrixResult(remapped, expected, 12000, "selecting 7 channels from 6");
+
+			// a mix louder than full scale is rescaled rather than clipped
+			float[][] loud = {{4, 4, 4, 4, 4, 4}};
+			expected = new float[input.length][1];
+			float biggest = 0;
+			for (int i = 0; i < input.length; i++)
+			{
+				for (int c = 0; c < 6; c++)
+				{
+					expected[i][0] += 4 * input[i][c];
+				}
+				biggest = Math.max(biggest, Math.abs(expected[i][0]));
+			}
+			for (int i = 0; i < input.length; i++)
+			{
+				expected[i][0] /= biggest;
+			}
+			remapped = (MusicLinkedList) surround.clone();
+			remapped.remapChannels(loud, false);
+			success &= matrixResult(remapped, expected, 12000, "remapping louder than full scale");
+			success &= matrixResult(ChannelMatrix.apply(surround, loud, false), expected, 12000, "applying louder than full scale");
+		}
+		catch (Exception e)
+		{
+			System.out.println("Failed: " + e.toString());
+			return false;
+		}
+		return success;
+	}
+
+	/**
+	 * Check the shape of a remapped list and every channel of it, through both kinds of iterator
+	 */
+	public static boolean matrixResult(MusicList list, float[][] expected, float sampleRate, String when)
+	{
+		int channels = expected[0].length;
+		if (list.getNumChannels() != channels || list.getSampleRate() != sampleRate || list.getNumSamples() != expected.length)
+		{
+			System.out.println("Error:  " + list.getNumChannels() + " channels at " + list.getSampleRate() + " with "
+					+ list.getNumSamples() + " frames " + when);
+			return false;
+		}
+		Iterator<float[]> frames = list.iterator();
+		for (int i = 0; i < expected.length; i++)
+		{
+			float[] frame = frames.next();
+			for (int c = 0; c < channels; c++)
+			{
+				if (Math.abs(frame[c] - expected[i][c]) > 1e-6)
+				{
+					System.out.println("Error:  Channel " + c + " of frame " + i + " was " + frame[c] + ", expected " + expected[i][c] + " " + when);
+					return false;
+				}
+			}
+		}
+		for (int c = 0; c < channels; c++)
+		{
+			Iterator<Float> samples = list.iterator(c);
+			for (int i = 0; i < expected.length; i++)
+			{
+				if (Math.abs(samples.next() - expected[i][c]) > 1e-6)
+				{
+					System.out.println("Error:  Channel iterator " + c + " disagrees at frame " + i + " " + when);
+					return false;
+				}
+			}
+			if (samples.hasNext())
+			{
+				System.out.println("Error:  Channel iterator " + c + " runs past the end " + when);
+				return false;
+			}
+		}
+		return true;
+	}
+
 	public static boolean testReverse(int numChannels)
 	{
 		boolean success = true;
@@ -434,27 +721,2080 @@ public class TestMain {
 		return success;
 	}
 
-	public static void printResult(boolean success)
+	public static boolean testCompression(int numChannels)
 	{
-		if (success)
+		boolean success = true;
+		try
 		{
-			System.out.println("Success!");
+			boolean[] useChannel = new boolean[numChannels];
+			for (int i = 0; i < numChannels; i++)
+			{
+				useChannel[i] = true;
+			}
+			MusicLinkedList ml = SoundUtil.createSineWave(1, 100, 10000, numChannels, useChannel);
+			CompressedMusicList compressed = CompressedMusicList.compress(ml, 1000, 4);
+			if (compressed.getNumSamples() != ml.getNumSamples())
+			{
+				System.out.println("Error:  NumSamples don't match");
+				success = false;
+			}
+			Iterator<float[]> it1 = ml.iterator();
+			Iterator<float[]> it2 = compressed.iterator();
+			while (it1.hasNext() && it2.hasNext())
+			{
+				float[] original = it1.next();
+				float[] decoded = it2.next();
+				for (int i = 0; i < numChannels; i++)
+				{
+					if (Float.floatToRawIntBits(original[i]) != Float.floatToRawIntBits(decoded[i]))
+					{
+						if (success)
+						{
+							System.out.println("Error:  Samples don't match");
+						}
+						success = false;
+					}
+				}
+			}
+			if (it1.hasNext() || it2.hasNext())
+			{
+				System.out.println("Error:  iterator problem in compression");
+				success = false;
+			}
+
+			// 16 bit input, as read from a WAV file, takes the integer predictor path and should need at
+			// most half the memory of the floats
+			MusicLinkedList pcm = new MusicLinkedList(10000, numChannels);
+			float[] frame = new float[numChannels];
+			for (int i = 0; i < 25000; i++)
+			{
+				for (int c = 0; c < numChannels; c++)
+				{
+					double value = 0.5 * Math.sin(i * (0.03 + 0.01 * c)) + 0.1 * Math.sin(i * 0.37);
+					frame[c] = Math.round(value * 0x7FFF) / (float) 0x7FFF;
+				}
+				pcm.addSample(frame);
+			}
+			CompressedMusicList packed = CompressedMusicList.compress(pcm, 1000, 4);
+			long floatBytes = 4L * pcm.getNumSamples() * numChannels;
+			if (packed.getCompressedBytes() * 2 > floatBytes)
+			{
+				System.out.println("Error:  16 bit input compressed to " + packed.getCompressedBytes() + " of " + floatBytes + " bytes");
+				success = false;
+			}
+			success &= sameFrames(pcm, packed, "16 bit round trip");
+
+			// any block decodes on its own
+			float[][] planar = ChannelBuffers.toPlanar(pcm);
+			for (int b = 0; b < packed.getNumBlocks(); b += 7)
+			{
+				float[][] block = packed.decodeBlock(b);
+				for (int c = 0; c < numChannels; c++)
+				{
+					for (int i = 0; i < packed.getBlockLength(b); i++)
+					{
+						if (Float.floatToRawIntBits(block[c][i]) != Float.floatToRawIntBits(planar[c][b * 1000 + i]))
+						{
+							if (success)
+							{
+								System.out.println("Error:  Block " + b + " doesn't match");
+							}
+							success = false;
+						}
+					}
+				}
+			}
+
+			// a partly filled last block survives saving and loading
+			pcm.addSample(frame);
+			packed = CompressedMusicList.compress(pcm, 1000, 1);
+			File file = File.createTempFile("compressed", ".mlcz");
+			try
+			{
+				packed.save(file.getPath());
+				CompressedMusicList loaded = CompressedMusicList.load(file.getPath());
+				if (loaded.getNumBlocks() != 26 || loaded.getBlockLength(25) != 1)
+				{
+					System.out.println("Error:  Loaded list has " + loaded.getNumBlocks() + " blocks");
+					success = false;
+				}
+				success &= sameFrames(pcm, loaded, "saved and loaded");
+			}
+			finally
+			{
+				file.delete();
+			}
 		}
-		else
+		catch (Exception e)
 		{
-			System.out.println("Falure!");
+			System.out.println("Failed: " + e.toString());
+			return false;
 		}
+		return success;
 	}
 
+	public static boolean testSnapshot()
+	{
+		boolean success = true;
+		try
+		{
+			MusicLinkedList original = createMelody(3, 1.0f, 8000);
+			original.combine(createMelody(4, 1.0f, 8000), false);
+			MusicLinkedList stereo = new MusicLinkedList(8000, 2);
+			Iterator<float[]> source = original.iterator();
+			for (int i = 0; source.hasNext(); i++)
+			{
+				float value = source.next()[0];
+				stereo.addSample(new float[] {value, -value * 0.5f});
+			}
+			File file = File.createTempFile("snapshot", ".mlsn");
+			try
+			{
+				// blocks of 300 frames leave a short last block
+				SnapshotMusicList.write(stereo, file.getPath(), 300);
+				SnapshotMusicList snapshot = SnapshotMusicList.load(file.getPath());
+				success &= sameFrames(stereo, snapshot, "after loading a snapshot");
+
+				// editing copies the samples and leaves the file alone
+				MusicLinkedList expected = (MusicLinkedList) stereo.clone();
+				expected.clipFrames(100, 5000);
+				expected.reverse();
+				snapshot.clipFrames(100, 5000);
+				if (snapshot.isCopied())
+				{
+					System.out.println("Error:  clipFrames copied the snapshot");
+					success = false;
+				}
+				snapshot.reverse();
+				if (!snapshot.isCopied())
+				{
+					System.out.println("Error:  reverse did not copy the snapshot");
+					success = false;
+				}
+				success &= sameFrames(expected, snapshot, "after editing a snapshot");
+				success &= sameFrames(stereo, SnapshotMusicList.load(file.getPath()), "reloading an edited snapshot");
 
+				// a header with no block size is rejected
+				RandomAccessFile corrupt = new RandomAccessFile(file, "rw");
+				try
+				{
+					corrupt.seek(24);
+					corrupt.writeInt(0);
+				}
+				finally
+				{
+					corrupt.close();
+				}
+				try
+				{
+					SnapshotMusicList.load(file.getPath());
+					System.out.println("Error:  Loaded a snapshot with blocks of 0 frames");
+					success = false;
+				}
+				catch (IOException e)
+				{
+				}
 
-	public static void main(String[] args) throws LineUnavailableException, UnsupportedAudioFileException, IOException {
+				// nor is a frame count too large for the file, even one whose size in bytes overflows a long
+				corrupt = new RandomAccessFile(file, "rw");
+				try
+				{
+					corrupt.seek(16);
+					corrupt.writeLong(Long.reverseBytes(1L << 62));
+					corrupt.writeInt(Integer.reverseBytes(300));
+				}
+				finally
+				{
+					corrupt.close();
+				}
+				try
+				{
+					SnapshotMusicList.load(file.getPath());
+					System.out.println("Error:  Loaded a snapshot claiming 2^62 frames");
+					success = false;
+				}
+				catch (IOException e)
+				{
+				}
+			}
+			finally
+			{
+				file.delete();
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Failed: " + e.toString());
+			return false;
+		}
+		return success;
+	}
 
+	public static boolean testClipCache()
+	{
+		boolean success = true;
+		try
+		{
+			File directory = Files.createTempDirectory("clipcache").toFile();
+			String[] names = {"one_four.wav", "two_three.wav", "test2.wav"};
+			String[] copies = new String[names.length];
+			long[] bytes = new long[names.length];
+			for (int i = 0; i < names.length; i++)
+			{
+				File copy = new File(directory, names[i]);
+				Files.copy(new File(names[i]).toPath(), copy.toPath());
+				copies[i] = copy.getPath();
+				MusicLinkedList decoded = SoundUtil.readWAVFile(names[i]);
+				bytes[i] = 4L * decoded.getNumSamples() * decoded.getNumChannels();
+			}
+			try
+			{
+				// room for the first two clips but not all three
+				ClipCache cache = new ClipCache(bytes[0] + bytes[1] + bytes[2] / 2);
+				MusicList first = cache.get(copies[0]);
+				cache.get(copies[0]);
+				cache.get(copies[0], first.getSampleRate());
+				if (cache.getMissCount() != 1 || cache.getHitCount() != 2 || cache.size() != 1)
+				{
+					System.out.println("Error:  " + cache.getMissCount() + " misses and " + cache.getHitCount()
+							+ " hits for one clip at its own rate");
+					success = false;
+				}
 
-		boolean play = false;
+				// editing a view copies it and leaves the cached data alone
+				MusicLinkedList expected = SoundUtil.readWAVFile(names[0]);
+				first.reverse();
+				success &= sameFrames(expected, cache.get(copies[0]), "after editing a cached view");
 
-		System.out.println("Testing one channel simple sine wave");
-		boolean result = testSingleChanelSineWave(play);
+				// the least recently used clip goes first, and the cache stays within its bound
+				cache.get(copies[1]);
+				cache.get(copies[0]);
+				cache.get(copies[2]);
+				if (cache.getEvictionCount() != 1 || cache.getCurrentBytes() > bytes[0] + bytes[1] + bytes[2] / 2)
+				{
+					System.out.println("Error:  " + cache.getEvictionCount() + " evictions leaving " + cache.getCurrentBytes() + " bytes");
+					success = false;
+				}
+				long misses = cache.getMissCount();
+				cache.get(copies[0]);
+				cache.get(copies[2]);
+				if (cache.getMissCount() != misses)
+				{
+					System.out.println("Error:  Recently used clips were evicted");
+					success = false;
+				}
+				cache.get(copies[1]);
+				if (cache.getMissCount() != misses + 1)
+				{
+					System.out.println("Error:  Least recently used clip was not evicted");
+					success = false;
+				}
+
+				// a changed file is decoded again
+				File changed = new File(copies[1]);
+				changed.setLastModified(changed.lastModified() + 10000);
+				cache.get(copies[1]);
+				if (cache.getMissCount() != misses + 2)
+				{
+					System.out.println("Error:  Modified file was answered from the cache");
+					success = false;
+				}
+
+				// formats are forgotten with the last entry of their file, and never kept for a clip too big to cache
+				if (cache.formatCount() > cache.size())
+				{
+					System.out.println("Error:  " + cache.formatCount() + " file formats kept for " + cache.size() + " entries");
+					success = false;
+				}
+				ClipCache tiny = new ClipCache(0);
+				tiny.get(copies[0]);
+				tiny.get(copies[2]);
+				if (tiny.formatCount() != 0)
+				{
+					System.out.println("Error:  A cache holding nothing kept " + tiny.formatCount() + " file formats");
+					success = false;
+				}
+			}
+			finally
+			{
+				for (String copy : copies)
+				{
+					new File(copy).delete();
+				}
+				directory.delete();
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Failed: " + e.toString());
+			return false;
+		}
+		return success;
+	}
+
+	public static boolean testParallelChannels()
+	{
+		boolean success = true;
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try
+		{
+			// a pool of its own so the channels really are forked, however many processors there are
+			ParallelChannelExecutor executor = new ParallelChannelExecutor(pool);
+			executor.setParallelismThreshold(0);
+			MusicLinkedList source = new MusicLinkedList(8000, 6);
+			float[] frame = new float[6];
+			for (int i = 0; i < 12000; i++)
+			{
+				for (int c = 0; c < 6; c++)
+				{
+					frame[c] = (float) (0.6 * Math.sin(i * (0.01 + 0.007 * c)) + 0.3 * Math.sin(i * 0.11 * (c + 1)));
+				}
+				source.addSample(frame);
+			}
+			// the second source still has a rescale pending, which the planar copy has to apply
+			MusicLinkedList lazy = (MusicLinkedList) source.clone();
+			lazy.combine(source, false);
+			MusicLinkedList[] sources = {source, lazy};
+			for (MusicLinkedList list : sources)
+			{
+				MusicLinkedList expected = (MusicLinkedList) list.clone();
+				expected.addEcho(0.1f, 0.5f);
+				success &= sameFrames(expected, executor.addEcho(list, 0.1f, 0.5f), "echoing channels in parallel");
+
+				expected = (MusicLinkedList) list.clone();
+				expected.reverse();
+				success &= sameFrames(expected, executor.reverse(list), "reversing channels in parallel");
+
+				float[] rates = {5000, 11025};
+				for (float rate : rates)
+				{
+					expected = (MusicLinkedList) list.clone();
+					expected.changeSampleRate(rate);
+					success &= sameFrames(expected, executor.changeSampleRate(list, rate), "resampling channels in parallel to " + rate);
+				}
+
+				float[][] ranges = {{0.3f, 0.5f}, {1.0f, 5.0f}};
+				for (float[] range : ranges)
+				{
+					expected = (MusicLinkedList) list.clone();
+					expected.clip(range[0], range[1]);
+					success &= sameFrames(expected, executor.clip(list, range[0], range[1]), "clipping channels in parallel from " + range[0]);
+				}
+
+				expected = new MusicLinkedList(list.getSampleRate(), list.getNumChannels());
+				Iterator<float[]> it = list.iterator();
+				while (it.hasNext())
+				{
+					float[] next = it.next();
+					for (int c = 0; c < next.length; c++)
+					{
+						next[c] = next[c]*0.7f;
+					}
+					expected.addSample(next);
+				}
+				success &= sameFrames(expected, executor.gain(list, 0.7f), "applying gain to channels in parallel");
+			}
+			if (PlanarOps.framesBefore(0.1f, 44100) != 4410 || PlanarOps.framesBefore(6 * 3600, 96000) != 6L * 3600 * 96000
+					|| PlanarOps.framesBefore(0, 44100) != 0)
+			{
+				System.out.println("Error:  Wrong frame counts from framesBefore");
+				success = false;
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Failed: " + e.toString());
+			return false;
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+		return success;
+	}
+
+	public static boolean testSegmentScheduler()
+	{
+		boolean success = true;
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try
+		{
+			// segments of 64 frames, so every operation runs as hundreds of forked segments
+			SegmentScheduler scheduler = new SegmentScheduler(pool, 64);
+			MusicLinkedList loud = new MusicLinkedList(8000, 4);
+			MusicLinkedList other = new MusicLinkedList(8000, 4);
+			MusicLinkedList silence = new MusicLinkedList(8000, 4);
+			float[] frame = new float[4];
+			for (int i = 0; i < 20000; i++)
+			{
+				for (int c = 0; c < 4; c++)
+				{
+					frame[c] = (float) (0.9 * Math.sin(i * (0.02 + 0.005 * c)) + 0.5 * Math.sin(i * 0.3));
+				}
+				loud.addSample(frame);
+				for (int c = 0; c < 4; c++)
+				{
+					frame[c] = (float) (0.7 * Math.sin(i * 0.013 * (c + 1)));
+				}
+				other.addSample(frame);
+				silence.addSample(new float[4]);
+			}
+
+			for (int clipping = 0; clipping < 2; clipping++)
+			{
+				MusicLinkedList expected = (MusicLinkedList) loud.clone();
+				expected.combine(other, clipping == 1);
+				success &= sameFrames(expected, scheduler.combine(loud, other, clipping == 1), "combining in segments, clipping " + (clipping == 1));
+
+				for (int reduce = 0; reduce < 2; reduce++)
+				{
+					expected = (MusicLinkedList) loud.clone();
+					expected.makeMono(clipping == 1, reduce == 1);
+					MusicLinkedList mono = scheduler.makeMono(loud, clipping == 1, reduce == 1);
+					String when = "making mono in segments, clipping " + (clipping == 1) + ", reducing " + (reduce == 1);
+					if (reduce == 1)
+					{
+						success &= sameSamples(mono, ChannelBuffers.toPlanar(expected)[0], when);
+					}
+					else
+					{
+						success &= sameFrames(expected, mono, when);
+					}
+				}
+			}
+
+			// rescaling on its own is combining with silence without clipping
+			MusicLinkedList expected = (MusicLinkedList) loud.clone();
+			expected.combine(silence, false);
+			float[][] planar = ChannelBuffers.toPlanar(loud);
+			scheduler.rescale(planar, loud.getNumSamples());
+			success &= sameFrames(expected, ChannelBuffers.toList(planar, loud.getNumSamples(), 8000), "rescaling in segments");
+
+			// waves longer and shorter than a segment, and no delay at all
+			float[] delays = {0.01f, 0.003f, 0};
+			for (float delay : delays)
+			{
+				expected = (MusicLinkedList) other.clone();
+				expected.addEcho(delay, 0.5f);
+				success &= sameFrames(expected, scheduler.addEcho(other, delay, 0.5f), "echoing in waves of " + delay + " seconds");
+			}
+
+			// a shorter list cannot be combined in, however stale the pooled arrays behind it are
+			MusicLinkedList shorter = (MusicLinkedList) other.clone();
+			shorter.clipFrames(0, 19000);
+			try
+			{
+				scheduler.combine(loud, shorter, true);
+				System.out.println("Error:  Combined a list 1000 frames too short");
+				success = false;
+			}
+			catch (NoSuchElementException e)
+			{
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Failed: " + e.toString());
+			return false;
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+		return success;
+	}
+
+	public static boolean testConcurrentAppend(int numReaders)
+	{
+		final int numChannels = 2;
+		final int totalFrames = 1 << 20;
+		final ConcurrentMusicList list = new ConcurrentMusicList(10000, numChannels, 1000);
+		final boolean[] readerSuccess = new boolean[numReaders];
+		Thread writer = new Thread()
+		{
+			public void run()
+			{
+				// frame i holds i in channel 0 and -i in channel 1, so readers can check every frame they see
+				float[][] block = new float[numChannels][777];
+				int frame = 0;
+				while (frame < totalFrames)
+				{
+					int frames = Math.min(block[0].length, totalFrames - frame);
+					for (int i = 0; i < frames; i++)
+					{
+						block[0][i] = frame + i;
+						block[1][i] = -(frame + i);
+					}
+					list.addSamples(block, 0, frames);
+					frame += frames;
+				}
+			}
+		};
+		Thread[] readers = new Thread[numReaders];
+		for (int r = 0; r < numReaders; r++)
+		{
+			final int reader = r;
+			readers[r] = new Thread()
+			{
+				public void run()
+				{
+					boolean ok = true;
+					int lastSeen = 0;
+					while (lastSeen < totalFrames && ok)
+					{
+						int published = list.getNumSamples();
+						if (published < lastSeen)
+						{
+							ok = false;
+						}
+						Iterator<float[]> it = list.iterator();
+						int frame = 0;
+						while (it.hasNext())
+						{
+							float[] samples = it.next();
+							if (samples[0] != frame || samples[1] != -frame)
+							{
+								ok = false;
+							}
+							frame++;
+						}
+						if (frame < published)
+						{
+							ok = false;
+						}
+						lastSeen = frame;
+					}
+					readerSuccess[reader] = ok;
+				}
+			};
+		}
+		try
+		{
+			for (Thread reader : readers)
+			{
+				reader.start();
+			}
+			writer.start();
+			writer.join();
+			for (Thread reader : readers)
+			{
+				reader.join();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			System.out.println("Failed: " + e.toString());
+			return false;
+		}
+
+		boolean success = list.getNumSamples() == totalFrames;
+		if (!success)
+		{
+			System.out.println("Error:  NumSamples don't match");
+		}
+		for (int r = 0; r < numReaders; r++)
+		{
+			if (!readerSuccess[r])
+			{
+				System.out.println("Error:  Reader " + r + " saw an inconsistent prefix");
+				success = false;
+			}
+		}
+
+		// doubling the directory from 1024 to 2048 chunks allocates one chunk, not 1024
+		ConcurrentMusicList growing = new ConcurrentMusicList(10000, numChannels, 64);
+		float[] frame = new float[numChannels];
+		for (int i = 0; i < 1024 * 64; i++)
+		{
+			growing.addSample(frame);
+		}
+		java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean)
+		{
+			com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+			long before = allocation.getThreadAllocatedBytes(Thread.currentThread().getId());
+			growing.addSample(new float[] { 0.5f, -0.5f });
+			long allocated = allocation.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+			if (allocated > 64 * 1024)
+			{
+				System.out.println("Error:  Growing the chunk directory allocated " + allocated + " bytes");
+				success = false;
+			}
+		}
+		else
+		{
+			growing.addSample(new float[] { 0.5f, -0.5f });
+		}
+		float[] last = new float[1];
+		growing.read(1, 1024 * 64, last, 0, 1);
+		if (growing.getNumSamples() != 1024 * 64 + 1 || last[0] != -0.5f)
+		{
+			System.out.println("Error:  Frame after growing the directory read back as " + last[0]);
+			success = false;
+		}
+		return success;
+	}
+
+	public static boolean testLoudness()
+	{
+		boolean success = true;
+		try
+		{
+			// a 1 kHz sine at -20 dBFS in both channels of a stereo signal reads -20 LUFS
+			float amplitude = 0.1f;
+			MusicLinkedList sine = SoundUtil.createSineWave(5, 1000, 48000, 2, new boolean[] {true, true});
+			MusicLinkedList quiet = new MusicLinkedList(48000, 2);
+			Iterator<float[]> it = sine.iterator();
+			while (it.hasNext())
+			{
+				float[] next = it.next();
+				quiet.addSample(new float[] {next[0] * amplitude, next[1] * amplitude});
+			}
+			double loudness = LoudnessMeter.measureIntegrated(quiet);
+			if (Math.abs(loudness + 20) > 0.1)
+			{
+				System.out.println("Error:  Loudness was " + loudness + " LUFS");
+				success = false;
+			}
+
+			MusicLinkedList loud = LoudnessMeter.normalize(quiet, -3, -1);
+			if (loud.getNumSamples() != quiet.getNumSamples())
+			{
+				System.out.println("Error:  NumSamples don't match");
+				success = false;
+			}
+			if (TruePeakLimiter.measureTruePeak(loud) > -0.99)
+			{
+				System.out.println("Error:  True peak above ceiling");
+				success = false;
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Failed: " + e.toString());
+			return false;
+		}
+		return success;
+	}
+
+	public static boolean testMetrics()
+	{
+		boolean success = true;
+		try
+		{
+			MusicLinkedList sine = SoundUtil.createSineWave(1, 440, 8000, 2, new boolean[] {true, true});
+			AudioMetrics.reset();
+			sine.reverse();
+			if (AudioMetrics.get("reverse.calls") != 0)
+			{
+				System.out.println("Error:  Counted while disabled");
+				success = false;
+			}
+
+			AudioMetrics.setEnabled(true);
+			try
+			{
+				sine.reverse();
+				sine.combine(sine.clone(), true);
+			}
+			finally
+			{
+				AudioMetrics.setEnabled(false);
+			}
+			if (AudioMetrics.get("reverse.calls") != 1 || AudioMetrics.get("combine.calls") != 1)
+			{
+				System.out.println("Error:  Calls not counted");
+				success = false;
+			}
+			if (AudioMetrics.get("combine.frames") != sine.getNumSamples())
+			{
+				System.out.println("Error:  Frames counted were " + AudioMetrics.get("combine.frames"));
+				success = false;
+			}
+			if (!AudioMetrics.toPrometheusText().contains("audio_clone_calls 1"))
+			{
+				System.out.println("Error:  Counter missing from scrape text");
+				success = false;
+			}
+
+			// a recording that enables the event gets it with the counters off, and only while it runs
+			AudioMetrics.reset();
+			File dump = File.createTempFile("metrics", ".jfr");
+			try
+			{
+				jdk.jfr.Recording recording = new jdk.jfr.Recording();
+				recording.enable("audio.Operation").withoutThreshold();
+				recording.start();
+				sine.reverse();
+				recording.stop();
+				sine.reverse();
+				recording.dump(dump.toPath());
+				recording.close();
+				int reverses = 0;
+				for (jdk.jfr.consumer.RecordedEvent event : jdk.jfr.consumer.RecordingFile.readAllEvents(dump.toPath()))
+				{
+					if (event.getEventType().getName().equals("audio.Operation") && event.getString("operation").equals("reverse"))
+					{
+						reverses++;
+					}
+				}
+				if (reverses != 1 || AudioMetrics.get("reverse.calls") != 0)
+				{
+					System.out.println("Error:  Recorded " + reverses + " reverse events and counted " + AudioMetrics.get("reverse.calls"));
+					success = false;
+				}
+			}
+			finally
+			{
+				dump.delete();
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Failed: " + e.toString());
+			return false;
+		}
+		return success;
+	}
+
+	public static boolean testSpectrum()
+	{
+		boolean success = true;
+		try
+		{
+			// every frame of a 1 kHz sine at 8 kHz peaks in bin 1000 / 8000 * 1024 = 128
+			MusicLinkedList sine = SoundUtil.createSineWave(3, 1000, 8000, 2, new boolean[] {true, true});
+			STFT stft = new STFT(1024, 256);
+			float[][] spectrogram = stft.spectrogram(sine);
+			if (spectrogram.length != stft.getFrameCount(sine.getNumSamples()))
+			{
+				System.out.println("Error:  Spectrogram has " + spectrogram.length + " frames");
+				success = false;
+			}
+			for (int f = 0; f < spectrogram.length; f++)
+			{
+				int loudest = 0;
+				for (int bin = 0; bin < spectrogram[f].length; bin++)
+				{
+					if (spectrogram[f][bin] > spectrogram[f][loudest])
+					{
+						loudest = bin;
+					}
+				}
+				if (loudest != 128)
+				{
+					System.out.println("Error:  Frame " + f + " peaks in bin " + loudest);
+					success = false;
+					break;
+				}
+			}
+
+			float[] edges = STFT.logBandEdges(50, 3200, 6);
+			float[][] energies = stft.bandEnergies(sine, edges);
+			for (int b = 0; b < energies[4].length; b++)
+			{
+				boolean holdsSine = edges[b] <= 1000 && 1000 < edges[b + 1];
+				if (holdsSine != (energies[4][b] > 1))
+				{
+					System.out.println("Error:  Band " + b + " has energy " + energies[4][b]);
+					success = false;
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Failed: " + e.toString());
+			return false;
+		}
+		return success;
+	}
+
+	/**
+	 * A track of 0.2 second notes, two tones each, with pitches that depend on the seed
+	 */
+	public static MusicLinkedList createMelody(int seed, float time, float sampleRate)
+	{
+		MusicLinkedList melody = new MusicLinkedList(sampleRate, 1);
+		int noteSamples = (int) (sampleRate * 0.2f);
+		for (int i = 0; i < time * sampleRate; i++)
+		{
+			int note = i / noteSamples;
+			double low = 200 + (seed * 7919 + note * 104729) % 1400;
+			double high = 1600 + (seed * 104729 + note * 7919) % 1400;
+			double t = i / (double) sampleRate;
+			melody.addSample((float) (0.4 * Math.sin(2 * Math.PI * low * t) + 0.3 * Math.sin(2 * Math.PI * high * t)));
+		}
+		return melody;
+	}
+
+	public static boolean testFingerprint()
+	{
+		boolean success = true;
+		try
+		{
+			FingerprintIndex index = new FingerprintIndex();
+			MusicLinkedList[] tracks = new MusicLinkedList[3];
+			for (int i = 0; i < tracks.length; i++)
+			{
+				tracks[i] = createMelody(i, 20, 8000);
+				index.add("track" + i, tracks[i]);
+			}
+
+			// a 4 second excerpt of track 1 starting at 9 seconds
+			MusicLinkedList excerpt = new MusicLinkedList(8000, 1);
+			Iterator<float[]> it = tracks[1].iterator();
+			for (int i = 0; i < 13 * 8000; i++)
+			{
+				float[] next = it.next();
+				if (i >= 9 * 8000)
+				{
+					excerpt.addSample(next);
+				}
+			}
+			FingerprintIndex.Match match = index.query(excerpt);
+			if (match == null || !match.getName().equals("track1") || Math.abs(match.getStartTime() - 9) > 0.05)
+			{
+				System.out.println("Error:  Excerpt matched " + match);
+				success = false;
+			}
+
+			File file = File.createTempFile("fingerprints", ".idx");
+			try
+			{
+				index.save(file.getPath());
+				FingerprintIndex loaded = FingerprintIndex.load(file.getPath());
+				FingerprintIndex.Match reloaded = loaded.query(excerpt);
+				if (loaded.getNumLandmarks() != index.getNumLandmarks() || reloaded == null
+						|| reloaded.getScore() != match.getScore() || reloaded.getStartTime() != match.getStartTime())
+				{
+					System.out.println("Error:  Loaded index matched " + reloaded);
+					success = false;
+				}
+			}
+			finally
+			{
+				file.delete();
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Failed: " + e.toString());
+			return false;
+		}
+		return success;
+	}
+
+	public static boolean testSegmentDetection()
+	{
+		boolean success = true;
+		try
+		{
+			// 0.5 s silence, 1 s tone, 0.6 s silence, 0.7 s tone, 0.3 s silence
+			float sampleRate = 44100;
+			float[][] parts = {{0, 0.5f}, {440, 1}, {0, 0.6f}, {660, 0.7f}, {0, 0.3f}};
+			MusicLinkedList list = new MusicLinkedList(sampleRate, 2);
+			for (float[] part : parts)
+			{
+				for (int i = 0; i < (int) (part[1] * sampleRate); i++)
+				{
+					float value = (float) (0.5 * Math.sin(2 * Math.PI * part[0] * i / sampleRate));
+					list.addSample(new float[] {value, value});
+				}
+			}
+
+			// each tone starts with a zero, so its first audible frame is the one after
+			SegmentDetector detector = SegmentDetector.detect(list, -50, 0.25f);
+			String segments = detector.getSegments().toString();
+			if (!segments.equals("[[22051, 66150), [92611, 123480)]"))
+			{
+				System.out.println("Error:  Segments were " + segments);
+				success = false;
+			}
+			float[] onsets = detector.getOnsetTimes();
+			if (onsets.length != 2 || Math.abs(onsets[0] - 0.5) > 0.015 || Math.abs(onsets[1] - 2.1) > 0.015)
+			{
+				System.out.println("Error:  Onsets were " + Arrays.toString(onsets));
+				success = false;
+			}
+
+			List<MusicLinkedList> pieces = SegmentDetector.autoSplit(list, -50, 0.25f);
+			if (pieces.size() != 2 || pieces.get(0).getNumSamples() != 44099 || pieces.get(1).getNumSamples() != 30869)
+			{
+				System.out.println("Error:  Split into " + pieces.size() + " pieces");
+				success = false;
+			}
+			if (SegmentDetector.autoTrim(list, -50).getNumSamples() != 123480 - 22051)
+			{
+				System.out.println("Error:  Trimmed length was wrong");
+				success = false;
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Failed: " + e.toString());
+			return false;
+		}
+		return success;
+	}
+
+	public static boolean testCrossfadeSplice()
+	{
+		boolean success = true;
+		try
+		{
+			MusicLinkedList list = new MusicLinkedList(1000, 1);
+			MusicLinkedList clip = new MusicLinkedList(1000, 1);
+			for (int i = 0; i < 1000; i++)
+			{
+				list.addSample(0.5f);
+			}
+			for (int i = 0; i < 500; i++)
+			{
+				clip.addSample(-0.5f);
+			}
+
+			// the clip is linked in after frame 250, so it ends up empty; 50 frame crossfades overlap both joins
+			list.spliceIn(0.25f, clip, 0.05f);
+			if (list.getNumSamples() != 1400 || clip.getNumSamples() != 0)
+			{
+				System.out.println("Error:  Lengths were " + list.getNumSamples() + " and " + clip.getNumSamples());
+				success = false;
+			}
+			Iterator<Float> it = list.iterator(0);
+			for (int i = 0; i < list.getNumSamples(); i++)
+			{
+				float value = it.next();
+				float expected;
+				if (i < 201 || i >= 701)
+				{
+					expected = 0.5f;
+				}
+				else if (i >= 251 && i < 651)
+				{
+					expected = -0.5f;
+				}
+				else
+				{
+					// equal power: the fading gains are the cosine and sine of the same angle
+					int position = i < 251 ? i - 201 : 700 - i;
+					double angle = Math.PI / 2 * (position + 0.5) / 50;
+					expected = (float) (0.5 * Math.cos(angle) - 0.5 * Math.sin(angle));
+				}
+				if (Math.abs(value - expected) > 1e-6)
+				{
+					System.out.println("Error:  Frame " + i + " was " + value + ", expected " + expected);
+					success = false;
+					break;
+				}
+			}
+
+			// a clip at another rate is read through a resampler and left alone
+			MusicLinkedList slow = SoundUtil.createSineWave(0.5f, 10, 500);
+			int slowSamples = slow.getNumSamples();
+			list.spliceIn(0.1f, slow, 0.01f);
+			if (slow.getNumSamples() != slowSamples || slow.getSampleRate() != 500)
+			{
+				System.out.println("Error:  Clip at another rate was modified");
+				success = false;
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Failed: " + e.toString());
+			return false;
+		}
+		return success;
+	}
+
+	public static boolean testFilters()
+	{
+		boolean success = true;
+		try
+		{
+			// a +6 dB peaking band at 1 kHz doubles a 1 kHz sine and leaves 100 Hz nearly alone
+			BiquadCascade eq = new BiquadCascade(1, Biquad.peaking(44100, 1000, 1, 6));
+			double[] frequencies = {100, 1000};
+			for (double frequency : frequencies)
+			{
+				MusicLinkedList sine = SoundUtil.createSineWave(1, (float) frequency, 44100);
+				double gain = rms(eq.filter(sine)) / rms(sine);
+				if (Math.abs(gain - eq.getGain(frequency, 44100)) > 0.01)
+				{
+					System.out.println("Error:  Gain at " + frequency + " Hz was " + gain);
+					success = false;
+				}
+			}
+
+			// 6 kHz cannot be held at 8 kHz; unfiltered it aliases to 2 kHz, filtered it is removed
+			MusicLinkedList aliased = SoundUtil.createSineWave(1, 6000, 44100);
+			MusicLinkedList filtered = SoundUtil.createSineWave(1, 6000, 44100);
+			aliased.changeSampleRate(8000);
+			filtered.changeSampleRate(8000, true);
+			if (rms(aliased) < 0.5 || rms(filtered) > 0.01 || filtered.getNumSamples() != aliased.getNumSamples())
+			{
+				System.out.println("Error:  Anti-alias filter left " + rms(filtered));
+				success = false;
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Failed: " + e.toString());
+			return false;
+		}
+		return success;
+	}
+
+	public static boolean testFrameAddressing()
+	{
+		boolean success = true;
+		try
+		{
+			// clip now updates the length, and clipFrames keeps an exact range of frames
+			MusicLinkedList list = new MusicLinkedList(1000, 2);
+			for (int i = 0; i < 1000; i++)
+			{
+				list.addSample(new float[] {i, -i});
+			}
+			list.clip(0.1f, 0.5f);
+			list.clipFrames(100, 300);
+			if (list.getFrameCount() != 300 || list.getNumSamples() != 300 || list.iterator().next()[0] != 200)
+			{
+				System.out.println("Error:  Clipped list has " + list.getFrameCount() + " frames");
+				success = false;
+			}
+
+			// splice at the start and at the end
+			MusicLinkedList first = new MusicLinkedList(1000, 2);
+			first.addSample(new float[] {-1, 1});
+			MusicLinkedList last = new MusicLinkedList(1000, 2);
+			last.addSample(new float[] {1000, -1000});
+			list.spliceInAtFrame(0, first);
+			list.spliceInAtFrame(list.getFrameCount(), last);
+			float[] expected = new float[302];
+			expected[0] = -1;
+			for (int i = 1; i <= 300; i++)
+			{
+				expected[i] = 199 + i;
+			}
+			expected[301] = 1000;
+			Iterator<float[]> it = list.iterator();
+			for (int i = 0; i < expected.length; i++)
+			{
+				float[] frame = it.next();
+				if (frame[0] != expected[i] || frame[1] != -expected[i])
+				{
+					System.out.println("Error:  Frame " + i + " was " + frame[0]);
+					success = false;
+					break;
+				}
+			}
+			if (it.hasNext() || list.getFrameCount() != 302)
+			{
+				System.out.println("Error:  Spliced list has " + list.getFrameCount() + " frames");
+				success = false;
+			}
+
+			// a snapshot clips by moving its window, across block boundaries
+			File file = File.createTempFile("frames", ".mlsn");
+			file.deleteOnExit();
+			SnapshotMusicList.write(list, file.getPath(), 64);
+			SnapshotMusicList snapshot = SnapshotMusicList.load(file.getPath());
+			snapshot.clipFrames(60, 200);
+			snapshot.clipFrames(10, 100);
+			float[] run = new float[100];
+			snapshot.read(1, 0, run, 0, 100);
+			it = snapshot.iterator();
+			for (int i = 0; i < 100; i++)
+			{
+				float[] frame = it.next();
+				if (frame[0] != expected[70 + i] || run[i] != -expected[70 + i])
+				{
+					System.out.println("Error:  Snapshot frame " + i + " was " + frame[0]);
+					success = false;
+					break;
+				}
+			}
+			if (it.hasNext() || snapshot.getFrameCount() != 100 || snapshot.isCopied())
+			{
+				System.out.println("Error:  Snapshot window has " + snapshot.getFrameCount() + " frames");
+				success = false;
+			}
+
+			if (!FrameTime.format(50L * 3600 * 96000 + 96000 + 2205, 96000).equals("50:00:01+2205"))
+			{
+				System.out.println("Error:  Formatted as " + FrameTime.format(50L * 3600 * 96000 + 96000 + 2205, 96000));
+				success = false;
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Failed: " + e.toString());
+			return false;
+		}
+		return success;
+	}
+
+	public static boolean testUnrolledList()
+	{
+		boolean success = true;
+		try
+		{
+			// the same edits on a linked list and on an unrolled list with small blocks give the same frames
+			MusicLinkedList linked = new MusicLinkedList(1000, 2);
+			UnrolledMusicList unrolled = new UnrolledMusicList(1000, 2, 7);
+			for (int i = 0; i < 100; i++)
+			{
+				linked.addSample(new float[] {i, -i});
+				unrolled.addSample(new float[] {i, -i});
+			}
+			linked.reverse();
+			unrolled.reverse();
+			linked.clip(0.013f, 0.05f);
+			unrolled.clip(0.013f, 0.05f);
+			MusicLinkedList linkedClip = SoundUtil.createSineWave(0.02f, 100, 1000);
+			linkedClip.makeMono(true);
+			MusicLinkedList linkedClip2 = new MusicLinkedList(1000, 2);
+			Iterator<float[]> frames = linkedClip.iterator();
+			while (frames.hasNext())
+			{
+				float value = frames.next()[0];
+				linkedClip2.addSample(new float[] {value, value});
+			}
+			UnrolledMusicList unrolledClip = UnrolledMusicList.copyOf(linkedClip2, 7);
+			linked.spliceIn(0.02f, linkedClip2);
+			unrolled.spliceIn(0.02f, unrolledClip);
+			success &= sameFrames(linked, unrolled, "after spliceIn");
+
+			// a clip at another rate is resampled on the way in, and neither clip is changed
+			MusicLinkedList fastClip = new MusicLinkedList(2000, 2);
+			for (int i = 0; i < 60; i++)
+			{
+				fastClip.addSample(new float[] {i / 60f, -i / 60f});
+			}
+			linked.spliceIn(0.01f, fastClip.clone());
+			unrolled.spliceIn(0.01f, fastClip);
+			success &= sameFrames(linked, unrolled, "after splicing in a clip at another rate");
+			if (fastClip.getSampleRate() != 2000 || fastClip.getNumSamples() != 60 || unrolledClip.getNumSamples() != linkedClip2.getNumSamples())
+			{
+				System.out.println("Error:  spliceIn changed the clip it was given");
+				success = false;
+			}
+
+			// an unrolled clip is linked in whole, and the short blocks around it are merged
+			UnrolledMusicList taken = UnrolledMusicList.copyOf(linkedClip2, 7);
+			linked.spliceInAtFrame(5, linkedClip2);
+			unrolled.spliceInAtFrame(5, taken);
+			if (taken.getFrameCount() != 0)
+			{
+				System.out.println("Error:  Clip was not taken over");
+				success = false;
+			}
+			linked.spliceInAtFrame(linked.getFrameCount(), UnrolledMusicList.copyOf(unrolledClip, 3));
+			unrolled.spliceInAtFrame(unrolled.getFrameCount(), UnrolledMusicList.copyOf(unrolledClip, 3));
+			success &= sameFrames(linked, unrolled, "after spliceInAtFrame");
+			if (unrolled.getNumBlocks() > (unrolled.getNumSamples() + 6) / 7 + 4)
+			{
+				System.out.println("Error:  " + unrolled.getNumSamples() + " frames are in " + unrolled.getNumBlocks() + " blocks");
+				success = false;
+			}
+
+			// the other edits go through a linked copy
+			linked.addEcho(0.01f, 0.5f);
+			unrolled.addEcho(0.01f, 0.5f);
+			success &= sameFrames(linked, unrolled.clone(), "after addEcho");
+		}
+		catch (Exception e)
+		{
+			System.out.println("Failed: " + e.toString());
+			return false;
+		}
+		return success;
+	}
+
+	public static boolean testBufferPool()
+	{
+		boolean success = true;
+		try
+		{
+			AudioBufferPool.reset();
+			float[] first = AudioBufferPool.acquire(1000);
+			AudioBufferPool.release(first);
+			float[] second = AudioBufferPool.acquire(1000);
+			AudioBufferPool.release(second);
+			if (first.length != 1024 || second != first)
+			{
+				System.out.println("Error:  Released array was not reused");
+				success = false;
+			}
+
+			// after the first render, the block buffers of later renders come from the pool
+			MusicLinkedList melody = createMelody(1, 1, 8000);
+			BiquadCascade filter = new BiquadCascade(1, Biquad.lowPass(8000, 1000, 0.7071));
+			for (int i = 0; i < 10; i++)
+			{
+				filter.filter(melody);
+				filter.filterZeroPhase(melody);
+			}
+			if (AudioBufferPool.getHitRate() < 0.8)
+			{
+				System.out.println("Error:  Hit rate was " + AudioBufferPool.getHitRate() + " " + AudioBufferPool.snapshot());
+				success = false;
+			}
+
+			// arrays handed to another thread come back through the shared tier
+			final float[][] handedOver = AudioBufferPool.acquirePlanar(2, 1 << 18);
+			Thread worker = new Thread()
+			{
+				public void run()
+				{
+					AudioBufferPool.release(handedOver);
+				}
+			};
+			worker.start();
+			worker.join();
+			float[] reused = AudioBufferPool.acquire(1 << 18);
+			if (reused != handedOver[0] && reused != handedOver[1])
+			{
+				System.out.println("Error:  Shared tier did not return a released array");
+				success = false;
+			}
+			AudioBufferPool.release(reused);
+
+			FloatBuffer direct = AudioBufferPool.acquireDirect(100);
+			if (!direct.isDirect() || direct.limit() != 100 || direct.order() != ByteOrder.nativeOrder())
+			{
+				System.out.println("Error:  Direct buffer was " + direct);
+				success = false;
+			}
+			AudioBufferPool.release(direct);
+
+			// debug mode tracks outstanding buffers and catches double releases
+			AudioBufferPool.setDebug(true);
+			try
+			{
+				float[] tracked = AudioBufferPool.acquire(64);
+				if (AudioBufferPool.getOutstanding() != 1)
+				{
+					System.out.println("Error:  " + AudioBufferPool.getOutstanding() + " buffers outstanding");
+					success = false;
+				}
+				AudioBufferPool.release(tracked);
+				boolean caught = false;
+				try
+				{
+					AudioBufferPool.release(tracked);
+				}
+				catch (IllegalStateException e)
+				{
+					caught = true;
+				}
+				if (!caught || AudioBufferPool.getOutstanding() != 0)
+				{
+					System.out.println("Error:  Double release was not detected");
+					success = false;
+				}
+			}
+			finally
+			{
+				AudioBufferPool.setDebug(false);
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Failed: " + e.toString());
+			return false;
+		}
+		return success;
+	}
+
+	public static boolean testTimeline()
+	{
+		boolean success = true;
+		try
+		{
+			MusicLinkedList a = new MusicLinkedList(1000, 1);
+			MusicLinkedList b = new MusicLinkedList(1000, 1);
+			for (int i = 0; i < 100; i++)
+			{
+				a.addSample(i);
+			}
+			for (int i = 0; i < 50; i++)
+			{
+				b.addSample(1000 + i);
+			}
+
+			// the same edits done on a plain array
+			float[] expected = new float[145];
+			for (int i = 0; i < 145; i++)
+			{
+				int position = i + 5;
+				expected[i] = position < 10 ? position : position < 60 ? 1000 + position - 10 : position - 50;
+				if (i < 10)
+				{
+					expected[i] *= 2;
+				}
+			}
+			float[] reversed = new float[145];
+			for (int i = 0; i < 145; i++)
+			{
+				reversed[i] = expected[144 - i];
+			}
+
+			Timeline timeline = new Timeline(a);
+			timeline.spliceInAtFrame(10, b);
+			timeline.delete(0, 5);
+			timeline.applyGain(0, 10, 2);
+			timeline.reverse();
+			success &= sameSamples(timeline, reversed, "after reverse");
+			if (a.getNumSamples() != 100 || b.getNumSamples() != 50 || timeline.getRegions().size() != 4)
+			{
+				System.out.println("Error:  Sources were modified or regions were not joined: " + timeline.getRegions().size());
+				success = false;
+			}
+
+			timeline.undo();
+			success &= sameSamples(timeline, expected, "after undo");
+			Timeline alternative = (Timeline) timeline.clone();
+			timeline.redo();
+			success &= sameSamples(timeline, reversed, "after redo");
+			success &= sameSamples(alternative, expected, "in the clone");
+
+			// a processing edit renders once and can be undone like the others
+			timeline.addEcho(0.01f, 0.5f);
+			MusicLinkedList echoed = timeline.render();
+			timeline.undo();
+			success &= sameSamples(timeline, reversed, "after undoing the echo");
+			if (echoed.getNumSamples() != 145 || echoed.iterator().next()[0] != reversed[0] || !timeline.canRedo())
+			{
+				System.out.println("Error:  Echo was not recorded as an edit");
+				success = false;
+			}
+			timeline.clipFrames(0, 20);
+			if (timeline.canRedo() || ProcessorChain.render(timeline, new ProcessorChain(), 8).getNumSamples() != 20)
+			{
+				System.out.println("Error:  A new edit did not replace the redo history");
+				success = false;
+			}
+
+			// regions longer than a chunk, read from sources with and without random access
+			int frames = 2 * Timeline.CHUNK_FRAMES + 5000;
+			MusicLinkedList linked = new MusicLinkedList(8000, 2);
+			for (int i = 0; i < frames; i++)
+			{
+				linked.addSample(new float[] { (float) Math.sin(i * 0.01), (float) Math.cos(i * 0.037) });
+			}
+			float[][] source = ChannelBuffers.toPlanar(linked);
+			int reversedLength = frames - 3000;
+			int length = reversedLength + frames - 4000;
+			float[][] edited = new float[2][length];
+			for (int c = 0; c < 2; c++)
+			{
+				for (int i = 0; i < length; i++)
+				{
+					int position = i + 2000;
+					edited[c][i] = position < reversedLength ? source[c][1000 + reversedLength - 1 - position] : source[c][position - reversedLength];
+					if (i < 100)
+					{
+						edited[c][i] *= 0.5f;
+					}
+				}
+			}
+			MusicLinkedList expectedFrames = ChannelBuffers.toList(edited, length, 8000);
+			File file = File.createTempFile("timeline", ".snapshot");
+			try
+			{
+				SnapshotMusicList.write(linked, file.getPath(), 3000);
+				MusicList[] sources = { linked, UnrolledMusicList.copyOf(linked, 4096), SnapshotMusicList.load(file.getPath()) };
+				for (MusicList clip : sources)
+				{
+					Timeline regions = new Timeline(clip);
+					regions.clipFrames(1000, reversedLength);
+					regions.reverse();
+					regions.append(clip);
+					regions.clipFrames(2000, length);
+					regions.applyGain(0, 100, 0.5f);
+					success &= sameFrames(expectedFrames, regions, "rendering regions of a " + clip.getClass().getName());
+				}
+			}
+			finally
+			{
+				file.delete();
+			}
+
+			// a long reversed linked list renders in one pass, not a pass per chunk: 2M frames took seconds
+			MusicLinkedList longSource = new MusicLinkedList(44100, 1);
+			for (int i = 0; i < 2000000; i++)
+			{
+				longSource.addSample((float) Math.sin(i * 0.001));
+			}
+			Timeline backwards = new Timeline(longSource);
+			backwards.reverse();
+			long forwardNanos = Long.MAX_VALUE;
+			long reversedNanos = Long.MAX_VALUE;
+			for (int run = 0; run < 2; run++)
+			{
+				long start = System.nanoTime();
+				Iterator<float[]> walk = longSource.iterator();
+				while (walk.hasNext())
+				{
+					walk.next();
+				}
+				forwardNanos = Math.min(forwardNanos, System.nanoTime() - start);
+				start = System.nanoTime();
+				float last = 0;
+				Iterator<float[]> rendered = backwards.iterator();
+				while (rendered.hasNext())
+				{
+					last = rendered.next()[0];
+				}
+				reversedNanos = Math.min(reversedNanos, System.nanoTime() - start);
+				if (last != 0)
+				{
+					System.out.println("Error:  Reversed render ended on " + last);
+					success = false;
+				}
+			}
+			if (reversedNanos > 10 * forwardNanos + 200000000L)
+			{
+				System.out.println("Error:  Reversed render took " + reversedNanos / 1000000 + " ms, iterating the source " + forwardNanos / 1000000 + " ms");
+				success = false;
+			}
+
+			// changing the rate keeps the new rate's frames
+			MusicLinkedList melody = createMelody(3, 1, 8000);
+			Timeline slower = new Timeline(melody);
+			slower.changeSampleRate(4000);
+			melody.changeSampleRate(4000);
+			if (slower.getSampleRate() != 4000 || slower.getNumSamples() != melody.getNumSamples())
+			{
+				System.out.println("Error:  Resampled timeline has " + slower.getNumSamples() + " frames at " + slower.getSampleRate());
+				success = false;
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Failed: " + e.toString());
+			return false;
+		}
+		return success;
+	}
+
+	public static boolean testRenderScheduler()
+	{
+		boolean success = true;
+		try
+		{
+			RenderScheduler.Estimate linked = RenderScheduler.estimate(RenderScheduler.Storage.LINKED, 2, 44100, 2);
+			RenderScheduler.Estimate planar = RenderScheduler.estimate(RenderScheduler.Storage.PLANAR, 2, 44100, 2);
+			RenderScheduler.Estimate mapped = RenderScheduler.estimate(RenderScheduler.Storage.MAPPED, 2, 44100, 1);
+			if (linked.getHeapBytes() != 8 * planar.getHeapBytes() || mapped.getHeapBytes() != 0 || mapped.getOffHeapBytes() != 352800)
+			{
+				System.out.println("Error:  Estimates were " + linked.getHeapBytes() + ", " + planar.getHeapBytes() + ", " + mapped.getOffHeapBytes());
+				success = false;
+			}
+
+			// two of these jobs never fit in the budget together, so they run one at a time
+			final RenderScheduler.Estimate estimate = RenderScheduler.estimate(RenderScheduler.Storage.LINKED, 1, 20000, 2);
+			RenderScheduler scheduler = new RenderScheduler(estimate.getHeapBytes() * 3 / 2, 0);
+			final AtomicInteger running = new AtomicInteger();
+			final AtomicInteger mostRunning = new AtomicInteger();
+			List<CompletableFuture<Integer>> results = new ArrayList<CompletableFuture<Integer>>();
+			for (int i = 0; i < 4; i++)
+			{
+				final int seed = i;
+				results.add(scheduler.submit("melody " + i, estimate, () ->
+				{
+					mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+					MusicLinkedList melody = createMelody(seed, 2.5f, 8000);
+					melody.reverse();
+					running.decrementAndGet();
+					return melody.getNumSamples();
+				}));
+			}
+			CompletableFuture<Integer> failing = scheduler.submit("failing", estimate, () ->
+			{
+				throw new IOException("missing.wav");
+			});
+			for (CompletableFuture<Integer> result : results)
+			{
+				if (result.get() != 20000)
+				{
+					System.out.println("Error:  Job returned " + result.get());
+					success = false;
+				}
+			}
+			if (!failing.handle((value, error) -> error != null).get())
+			{
+				System.out.println("Error:  Failed job completed normally");
+				success = false;
+			}
+			scheduler.close();
+			Map<String, Double> stats = scheduler.snapshot();
+			if (mostRunning.get() != 1 || stats.get("render.completed") != 4 || stats.get("render.failed") != 1
+					|| stats.get("render.heapInUse") != 0 || stats.get("render.queueNanosMax") <= 0 || stats.get("render.framesPerSecond") <= 0)
+			{
+				System.out.println("Error:  " + mostRunning.get() + " jobs ran at once; " + stats);
+				success = false;
+			}
+
+			// an interrupt does not cut close short, and is kept for the caller
+			RenderScheduler interrupted = new RenderScheduler(estimate.getHeapBytes() * 3 / 2, 0);
+			CompletableFuture<Integer> slow = interrupted.submit("slow", estimate, () ->
+			{
+				Thread.sleep(200);
+				return 1;
+			});
+			Thread.currentThread().interrupt();
+			interrupted.close();
+			if (!Thread.interrupted() || !slow.isDone() || slow.isCompletedExceptionally())
+			{
+				System.out.println("Error:  Interrupted close did not wait for the running job");
+				success = false;
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Failed: " + e.toString());
+			return false;
+		}
+		return success;
+	}
+
+	public static boolean testRenderWorkers()
+	{
+		boolean success = true;
+		File spool = null;
+		RenderCoordinator coordinator = null;
+		try
+		{
+			spool = Files.createTempDirectory("render-spool").toFile();
+			coordinator = new RenderCoordinator(spool);
+			List<MusicLinkedList> clips = new ArrayList<MusicLinkedList>();
+			for (int i = 0; i < 3; i++)
+			{
+				clips.add(createMelody(i, 0.5f, 8000));
+			}
+			String operations = "addEcho 0.01 0.5; reverse";
+
+			// a worker that takes the first piece and dies without answering
+			Socket doomed = new Socket("127.0.0.1", coordinator.getPort());
+			List<CompletableFuture<MusicList>> results = coordinator.submitBatch(clips, operations);
+			DataInputStream taken = new DataInputStream(doomed.getInputStream());
+			int lostPiece = taken.readInt();
+			doomed.close();
+			coordinator.startLocalWorkers(2);
+
+			for (int i = 0; i < clips.size(); i++)
+			{
+				MusicList expected = clips.get(i).clone();
+				RenderWorker.apply(expected, operations);
+				float[] samples = new float[expected.getNumSamples()];
+				Iterator<Float> it = expected.iterator(0);
+				for (int j = 0; j < samples.length; j++)
+				{
+					samples[j] = it.next();
+				}
+				success &= sameSamples(results.get(i).get(60, TimeUnit.SECONDS), samples, "from worker " + i);
+			}
+			if (lostPiece != 0 || coordinator.getRetries() < 1)
+			{
+				System.out.println("Error:  Lost piece " + lostPiece + " was retried " + coordinator.getRetries() + " times");
+				success = false;
+			}
+
+			// one long clip in segments; 25 delays of pre-roll leave the echo 0.5^25 short at each boundary
+			MusicLinkedList longClip = createMelody(7, 2.5f, 8000);
+			String causal = "makeMono true; addEcho 0.01 0.5";
+			MusicList segmented = coordinator.submitSegmented(longClip, causal, 3000, 2000).get(60, TimeUnit.SECONDS);
+			RenderWorker.apply(longClip, causal);
+			if (segmented.getNumSamples() != longClip.getNumSamples())
+			{
+				System.out.println("Error:  Segmented render has " + segmented.getNumSamples() + " frames, expected " + longClip.getNumSamples());
+				success = false;
+			}
+			Iterator<Float> whole = longClip.iterator(0);
+			Iterator<Float> joined = segmented.iterator(0);
+			for (int i = 0; success && whole.hasNext(); i++)
+			{
+				float a = whole.next();
+				float b = joined.next();
+				if (Math.abs(a - b) > 1e-5f)
+				{
+					System.out.println("Error:  Segmented frame " + i + " was " + b + ", expected " + a);
+					success = false;
+				}
+			}
+			try
+			{
+				coordinator.submitSegmented(longClip, "reverse", 3000, 0);
+				System.out.println("Error:  Segmented a reverse");
+				success = false;
+			}
+			catch (IllegalArgumentException e)
+			{
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Failed: " + e.toString());
+			success = false;
+		}
+		finally
+		{
+			if (coordinator != null)
+			{
+				coordinator.close();
+			}
+			if (spool != null)
+			{
+				String[] left = spool.list();
+				if (left == null || left.length != 0)
+				{
+					System.out.println("Error:  Spool files left behind: " + Arrays.toString(left));
+					success = false;
+				}
+				spool.delete();
+			}
+		}
+		return success;
+	}
+
+	public static boolean testAudioCapture()
+	{
+		boolean success = true;
+		try
+		{
+			MusicLinkedList source = SoundUtil.createSineWave(1.0f, 440, 8000, 2, new boolean[] {true, false});
+			float[] expected = new float[source.getNumSamples()];
+			Iterator<Float> it = source.iterator(0);
+			for (int i = 0; i < expected.length; i++)
+			{
+				expected[i] = it.next();
+			}
+
+			// a ring big enough for the whole recording: every frame arrives, within 16 bit quantization
+			SyntheticLine line = new SyntheticLine(source, false);
+			AudioCapture capture = new AudioCapture(line, line.getFormat(), 256, 64);
+			ConcurrentMusicList recorded = new ConcurrentMusicList(8000, 2);
+			capture.start(recorded, new ProcessorChain());
+			success &= capture.join(10000);
+			capture.close();
+			if (recorded.getNumSamples() != expected.length || capture.getFramesDropped() != 0)
+			{
+				System.out.println("Error:  Recorded " + recorded.getNumSamples() + " frames, dropped " + capture.getFramesDropped());
+				success = false;
+			}
+			Iterator<Float> left = recorded.iterator(0);
+			for (int i = 0; success && i < expected.length; i++)
+			{
+				float value = left.next();
+				if (Math.abs(value - expected[i]) > 1.0f / 0x7FFF)
+				{
+					System.out.println("Error:  Recorded frame " + i + " was " + value + ", expected " + expected[i]);
+					success = false;
+				}
+			}
+
+			// a two block ring behind a slow processor: blocks are dropped, and counted
+			line = new SyntheticLine(source, false);
+			capture = new AudioCapture(line, line.getFormat(), 256, 2);
+			recorded = new ConcurrentMusicList(8000, 2);
+			capture.start(recorded, new AudioProcessor()
+			{
+				public void process(float[][] block, int frames)
+				{
+					try
+					{
+						Thread.sleep(5);
+					}
+					catch (InterruptedException e)
+					{
+					}
+				}
+
+				public int getLatency()
+				{
+					return 0;
+				}
+
+				public void reset()
+				{
+				}
+			});
+			success &= capture.join(10000);
+			capture.close();
+			Map<String, Double> stats = capture.snapshot();
+			if (capture.getFramesDropped() == 0 || capture.getFramesCaptured() != expected.length
+					|| capture.getFramesDelivered() + capture.getFramesDropped() != expected.length
+					|| recorded.getNumSamples() != capture.getFramesDelivered() || stats.get("capture.latencyNanosMax") <= 0)
+			{
+				System.out.println("Error:  Slow delivery gave " + stats);
+				success = false;
+			}
+
+			// a frame limit that ends part way through a block; the ring comes from the pool and goes back on close
+			AudioBufferPool.setDebug(true);
+			try
+			{
+				line = new SyntheticLine(source, false);
+				capture = new AudioCapture(line, line.getFormat(), 256, 64);
+				recorded = new ConcurrentMusicList(8000, 2);
+				capture.start(recorded, null, 3000);
+				success &= capture.join(10000);
+				capture.close();
+				capture.close();
+				if (recorded.getNumSamples() != 3000 || capture.getFramesCaptured() != 3000)
+				{
+					System.out.println("Error:  Recording 3000 frames gave " + recorded.getNumSamples());
+					success = false;
+				}
+				if (AudioBufferPool.getOutstanding() != 0)
+				{
+					System.out.println("Error:  " + AudioBufferPool.getOutstanding() + " ring buffers were not given back on close");
+					success = false;
+				}
+			}
+			finally
+			{
+				AudioBufferPool.setDebug(false);
+			}
+
+			// real time: a quarter second arrives at its own pace
+			MusicLinkedList shortSource = SoundUtil.createSineWave(0.25f, 440, 8000, 2, new boolean[] {true, true});
+			line = new SyntheticLine(shortSource, true);
+			capture = new AudioCapture(line, line.getFormat(), 200, 8);
+			recorded = new ConcurrentMusicList(8000, 2);
+			long startNanos = System.nanoTime();
+			capture.start(recorded, null);
+			success &= capture.join(10000);
+			capture.close();
+			long elapsedMillis = (System.nanoTime() - startNanos) / 1000000;
+			if (recorded.getNumSamples() != shortSource.getNumSamples() || elapsedMillis < 200 || line.getOverflowFrames() != 0)
+			{
+				System.out.println("Error:  Real time capture took " + elapsedMillis + " ms for " + recorded.getNumSamples() + " frames");
+				success = false;
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Failed: " + e.toString());
+			return false;
+		}
+		return success;
+	}
+
+	public static boolean testDynamics()
+	{
+		boolean success = true;
+		try
+		{
+			// a full scale sine through a 4:1 compressor at -12 dB settles at -9 dB
+			MusicLinkedList sine = SoundUtil.createSineWave(1.0f, 441, 44100);
+			DynamicsProcessor compressor = new DynamicsProcessor(44100, 1, DynamicsProcessor.Mode.COMPRESSOR,
+					DynamicsProcessor.Detector.PEAK, -12, 4, 0.002, 0.2, 0.002);
+			MusicLinkedList compressed = ProcessorChain.render(sine, compressor, 512);
+			double settled = 20 * Math.log10(peak(compressed, 22050, 44100));
+			if (compressed.getNumSamples() != sine.getNumSamples() || Math.abs(settled + 9) > 0.5)
+			{
+				System.out.println("Error:  Compressed sine peaks at " + settled + " dB over " + compressed.getNumSamples() + " frames");
+				success = false;
+			}
+
+			// look-ahead catches a sudden burst: nothing gets far past the curve's output level
+			MusicLinkedList burst = new MusicLinkedList(44100, 1);
+			for (int i = 0; i < 44100; i++)
+			{
+				burst.addSample(i < 22050 ? 0.01f : (float) Math.sin(i * 0.0628));
+			}
+			DynamicsProcessor lookAhead = new DynamicsProcessor(44100, 1, DynamicsProcessor.Mode.COMPRESSOR,
+					DynamicsProcessor.Detector.PEAK, -12, 4, 0.001, 0.2, 0.005);
+			double burstPeak = 20 * Math.log10(peak(ProcessorChain.render(burst, lookAhead, 512), 0, 44100));
+			if (burstPeak > -8)
+			{
+				System.out.println("Error:  Burst came through at " + burstPeak + " dB");
+				success = false;
+			}
+
+			// a gate silences the quiet half and passes the loud half
+			DynamicsProcessor gate = new DynamicsProcessor(44100, 1, DynamicsProcessor.Mode.GATE,
+					DynamicsProcessor.Detector.PEAK, -30, 1, 0.001, 0.01, 0);
+			gate.setRange(60);
+			MusicLinkedList gated = ProcessorChain.render(burst, gate, 512);
+			double quiet = peak(gated, 4410, 22000);
+			double loud = peak(gated, 26460, 44100);
+			if (quiet > 0.01 * 0.0011 || loud < 0.99)
+			{
+				System.out.println("Error:  Gate passed " + quiet + " of the quiet half and " + loud + " of the loud half");
+				success = false;
+			}
+
+			// ducking: a steady tone is turned down only while the sidechain is loud
+			MusicLinkedList tone = SoundUtil.createSineWave(1.0f, 441, 44100);
+			DynamicsProcessor ducker = new DynamicsProcessor(44100, 1, DynamicsProcessor.Mode.COMPRESSOR,
+					DynamicsProcessor.Detector.RMS, -30, 10, 0.005, 0.05, 0);
+			ducker.setSidechain(burst);
+			MusicLinkedList ducked = ProcessorChain.render(tone, ducker, 512);
+			double before = peak(ducked, 11025, 22050);
+			double during = peak(ducked, 33075, 44100);
+			if (before < 0.99 || during > 0.1)
+			{
+				System.out.println("Error:  Ducked tone peaked at " + before + " before the sidechain and " + during + " during it");
+				success = false;
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Failed: " + e.toString());
+			return false;
+		}
+		return success;
+	}
+
+	public static boolean testPitchShift()
+	{
+		boolean success = true;
+		try
+		{
+			MusicLinkedList tone = SoundUtil.createSineWave(1.0f, 440, 44100);
+			double level = rms(tone);
+			float[] semitones = {12, -12, 7};
+			for (float shift : semitones)
+			{
+				MusicLinkedList shifted = (MusicLinkedList) tone.clone();
+				shifted.changePitch(shift);
+				double expected = 440 * Math.pow(2, shift / 12);
+				double measured = crossingRate(shifted, 11025, 33075);
+				double gain = rms(shifted) / level;
+				if (shifted.getNumSamples() != tone.getNumSamples() || Math.abs(measured - expected) > 3 || gain < 0.8 || gain > 1.2)
+				{
+					System.out.println("Error:  Shifting " + shift + " semitones gave " + measured + " Hz (expected " + expected
+							+ ") at " + gain + " times the level over " + shifted.getNumSamples() + " frames");
+					success = false;
+				}
+			}
+
+			// streaming in small blocks gives exactly the same result as the whole-list operation
+			MusicLinkedList whole = (MusicLinkedList) tone.clone();
+			whole.changePitch(5);
+			MusicLinkedList streamed = ProcessorChain.render(tone, new PitchShifter(44100, 1, 5), 256);
+			float[] expected = new float[whole.getNumSamples()];
+			Iterator<Float> it = whole.iterator(0);
+			for (int i = 0; i < expected.length; i++)
+			{
+				expected[i] = it.next();
+			}
+			success &= sameSamples(streamed, expected, "streaming the pitch shift");
+
+			// other list types go through the same operation
+			UnrolledMusicList unrolled = UnrolledMusicList.copyOf(tone, 1024);
+			unrolled.changePitch(5);
+			success &= sameSamples(unrolled, expected, "shifting an unrolled list");
+		}
+		catch (Exception e)
+		{
+			System.out.println("Failed: " + e.toString());
+			return false;
+		}
+		return success;
+	}
+
+	/**
+	 * Compare the first channel of a list with expected samples
+	 */
+	public static boolean sameSamples(MusicList list, float[] expected, String when)
+	{
+		if (list.getNumSamples() != expected.length)
+		{
+			System.out.println("Error:  " + list.getNumSamples() + " frames " + when + ", expected " + expected.length);
+			return false;
+		}
+		Iterator<Float> it = list.iterator(0);
+		for (int i = 0; i < expected.length; i++)
+		{
+			float value = it.next();
+			if (value != expected[i])
+			{
+				System.out.println("Error:  Frame " + i + " " + when + " was " + value + ", expected " + expected[i]);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compare two lists frame by frame, and both single channel iterators of the second
+	 */
+	public static boolean sameFrames(MusicList expected, MusicList actual, String when)
+	{
+		if (expected.getNumSamples() != actual.getNumSamples())
+		{
+			System.out.println("Error:  " + actual.getNumSamples() + " frames " + when + ", expected " + expected.getNumSamples());
+			return false;
+		}
+		Iterator<float[]> a = expected.iterator();
+		Iterator<float[]> b = actual.iterator();
+		Iterator<Float> left = actual.iterator(0);
+		Iterator<Float> right = actual.iterator(1);
+		for (int i = 0; i < expected.getNumSamples(); i++)
+		{
+			float[] frameA = a.next();
+			float[] frameB = b.next();
+			if (!Arrays.equals(frameA, frameB) || left.next() != frameA[0] || right.next() != frameA[1])
+			{
+				System.out.println("Error:  Frame " + i + " " + when + " was " + Arrays.toString(frameB) + ", expected " + Arrays.toString(frameA));
+				return false;
+			}
+		}
+		if (b.hasNext())
+		{
+			System.out.println("Error:  Extra frames " + when);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Largest absolute value of the first channel of a list between two frames
+	 */
+	public static double peak(MusicList list, int start, int end)
+	{
+		double largest = 0;
+		Iterator<Float> it = list.iterator(0);
+		for (int i = 0; i < end && it.hasNext(); i++)
+		{
+			float value = it.next();
+			if (i >= start)
+			{
+				largest = Math.max(largest, Math.abs(value));
+			}
+		}
+		return largest;
+	}
+
+	public static boolean testPerfSuite()
+	{
+		boolean success = true;
+		try
+		{
+			PerfSuite suite = new PerfSuite(10000);
+			int[] durations = {1, 2};
+			int[] channels = {1, 3};
+			List<PerfSuite.Result> results = suite.run(null, durations, channels);
+			if (results.size() != suite.getScenarioNames().size() * durations.length * channels.length)
+			{
+				System.out.println("Error:  Suite ran " + results.size() + " times");
+				success = false;
+			}
+			for (PerfSuite.Result result : results)
+			{
+				if (result.skipped || !result.correct)
+				{
+					System.out.println("Error:  " + result);
+					success = false;
+				}
+			}
+
+			// a run checked against its own baseline passes, and against a much smaller one fails
+			Properties baseline = new Properties();
+			suite.updateBaseline(results, baseline);
+			if (!suite.checkBaseline(results, baseline, PerfSuite.DEFAULT_TOLERANCE).isEmpty())
+			{
+				System.out.println("Error:  Run does not match its own baseline");
+				success = false;
+			}
+			PerfSuite.Result first = results.get(0);
+			first.millis += 1000;
+			first.peakBytes += 1L << 30;
+			if (suite.checkBaseline(results, baseline, PerfSuite.DEFAULT_TOLERANCE).size() != 2)
+			{
+				System.out.println("Error:  Regression against the baseline not reported");
+				success = false;
+			}
+
+			// time growing as the square of the length is reported, linear growth is not
+			List<PerfSuite.Result> timed = new ArrayList<PerfSuite.Result>();
+			for (int seconds = 1; seconds <= 100; seconds *= 10)
+			{
+				PerfSuite.Result linear = new PerfSuite.Result("reverse", 1, seconds);
+				linear.frames = seconds * 10000;
+				linear.millis = 50 * seconds;
+				timed.add(linear);
+				PerfSuite.Result quadratic = new PerfSuite.Result("resample", 1, seconds);
+				quadratic.frames = seconds * 10000;
+				quadratic.millis = 50 * seconds * seconds;
+				timed.add(quadratic);
+			}
+			List<String> problems = suite.checkScaling(timed);
+			if (problems.size() != 2 || !problems.get(0).startsWith("resample") || !problems.get(1).startsWith("resample"))
+			{
+				System.out.println("Error:  Scaling problems " + problems);
+				success = false;
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Failed: " + e.toString());
+			return false;
+		}
+		return success;
+	}
+
+	/**
+	 * Frequency of the first channel of a list between two frames, from its upward zero crossings
+	 */
+	public static double crossingRate(MusicList list, int start, int end)
+	{
+		int crossings = 0;
+		float previous = 0;
+		Iterator<Float> it = list.iterator(0);
+		for (int i = 0; i < end && it.hasNext(); i++)
+		{
+			float value = it.next();
+			if (i > start && previous < 0 && value >= 0)
+			{
+				crossings++;
+			}
+			previous = value;
+		}
+		return crossings * list.getSampleRate() / (end - start);
+	}
+
+	/**
+	 * Root mean square of the first channel of a list
+	 */
+	public static double rms(MusicList list)
+	{
+		double sum = 0;
+		Iterator<Float> it = list.iterator(0);
+		while (it.hasNext())
+		{
+			float value = it.next();
+			sum += value * value;
+		}
+		return Math.sqrt(sum / list.getNumSamples());
+	}
+
+	public static void printResult(boolean success)
+	{
+		if (success)
+		{
+			System.out.println("Success!");
+		}
+		else
+		{
+			System.out.println("Falure!");
+		}
+	}
+
+
+
+	public static void main(String[] args) throws LineUnavailableException, UnsupportedAudioFileException, IOException {
+
+
+		boolean play = false;
+
+		System.out.println("Testing one channel simple sine wave");
+		boolean result = testSingleChanelSineWave(play);
 		printResult(result);
 
 		System.out.println("Testing 2 channel simple sine wave");
@@ -473,6 +2813,14 @@ public class TestMain {
 		result = testMakeMono(10, play);
 		printResult(result);
 
+		System.out.println("Testing make mono with channel reduction (6 channel)");
+		result = testReduceToMono(6);
+		printResult(result);
+
+		System.out.println("Testing channel matrices");
+		result = testChannelMatrix();
+		printResult(result);
+
 		System.out.println("Testing reverse (1 channel)");
 		result = testReverse(1);
 		printResult(result);
@@ -485,6 +2833,10 @@ public class TestMain {
 		result = testRescale(play);
 		printResult(result);
 
+		System.out.println("Testing pending rescale");
+		result = testPendingRescale();
+		printResult(result);
+
 		
 
 		System.out.println("Testing resampling (1  channel)");
@@ -497,6 +2849,98 @@ public class TestMain {
 		result = testResample(10, 20000, 5000, false);
 		printResult(result);
 
+		System.out.println("Testing lossless compression (2 channels)");
+		result = testCompression(2);
+		printResult(result);
+
+		System.out.println("Testing snapshot files");
+		result = testSnapshot();
+		printResult(result);
+
+		System.out.println("Testing clip cache");
+		result = testClipCache();
+		printResult(result);
+
+		System.out.println("Testing parallel channel operations");
+		result = testParallelChannels();
+		printResult(result);
+
+		System.out.println("Testing segmented operations");
+		result = testSegmentScheduler();
+		printResult(result);
+
+		System.out.println("Testing concurrent append (1 writer, 3 readers)");
+		result = testConcurrentAppend(3);
+		printResult(result);
+
+		System.out.println("Testing loudness meter and true peak limiter");
+		result = testLoudness();
+		printResult(result);
+
+		System.out.println("Testing operation metrics");
+		result = testMetrics();
+		printResult(result);
+
+		System.out.println("Testing spectrogram and band energies");
+		result = testSpectrum();
+		printResult(result);
+
+		System.out.println("Testing fingerprint lookup");
+		result = testFingerprint();
+		printResult(result);
+
+		System.out.println("Testing silence and onset detection");
+		result = testSegmentDetection();
+		printResult(result);
+
+		System.out.println("Testing crossfaded splice");
+		result = testCrossfadeSplice();
+		printResult(result);
+
+		System.out.println("Testing filters and anti-aliased resampling");
+		result = testFilters();
+		printResult(result);
+
+		System.out.println("Testing frame addressing");
+		result = testFrameAddressing();
+		printResult(result);
+
+		System.out.println("Testing unrolled list");
+		result = testUnrolledList();
+		printResult(result);
+
+		System.out.println("Testing buffer pool");
+		result = testBufferPool();
+		printResult(result);
+
+		System.out.println("Testing timeline editing");
+		result = testTimeline();
+		printResult(result);
+
+		System.out.println("Testing render scheduler");
+		result = testRenderScheduler();
+		printResult(result);
+
+		System.out.println("Testing render workers");
+		result = testRenderWorkers();
+		printResult(result);
+
+		System.out.println("Testing audio capture");
+		result = testAudioCapture();
+		printResult(result);
+
+		System.out.println("Testing dynamics processor");
+		result = testDynamics();
+		printResult(result);
+
+		System.out.println("Testing pitch shift");
+		result = testPitchShift();
+		printResult(result);
+
+		System.out.println("Testing performance suite");
+		result = testPerfSuite();
+		printResult(result);
+
 
 		MusicLinkedList m = SoundUtil.readWAVFile("test2.wav");
 		MusicLinkedList echo = (MusicLinkedList) m.clone();
@@ -0,0 +1,565 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Non-destructive MusicList: an edit decision list of Regions, each a range of frames of a source clip
+ * with a gain and a direction.  Clipping, splicing, deleting, reversing and gain changes only rebuild
+ * the (short) list of regions; no sample is read or written until the timeline is rendered, which reads
+ * each region straight from its source in one streaming pass (see iterator and render).
+ *
+ * Every edit produces a new immutable version of the region list that shares its Regions and sources
+ * with the previous version, so keeping the history for undo and redo costs a few references per
+ * region.  A SnapshotMusicList source is referenced, not copied, and must not be modified while a
+ * timeline (or any version in its history) refers to it.  Any other source is copied once, when it is
+ * added, into a private SnapshotMusicList held on the heap (resampled on the way if its sample rate
+ * differs from the timeline's), so rendering can start a region at any frame, in either direction,
+ * without walking the source from its first frame.
+ *
+ * The edits that have to compute new samples (addEcho, changeSampleRate, makeMono, combine) render the
+ * timeline through a MusicLinkedList as AbstractMusicList does, and the result becomes the single
+ * source of the new version, so they can be undone too.
+ */
+public class Timeline extends AbstractMusicList {
+	public static final int CHUNK_FRAMES = 16384;
+
+	private final int numChannels;
+	private Version current;
+	private final ArrayDeque<Version> undoStack;
+	private final ArrayDeque<Version> redoStack;
+
+	/**
+	 * Create an empty timeline
+	 * @param sampleRate Sample rate, in samples per second
+	 * @param numChannels Number of channels
+	 */
+	public Timeline(float sampleRate, int numChannels) {
+		this.numChannels = numChannels;
+		this.current = new Version(new Region[0], sampleRate);
+		this.undoStack = new ArrayDeque<Version>();
+		this.redoStack = new ArrayDeque<Version>();
+	}
+
+	/**
+	 * Create a timeline holding the whole of one source clip
+	 * @param source The clip.  It must not be modified while the timeline refers to it.
+	 */
+	public Timeline(MusicList source) {
+		this(source.getSampleRate(), source.getNumChannels());
+		this.current = new Version(regionsOf(source, source.getSampleRate()), source.getSampleRate());
+	}
+
+	/**
+	 * The number of channels in the SoundList
+	 * @return The number f channels in the SoundList
+	 */
+	public int getNumChannels() {
+		return numChannels;
+	}
+
+	/**
+	 * Returns the sample rate, in samples per second
+	 * @return The sample rate, in samples per second
+	 */
+	public float getSampleRate() {
+		return current.sampleRate;
+	}
+
+	/**
+	 * Returns the number of samples in the MusicList
+	 * @return The number of samples in the MusicList.
+	 */
+	public int getNumSamples() {
+		return FrameTime.toIntFrames(current.frameCount);
+	}
+
+	/**
+	 * Returns the number of frames in the MusicList
+	 * @return The number of frames in the MusicList.
+	 */
+	public long getFrameCount() {
+		return current.frameCount;
+	}
+
+	/**
+	 * Returns the regions of the current version, in playing order
+	 * @return an unmodifiable list of regions
+	 */
+	public List<Region> getRegions() {
+		return Collections.unmodifiableList(Arrays.asList(current.regions));
+	}
+
+	/**
+	 * Add the whole of a source clip to the end of the timeline
+	 * @param source The clip.  It must not be modified while the timeline refers to it.
+	 */
+	public void append(MusicList source) {
+		spliceInAtFrame(current.frameCount, source);
+	}
+
+	/**
+	 * Trim the Soundlist, by removing all samples before the startTime, and all samples past the duration.
+	 * Times are rounded to frames as MusicLinkedList.clip rounds them.
+	 * @param startTime Time to start (in seconds)
+	 * @param duration Duration (in seconds)
+	 */
+	public void clip(float startTime, float duration) {
+		long frameCount = current.frameCount;
+		long startFrame = Math.min(PlanarOps.framesBefore(startTime, getSampleRate()), frameCount);
+		clipFrames(startFrame, Math.min(PlanarOps.framesBefore(duration, getSampleRate()) + 1, frameCount - startFrame));
+	}
+
+	/**
+	 * Trim the timeline to a range of frames
+	 * @param startFrame First frame to keep
+	 * @param frameCount Number of frames to keep
+	 * @throws IndexOutOfBoundsException if the range is not inside the timeline
+	 */
+	public void clipFrames(long startFrame, long frameCount) {
+		checkRange(startFrame, frameCount);
+		List<Region> regions = new ArrayList<Region>();
+		addRange(regions, startFrame, startFrame + frameCount);
+		commit(regions, current.sampleRate);
+	}
+
+	/**
+	 * Remove a range of frames, closing the gap
+	 * @param startFrame First frame to remove
+	 * @param frameCount Number of frames to remove
+	 * @throws IndexOutOfBoundsException if the range is not inside the timeline
+	 */
+	public void delete(long startFrame, long frameCount) {
+		checkRange(startFrame, frameCount);
+		List<Region> regions = new ArrayList<Region>();
+		addRange(regions, 0, startFrame);
+		addRange(regions, startFrame + frameCount, current.frameCount);
+		commit(regions, current.sampleRate);
+	}
+
+	/**
+	 * Splice a clip into the timeline after the same frame as MusicLinkedList.spliceIn.  The clip is
+	 * copied unless it is a SnapshotMusicList at the timeline's rate (see the class comment).
+	 * @param startSpliceTime Time to start the splice
+	 * @param clipToSplice The other SoundClip to splice in.
+	 */
+	public void spliceIn(float startSpliceTime, MusicList clipToSplice) {
+		long frame = Math.min(current.frameCount, PlanarOps.framesBefore(startSpliceTime, getSampleRate()) + 1);
+		spliceInAtFrame(frame, clipToSplice);
+	}
+
+	/**
+	 * Splice a clip in so that its first frame becomes frame number frame.  Splicing in another Timeline
+	 * adds its current regions, so later edits to it do not affect this one.
+	 * @param frame Frame to insert before; 0 inserts at the start, getFrameCount() appends
+	 * @param clipToSplice The clip.  It must not be modified while the timeline refers to it.
+	 * @throws IndexOutOfBoundsException if frame is not inside the timeline
+	 */
+	public void spliceInAtFrame(long frame, MusicList clipToSplice) {
+		checkRange(frame, 0);
+		if (clipToSplice.getNumChannels() != numChannels) {
+			throw new IllegalArgumentException("Audio being spliced does not have the correct number of channels");
+		}
+		List<Region> regions = new ArrayList<Region>();
+		addRange(regions, 0, frame);
+		regions.addAll(Arrays.asList(regionsOf(clipToSplice, current.sampleRate)));
+		addRange(regions, frame, current.frameCount);
+		commit(regions, current.sampleRate);
+	}
+
+	/**
+	 * Multiply the gain of a range of frames
+	 * @param startFrame First frame to change
+	 * @param frameCount Number of frames to change
+	 * @param gain Linear gain to apply (1 is unchanged)
+	 * @throws IndexOutOfBoundsException if the range is not inside the timeline
+	 */
+	public void applyGain(long startFrame, long frameCount, float gain) {
+		checkRange(startFrame, frameCount);
+		List<Region> regions = new ArrayList<Region>();
+		addRange(regions, 0, startFrame);
+		int first = regions.size();
+		addRange(regions, startFrame, startFrame + frameCount);
+		for (int i = first; i < regions.size(); i++) {
+			Region region = regions.get(i);
+			regions.set(i, new Region(region.source, region.sourceStart, region.length, region.gain * gain, region.reversed));
+		}
+		addRange(regions, startFrame + frameCount, current.frameCount);
+		commit(regions, current.sampleRate);
+	}
+
+	/**
+	 * Reverse the timeline: the regions play in the opposite order, each one backwards
+	 */
+	public void reverse() {
+		List<Region> regions = new ArrayList<Region>();
+		for (int i = current.regions.length - 1; i >= 0; i--) {
+			Region region = current.regions[i];
+			regions.add(new Region(region.source, region.sourceStart, region.length, region.gain, !region.reversed));
+		}
+		commit(regions, current.sampleRate);
+	}
+
+	/**
+	 * Change the speed of the sound.  Only the sample rate of the timeline changes.
+	 * @param percentChange  How much to change the speed.  1.0 is no change
+	 */
+	public void changeSpeed(float percentChange) {
+		commit(Arrays.asList(current.regions), current.sampleRate * percentChange);
+	}
+
+	/**
+	 * Returns true if there is an edit to undo
+	 * @return whether undo will do anything
+	 */
+	public boolean canUndo() {
+		return !undoStack.isEmpty();
+	}
+
+	/**
+	 * Returns true if there is an undone edit to redo
+	 * @return whether redo will do anything
+	 */
+	public boolean canRedo() {
+		return !redoStack.isEmpty();
+	}
+
+	/**
+	 * Go back to the version before the last edit
+	 * @return false if there was nothing to undo
+	 */
+	public boolean undo() {
+		if (undoStack.isEmpty()) {
+			return false;
+		}
+		redoStack.push(current);
+		current = undoStack.pop();
+		return true;
+	}
+
+	/**
+	 * Repeat the last undone edit.  Any new edit after an undo clears the edits that could be redone.
+	 * @return false if there was nothing to redo
+	 */
+	public boolean redo() {
+		if (redoStack.isEmpty()) {
+			return false;
+		}
+		undoStack.push(current);
+		current = redoStack.pop();
+		return true;
+	}
+
+	/**
+	 * Not supported: a timeline only refers to whole clips.  Append a MusicList instead.
+	 * @param sample The sample to add
+	 */
+	public void addSample(float sample) {
+		throw new UnsupportedOperationException("Timeline regions refer to source clips; append a MusicList instead");
+	}
+
+	/**
+	 * Not supported: a timeline only refers to whole clips.  Append a MusicList instead.
+	 * @param sample Array of samples (one for each channel) to add
+	 */
+	public void addSample(float[] sample) {
+		throw new UnsupportedOperationException("Timeline regions refer to source clips; append a MusicList instead");
+	}
+
+	/**
+	 * Return an iterator that renders the current version frame by frame, reading each region straight
+	 * from its source.  At most CHUNK_FRAMES frames of a region are held in memory at a time.
+	 * Later edits do not affect an iterator that has already been created.
+	 * @return iterator
+	 */
+	public Iterator<float[]> iterator() {
+		return new RenderIterator(current);
+	}
+
+	/**
+	 * Render the current version into a new MusicLinkedList
+	 * @return the rendered audio
+	 */
+	public MusicLinkedList render() {
+		return toLinkedList();
+	}
+
+	/**
+	 * Returns a timeline with the same regions.  Nothing is copied, and the two timelines can then be
+	 * edited independently; the clone starts with no history.
+	 * @return The cloned timeline
+	 */
+	public MusicList clone() {
+		Timeline copy = new Timeline(current.sampleRate, numChannels);
+		copy.current = current;
+		return copy;
+	}
+
+	@Override
+	protected void replaceContents(MusicLinkedList edited) {
+		if (edited.getNumChannels() != numChannels) {
+			throw new UnsupportedOperationException("A timeline cannot change its number of channels");
+		}
+		commit(Arrays.asList(regionsOf(edited, edited.getSampleRate())), edited.getSampleRate());
+	}
+
+	private void checkRange(long startFrame, long frameCount) {
+		if (startFrame < 0 || frameCount < 0 || startFrame + frameCount > current.frameCount) {
+			throw new IndexOutOfBoundsException("Frames " + startFrame + " .. " + (startFrame + frameCount) + " out of range (" + current.frameCount + " frames)");
+		}
+	}
+
+	/**
+	 * Regions covering the whole of a clip, copied for random access and resampled to a rate if needed
+	 */
+	private Region[] regionsOf(MusicList source, float sampleRate) {
+		if (source instanceof Timeline) {
+			Timeline other = (Timeline) source;
+			if (other.getSampleRate() == sampleRate) {
+				return other.current.regions.clone();
+			}
+		}
+		if (source.getSampleRate() != sampleRate) {
+			source = randomAccessCopy(new StreamingResampler(source, sampleRate), StreamingResampler.resampledLength(source, sampleRate), sampleRate);
+		} else if (!hasRandomAccess(source)) {
+			source = randomAccessCopy(source.iterator(), source.getFrameCount(), sampleRate);
+		}
+		if (source.getFrameCount() == 0) {
+			return new Region[0];
+		}
+		return new Region[] { new Region(source, 0, source.getFrameCount(), 1, false) };
+	}
+
+	/**
+	 * Add the parts of the current regions that cover timeline frames from .. to - 1
+	 */
+	private void addRange(List<Region> out, long from, long to) {
+		long position = 0;
+		for (Region region : current.regions) {
+			long start = Math.max(from, position);
+			long end = Math.min(to, position + region.length);
+			if (start < end) {
+				out.add(region.slice(start - position, end - start));
+			}
+			position += region.length;
+		}
+	}
+
+	/**
+	 * Make a new version the current one, joining neighbouring regions that continue each other
+	 */
+	private void commit(List<Region> regions, float sampleRate) {
+		List<Region> joined = new ArrayList<Region>(regions.size());
+		for (Region region : regions) {
+			Region last = joined.isEmpty() ? null : joined.get(joined.size() - 1);
+			if (last != null && last.continuedBy(region)) {
+				long start = last.reversed ? region.sourceStart : last.sourceStart;
+				joined.set(joined.size() - 1, new Region(last.source, start, last.length + region.length, last.gain, last.reversed));
+			} else {
+				joined.add(region);
+			}
+		}
+		undoStack.push(current);
+		redoStack.clear();
+		current = new Version(joined.toArray(new Region[joined.size()]), sampleRate);
+	}
+
+	/**
+	 * One immutable state of the timeline
+	 */
+	private static class Version {
+		final Region[] regions;
+		final float sampleRate;
+		final long frameCount;
+
+		Version(Region[] regions, float sampleRate) {
+			this.regions = regions;
+			this.sampleRate = sampleRate;
+			long frames = 0;
+			for (Region region : regions) {
+				frames += region.length;
+			}
+			this.frameCount = frames;
+		}
+	}
+
+	/**
+	 * A range of frames of a source clip, played with a gain, forwards or backwards.  Regions are
+	 * immutable, so versions of a timeline share them.
+	 */
+	public static final class Region {
+		private final MusicList source;
+		private final long sourceStart;
+		private final long length;
+		private final float gain;
+		private final boolean reversed;
+
+		Region(MusicList source, long sourceStart, long length, float gain, boolean reversed) {
+			this.source = source;
+			this.sourceStart = sourceStart;
+			this.length = length;
+			this.gain = gain;
+			this.reversed = reversed;
+		}
+
+		/**
+		 * Returns the clip the region reads from
+		 * @return the source clip
+		 */
+		public MusicList getSource() {
+			return source;
+		}
+
+		/**
+		 * Returns the first source frame the region covers (the last one played, if reversed)
+		 * @return frame number in the source
+		 */
+		public long getSourceStart() {
+			return sourceStart;
+		}
+
+		/**
+		 * Returns the number of frames in the region
+		 * @return length in frames
+		 */
+		public long getLength() {
+			return length;
+		}
+
+		/**
+		 * Returns the gain applied to every sample of the region
+		 * @return linear gain
+		 */
+		public float getGain() {
+			return gain;
+		}
+
+		/**
+		 * Returns true if the region plays its source frames backwards
+		 * @return whether the region is reversed
+		 */
+		public boolean isReversed() {
+			return reversed;
+		}
+
+		/**
+		 * The part of this region that plays from offset for length frames
+		 */
+		Region slice(long offset, long length) {
+			if (offset == 0 && length == this.length) {
+				return this;
+			}
+			long start = reversed ? sourceStart + this.length - offset - length : sourceStart + offset;
+			return new Region(source, start, length, gain, reversed);
+		}
+
+		/**
+		 * Returns true if next plays on from the end of this region, so the two can be one region
+		 */
+		boolean continuedBy(Region next) {
+			if (next.source != source || next.gain != gain || next.reversed != reversed) {
+				return false;
+			}
+			return reversed ? next.sourceStart + next.length == sourceStart : sourceStart + length == next.sourceStart;
+		}
+	}
+
+	/**
+	 * Copy frames into a private source that can be read from any frame.  A copy too large for one
+	 * snapshot buffer goes into an UnrolledMusicList, whose reads walk its blocks (but not its frames).
+	 */
+	private MusicList randomAccessCopy(Iterator<float[]> frames, long frameCount, float sampleRate) {
+		if (frameCount * numChannels <= SnapshotMusicList.MAX_COPY_SAMPLES) {
+			return SnapshotMusicList.copyOf(frames, sampleRate, numChannels, frameCount, CHUNK_FRAMES);
+		}
+		UnrolledMusicList copy = new UnrolledMusicList(sampleRate, numChannels);
+		while (frames.hasNext()) {
+			copy.addSample(frames.next());
+		}
+		return copy;
+	}
+
+	/**
+	 * Renders one version region by region, reading each region from its source a chunk at a time in
+	 * the order it plays: forwards from its first frame, or backwards from its last
+	 */
+	private class RenderIterator implements Iterator<float[]> {
+		private final Region[] regions;
+		private int index = -1;
+		private long remaining = 0;
+		private Region region;
+		private float[][] chunk;
+		private int chunkLength = 0;
+		private int chunkPosition = 0;
+
+		RenderIterator(Version version) {
+			this.regions = version.regions;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return remaining > 0 || index + 1 < regions.length;
+		}
+
+		@Override
+		public float[] next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException("Iterator: There is no next element");
+			}
+			if (remaining == 0) {
+				region = regions[++index];
+				remaining = region.length;
+				chunkLength = 0;
+				chunkPosition = 0;
+			}
+			if (chunkPosition == chunkLength) {
+				readChunk();
+			}
+			int i = region.reversed ? chunkLength - 1 - chunkPosition : chunkPosition;
+			float[] frame = new float[numChannels];
+			for (int c = 0; c < numChannels; c++) {
+				frame[c] = chunk[c][i];
+			}
+			chunkPosition++;
+			if (region.gain != 1) {
+				for (int c = 0; c < numChannels; c++) {
+					frame[c] *= region.gain;
+				}
+			}
+			remaining--;
+			return frame;
+		}
+
+		/**
+		 * Read the next chunk of the region in play order: the frames just after those already played,
+		 * or for a reversed region the frames just before them
+		 */
+		private void readChunk() {
+			int length = (int) Math.min(CHUNK_FRAMES, remaining);
+			long start = region.reversed ? region.sourceStart + remaining - length
+					: region.sourceStart + region.length - remaining;
+			if (chunk == null) {
+				chunk = new float[numChannels][CHUNK_FRAMES];
+			}
+			for (int c = 0; c < numChannels; c++) {
+				if (region.source instanceof SnapshotMusicList) {
+					((SnapshotMusicList) region.source).read(c, (int) start, chunk[c], 0, length);
+				} else {
+					((UnrolledMusicList) region.source).read(c, start, chunk[c], 0, length);
+				}
+			}
+			chunkLength = length;
+			chunkPosition = 0;
+		}
+	}
+
+	/**
+	 * Returns true if a source can be read from any frame without walking it, and can be kept as it is
+	 */
+	private static boolean hasRandomAccess(MusicList source) {
+		return source instanceof SnapshotMusicList && !((SnapshotMusicList) source).isCopied();
+	}
+}
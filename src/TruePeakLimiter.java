@@ -0,0 +1,226 @@
+import java.util.Arrays;
+
+/**
+ * Look-ahead true peak limiter.  The input is oversampled 4x with a short polyphase FIR to find
+ * inter-sample peaks, and the gain needed to keep each frame under the ceiling is turned into a
+ * smooth gain curve: a running minimum over the look-ahead window (so reduction starts before the
+ * peak arrives), a slower recovery afterwards (release), and a moving average over the look-ahead
+ * window (so the gain ramps instead of jumping).  All channels share one gain so the image does not
+ * shift.  The output is delayed by getLatency() frames.
+ */
+public class TruePeakLimiter implements AudioProcessor {
+	private static final int OVERSAMPLING = 4;
+	private static final int TAPS_PER_PHASE = 12;
+	private static final double[][] PHASES = interpolationFilter();
+
+	private final int numChannels;
+	private final double ceiling;
+	private final int window;
+	private final double releaseCoefficient;
+	private final int peakDelay;
+	private double inputGain;
+
+	// input history for the oversampling filter, per channel, as a ring written twice over (see framePeak)
+	private final float[][] history;
+	private int historyPosition;
+	// required gains waiting in the running minimum, as a monotonic deque of (index, gain)
+	private final long[] minIndex;
+	private final double[] minGain;
+	private int minHead;
+	private int minSize;
+	private long frameIndex;
+	private double released;
+	// moving average of the released gain over the window
+	private final double[] averageRing;
+	private double averageSum;
+	// audio delay line matching the gain path
+	private final float[][] delay;
+	private int delayPosition;
+
+	/**
+	 * Create a limiter with 1.5 ms of look-ahead and 50 ms release
+	 * @param sampleRate Sample rate of the audio
+	 * @param numChannels Number of channels
+	 * @param ceilingDbtp Ceiling in dB true peak, e.g. -1
+	 */
+	public TruePeakLimiter(float sampleRate, int numChannels, double ceilingDbtp) {
+		this(sampleRate, numChannels, ceilingDbtp, 0.0015, 0.05);
+	}
+
+	/**
+	 * Create a limiter
+	 * @param sampleRate Sample rate of the audio
+	 * @param numChannels Number of channels
+	 * @param ceilingDbtp Ceiling in dB true peak
+	 * @param lookAhead Look-ahead (and attack) time in seconds
+	 * @param release Time in seconds for the gain to recover most of the way after a peak
+	 */
+	public TruePeakLimiter(float sampleRate, int numChannels, double ceilingDbtp, double lookAhead, double release) {
+		this.numChannels = numChannels;
+		this.ceiling = Math.pow(10, ceilingDbtp / 20);
+		this.window = Math.max(1, (int) Math.round(lookAhead * sampleRate));
+		this.releaseCoefficient = Math.exp(-1.0 / Math.max(1, release * sampleRate));
+		this.peakDelay = TAPS_PER_PHASE / 2;
+		this.inputGain = 1;
+		this.history = new float[numChannels][2 * TAPS_PER_PHASE];
+		this.minIndex = new long[window];
+		this.minGain = new double[window];
+		this.averageRing = new double[window];
+		// the gain curve holds each required gain for window frames, and the gain found for a frame
+		// belongs to the input peakDelay frames back, so the audio is held back by both (less the
+		// frame the running minimum already covers)
+		this.delay = new float[numChannels][window + peakDelay - 1];
+		reset();
+	}
+
+	/**
+	 * Set a gain applied to the input before limiting
+	 * @param gain Linear gain
+	 */
+	public void setInputGain(double gain) {
+		this.inputGain = gain;
+	}
+
+	/**
+	 * Measure the true peak of a whole MusicList
+	 * @param list The list to measure
+	 * @return true peak in dBTP
+	 */
+	public static double measureTruePeak(MusicList list) {
+		final double[] peak = new double[1];
+		final int numChannels = list.getNumChannels();
+		final float[][] ring = new float[numChannels][2 * TAPS_PER_PHASE];
+		ProcessorChain.analyze(list, new AudioProcessor() {
+			private int position = 0;
+
+			@Override
+			public void process(float[][] block, int frames) {
+				for (int i = 0; i < frames; i++) {
+					position = (position + 1) % TAPS_PER_PHASE;
+					for (int c = 0; c < numChannels; c++) {
+						ring[c][position] = block[c][i];
+						ring[c][position + TAPS_PER_PHASE] = block[c][i];
+						peak[0] = Math.max(peak[0], framePeak(ring[c], position));
+					}
+				}
+			}
+
+			@Override
+			public int getLatency() {
+				return 0;
+			}
+
+			@Override
+			public void reset() {
+			}
+		});
+		return 20 * Math.log10(peak[0]);
+	}
+
+	@Override
+	public void process(float[][] block, int frames) {
+		for (int i = 0; i < frames; i++) {
+			historyPosition = (historyPosition + 1) % TAPS_PER_PHASE;
+			delayPosition = (delayPosition + 1) % delay[0].length;
+			double peak = 0;
+			for (int c = 0; c < numChannels; c++) {
+				float x = (float) (block[c][i] * inputGain);
+				history[c][historyPosition] = x;
+				history[c][historyPosition + TAPS_PER_PHASE] = x;
+				peak = Math.max(peak, framePeak(history[c], historyPosition));
+				// the oldest delayed frame is in the slot we are about to overwrite
+				float delayed = delay[c][delayPosition];
+				delay[c][delayPosition] = x;
+				block[c][i] = delayed;
+			}
+			double gain = applyGainCurve(peak > ceiling ? ceiling / peak : 1);
+			for (int c = 0; c < numChannels; c++) {
+				block[c][i] = (float) (block[c][i] * gain);
+			}
+		}
+	}
+
+	@Override
+	public int getLatency() {
+		return delay[0].length;
+	}
+
+	@Override
+	public void reset() {
+		for (int c = 0; c < numChannels; c++) {
+			Arrays.fill(history[c], 0);
+			Arrays.fill(delay[c], 0);
+		}
+		Arrays.fill(averageRing, 1);
+		historyPosition = 0;
+		delayPosition = 0;
+		minHead = 0;
+		minSize = 0;
+		frameIndex = 0;
+		released = 1;
+		averageSum = window;
+	}
+
+	/**
+	 * Push one required gain through the running minimum, release and moving average
+	 * @return the gain for the frame leaving the delay line
+	 */
+	private double applyGainCurve(double required) {
+		// running minimum over the last window values
+		if (minSize > 0 && minIndex[minHead] <= frameIndex - window) {
+			minHead = (minHead + 1) % window;
+			minSize--;
+		}
+		while (minSize > 0 && minGain[(minHead + minSize - 1) % window] >= required) {
+			minSize--;
+		}
+		minIndex[(minHead + minSize) % window] = frameIndex;
+		minGain[(minHead + minSize) % window] = required;
+		minSize++;
+		double minimum = minGain[minHead];
+
+		// drop at once, recover slowly; never above the minimum
+		released = minimum < released ? minimum : minimum + (released - minimum) * releaseCoefficient;
+
+		int slot = (int) (frameIndex % window);
+		averageSum += released - averageRing[slot];
+		averageRing[slot] = released;
+		frameIndex++;
+		return averageSum / window;
+	}
+
+	/**
+	 * Largest absolute value of the sample at the centre of the filter history and the oversampled
+	 * points next to it.  Every sample is stored at i and i + TAPS_PER_PHASE, so the last TAPS_PER_PHASE
+	 * samples can be read without wrapping.
+	 */
+	private static double framePeak(float[] ring, int newest) {
+		int end = newest + TAPS_PER_PHASE;
+		double peak = Math.abs(ring[end - TAPS_PER_PHASE / 2]);
+		for (int p = 1; p < OVERSAMPLING; p++) {
+			double[] taps = PHASES[p];
+			double sum = 0;
+			for (int k = 0; k < TAPS_PER_PHASE; k++) {
+				sum += taps[k] * ring[end - k];
+			}
+			peak = Math.max(peak, Math.abs(sum));
+		}
+		return peak;
+	}
+
+	/**
+	 * Windowed-sinc 4x interpolation filter split into its polyphase components
+	 */
+	private static double[][] interpolationFilter() {
+		int length = OVERSAMPLING * TAPS_PER_PHASE;
+		double[][] phases = new double[OVERSAMPLING][TAPS_PER_PHASE];
+		double centre = (length - 1) / 2.0;
+		for (int n = 0; n < length; n++) {
+			double t = (n - centre) / OVERSAMPLING;
+			double sinc = t == 0 ? 1 : Math.sin(Math.PI * t) / (Math.PI * t);
+			double hann = 0.5 - 0.5 * Math.cos(2 * Math.PI * (n + 0.5) / length);
+			phases[n % OVERSAMPLING][n / OVERSAMPLING] = sinc * hann;
+		}
+		return phases;
+	}
+}
@@ -0,0 +1,503 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * MusicList stored as an unrolled linked list: each node is a Block holding up to blockFrames frames in
+ * one float array, interleaved (frame 0 channel 0, frame 0 channel 1, ..., frame 1 channel 0, ...).
+ * A MusicLinkedList allocates one Sample per channel per frame; this allocates one array per thousand or
+ * so frames, and walking the list reads each array front to back.
+ *
+ * Appending, reversing, clipping and splicing work on the chain of blocks as MusicLinkedList does on
+ * its Samples: a block is only split (copying at most one block of frames) where a clip or splice falls
+ * inside it, and blocks left short by a splice are merged with their neighbours when they fit.  The
+ * other editing operations go through a MusicLinkedList copy (see AbstractMusicList).
+ */
+public class UnrolledMusicList extends AbstractMusicList {
+	public static final int DEFAULT_BLOCK_FRAMES = 1024;
+
+	private float sampleRate;
+	private int numChannels;
+	private final int blockFrames;
+	private long numSamples;
+	private Block head;
+	private Block tail;
+
+	public UnrolledMusicList(float sampleRate, int numChannels) {
+		this(sampleRate, numChannels, DEFAULT_BLOCK_FRAMES);
+	}
+
+	public UnrolledMusicList(float sampleRate, int numChannels, int blockFrames) {
+		if (blockFrames <= 0) {
+			throw new IllegalArgumentException("Block size must be positive");
+		}
+		this.sampleRate = sampleRate;
+		this.numChannels = numChannels;
+		this.blockFrames = blockFrames;
+		this.numSamples = 0;
+		this.head = null;
+		this.tail = null;
+	}
+
+	/**
+	 * Copy any MusicList into a new UnrolledMusicList
+	 * @param source The list to copy.  It is not modified.
+	 * @param blockFrames Frames per block
+	 * @return the copy
+	 */
+	public static UnrolledMusicList copyOf(MusicList source, int blockFrames) {
+		UnrolledMusicList copy = new UnrolledMusicList(source.getSampleRate(), source.getNumChannels(), blockFrames);
+		copy.appendAll(source.iterator());
+		return copy;
+	}
+
+	/**
+	 * The number of channels in the SoundList
+	 * @return The number f channels in the SoundList
+	 */
+	public int getNumChannels() {
+		return numChannels;
+	}
+
+	/**
+	 * Returns the sample rate, in samples per second
+	 * @return The sample rate, in samples per second
+	 */
+	public float getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * Returns the number of samples in the MusicList
+	 * @return The number of samples in the MusicList.
+	 */
+	public int getNumSamples() {
+		return FrameTime.toIntFrames(numSamples);
+	}
+
+	/**
+	 * Returns the number of frames in the MusicList
+	 * @return The number of frames in the MusicList.
+	 */
+	public long getFrameCount() {
+		return numSamples;
+	}
+
+	/**
+	 * Returns the number of blocks the frames are stored in
+	 * @return number of blocks
+	 */
+	public int getNumBlocks() {
+		int count = 0;
+		for (Block block = head; block != null; block = block.next) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Change the speed of the sound.  Only the sample rate changes, so no frame is touched.
+	 * @param percentChange  How much to change the speed.  1.0 is no change
+	 */
+	public void changeSpeed(float percentChange) {
+		this.sampleRate = this.sampleRate * percentChange;
+	}
+
+	/**
+	 * Add a single sample to the end of the SoundList.  Throws an exception if the soundlist has more than 1 channel
+	 * @param sample The sample to add
+	 */
+	public void addSample(float sample) {
+		if (numChannels != 1) {
+			throw new IllegalArgumentException("Audio being added does not have the correct number of channels");
+		}
+		Block block = blockWithRoom();
+		block.data[block.start + block.length] = sample;
+		block.length++;
+		numSamples++;
+	}
+
+	/**
+	 * Adds a single sample for each channel to the end of the SoundList.  Throws an exception if the size of the sample
+	 * array is not the same as the number of channels in the sound list
+	 * @param sample Array of samples (one for each channel) to add to the end of the SoundList
+	 */
+	public void addSample(float[] sample) {
+		if (sample.length != numChannels) {
+			throw new IllegalArgumentException("Audio being added does not have the correct number of channels");
+		}
+		Block block = blockWithRoom();
+		System.arraycopy(sample, 0, block.data, (block.start + block.length) * numChannels, numChannels);
+		block.length++;
+		numSamples++;
+	}
+
+	/**
+	 * Reverse the SoundList.  The chain of blocks is turned around and the frames of each block are
+	 * reversed in place.
+	 */
+	public void reverse() {
+		Block previous = null;
+		Block block = head;
+		while (block != null) {
+			Block next = block.next;
+			reverseFrames(block);
+			block.next = previous;
+			previous = block;
+			block = next;
+		}
+		tail = head;
+		head = previous;
+	}
+
+	/**
+	 * Trim the Soundlist, by removing all samples before the startTime, and all samples past the duration.
+	 * Times are rounded to frames as MusicLinkedList.clip rounds them.
+	 * @param startTime Time to start (in seconds)
+	 * @param duration Duration (in seconds)
+	 */
+	public void clip(float startTime, float duration) {
+		long startFrame = Math.min(PlanarOps.framesBefore(startTime, sampleRate), numSamples);
+		clipFrames(startFrame, Math.min(PlanarOps.framesBefore(duration, sampleRate) + 1, numSamples - startFrame));
+	}
+
+	/**
+	 * Trim the SoundList to a range of frames.  Whole blocks outside the range are dropped, and the
+	 * blocks at either end are shortened without moving any samples.
+	 * @param startFrame First frame to keep
+	 * @param frameCount Number of frames to keep
+	 * @throws IndexOutOfBoundsException if the range is not inside the list
+	 */
+	public void clipFrames(long startFrame, long frameCount) {
+		if (startFrame < 0 || frameCount < 0 || startFrame + frameCount > numSamples) {
+			throw new IndexOutOfBoundsException("Frames " + startFrame + " .. " + (startFrame + frameCount) + " out of range (" + numSamples + " frames)");
+		}
+		if (frameCount == 0) {
+			head = null;
+			tail = null;
+			numSamples = 0;
+			return;
+		}
+		Block first = head;
+		while (startFrame >= first.length) {
+			startFrame -= first.length;
+			first = first.next;
+		}
+		first.start += (int) startFrame;
+		first.length -= (int) startFrame;
+		Block last = first;
+		long remaining = frameCount;
+		while (remaining > last.length) {
+			remaining -= last.length;
+			last = last.next;
+		}
+		last.length = (int) remaining;
+		last.next = null;
+		head = first;
+		tail = last;
+		numSamples = frameCount;
+	}
+
+	/**
+	 * Splice a new SoundList into this soundList after the same frame as MusicLinkedList.spliceIn.  The
+	 * clip's frames are copied, resampled through a StreamingResampler if its sample rate differs, and the
+	 * clip is not modified.
+	 * @param startSpliceTime Time to start the splice
+	 * @param clipToSplice The other SoundClip to splice in.
+	 */
+	public void spliceIn(float startSpliceTime, MusicList clipToSplice) {
+		long frame = Math.min(numSamples, PlanarOps.framesBefore(startSpliceTime, sampleRate) + 1);
+		// at the same rate spliceInAtFrame could link in the clip's own blocks, so hand it a copy
+		spliceInAtFrame(frame, clipToSplice.getSampleRate() == sampleRate ? copyOf(clipToSplice, blockFrames) : clipToSplice);
+	}
+
+	/**
+	 * Splice another MusicList in so that its first frame becomes frame number frame.  If clipToSplice
+	 * is an UnrolledMusicList with the same sample rate and block size, its blocks are linked in without
+	 * copying and it is left empty.  Otherwise it is copied, through a StreamingResampler if its sample rate differs,
+	 * and not modified.
+	 * @param frame Frame to insert before; 0 inserts at the start, getFrameCount() appends
+	 * @param clipToSplice The other MusicList to splice in
+	 * @throws IndexOutOfBoundsException if frame is not inside the list
+	 */
+	public void spliceInAtFrame(long frame, MusicList clipToSplice) {
+		if (frame < 0 || frame > numSamples) {
+			throw new IndexOutOfBoundsException("Frame " + frame + " out of range (" + numSamples + " frames)");
+		}
+		if (clipToSplice.getNumChannels() != numChannels) {
+			throw new IllegalArgumentException("Audio being spliced does not have the correct number of channels");
+		}
+		UnrolledMusicList clip;
+		if (clipToSplice instanceof UnrolledMusicList && clipToSplice != this && clipToSplice.getSampleRate() == sampleRate
+				&& ((UnrolledMusicList) clipToSplice).blockFrames == blockFrames) {
+			clip = (UnrolledMusicList) clipToSplice;
+		} else {
+			clip = new UnrolledMusicList(sampleRate, numChannels, blockFrames);
+			clip.appendAll(clipToSplice.getSampleRate() == sampleRate ? clipToSplice.iterator() : new StreamingResampler(clipToSplice, sampleRate));
+		}
+		if (clip.head == null) {
+			return;
+		}
+
+		Block before = splitBefore(frame);
+		Block after = (before == null) ? head : before.next;
+		if (before == null) {
+			head = clip.head;
+		} else {
+			before.next = clip.head;
+		}
+		clip.tail.next = after;
+		if (after == null) {
+			tail = clip.tail;
+		}
+		numSamples += clip.numSamples;
+		Block clipTail = clip.tail;
+		clip.head = null;
+		clip.tail = null;
+		clip.numSamples = 0;
+
+		mergeWithNext(clipTail);
+		if (before != null) {
+			mergeWithNext(before);
+		}
+	}
+
+	/**
+	 * Copy a run of samples from one channel into an array
+	 * @param channel The channel to read
+	 * @param start First frame to read
+	 * @param out Array to copy into
+	 * @param offset Index in out of the first sample
+	 * @param length Number of frames to copy
+	 */
+	public void read(int channel, long start, float[] out, int offset, int length) {
+		if (start < 0 || start + length > numSamples) {
+			throw new IndexOutOfBoundsException("Frames " + start + " .. " + (start + length) + " out of range");
+		}
+		Block block = head;
+		while (length > 0 && start >= block.length) {
+			start -= block.length;
+			block = block.next;
+		}
+		int position = (int) start;
+		while (length > 0) {
+			int run = Math.min(length, block.length - position);
+			int index = (block.start + position) * numChannels + channel;
+			for (int i = 0; i < run; i++) {
+				out[offset + i] = block.data[index];
+				index += numChannels;
+			}
+			offset += run;
+			length -= run;
+			block = block.next;
+			position = 0;
+		}
+	}
+
+	/**
+	 * Return an iterator that traverses the entire sample, returning an array floats (one for each channel)
+	 * @return iterator
+	 */
+	public Iterator<float[]> iterator() {
+		return new BlockIterator();
+	}
+
+	/**
+	 * Return an iterator that traverses a single channel of the list
+	 * @param channel The channel to traverse
+	 * @return the iterator to traverse the list
+	 */
+	public Iterator<Float> iterator(int channel) {
+		if (channel < 0 || channel >= numChannels) {
+			throw new IndexOutOfBoundsException("Cannot create iterator because channel " + channel + " does not exist");
+		}
+		return new SingleChannelIterator(channel);
+	}
+
+	/**
+	 * Returns a copy of this SoundList, block for block
+	 * @return The cloned SoundList
+	 */
+	public MusicList clone() {
+		UnrolledMusicList copy = new UnrolledMusicList(sampleRate, numChannels, blockFrames);
+		for (Block block = head; block != null; block = block.next) {
+			Block newBlock = copy.newBlock();
+			System.arraycopy(block.data, block.start * numChannels, newBlock.data, 0, block.length * numChannels);
+			newBlock.length = block.length;
+		}
+		copy.numSamples = numSamples;
+		return copy;
+	}
+
+	@Override
+	protected void replaceContents(MusicLinkedList edited) {
+		this.sampleRate = edited.getSampleRate();
+		this.numChannels = edited.getNumChannels();
+		this.head = null;
+		this.tail = null;
+		this.numSamples = 0;
+		appendAll(edited.iterator());
+	}
+
+	private void appendAll(Iterator<float[]> frames) {
+		while (frames.hasNext()) {
+			addSample(frames.next());
+		}
+	}
+
+	/**
+	 * Returns the tail block if it has room for another frame, otherwise a new empty tail block
+	 */
+	private Block blockWithRoom() {
+		if (tail == null || tail.start + tail.length == blockFrames) {
+			return newBlock();
+		}
+		return tail;
+	}
+
+	private Block newBlock() {
+		Block block = new Block(new float[blockFrames * numChannels]);
+		if (tail == null) {
+			head = block;
+		} else {
+			tail.next = block;
+		}
+		tail = block;
+		return block;
+	}
+
+	/**
+	 * Make frame the first frame of a block, splitting the block it falls in if needed
+	 * @param frame Frame number, 0 .. numSamples
+	 * @return the block that ends just before frame, or null if frame is 0
+	 */
+	private Block splitBefore(long frame) {
+		Block previous = null;
+		Block block = head;
+		while (block != null && frame >= block.length) {
+			frame -= block.length;
+			previous = block;
+			block = block.next;
+		}
+		if (block == null || frame == 0) {
+			return previous;
+		}
+		int keep = (int) frame;
+		Block rest = new Block(new float[blockFrames * numChannels]);
+		rest.length = block.length - keep;
+		System.arraycopy(block.data, (block.start + keep) * numChannels, rest.data, 0, rest.length * numChannels);
+		block.length = keep;
+		rest.next = block.next;
+		block.next = rest;
+		if (tail == block) {
+			tail = rest;
+		}
+		return block;
+	}
+
+	/**
+	 * Move the frames of the following block into this one if they fit, and drop the emptied block
+	 */
+	private void mergeWithNext(Block block) {
+		Block next = block.next;
+		if (next == null || block.length + next.length > blockFrames) {
+			return;
+		}
+		if (block.start + block.length + next.length > blockFrames) {
+			System.arraycopy(block.data, block.start * numChannels, block.data, 0, block.length * numChannels);
+			block.start = 0;
+		}
+		System.arraycopy(next.data, next.start * numChannels, block.data, (block.start + block.length) * numChannels, next.length * numChannels);
+		block.length += next.length;
+		block.next = next.next;
+		if (tail == next) {
+			tail = block;
+		}
+	}
+
+	private void reverseFrames(Block block) {
+		float[] data = block.data;
+		int low = block.start * numChannels;
+		int high = (block.start + block.length - 1) * numChannels;
+		while (low < high) {
+			for (int c = 0; c < numChannels; c++) {
+				float swap = data[low + c];
+				data[low + c] = data[high + c];
+				data[high + c] = swap;
+			}
+			low += numChannels;
+			high -= numChannels;
+		}
+	}
+
+	/**
+	 * Node of the unrolled list: frames start .. start + length - 1 of data are in use
+	 */
+	private static class Block {
+		final float[] data;
+		int start;
+		int length;
+		Block next;
+
+		Block(float[] data) {
+			this.data = data;
+		}
+	}
+
+	/**
+	 * Iterator for all channels
+	 */
+	private class BlockIterator implements Iterator<float[]> {
+		private Block block = head;
+		private int position = 0;
+
+		@Override
+		public boolean hasNext() {
+			while (block != null && position == block.length) {
+				block = block.next;
+				position = 0;
+			}
+			return block != null;
+		}
+
+		@Override
+		public float[] next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException("Iterator: There is no next element");
+			}
+			float[] returnData = new float[numChannels];
+			System.arraycopy(block.data, (block.start + position) * numChannels, returnData, 0, numChannels);
+			position++;
+			return returnData;
+		}
+	}
+
+	/**
+	 * Iterator for single channel
+	 */
+	private class SingleChannelIterator implements Iterator<Float> {
+		private final int channel;
+		private Block block = head;
+		private int position = 0;
+
+		SingleChannelIterator(int channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (block != null && position == block.length) {
+				block = block.next;
+				position = 0;
+			}
+			return block != null;
+		}
+
+		@Override
+		public Float next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException("Iterator: There is no next element");
+			}
+			return block.data[(block.start + position++) * numChannels + channel];
+		}
+	}
+}